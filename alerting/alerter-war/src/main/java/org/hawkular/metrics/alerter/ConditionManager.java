@@ -16,11 +16,6 @@
  */
 package org.hawkular.metrics.alerter;
 
-import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
-import static org.hawkular.metrics.model.MetricType.COUNTER_RATE;
-import static org.hawkular.metrics.model.MetricType.GAUGE_RATE;
-
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -31,6 +26,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -50,13 +46,9 @@ import org.hawkular.alerts.api.services.DefinitionsListener;
 import org.hawkular.alerts.api.services.DefinitionsService;
 import org.hawkular.metrics.alerter.ConditionExpression.EvalType;
 import org.hawkular.metrics.alerter.ConditionExpression.Query;
+import org.hawkular.metrics.alerter.QueryEngine.QueryKey;
 import org.hawkular.metrics.core.service.MetricsService;
 import org.hawkular.metrics.model.BucketPoint;
-import org.hawkular.metrics.model.Buckets;
-import org.hawkular.metrics.model.MetricId;
-import org.hawkular.metrics.model.MetricType;
-import org.hawkular.metrics.model.Percentile;
-import org.hawkular.metrics.model.exception.RuntimeApiError;
 import org.infinispan.manager.EmbeddedCacheManager;
 import org.infinispan.notifications.Listener;
 import org.infinispan.notifications.cachemanagerlistener.annotation.ViewChanged;
@@ -96,6 +88,12 @@ public class ConditionManager {
 
     ScheduledThreadPoolExecutor expressionExecutor;
     Map<ExternalCondition, ScheduledFuture<?>> expressionFutures = new HashMap<>();
+    Map<ExternalCondition, ExpressionRunner> expressionRunners = new HashMap<>();
+
+    /**
+     * Shared by all of the running expressions so that identical queries are evaluated only once
+     */
+    QueryEngine queryEngine;
 
     /**
      * Indicate if the deployment is on a clustering scenario and if so if this is the coordinator node
@@ -160,6 +158,7 @@ public class ConditionManager {
         log.infof("Starting Hawkular Metrics External Alerter, distributed=%s", distributed);
 
         expressionExecutor = new ScheduledThreadPoolExecutor(THREAD_POOL_SIZE);
+        queryEngine = new QueryEngine(metrics);
 
         refresh();
 
@@ -196,11 +195,17 @@ public class ConditionManager {
 
         if (null != expressionFutures) {
             expressionFutures.values().forEach(f -> f.cancel(true));
+            expressionFutures.clear();
+            expressionRunners.clear();
         }
         if (null != expressionExecutor) {
             expressionExecutor.shutdown();
             expressionExecutor = null;
         }
+        if (null != queryEngine) {
+            queryEngine.clear();
+            queryEngine = null;
+        }
     }
 
     private synchronized void refresh() {
@@ -246,8 +251,9 @@ public class ConditionManager {
 
                                     ConditionExpression expression = ConditionExpression
                                             .toObject(externalCondition.getExpression());
-                                    ExpressionRunner runner = new ExpressionRunner(metrics, alerts, trigger,
+                                    ExpressionRunner runner = new ExpressionRunner(queryEngine, alerts, trigger,
                                             externalCondition, expression);
+                                    expressionRunners.put(externalCondition, runner);
                                     expressionFutures.put(
                                             externalCondition,
                                             expressionExecutor.scheduleAtFixedRate(runner, 0L,
@@ -275,8 +281,16 @@ public class ConditionManager {
                 }
             }
             expressionFutures.keySet().removeAll(temp);
+            expressionRunners.keySet().removeAll(temp);
             temp.clear();
 
+            // release the query windows no longer used by any expression
+            Set<QueryKey> activeKeys = new HashSet<>();
+            expressionRunners.values().forEach(r -> activeKeys.addAll(r.queryKeys.values()));
+            queryEngine.retainAll(activeKeys);
+            log.debugf("Evaluating [%s] distinct queries for [%s] External Metrics Conditions", queryEngine.size(),
+                    expressionRunners.size());
+
         } catch (Exception e) {
             log.error("Failed to fetch Triggers for scheduling metrics conditions.", e);
         }
@@ -285,24 +299,33 @@ public class ConditionManager {
     private static class ExpressionRunner implements Runnable {
         private final Logger log = Logger.getLogger(ConditionManager.ExpressionRunner.class);
 
-        private MetricsService metricsService;
+        private QueryEngine queryEngine;
         private AlertsService alertsService;
-        private Trigger trigger;
         private ExternalCondition externalCondition;
         private ConditionExpression expression;
 
+        // Map of query name to the key of its shared query window
+        private Map<String, QueryKey> queryKeys;
+
+        private final AtomicBoolean running = new AtomicBoolean(false);
+
         // Map of quiet metric names to count of remaining quiet evals
         private transient Map<String, Integer> quietMap;
 
-        public ExpressionRunner(MetricsService metrics, AlertsService alerts, Trigger trigger,
+        public ExpressionRunner(QueryEngine queryEngine, AlertsService alerts, Trigger trigger,
                 ExternalCondition externalCondition,
                 ConditionExpression expression) {
             super();
-            this.metricsService = metrics;
+            this.queryEngine = queryEngine;
             this.alertsService = alerts;
-            this.trigger = trigger;
             this.externalCondition = externalCondition;
             this.expression = expression;
+            this.queryKeys = new HashMap<>();
+            boolean perMetric = EvalType.EACH == expression.getEvalType();
+            for (Query q : expression.getQueries()) {
+                queryKeys.put(q.getName(),
+                        QueryEngine.key(trigger.getTenantId(), q, perMetric, expression.getEvaluator()));
+            }
             if (expression.getQuietCount() > 0) {
                 quietMap = new HashMap<>();
             }
@@ -310,159 +333,50 @@ public class ConditionManager {
 
         @Override
         public void run() {
-            if (EvalType.ALL == expression.getEvalType()) {
-                runOnAll();
-
-            } else {
-                runOnEach();
+            // evaluation is asynchronous, don't pile up evaluations if the previous one has not yet finished
+            if (!running.compareAndSet(false, true)) {
+                log.debugf("Skipping, previous evaluation still running for %s", expression);
+                return;
             }
-        }
 
-        @SuppressWarnings("unchecked")
-        private void runOnAll() {
-            try {
-                long now = System.currentTimeMillis();
-                Map<String, BucketPoint> queryResults = new HashMap<>();
-                for (Query q : expression.getQueries()) {
-                    MetricType<?> type = q.getMetricsType();
-                    boolean isAvail = AVAILABILITY == type;
-                    boolean isRate = COUNTER_RATE == type || GAUGE_RATE == type;
-                    if (isRate) {
-                        type = (COUNTER_RATE == type) ? MetricType.COUNTER : MetricType.GAUGE;
-                    }
-                    List<String> metrics = isEmpty(q.getMetrics()) ? null : new ArrayList<>(q.getMetrics());
-                    String tags = q.getTags();
-                    long end = now - q.getMetricsOffset().toMillis();
-                    long start = end - q.getMetricsDuration().toMillis();
-                    List<Percentile> percentiles = q.getMetricsPercentiles();
-
-                    List<? extends BucketPoint> result;
-
-                    if (isAvail) {
-                        result = findMetricsByNameOrTags(trigger.getTenantId(), metrics,
-                                tags, AVAILABILITY)
-                                .toList()
-                                .flatMap(metricIds -> {
-                                    if (metricIds.size() != 1) {
-                                        String err = "Only one Availability metric currently supported. Found ["
-                                                + metricIds.size() + "] using metrics=" + metrics + " tags=" + tags;
-                                        throw new IllegalArgumentException(err);
-                                    }
-                                    return metricsService.findAvailabilityStats(metricIds.get(0), start, end,
-                                            Buckets.fromCount(start, end, 1));
-                                })
-                                .toBlocking()
-                                .firstOrDefault(Collections.EMPTY_LIST);
-
-                    } else {
-                        // Note, stacked is always false as we are already limiting to a single bucket
-                        result = findMetricsByNameOrTags(trigger.getTenantId(), metrics, tags,
-                                (MetricType<Double>) type)
-                                        .toList()
-                                        .flatMap(metricIds -> metricsService.findNumericStats(metricIds, start, end,
-                                                Buckets.fromCount(start, end, 1), percentiles, false, isRate))
-                                        .toBlocking()
-                                        .firstOrDefault(Collections.EMPTY_LIST);
-                    }
-
-                    if (result.size() != 1) {
-                        throw new IllegalStateException(
-                                "Failed to retrieve proper data " + result + " for query [%s]" + q.getName());
-                    }
-
-                    if (log.isDebugEnabled()) {
-                        log.debugf("Performing Query [%s]", q.getName());
-                        log.debugf("        Type : %s (rate=%s)", type, isRate);
-                        log.debugf("     Metrics : %s", metrics);
-                        log.debugf("        Tags : %s", tags);
-                        log.debugf("      Bucket : %s", Buckets.fromCount(start, end, 1));
-                        log.debugf(" Percentiles : %s", percentiles);
-                    }
-
-                    queryResults.put(q.getName(), result.get(0));
-                }
-
-                log.debugf("Query Results: %s", queryResults);
-
-                evaluate("", queryResults, expression);
-
-            } catch (Throwable t) {
-                if (log.isDebugEnabled()) {
-                    t.printStackTrace();
-                }
-                log.warnf("Failed data fetch for %s: %s", expression, t.getMessage());
-            }
+            long now = System.currentTimeMillis();
+            Observable.from(expression.getQueries())
+                    .flatMap(q -> queryEngine.query(queryKeys.get(q.getName()), now)
+                            .map(result -> Collections.singletonMap(q.getName(), result)))
+                    .collect(HashMap<String, Map<String, BucketPoint>>::new,
+                            (rMap, resultMap) -> rMap.putAll(resultMap))
+                    .doAfterTerminate(() -> running.set(false))
+                    .subscribe(
+                            queryResults -> {
+                                log.debugf("Query Results: %s", queryResults);
+                                if (EvalType.ALL == expression.getEvalType()) {
+                                    evaluate("", toAllResults(queryResults), expression);
+                                } else {
+                                    evaluateEach("", queryResults, expression.getEvaluator());
+                                }
+                            },
+                            t -> {
+                                if (log.isDebugEnabled()) {
+                                    t.printStackTrace();
+                                }
+                                log.warnf("Failed data fetch for %s: %s", expression, t.getMessage());
+                            });
         }
 
-        @SuppressWarnings("unchecked")
-        private void runOnEach() {
-            try {
-                long now = System.currentTimeMillis();
-                Map<String, Map<String, List<? extends BucketPoint>>> queryResults = new HashMap<>();
-                for (Query q : expression.getQueries()) {
-                    MetricType<?> type = q.getMetricsType();
-                    boolean isAvail = AVAILABILITY == type;
-                    boolean isRate = COUNTER_RATE == type || GAUGE_RATE == type;
-                    if (isRate) {
-                        type = (COUNTER_RATE == type) ? MetricType.COUNTER : MetricType.GAUGE;
-                    }
-                    List<String> metrics = isEmpty(q.getMetrics()) ? null : new ArrayList<>(q.getMetrics());
-                    String tags = q.getTags();
-                    long end = now - q.getMetricsOffset().toMillis();
-                    long start = end - q.getMetricsDuration().toMillis();
-                    List<Percentile> percentiles = q.getMetricsPercentiles();
-                    Observable<Map<String, List<? extends BucketPoint>>> oResult;
-                    Map<String, List<? extends BucketPoint>> result;
-
-                    if (isAvail) {
-                        oResult = findMetricsByNameOrTags(trigger.getTenantId(), metrics, tags, AVAILABILITY)
-                                .flatMap(metricId -> metricsService.findAvailabilityStats(metricId, start, end,
-                                        Buckets.fromCount(start, end, 1))
-                                        .map(bucketPoints -> Collections.singletonMap(metricId.getName(),
-                                                bucketPoints)))
-                                .collect(HashMap::new, (rMap, statsMap) -> rMap.putAll(statsMap));
-
-                    } else {
-                        // Note, stacked is always false as we are already limiting to a single bucket
-                        oResult = findMetricsByNameOrTags(trigger.getTenantId(),
-                                metrics, tags, (MetricType<Double>) type)
-                                        .flatMap(metricId -> metricsService
-                                                .findNumericStats(Collections.singletonList(metricId),
-                                                        start, end, Buckets.fromCount(start, end, 1), percentiles,
-                                                        false, isRate)
-                                                .map(bucketPoints -> Collections.singletonMap(metricId.getName(),
-                                                        bucketPoints)))
-                                        .collect(HashMap::new, (rMap, statsMap) -> rMap.putAll(statsMap));
-                    }
-
-                    result = oResult.toBlocking().firstOrDefault(Collections.EMPTY_MAP);
-
-                    if (log.isDebugEnabled()) {
-                        log.debugf("Performing Query [%s]", q.getName());
-                        log.debugf("        Type : %s (rate=%s)", type, isRate);
-                        log.debugf("     Metrics : %s", metrics);
-                        log.debugf("        Tags : %s", tags);
-                        log.debugf("      Bucket : %s", Buckets.fromCount(start, end, 1));
-                        log.debugf(" Percentiles : %s", percentiles);
-                    }
-
-                    queryResults.put(q.getName(), result);
-                }
-
-                log.debugf("Query Results: %s", queryResults);
-
-                ConditionEvaluator evaluator = expression.getEvaluator();
-                evaluateEach("", queryResults, evaluator);
-
-            } catch (Throwable t) {
-                if (log.isDebugEnabled()) {
-                    t.printStackTrace();
+        private Map<String, BucketPoint> toAllResults(Map<String, Map<String, BucketPoint>> queryResults) {
+            Map<String, BucketPoint> result = new HashMap<>();
+            for (Map.Entry<String, Map<String, BucketPoint>> entry : queryResults.entrySet()) {
+                BucketPoint bucketPoint = entry.getValue().get(QueryEngine.ALL_METRICS);
+                if (null == bucketPoint) {
+                    throw new IllegalStateException(
+                            "Failed to retrieve proper data " + entry.getValue() + " for query " + entry.getKey());
                 }
-                log.warnf("Failed data fetch for %s: %s", expression, t.getMessage());
+                result.put(entry.getKey(), bucketPoint);
             }
+            return result;
         }
 
-        private void evaluateEach(String target, Map<String, Map<String, List<? extends BucketPoint>>> queryResults,
+        private void evaluateEach(String target, Map<String, Map<String, BucketPoint>> queryResults,
                 ConditionEvaluator evaluator) {
 
             // get the Set of metrics common to all of the queries
@@ -483,7 +397,7 @@ public class ConditionManager {
                 preparedCondition.clear();
 
                 for (String queryName : queryResults.keySet()) {
-                    metricQueryResults.put(queryName, queryResults.get(queryName).get(metric).get(0));
+                    metricQueryResults.put(queryName, queryResults.get(queryName).get(metric));
                 }
 
                 try {
@@ -564,34 +478,6 @@ public class ConditionManager {
 
             return isQuiet;
         }
-
-        private boolean isEmpty(Collection<?> c) {
-            return null == c || c.isEmpty();
-        }
-
-        private boolean isEmpty(String s) {
-            return null == s || s.trim().isEmpty();
-        }
-
-        private <T> Observable<MetricId<T>> findMetricsByNameOrTags(String tenantId, List<String> metricNames,
-                String tags, MetricType<T> type) {
-
-            if (isEmpty(metricNames) && isEmpty(tags)) {
-                return Observable.error(new RuntimeApiError("Either metrics or tags parameter must be used"));
-            }
-
-            if (!isEmpty(metricNames)) {
-                if (!isEmpty(tags)) {
-                    return Observable.error(new RuntimeApiError("Cannot use both the metrics and tags parameters"));
-                }
-
-                return Observable.from(metricNames)
-                        .map(id -> new MetricId<>(tenantId, type, id));
-            }
-
-            // Tags case
-            return metricsService.findMetricIdentifiersWithFilters(tenantId, type, tags);
-        }
     }
 
 }
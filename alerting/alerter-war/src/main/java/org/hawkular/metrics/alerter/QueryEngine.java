@@ -0,0 +1,500 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.alerter;
+
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER_RATE;
+import static org.hawkular.metrics.model.MetricType.GAUGE_RATE;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hawkular.metrics.alerter.ConditionEvaluator.QueryFunc;
+import org.hawkular.metrics.alerter.ConditionExpression.Query;
+import org.hawkular.metrics.core.service.MetricsService;
+import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.model.BucketPoint;
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.Percentile;
+import org.hawkular.metrics.model.exception.RuntimeApiError;
+import org.jboss.logging.Logger;
+
+import rx.Observable;
+
+/**
+ * Executes the {@link Query queries} of the running {@link ConditionExpression}s. Queries are identified by a
+ * {@link QueryKey} (tenant, type, metrics or tags, duration, offset, percentiles) and every trigger using an identical
+ * query shares the same {@link QueryWindow}, so the load on the metrics service grows with the number of distinct
+ * queries rather than with the number of triggers.
+ * <p>
+ * When the requested aggregates can be merged (min, max, avg, sum and samples) the window is maintained
+ * incrementally: each metric keeps one partial {@link NumericBucketPoint} per step and only the steps that are new
+ * since the previous evaluation (plus {@link #WINDOW_REFETCH} trailing steps, to pick up late data) are read. The
+ * rates of a step depend on the last data point of the previous one, the reads of rate partials start at that data
+ * point. The end of such a window is aligned to {@link #WINDOW_STEP}, so that its partials line up and triggers
+ * firing in the same step share one evaluation. The data points of the current step are therefore only taken into
+ * account once it is over, an incremental window lags behind the evaluation time by up to one step.
+ * <p>
+ * Median, percentiles and availability are not mergeable and are computed over the whole window, which ends at the
+ * evaluation time.
+ * </p>
+ * All results are returned as {@link Observable}s, nothing here blocks.
+ *
+ * @author Jay Shaughnessy
+ * @author Lucas Ponce
+ */
+public class QueryEngine {
+    private static final Logger log = Logger.getLogger(QueryEngine.class);
+
+    /** Key of the single result entry returned for {@link ConditionExpression.EvalType#ALL} queries */
+    public static final String ALL_METRICS = "_ALL_";
+
+    private static final Long WINDOW_STEP;
+    private static final String WINDOW_STEP_DEFAULT = "60000";
+    private static final String WINDOW_STEP_PROPERTY = "hawkular-metrics.alerter.window-step";
+
+    private static final Integer WINDOW_REFETCH;
+    private static final String WINDOW_REFETCH_DEFAULT = "1";
+    private static final String WINDOW_REFETCH_PROPERTY = "hawkular-metrics.alerter.window-refetch";
+
+    static {
+        long step;
+        try {
+            step = Long.valueOf(System.getProperty(WINDOW_STEP_PROPERTY, WINDOW_STEP_DEFAULT));
+        } catch (Exception e) {
+            step = Long.valueOf(WINDOW_STEP_DEFAULT);
+        }
+        WINDOW_STEP = step > 0 ? step : Long.valueOf(WINDOW_STEP_DEFAULT);
+
+        int refetch;
+        try {
+            refetch = Integer.valueOf(System.getProperty(WINDOW_REFETCH_PROPERTY, WINDOW_REFETCH_DEFAULT));
+        } catch (Exception e) {
+            refetch = Integer.valueOf(WINDOW_REFETCH_DEFAULT);
+        }
+        WINDOW_REFETCH = refetch >= 0 ? refetch : Integer.valueOf(WINDOW_REFETCH_DEFAULT);
+    }
+
+    private final MetricsService metricsService;
+    private final long step;
+    private final int refetch;
+    private final Map<QueryKey, QueryWindow> windows = new ConcurrentHashMap<>();
+
+    public QueryEngine(MetricsService metricsService) {
+        this(metricsService, WINDOW_STEP, WINDOW_REFETCH);
+    }
+
+    QueryEngine(MetricsService metricsService, long step, int refetch) {
+        this.metricsService = metricsService;
+        this.step = step;
+        this.refetch = refetch;
+    }
+
+    /**
+     * @param tenantId The tenant running the query
+     * @param query The query
+     * @param perMetric true for {@link ConditionExpression.EvalType#EACH}, false for
+     * {@link ConditionExpression.EvalType#ALL}
+     * @param evaluator The evaluator of the expression, used to determine which aggregates are needed
+     * @return The key identifying the shared window for this query
+     */
+    public static QueryKey key(String tenantId, Query query, boolean perMetric, ConditionEvaluator evaluator) {
+        return new QueryKey(tenantId, query, perMetric, isMergeable(query, evaluator));
+    }
+
+    /**
+     * A query is mergeable if its result can be computed from the partial aggregates of sub-intervals. Median and
+     * percentiles can't, and availability durations depend on the neighbouring data points.
+     */
+    static boolean isMergeable(Query query, ConditionEvaluator evaluator) {
+        if (AVAILABILITY == query.getMetricsType() || !query.getMetricsPercentiles().isEmpty()) {
+            return false;
+        }
+        if (null == evaluator) {
+            return true;
+        }
+        for (QueryFunc qf : evaluator.getQueryVars().values()) {
+            if (qf.getQueryName().equals(query.getName())
+                    && (qf.getFunction().startsWith("%")
+                            || ConditionExpression.Function.median.name().equals(qf.getFunction()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param key The query key, see {@link #key(String, Query, boolean, ConditionEvaluator)}
+     * @param now The evaluation time
+     * @return An Observable emitting a single Map of metricName => aggregated BucketPoint. For queries that are not
+     * per metric the Map holds a single entry keyed by {@link #ALL_METRICS}.
+     */
+    public Observable<Map<String, BucketPoint>> query(QueryKey key, long now) {
+        QueryWindow window = windows.computeIfAbsent(key, k -> new QueryWindow(k, isIncremental(k)));
+        long end = window.incremental ? ((now - key.offset) / step) * step : now - key.offset;
+        return window.get(end);
+    }
+
+    /**
+     * Drop the windows not used by any of the supplied keys.
+     */
+    public void retainAll(Collection<QueryKey> keys) {
+        windows.keySet().retainAll(keys);
+    }
+
+    public void clear() {
+        windows.clear();
+    }
+
+    public int size() {
+        return windows.size();
+    }
+
+    private boolean isIncremental(QueryKey key) {
+        return key.mergeable && key.duration >= step && (key.duration % step) == 0;
+    }
+
+    private Observable<Map<String, BucketPoint>> compute(QueryWindow window, long end) {
+        QueryKey key = window.key;
+        long start = end - key.duration;
+
+        if (log.isDebugEnabled()) {
+            log.debugf("Performing Query %s", key);
+            log.debug("      Window : [" + start + ", " + end + ") incremental=" + window.incremental);
+        }
+
+        if (window.incremental) {
+            return computeIncremental(window, start, end);
+        }
+        if (AVAILABILITY == key.type) {
+            return computeAvailability(key, start, end);
+        }
+        return computeNumeric(key, start, end);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Observable<Map<String, BucketPoint>> computeIncremental(QueryWindow window, long start, long end) {
+        QueryKey key = window.key;
+        Observable<Map<String, BucketPoint>> perMetric = findMetricsByNameOrTags(key,
+                (MetricType<Double>) key.numericType())
+                .toList()
+                .doOnNext(metricIds -> window.retainMetrics(metricIds))
+                .flatMap(Observable::from)
+                .flatMap(metricId -> {
+                    MetricWindow metricWindow = window.metricWindow(metricId.getName());
+                    long from = metricWindow.fetchStart(start, step, refetch);
+                    if (from >= end) {
+                        return Observable.just(Collections.singletonMap(metricId.getName(),
+                                metricWindow.update(Collections.emptyList(), start, end)));
+                    }
+                    Buckets buckets = new Buckets(from, step, (int) ((end - from) / step));
+                    return fetchStart(key, metricId, from)
+                            .flatMap(fetchStart -> metricsService.findNumericStats(
+                                    Collections.singletonList(metricId), fetchStart, end, buckets,
+                                    Collections.emptyList(), false, key.isRate()))
+                            .map(partials -> Collections.singletonMap(metricId.getName(),
+                                    metricWindow.update(partials, start, end)));
+                })
+                .collect(HashMap::new, (rMap, statsMap) -> rMap.putAll(statsMap));
+
+        if (key.perMetric) {
+            return perMetric;
+        }
+        return perMetric.map(results -> Collections.singletonMap(ALL_METRICS,
+                merge(start, end, (Collection<NumericBucketPoint>) (Collection<?>) results.values())));
+    }
+
+    /**
+     * The first rate of a step is computed from the last data point of the previous step, a rate read overlaps the
+     * previous steps by one data point. The data points older than the window duration are not taken into account.
+     */
+    private Observable<Long> fetchStart(QueryKey key, MetricId<Double> metricId, long from) {
+        if (!key.isRate()) {
+            return Observable.just(from);
+        }
+        return metricsService.findDataPoints(metricId, from - key.duration, from, 1, Order.DESC)
+                .map(DataPoint::getTimestamp)
+                .defaultIfEmpty(from);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Observable<Map<String, BucketPoint>> computeNumeric(QueryKey key, long start, long end) {
+        // Note, stacked is always false as we are already limiting to a single bucket
+        Buckets buckets = Buckets.fromCount(start, end, 1);
+        if (key.perMetric) {
+            return findMetricsByNameOrTags(key, (MetricType<Double>) key.numericType())
+                    .flatMap(metricId -> metricsService
+                            .findNumericStats(Collections.singletonList(metricId), start, end, buckets,
+                                    key.percentiles, false, key.isRate())
+                            .map(bucketPoints -> Collections.singletonMap(metricId.getName(),
+                                    (BucketPoint) bucketPoints.get(0))))
+                    .collect(HashMap::new, (rMap, statsMap) -> rMap.putAll(statsMap));
+        }
+        return findMetricsByNameOrTags(key, (MetricType<Double>) key.numericType())
+                .toList()
+                .flatMap(metricIds -> metricsService.findNumericStats(metricIds, start, end, buckets,
+                        key.percentiles, false, key.isRate()))
+                .map(bucketPoints -> Collections.singletonMap(ALL_METRICS, (BucketPoint) bucketPoints.get(0)));
+    }
+
+    private Observable<Map<String, BucketPoint>> computeAvailability(QueryKey key, long start, long end) {
+        Buckets buckets = Buckets.fromCount(start, end, 1);
+        if (key.perMetric) {
+            return findMetricsByNameOrTags(key, AVAILABILITY)
+                    .flatMap(metricId -> metricsService.findAvailabilityStats(metricId, start, end, buckets)
+                            .map(bucketPoints -> Collections.singletonMap(metricId.getName(),
+                                    (BucketPoint) bucketPoints.get(0))))
+                    .collect(HashMap::new, (rMap, statsMap) -> rMap.putAll(statsMap));
+        }
+        return findMetricsByNameOrTags(key, AVAILABILITY)
+                .toList()
+                .flatMap(metricIds -> {
+                    if (metricIds.size() != 1) {
+                        String err = "Only one Availability metric currently supported. Found ["
+                                + metricIds.size() + "] using metrics=" + key.metrics + " tags=" + key.tags;
+                        throw new IllegalArgumentException(err);
+                    }
+                    return metricsService.findAvailabilityStats(metricIds.get(0), start, end, buckets);
+                })
+                .map(bucketPoints -> Collections.singletonMap(ALL_METRICS, (BucketPoint) bucketPoints.get(0)));
+    }
+
+    private <T> Observable<MetricId<T>> findMetricsByNameOrTags(QueryKey key, MetricType<T> type) {
+        if (isEmpty(key.metrics) && isEmpty(key.tags)) {
+            return Observable.error(new RuntimeApiError("Either metrics or tags parameter must be used"));
+        }
+
+        if (!isEmpty(key.metrics)) {
+            if (!isEmpty(key.tags)) {
+                return Observable.error(new RuntimeApiError("Cannot use both the metrics and tags parameters"));
+            }
+
+            return Observable.from(key.metrics)
+                    .map(id -> new MetricId<>(key.tenantId, type, id));
+        }
+
+        // Tags case
+        return metricsService.findMetricIdentifiersWithFilters(key.tenantId, type, key.tags);
+    }
+
+    private static boolean isEmpty(Collection<?> c) {
+        return null == c || c.isEmpty();
+    }
+
+    private static boolean isEmpty(String s) {
+        return null == s || s.trim().isEmpty();
+    }
+
+    /**
+     * Merge partial aggregates. Only min, max, sum, samples and the derived avg are set, the median is left undefined.
+     */
+    static NumericBucketPoint merge(long start, long end, Collection<NumericBucketPoint> partials) {
+        double min = Double.NaN;
+        double max = Double.NaN;
+        double sum = 0.0;
+        int samples = 0;
+        for (NumericBucketPoint partial : partials) {
+            if (partial.isEmpty()) {
+                continue;
+            }
+            min = Double.isNaN(min) ? partial.getMin() : Math.min(min, partial.getMin());
+            max = Double.isNaN(max) ? partial.getMax() : Math.max(max, partial.getMax());
+            sum += partial.getSum();
+            samples += partial.getSamples();
+        }
+        if (samples == 0) {
+            return new NumericBucketPoint.Builder(start, end).build();
+        }
+        return new NumericBucketPoint.Builder(start, end)
+                .setMin(min)
+                .setMax(max)
+                .setSum(sum)
+                .setAvg(sum / samples)
+                .setSamples(samples)
+                .build();
+    }
+
+    /**
+     * The evaluation state shared by all the triggers using the same {@link QueryKey}.
+     */
+    private class QueryWindow {
+        private final QueryKey key;
+        private final boolean incremental;
+        private final Map<String, MetricWindow> metricWindows = new ConcurrentHashMap<>();
+
+        private long resultEnd = Long.MIN_VALUE;
+        private Observable<Map<String, BucketPoint>> result;
+
+        QueryWindow(QueryKey key, boolean incremental) {
+            this.key = key;
+            this.incremental = incremental;
+        }
+
+        synchronized Observable<Map<String, BucketPoint>> get(long end) {
+            if (null == result || end != resultEnd) {
+                resultEnd = end;
+                result = compute(this, end).cache();
+            }
+            return result;
+        }
+
+        MetricWindow metricWindow(String metricName) {
+            return metricWindows.computeIfAbsent(metricName, m -> new MetricWindow());
+        }
+
+        void retainMetrics(List<? extends MetricId<?>> metricIds) {
+            Set<String> names = new TreeSet<>();
+            metricIds.forEach(id -> names.add(id.getName()));
+            metricWindows.keySet().retainAll(names);
+        }
+    }
+
+    /**
+     * Partial aggregates of a single metric, one per step, keyed by step start.
+     */
+    static class MetricWindow {
+        private final TreeMap<Long, NumericBucketPoint> partials = new TreeMap<>();
+        private long end = Long.MIN_VALUE;
+
+        synchronized long fetchStart(long windowStart, long step, int refetch) {
+            if (Long.MIN_VALUE == end) {
+                return windowStart;
+            }
+            return Math.max(windowStart, end - (refetch * step));
+        }
+
+        synchronized NumericBucketPoint update(List<NumericBucketPoint> fetched, long windowStart, long windowEnd) {
+            for (NumericBucketPoint partial : fetched) {
+                if (partial.isEmpty()) {
+                    partials.remove(partial.getStart());
+                } else {
+                    partials.put(partial.getStart(), partial);
+                }
+            }
+            end = Math.max(end, windowEnd);
+            partials.headMap(windowStart).clear();
+            return merge(windowStart, windowEnd, partials.subMap(windowStart, windowEnd).values());
+        }
+    }
+
+    /**
+     * Identifies a distinct query. The query name is deliberately not part of the key, it is only meaningful
+     * within its own {@link ConditionExpression}.
+     */
+    public static class QueryKey {
+        private final String tenantId;
+        private final MetricType<?> type;
+        private final Set<String> metrics;
+        private final String tags;
+        private final long duration;
+        private final long offset;
+        private final List<Percentile> percentiles;
+        private final Set<String> percentileQuantiles;
+        private final boolean perMetric;
+        private final boolean mergeable;
+
+        QueryKey(String tenantId, Query query, boolean perMetric, boolean mergeable) {
+            this.tenantId = tenantId;
+            this.type = query.getMetricsType();
+            this.metrics = isEmpty(query.getMetrics()) ? null : new TreeSet<>(query.getMetrics());
+            this.tags = query.getTags();
+            this.duration = query.getMetricsDuration().toMillis();
+            this.offset = query.getMetricsOffset().toMillis();
+            this.percentiles = new ArrayList<>(query.getMetricsPercentiles());
+            this.percentileQuantiles = new TreeSet<>(query.getPercentiles());
+            this.perMetric = perMetric;
+            this.mergeable = mergeable;
+        }
+
+        boolean isRate() {
+            return COUNTER_RATE == type || GAUGE_RATE == type;
+        }
+
+        MetricType<?> numericType() {
+            if (COUNTER_RATE == type) {
+                return MetricType.COUNTER;
+            }
+            if (GAUGE_RATE == type) {
+                return MetricType.GAUGE;
+            }
+            return type;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + tenantId.hashCode();
+            result = prime * result + type.hashCode();
+            result = prime * result + ((metrics == null) ? 0 : metrics.hashCode());
+            result = prime * result + ((tags == null) ? 0 : tags.hashCode());
+            result = prime * result + Long.hashCode(duration);
+            result = prime * result + Long.hashCode(offset);
+            result = prime * result + percentileQuantiles.hashCode();
+            result = prime * result + (perMetric ? 1231 : 1237);
+            result = prime * result + (mergeable ? 1231 : 1237);
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            QueryKey other = (QueryKey) obj;
+            if (!tenantId.equals(other.tenantId))
+                return false;
+            if (type != other.type)
+                return false;
+            if (metrics == null) {
+                if (other.metrics != null)
+                    return false;
+            } else if (!metrics.equals(other.metrics))
+                return false;
+            if (tags == null) {
+                if (other.tags != null)
+                    return false;
+            } else if (!tags.equals(other.tags))
+                return false;
+            return duration == other.duration && offset == other.offset
+                    && percentileQuantiles.equals(other.percentileQuantiles)
+                    && perMetric == other.perMetric && mergeable == other.mergeable;
+        }
+
+        @Override
+        public String toString() {
+            return "QueryKey [tenantId=" + tenantId + ", type=" + type + ", metrics=" + metrics + ", tags=" + tags
+                    + ", duration=" + duration + ", offset=" + offset + ", percentiles=" + percentileQuantiles
+                    + ", perMetric=" + perMetric + ", mergeable=" + mergeable + "]";
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.alerter;
+
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.hawkular.metrics.alerter.ConditionExpression.EvalType;
+import org.hawkular.metrics.alerter.ConditionExpression.Query;
+import org.hawkular.metrics.alerter.QueryEngine.MetricWindow;
+import org.hawkular.metrics.alerter.QueryEngine.QueryKey;
+import org.hawkular.metrics.core.service.MetricsService;
+import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.transformers.RateBucketPointTransformer;
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.NumericBucketPoint.Builder;
+import org.hawkular.metrics.model.Percentile;
+import org.junit.Test;
+
+import rx.Observable;
+
+public class QueryEngineTest {
+
+    @Test
+    public void mergeTest() {
+        NumericBucketPoint p1 = point(0, 10, 1.0, 5.0, 12.0, 4);
+        NumericBucketPoint p2 = new Builder(10, 20).build();
+        NumericBucketPoint p3 = point(20, 30, 0.5, 3.0, 6.0, 2);
+
+        NumericBucketPoint merged = QueryEngine.merge(0, 30, Arrays.asList(p1, p2, p3));
+        assertEquals(0.5, merged.getMin(), 0.0);
+        assertEquals(5.0, merged.getMax(), 0.0);
+        assertEquals(18.0, merged.getSum(), 0.0);
+        assertEquals(3.0, merged.getAvg(), 0.0);
+        assertEquals(6, merged.getSamples().intValue());
+
+        assertTrue(QueryEngine.merge(0, 30, Collections.singletonList(p2)).isEmpty());
+    }
+
+    @Test
+    public void metricWindowTest() {
+        MetricWindow window = new MetricWindow();
+        long step = 10;
+
+        // cold window is fully fetched
+        assertEquals(100, window.fetchStart(100, step, 1));
+        NumericBucketPoint result = window.update(Arrays.asList(point(100, 110, 1.0, 1.0, 1.0, 1),
+                point(110, 120, 2.0, 2.0, 2.0, 1), point(120, 130, 3.0, 3.0, 3.0, 1)), 100, 130);
+        assertEquals(6.0, result.getSum(), 0.0);
+
+        // slide by one step, the trailing step is fetched again to pick up late data
+        assertEquals(120, window.fetchStart(110, step, 1));
+        result = window.update(Arrays.asList(point(120, 130, 3.0, 4.0, 7.0, 2),
+                point(130, 140, 5.0, 5.0, 5.0, 1)), 110, 140);
+        assertEquals(2.0, result.getMin(), 0.0);
+        assertEquals(5.0, result.getMax(), 0.0);
+        assertEquals(14.0, result.getSum(), 0.0);
+        assertEquals(4, result.getSamples().intValue());
+
+        // a gap larger than the window is fully fetched again
+        assertEquals(500, window.fetchStart(500, step, 1));
+        result = window.update(Collections.emptyList(), 500, 530);
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void keyTest() {
+        Query q1 = new Query("q1", Collections.singleton("metric-1"), null, null, "10mn", null);
+        Query q2 = new Query("q2", Collections.singleton("metric-1"), null, null, "10mn", null);
+        Query q3 = new Query("q3", Collections.singleton("metric-1"), null, null, "10mn", "1h");
+
+        ConditionExpression e1 = new ConditionExpression(q1, "1mn", EvalType.ALL, "q(q1,avg) > 50");
+        ConditionExpression e2 = new ConditionExpression(q2, "5mn", EvalType.ALL, "q(q2,max) > 20");
+        ConditionExpression e3 = new ConditionExpression(q2, "5mn", EvalType.ALL, "q(q2,median) > 20");
+
+        // query names and frequencies do not matter, identical queries share the same key
+        assertEquals(QueryEngine.key("t", q1, false, e1.getEvaluator()),
+                QueryEngine.key("t", q2, false, e2.getEvaluator()));
+        assertNotEquals(QueryEngine.key("t", q1, false, e1.getEvaluator()),
+                QueryEngine.key("t2", q1, false, e1.getEvaluator()));
+        assertNotEquals(QueryEngine.key("t", q1, false, e1.getEvaluator()),
+                QueryEngine.key("t", q1, true, e1.getEvaluator()));
+        assertNotEquals(QueryEngine.key("t", q1, false, e1.getEvaluator()),
+                QueryEngine.key("t", q3, false, e1.getEvaluator()));
+
+        assertTrue(QueryEngine.isMergeable(q2, e2.getEvaluator()));
+        assertFalse(QueryEngine.isMergeable(q2, e3.getEvaluator()));
+    }
+
+    @Test
+    public void incrementalRateTest() {
+        long step = 60000;
+        long t0 = 100 * step;
+        // A counter increasing at a varying pace, with a data point every 20s
+        List<DataPoint<Long>> dataPoints = new ArrayList<>();
+        long value = 0;
+        for (int i = 0; i < 60; i++) {
+            value += (i % 7 + 1) * 10;
+            dataPoints.add(new DataPoint<>(t0 - 10 * step + i * 20000, value));
+        }
+        Query query = new Query("q1", "counter_rate", Collections.singleton("counter-1"), null, null, "5mn", null);
+        QueryKey key = QueryEngine.key("t", query, true, null);
+
+        // The window slides one step at a time, the trailing step is read again every time
+        QueryEngine incremental = new QueryEngine(metricsService(dataPoints), step, 1);
+        NumericBucketPoint result = null;
+        for (int i = 0; i <= 5; i++) {
+            result = (NumericBucketPoint) incremental.query(key, t0 + i * step + 30000).toBlocking().single()
+                    .get("counter-1");
+        }
+
+        NumericBucketPoint expected = (NumericBucketPoint) new QueryEngine(metricsService(dataPoints), step, 1)
+                .query(key, t0 + 5 * step + 30000).toBlocking().single().get("counter-1");
+        assertEquals(15, expected.getSamples().intValue());
+        assertEquals(expected.getMin(), result.getMin(), 0.0);
+        assertEquals(expected.getMax(), result.getMax(), 0.0);
+        assertEquals(expected.getSum(), result.getSum(), 0.001);
+        assertEquals(expected.getSamples(), result.getSamples());
+    }
+
+    /**
+     * Serves the data points of a single counter, the same way the metrics service does
+     */
+    @SuppressWarnings("unchecked")
+    private MetricsService metricsService(List<DataPoint<Long>> dataPoints) {
+        return (MetricsService) Proxy.newProxyInstance(MetricsService.class.getClassLoader(),
+                new Class<?>[]{MetricsService.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("findDataPoints") && args.length == 5) {
+                        List<DataPoint<Long>> found = find(dataPoints, (Long) args[1], (Long) args[2]);
+                        if (args[4] == Order.DESC) {
+                            Collections.reverse(found);
+                        }
+                        int limit = (Integer) args[3];
+                        return Observable.from(limit > 0 && limit < found.size() ? found.subList(0, limit) : found);
+                    }
+                    if (method.getName().equals("findNumericStats") && (Boolean) args[6]) {
+                        Observable<? extends DataPoint<? extends Number>> found =
+                                Observable.from(find(dataPoints, (Long) args[1], (Long) args[2]));
+                        return Observable.<Observable<? extends DataPoint<? extends Number>>> just(found)
+                                .compose(new RateBucketPointTransformer(COUNTER, (Buckets) args[3],
+                                        (List<Percentile>) args[4]));
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private List<DataPoint<Long>> find(List<DataPoint<Long>> dataPoints, long start, long end) {
+        return dataPoints.stream()
+                .filter(dataPoint -> dataPoint.getTimestamp() >= start && dataPoint.getTimestamp() < end)
+                .collect(Collectors.toList());
+    }
+
+    private NumericBucketPoint point(long start, long end, double min, double max, double sum, int samples) {
+        return new Builder(start, end)
+                .setMin(min)
+                .setMax(max)
+                .setSum(sum)
+                .setAvg(sum / samples)
+                .setMedian(sum / samples)
+                .setSamples(samples)
+                .build();
+    }
+}
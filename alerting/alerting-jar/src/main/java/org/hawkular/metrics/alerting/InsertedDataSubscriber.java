@@ -145,7 +145,8 @@ public class InsertedDataSubscriber {
     private void addToData(Metric<?> metric, List<Data> dataToSend, CacheKey reusableKey) {
         MetricId<?> metricId = metric.getMetricId();
         MetricType<?> metricType = metricId.getType();
-        if (metricType == MetricType.UNDEFINED) {
+        // Alerting has no data type for the distributions of histograms
+        if (metricType == MetricType.UNDEFINED || metricType == MetricType.HISTOGRAM) {
             return;
         }
 
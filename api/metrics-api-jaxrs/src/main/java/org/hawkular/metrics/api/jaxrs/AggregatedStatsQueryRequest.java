@@ -45,6 +45,8 @@ public class AggregatedStatsQueryRequest {
 
     private boolean stacked;
 
+    private String groupBy;
+
     public List<String> getMetrics() {
         return metrics;
     }
@@ -117,6 +119,17 @@ public class AggregatedStatsQueryRequest {
         this.stacked = stacked;
     }
 
+    /**
+     * The name of the metric tag by whose values the stats are grouped
+     */
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    public void setGroupBy(String groupBy) {
+        this.groupBy = groupBy;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -130,12 +143,14 @@ public class AggregatedStatsQueryRequest {
                 Objects.equals(buckets, that.buckets) &&
                 Objects.equals(bucketDuration, that.bucketDuration) &&
                 Objects.equals(percentiles, that.percentiles) &&
-                Objects.equals(stacked, that.stacked);
+                Objects.equals(stacked, that.stacked) &&
+                Objects.equals(groupBy, that.groupBy);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(metrics, tags, start, end, fromEarliest, buckets, bucketDuration, percentiles, stacked);
+        return Objects.hash(metrics, tags, start, end, fromEarliest, buckets, bucketDuration, percentiles, stacked,
+                groupBy);
     }
 
     @Override public String toString() {
@@ -149,6 +164,7 @@ public class AggregatedStatsQueryRequest {
                 .add("bucketDuration", bucketDuration)
                 .add("percentiles", percentiles)
                 .add("stacked", stacked)
+                .add("groupBy", groupBy)
                 .toString();
     }
 }
@@ -16,6 +16,7 @@
  */
 package org.hawkular.metrics.api.jaxrs;
 
+import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -37,33 +38,46 @@ import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.CASSANDRA_R
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.CASSANDRA_RESETDB;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.CASSANDRA_SCHEMA_REFRESH_INTERVAL;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.CASSANDRA_USESSL;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.COMPRESSED_CACHE_SIZE;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.COMPRESSION_JOB_ENABLED;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.COMPRESSION_QUERY_PAGE_SIZE;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.DEFAULT_TTL;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.EARLY_READINESS;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.INGEST_ADAPTIVE_BATCHING;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.INGEST_MAX_RETRIES;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.INGEST_MAX_RETRY_DELAY;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.JMX_REPORTING_ENABLED;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.LATEST_VALUE_CACHE_SIZE;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.METRICS_EXPIRATION_DELAY;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.METRICS_EXPIRATION_JOB_ENABLED;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.METRICS_EXPIRATION_JOB_FREQUENCY;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.METRICS_EXPIRATION_SLACK;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.METRICS_REPORTING_COLLECTION_INTERVAL;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.METRICS_REPORTING_ENABLED;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.METRICS_REPORTING_HOSTNAME;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.PAGE_SIZE;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.QUERY_TENANT_MAX_CONCURRENT;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.QUERY_TENANT_MAX_COST;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.QUERY_TENANT_MAX_QUEUED;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.TEMP_TABLE_RING_SIZE;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.WAIT_FOR_SERVICE;
 
 import java.lang.management.ManagementFactory;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -131,6 +145,8 @@ import com.datastax.driver.core.SocketOptions;
 import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
 import com.datastax.driver.core.policies.TokenAwarePolicy;
 import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Throwables;
 import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.Futures;
@@ -246,6 +262,11 @@ public class MetricsServiceLifecycle {
     @ConfigurationProperty(JMX_REPORTING_ENABLED)
     private String jmxReportingEnabled;
 
+    @Inject
+    @Configurable
+    @ConfigurationProperty(EARLY_READINESS)
+    private String earlyReadiness;
+
     @Inject
     @Configurable
     @ConfigurationProperty(ADMIN_TOKEN)
@@ -266,6 +287,11 @@ public class MetricsServiceLifecycle {
     @ConfigurationProperty(INGEST_MAX_RETRY_DELAY)
     private String ingestMaxRetryDelay;
 
+    @Inject
+    @Configurable
+    @ConfigurationProperty(INGEST_ADAPTIVE_BATCHING)
+    private String ingestAdaptiveBatching;
+
     @Inject
     @Configurable
     @ConfigurationProperty(PAGE_SIZE)
@@ -301,6 +327,41 @@ public class MetricsServiceLifecycle {
     @ConfigurationProperty(METRICS_EXPIRATION_DELAY)
     private String metricExpirationDelay;
 
+    @Inject
+    @Configurable
+    @ConfigurationProperty(METRICS_EXPIRATION_SLACK)
+    private String metricExpirationSlack;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(COMPRESSED_CACHE_SIZE)
+    private String compressedCacheSize;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(TEMP_TABLE_RING_SIZE)
+    private String tempTableRingSize;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(LATEST_VALUE_CACHE_SIZE)
+    private String latestValueCacheSize;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(QUERY_TENANT_MAX_CONCURRENT)
+    private String queryTenantMaxConcurrent;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(QUERY_TENANT_MAX_COST)
+    private String queryTenantMaxCost;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(QUERY_TENANT_MAX_QUEUED)
+    private String queryTenantMaxQueued;
+
     @Inject
     @Configurable
     @ConfigurationProperty(METRICS_EXPIRATION_JOB_FREQUENCY)
@@ -399,6 +460,7 @@ public class MetricsServiceLifecycle {
         }
         log.infoInitializing();
         connectionAttempts++;
+        StartupTimings timings = new StartupTimings();
         try {
             session = createSession();
       } catch (Exception t) {
@@ -417,11 +479,23 @@ public class MetricsServiceLifecycle {
             lifecycleExecutor.schedule(this::startMetricsService, delay, SECONDS);
             return;
         }
+        timings.mark("connect");
         try {
             waitForAllNodesToBeUp();
+            timings.mark("wait for nodes");
 
             initSchema();
-            dataAcces = new DataAccessImpl(session);
+            timings.mark("schema");
+
+            // Preparing the statements does not depend on the configuration, both are done concurrently
+            CompletableFuture<DataAccessImpl> dataAccessFuture = CompletableFuture.supplyAsync(() -> {
+                Stopwatch stopwatch = Stopwatch.createStarted();
+                DataAccessImpl dataAccess = new DataAccessImpl(session,
+                        parseIntConfig(tempTableRingSize, TEMP_TABLE_RING_SIZE));
+                dataAccess.setAdaptiveBatching(getAdaptiveBatchingTenants());
+                timings.record("prepare statements", stopwatch);
+                return dataAccess;
+            });
 
             configurationService = new ConfigurationService();
             configurationService.init(new RxSessionImpl(session));
@@ -429,11 +503,30 @@ public class MetricsServiceLifecycle {
             persistAdminToken();
             updateIngestionConfiguration();
             updateCompressionJobConfiguration();
+            timings.mark("configuration");
+
+            DataAccessImpl dataAccessImpl;
+            try {
+                dataAccessImpl = dataAccessFuture.join();
+            } catch (CompletionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+            dataAcces = dataAccessImpl;
+            timings.mark("wait for statements");
 
             metricsService = new MetricsServiceImpl();
             metricsService.setDataAccess(dataAcces);
             metricsService.setConfigurationService(configurationService);
             metricsService.setDefaultTTL(getDefaultTTL());
+            metricsService.setMetricExpirationSlack(
+                    HOURS.toMillis(parseIntConfig(metricExpirationSlack, METRICS_EXPIRATION_SLACK)));
+            metricsService.setCompressedBlockCacheSize(parseIntConfig(compressedCacheSize, COMPRESSED_CACHE_SIZE));
+            metricsService.setLatestDataPointCacheSize(
+                    parseIntConfig(latestValueCacheSize, LATEST_VALUE_CACHE_SIZE) * 1024L * 1024L);
+            metricsService.setQueryAdmission(
+                    parseIntConfig(queryTenantMaxConcurrent, QUERY_TENANT_MAX_CONCURRENT),
+                    parseIntConfig(queryTenantMaxCost, QUERY_TENANT_MAX_COST),
+                    parseIntConfig(queryTenantMaxQueued, QUERY_TENANT_MAX_QUEUED));
 
             MetricNameService metricNameService;
             if (metricsReportingHostname == null) {
@@ -448,8 +541,14 @@ public class MetricsServiceLifecycle {
             restMetrics.setMetricNameService(metricNameService);
             restMetrics.initMetrics();
 
+            // The registry outlives a failed start
+            metricRegistry.remove("InsertBatchSize");
+            metricRegistry.register("InsertBatchSize", "Core", "Write",
+                    dataAccessImpl.getAdaptiveBatchSize().getBatchSizes());
+
             metricsService.setMetricNameService(metricNameService);
             metricsService.startUp(session, keyspace, false, false, metricRegistry);
+            timings.mark("metrics service");
 
             HawkularMetricsRegistryListener metricsRegistryListener = new HawkularMetricsRegistryListener();
             metricsRegistryListener.setMetricNameService(metricNameService);
@@ -469,6 +568,15 @@ public class MetricsServiceLifecycle {
 
             metricsServiceReady.fire(new ServiceReadyEvent(metricsService.insertedDataEvents()));
 
+            if (Boolean.parseBoolean(earlyReadiness)) {
+                // The service accepts writes from here on, the background jobs and maintenance tasks can catch up
+                state = State.STARTED;
+                log.infof("Accepting requests after %d ms, starting background jobs", timings.getTotal());
+            }
+
+            startJobsService();
+            timings.mark("jobs");
+
             initGCGraceSecondsManager();
 
             if (Boolean.parseBoolean(jmxReportingEnabled)) {
@@ -480,7 +588,9 @@ public class MetricsServiceLifecycle {
                 jmxReporter.start();
             }
             state = State.STARTED;
+            timings.mark("maintenance");
             log.infoServiceStarted();
+            log.infof("Startup phases: %s", timings);
 
         } catch (CassandraClusterNotUpException e) {
             log.fatal("It appears that some nodes in the Cassandra cluster are not up. Start up cannot proceed");
@@ -700,6 +810,18 @@ public class MetricsServiceLifecycle {
         }
     }
 
+    private Predicate<String> getAdaptiveBatchingTenants() {
+        if (ingestAdaptiveBatching == null || ingestAdaptiveBatching.trim().isEmpty()) {
+            return tenantId -> false;
+        }
+        if (Boolean.parseBoolean(ingestAdaptiveBatching.trim())) {
+            return tenantId -> true;
+        }
+        HashSet<String> tenants = new HashSet<>(Splitter.on(',').trimResults().omitEmptyStrings()
+                .splitToList(ingestAdaptiveBatching));
+        return tenants::contains;
+    }
+
     private int parseIntConfig(String value, ConfigurationKey configKey) {
         try {
             return Integer.parseInt(value);
@@ -729,10 +851,12 @@ public class MetricsServiceLifecycle {
         scheduler = new JobSchedulerFactory().getJobScheduler(rxSession);
         jobsService.setScheduler(scheduler);
 
+        registerMBean("JobsService", jobsService);
+    }
+
+    private void startJobsService() {
         DistributedLock jobsLock = new DistributedLock(locksCache.getAdvancedCache(), "background-jobs");
         jobsLock.lockAndThen(jobsService::start);
-
-        registerMBean("JobsService", jobsService);
     }
 
     private void registerMBean(String name, Object service) {
@@ -37,6 +37,10 @@ public class QueryRequest {
 
     private String tags;
 
+    private Integer points;
+
+    private String downsample;
+
     public List<String> getIds() {
         return ids;
     }
@@ -93,6 +97,22 @@ public class QueryRequest {
         this.tags = tags;
     }
 
+    public Integer getPoints() {
+        return points;
+    }
+
+    public void setPoints(Integer points) {
+        this.points = points;
+    }
+
+    public String getDownsample() {
+        return downsample;
+    }
+
+    public void setDownsample(String downsample) {
+        this.downsample = downsample;
+    }
+
     @Override public String toString() {
         return "QueryRequest{" +
                 "ids=" + ids +
@@ -102,6 +122,8 @@ public class QueryRequest {
                 ", limit=" + limit +
                 ", order=" + order +
                 ", tags=" + tags +
+                ", points=" + points +
+                ", downsample=" + downsample +
                 '}';
     }
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Records how long the phases of the {@link MetricsServiceLifecycle} startup take, so that a slow start can be
+ * attributed to a step.
+ * <p>
+ * Sequential phases are recorded with {@link #mark(String)}, which measures the time elapsed since the previous mark.
+ * Phases running concurrently with the main sequence measure themselves and are added with
+ * {@link #record(String, Stopwatch)}.
+ */
+class StartupTimings {
+
+    private final Stopwatch total = Stopwatch.createStarted();
+
+    private final Stopwatch current = Stopwatch.createStarted();
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    synchronized void mark(String phase) {
+        phases.put(phase, current.elapsed(MILLISECONDS));
+        current.reset().start();
+    }
+
+    synchronized void record(String phase, Stopwatch stopwatch) {
+        phases.put(phase + " (concurrent)", stopwatch.elapsed(MILLISECONDS));
+    }
+
+    synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+
+    synchronized long getTotal() {
+        return total.elapsed(MILLISECONDS);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringJoiner joiner = new StringJoiner(", ");
+        phases.forEach((phase, millis) -> joiner.add(phase + ": " + millis + " ms"));
+        joiner.add("total: " + getTotal() + " ms");
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs;
+
+import java.util.List;
+
+/**
+ * Request object used to rank series by an aggregate of their data points.
+ */
+public class TopSeriesQueryRequest {
+
+    private List<String> ids;
+
+    private String tags;
+
+    private List<String> types;
+
+    private String start;
+
+    private String end;
+
+    private String by;
+
+    private Integer limit;
+
+    private String order;
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<String> ids) {
+        this.ids = ids;
+    }
+
+    public String getTags() {
+        return tags;
+    }
+
+    public void setTags(String tags) {
+        this.tags = tags;
+    }
+
+    /**
+     * The types of the metrics found by the tags, for queries which are not bound to a metric type
+     */
+    public List<String> getTypes() {
+        return types;
+    }
+
+    public void setTypes(List<String> types) {
+        this.types = types;
+    }
+
+    public String getStart() {
+        return start;
+    }
+
+    public void setStart(String start) {
+        this.start = start;
+    }
+
+    public String getEnd() {
+        return end;
+    }
+
+    public void setEnd(String end) {
+        this.end = end;
+    }
+
+    /**
+     * The rank function, avg, min, max, sum, last or a percentile such as p95
+     */
+    public String getBy() {
+        return by;
+    }
+
+    public void setBy(String by) {
+        this.by = by;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    public String getOrder() {
+        return order;
+    }
+
+    public void setOrder(String order) {
+        this.order = order;
+    }
+
+    @Override public String toString() {
+        return "TopSeriesQueryRequest{" +
+                "ids=" + ids +
+                ", tags=" + tags +
+                ", types=" + types +
+                ", start=" + start +
+                ", end=" + end +
+                ", by=" + by +
+                ", limit=" + limit +
+                ", order=" + order +
+                '}';
+    }
+}
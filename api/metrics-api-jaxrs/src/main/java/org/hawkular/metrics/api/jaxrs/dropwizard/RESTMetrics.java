@@ -35,6 +35,7 @@ import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 
 import org.hawkular.metrics.api.jaxrs.util.MetricRegistryProvider;
+import org.hawkular.metrics.api.jaxrs.util.QueryCancellation;
 import org.hawkular.metrics.core.dropwizard.HawkularMetricRegistry;
 import org.hawkular.metrics.core.dropwizard.MetricNameService;
 import org.jboss.logging.Logger;
@@ -86,6 +87,12 @@ public class RESTMetrics {
                         t -> logger.warn("Failed to register meta data for REST metrics", t),
                         () -> {}
                 );
+
+        HawkularMetricRegistry registry = MetricRegistryProvider.INSTANCE.getMetricRegistry();
+        registry.registerMetaData(RecordStageLatencyInterceptor.JSON_DECODE_LATENCY, "REST", "Write");
+        registry.registerMetaData(RecordStageLatencyInterceptor.JSON_SERIALIZATION_LATENCY, "REST", "Read");
+        registry.registerMetaData(QueryCancellation.DISCONNECTED_QUERIES, "REST", "Read");
+        registry.registerMetaData(QueryCancellation.EXPIRED_QUERIES, "REST", "Read");
     }
 
     private boolean isRESTHandler(Class clazz) {
@@ -104,10 +111,10 @@ public class RESTMetrics {
 
     private boolean isWrite(Method m, String uri) {
         return m.isAnnotationPresent(DELETE.class) || m.isAnnotationPresent(PUT.class) ||
-                (m.isAnnotationPresent(POST.class) && !uri.endsWith("query"));
+                (m.isAnnotationPresent(POST.class) && !uri.endsWith("query") && !uri.endsWith("latest"));
     }
 
-    private HTTPMethod getHttpMethod(Method m) {
+    static HTTPMethod getHttpMethod(Method m) {
         if (m.isAnnotationPresent(GET.class)) {
             return HTTPMethod.GET;
         }
@@ -126,7 +133,7 @@ public class RESTMetrics {
         return HTTPMethod.OPTIONS;
     }
 
-    private String getURI(Method method) {
+    static String getURI(Method method) {
         Path classLevelURI = method.getDeclaringClass().getAnnotation(Path.class);
         Path methodLevelURI = method.getAnnotation(Path.class);
 
@@ -16,79 +16,113 @@
  */
 package org.hawkular.metrics.api.jaxrs.dropwizard;
 
-import static java.util.stream.Collectors.joining;
-import static java.util.stream.Collectors.toMap;
-
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.function.Function;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Inject;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerRequestFilter;
 import javax.ws.rs.container.ContainerResponseContext;
 import javax.ws.rs.container.ContainerResponseFilter;
-import javax.ws.rs.core.MultivaluedMap;
-import javax.ws.rs.core.PathSegment;
-import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.ext.Provider;
 
-import org.jboss.logging.Logger;
-
 import com.codahale.metrics.Timer;
 
 /**
  * This filter records DropWizard metrics for REST endpoints.
+ * <p>
+ * Most endpoints complete an {@link javax.ws.rs.container.AsyncResponse} once their Rx pipeline terminates. For these,
+ * the timer is stopped when the servlet async context completes, so that the recorded time covers the whole request,
+ * including the serialization of the response. The metric name of a resource method is computed from its
+ * {@link javax.ws.rs.Path} annotations the first time it is invoked, and cached afterwards.
  *
  * @author jsanda
  */
 @Provider
 public class RecordMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
 
-    private static Logger logger = Logger.getLogger(RecordMetricsFilter.class);
+    private static final String TIMER_CONTEXT = "timerContext";
 
     @Inject
     private RESTMetrics restMetrics;
 
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Context
+    private HttpServletRequest servletRequest;
+
+    private final ConcurrentMap<Method, String> metricNames = new ConcurrentHashMap<>();
+
     @Override
     public void filter(ContainerRequestContext requestContext) throws IOException {
-        String path = getPath(requestContext.getUriInfo());
-        HTTPMethod method = HTTPMethod.fromString(requestContext.getMethod());
-        RESTMetricName metricName = new RESTMetricName(method, path);
-        Timer timer = restMetrics.getTimer(metricName.getName());
+        Method resourceMethod = resourceInfo.getResourceMethod();
+        if (resourceMethod == null) {
+            return;
+        }
+        String metricName = metricNames.computeIfAbsent(resourceMethod, method -> new RESTMetricName(
+                RESTMetrics.getHttpMethod(method), RESTMetrics.getURI(method)).getName());
+        Timer timer = restMetrics.getTimer(metricName);
         if (timer != null) {
             Timer.Context context = timer.time();
-            requestContext.setProperty("timerContext", context);
+            requestContext.setProperty(TIMER_CONTEXT, context);
         }
     }
 
     @Override
     public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
             throws IOException {
-        Timer.Context context = (Timer.Context) requestContext.getProperty("timerContext");
-        if (context != null) {
+        Timer.Context context = (Timer.Context) requestContext.getProperty(TIMER_CONTEXT);
+        if (context == null) {
+            return;
+        }
+        requestContext.removeProperty(TIMER_CONTEXT);
+        if (servletRequest != null && servletRequest.isAsyncStarted()) {
+            servletRequest.getAsyncContext().addListener(new StopTimerListener(context));
+        } else {
             context.stop();
         }
     }
 
-    private String getPath(UriInfo uriInfo) {
-        MultivaluedMap<String, String> pathParameters = uriInfo.getPathParameters(true);
-        final Map<String, String> valuesToParams = pathParameters.entrySet().stream()
-                .map(entry -> entry.getValue().stream()
-                        .collect(toMap(Function.identity(), value -> "{" + entry.getKey() + "}")))
-                .reduce(new HashMap<>(), (m1, m2) -> {
-                    m1.putAll(m2);
-                    return m1;
-                });
-        return uriInfo.getPathSegments(true).stream()
-                .map(PathSegment::getPath)
-                .map(path -> {
-                    if (valuesToParams.containsKey(path)) {
-                        return valuesToParams.get(path);
-                    }
-                    return path;
-                })
-                .collect(joining("/"));
+    private static class StopTimerListener implements AsyncListener {
+        private final Timer.Context context;
+        private final AtomicBoolean stopped = new AtomicBoolean();
+
+        StopTimerListener(Timer.Context context) {
+            this.context = context;
+        }
+
+        private void stop() {
+            if (stopped.compareAndSet(false, true)) {
+                context.stop();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            stop();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            stop();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            stop();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
     }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.dropwizard;
+
+import java.io.IOException;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import org.hawkular.metrics.api.jaxrs.util.MetricRegistryProvider;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * Records the time spent decoding request bodies and serializing response entities.
+ */
+@Provider
+public class RecordStageLatencyInterceptor implements ReaderInterceptor, WriterInterceptor {
+
+    public static final String JSON_DECODE_LATENCY = "RESTJsonDecodeLatency";
+    public static final String JSON_SERIALIZATION_LATENCY = "RESTJsonSerializationLatency";
+
+    @Override
+    public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException, WebApplicationException {
+        Timer.Context timerContext = getTimer(JSON_DECODE_LATENCY).time();
+        try {
+            return context.proceed();
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        Timer.Context timerContext = getTimer(JSON_SERIALIZATION_LATENCY).time();
+        try {
+            context.proceed();
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    private Timer getTimer(String name) {
+        return MetricRegistryProvider.INSTANCE.getMetricRegistry().timer(name);
+    }
+}
@@ -31,7 +31,10 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 
 import org.hawkular.metrics.api.jaxrs.MetricsServiceLifecycle;
+import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
 import org.hawkular.metrics.api.jaxrs.util.ManifestInformation;
+import org.hawkular.metrics.core.service.MetricsService;
+import org.hawkular.metrics.model.QueryBudgetUsage;
 import org.hawkular.metrics.model.Status;
 import org.jboss.resteasy.annotations.GZIP;
 
@@ -53,6 +56,9 @@ public class AdminHandler {
     @Inject
     ManifestInformation manifestInformation;
 
+    @Inject
+    MetricsService metricsService;
+
     @GET
     @Path("/status")
     @ApiOperation(value = "Returns the current status for various components.",
@@ -71,4 +77,12 @@ public class AdminHandler {
         return Response.ok(status).build();
     }
 
+    @GET
+    @Path("/query-budgets")
+    @ApiOperation(value = "Returns the query budget usage of the tenants on this node, by tenant id.",
+            response = QueryBudgetUsage.class, responseContainer = "Map")
+    public Response queryBudgets() {
+        return ApiUtils.mapToResponse(metricsService.getQueryBudgetUsage());
+    }
+
 }
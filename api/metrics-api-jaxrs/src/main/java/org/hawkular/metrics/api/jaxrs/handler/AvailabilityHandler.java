@@ -182,7 +182,7 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
                 .compose(new MinMaxTimestampTransformer<>(metricsService))
                 .map(metric -> Response.ok(metric).build())
                 .switchIfEmpty(Observable.just(noContent()))
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @DELETE
@@ -213,7 +213,7 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
                         @ApiParam("Tag query") @PathParam("tags") Tags tags) {
         metricsService.getTagValues(getTenant(), AVAILABILITY, tags.getTags())
                 .map(ApiUtils::mapToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @GET
@@ -231,7 +231,7 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
     ) {
         metricsService.getMetricTags(new MetricId<>(getTenant(), AVAILABILITY, id))
                 .map(ApiUtils::mapToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @PUT
@@ -348,6 +348,26 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
                 .subscribe(createNamedDataPointObserver(asyncResponse, AVAILABILITY));
     }
 
+    @POST
+    @Path("/raw/latest")
+    @ApiOperation(value = "Fetch the latest data point of multiple availability metrics. The limit and order parameters " +
+            "are ignored. This endpoint is experimental and may undergo non-backwards compatible changes in future " +
+            "releases.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched the latest data points."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "No metric ids are specified", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getLatestData(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
+                    "tags. The standard start and end query parameters are supported as well.")
+                    QueryRequest query) {
+        findLatestDataPoints(asyncResponse, query, AVAILABILITY);
+    }
+
     @Deprecated
     @POST
     @Path("/data")
@@ -408,11 +428,11 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
                     .findAvailabilityData(metricId, timeRange.getStart(), timeRange.getEnd(), distinct, limit, order)
                     .toList()
                     .map(ApiUtils::collectionToResponse)
-                    .subscribe(asyncResponse::resume, t -> asyncResponse.resume(serverError(t)));
+                    .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
         } else {
             metricsService.findAvailabilityStats(metricId, timeRange.getStart(), timeRange.getEnd(), buckets)
                 .map(ApiUtils::collectionToResponse)
-                    .subscribe(asyncResponse::resume, t -> asyncResponse.resume(serverError(t)));
+                    .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
         }
     }
 
@@ -448,7 +468,7 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
                         .getTimeRange().getEnd(), distinct, p.getLimit(), p.getOrder()))
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @GET
@@ -486,7 +506,7 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @GET
@@ -49,6 +49,7 @@ import javax.ws.rs.core.UriInfo;
 
 import org.hawkular.metrics.api.jaxrs.AggregatedStatsQueryRequest;
 import org.hawkular.metrics.api.jaxrs.QueryRequest;
+import org.hawkular.metrics.api.jaxrs.TopSeriesQueryRequest;
 import org.hawkular.metrics.api.jaxrs.handler.observer.MetricCreatedObserver;
 import org.hawkular.metrics.api.jaxrs.handler.observer.ResultSetObserver;
 import org.hawkular.metrics.api.jaxrs.handler.template.IMetricsHandler;
@@ -56,6 +57,7 @@ import org.hawkular.metrics.api.jaxrs.param.TimeAndBucketParams;
 import org.hawkular.metrics.api.jaxrs.param.TimeAndSortParams;
 import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
 import org.hawkular.metrics.api.jaxrs.util.Logged;
+import org.hawkular.metrics.core.service.Downsampling;
 import org.hawkular.metrics.core.service.Functions;
 import org.hawkular.metrics.core.service.Order;
 import org.hawkular.metrics.core.service.transformers.MinMaxTimestampTransformer;
@@ -66,6 +68,7 @@ import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
 import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.RankedSeries;
 import org.hawkular.metrics.model.exception.RuntimeApiError;
 import org.hawkular.metrics.model.param.BucketConfig;
 import org.hawkular.metrics.model.param.Duration;
@@ -189,7 +192,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                 .compose(new MinMaxTimestampTransformer<>(metricsService))
                 .map(metric -> Response.ok(metric).build())
                 .switchIfEmpty(Observable.just(noContent()))
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @DELETE
@@ -220,7 +223,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                         @ApiParam("Tag query") @PathParam("tags") Tags tags) {
         metricsService.getTagValues(getTenant(), COUNTER, tags.getTags())
                 .map(ApiUtils::mapToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @GET
@@ -236,7 +239,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             @PathParam("id") String id) {
         metricsService.getMetricTags(new MetricId<>(getTenant(), COUNTER, id))
                 .map(ApiUtils::mapToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @PUT
@@ -307,18 +310,73 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
                     "tags. The standard start, end, order, and limit query parameters are supported as well.")
                     QueryRequest query) {
+        Downsampling downsampling;
+        try {
+            downsampling = query.getDownsample() == null ? null : Downsampling.fromText(query.getDownsample());
+        } catch (IllegalArgumentException e) {
+            asyncResponse.resume(badRequest(new ApiError(e.getMessage())));
+            return;
+        }
+        String downsamplingProblem = checkDownsampling(downsampling, query.getPoints());
+        if (downsamplingProblem != null) {
+            asyncResponse.resume(badRequest(new ApiError(downsamplingProblem)));
+            return;
+        }
         findMetricsByNameOrTag(query.getIds(), query.getTags(), COUNTER)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<Long>deferredBuilder(query.getStart(), query.getEnd())
                             .fromEarliest(query.getFromEarliest(), metricIds, this::findTimeRange)
                             .sortOptions(query.getLimit(), query.getOrder())
                             .toObservable()
-                            .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
-                                    p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                            .flatMap(p -> findDataPoints(metricIds, p, downsampling, query.getPoints())
                                 .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, COUNTER));
     }
 
+    @POST
+    @Path("/raw/latest")
+    @ApiOperation(value = "Fetch the latest data point of multiple counter metrics. The limit and order parameters " +
+            "are ignored. This endpoint is experimental and may undergo non-backwards compatible changes in future " +
+            "releases.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched the latest data points."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "No metric ids are specified", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getLatestData(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
+                    "tags. The standard start and end query parameters are supported as well.")
+                    QueryRequest query) {
+        findLatestDataPoints(asyncResponse, query, COUNTER);
+    }
+
+    @POST
+    @Path("/top/query")
+    @ApiOperation(value = "Rank counters by an aggregate of their data points and fetch the best ones. The rank " +
+            "function is one of avg, min, max, sum, last or a percentile such as p95, avg by default. The order " +
+            "desc ranks the highest values first, asc the lowest. This endpoint is experimental and may undergo " +
+            "non-backwards compatible changes in future releases.",
+            response = RankedSeries.class, responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully ranked the metrics."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "Either tags or metric ids is required but not both. The rank " +
+                    "function, order or limit is invalid.", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getTopSeries(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
+                    "tags. The rank function (by), limit, order, start and end parameters are supported as well.")
+                    TopSeriesQueryRequest query) {
+        findTopSeries(metricsService, queryCancellation, asyncResponse, query,
+                findMetricsByNameOrTag(query.getIds(), query.getTags(), COUNTER));
+    }
+
     @POST
     @Path("/rate/query")
     @ApiOperation(value = "Fetch rate data points for multiple metrics. This endpoint is experimental and may " +
@@ -433,7 +491,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             metricsService.findDataPoints(metricId, timeRange.getStart(), timeRange.getEnd(), limit, order)
                     .toList()
                     .map(ApiUtils::collectionToResponse)
-                    .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                    .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
 
             return;
         }
@@ -491,7 +549,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @GET
@@ -513,18 +571,26 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             @ApiParam(value = "Use data from earliest received, subject to retention period")
                 @QueryParam("fromEarliest") Boolean fromEarliest,
             @ApiParam(value = "Limit the number of data points returned") @QueryParam("limit") Integer limit,
-            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order
+            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order,
+            @ApiParam(value = "Maximum number of data points returned, by downsampling the raw data")
+                @QueryParam("points") Integer points,
+            @ApiParam(value = "Downsampling method, defaults to lttb", allowableValues = "lttb, minmax")
+                @QueryParam("downsample") Downsampling downsample
     ) {
+        String downsamplingProblem = checkDownsampling(downsample, points);
+        if (downsamplingProblem != null) {
+            asyncResponse.resume(badRequest(new ApiError(downsamplingProblem)));
+            return;
+        }
         MetricId<Long> metricId = new MetricId<>(getTenant(), COUNTER, id);
         TimeAndSortParams.<Long>deferredBuilder(start, end)
                 .fromEarliest(fromEarliest, metricId, this::findTimeRange)
                 .sortOptions(limit, order)
                 .toObservable()
-                .flatMap(p -> metricsService.findDataPoints(metricId, p.getTimeRange().getStart(), p.getTimeRange()
-                        .getEnd(), p.getLimit(), p.getOrder()))
+                .flatMap(p -> findDataPoints(metricId, p, downsample, points))
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @GET
@@ -563,7 +629,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @GET
@@ -626,7 +692,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             metricsService.findRateData(metricId, timeRange.getStart(), timeRange.getEnd(), limit, order)
                     .toList()
                     .map(ApiUtils::collectionToResponse)
-                    .subscribe(asyncResponse::resume, t -> asyncResponse.resume(serverError(t)));
+                    .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
         } else {
             if(percentiles == null) {
                 percentiles = new Percentiles(Collections.emptyList());
@@ -634,7 +700,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
 
             metricsService.findRateStats(metricId, bucketConfig, percentiles.getPercentiles())
                     .map(ApiUtils::collectionToResponse)
-                    .subscribe(asyncResponse::resume, t -> asyncResponse.resume(serverError(t)));
+                    .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
         }
     }
 
@@ -676,7 +742,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @GET
@@ -721,7 +787,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @POST
@@ -755,7 +821,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                 .skipWhile(bucket -> Boolean.TRUE.equals(query.getFromEarliest()) && bucket.isEmpty())
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @Deprecated
@@ -820,7 +886,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @Deprecated
@@ -843,6 +909,29 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                 stacked);
     }
 
+    @POST
+    @Path("/stats/group/query")
+    @ApiOperation(value = "Find stats for multiple counters grouped by the values of one of their tags. Each " +
+            "group is aggregated into a single statistics series. This endpoint is experimental and may undergo " +
+            "non-backwards compatible changes in future releases.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched metric data."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "Either tags or metric ids is required but not both. The groupBy " +
+                    "parameter is required. Either the buckets or the bucketDuration parameter is required but not " +
+                    "both.", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getStatsGroupedByTag(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids " +
+                    "or tags and the name of the tag to group by. If stacked is true the stats of a group are the " +
+                    "sum of the stats of its metrics.")
+                    AggregatedStatsQueryRequest query) {
+        findStatsGroupedByTag(asyncResponse, query, COUNTER);
+    }
+
     @GET
     @Path("/{id}/stats/tags/{tags}")
     @ApiOperation(value = "Fetches data points and groups them into buckets based on one or more tag filters. The " +
@@ -875,7 +964,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
         metricsService.findCounterStats(metricId, tags.getTags(), timeRange.getStart(), timeRange.getEnd(),
                 lPercentiles.getPercentiles())
                 .map(ApiUtils::mapToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @GET
@@ -897,16 +986,24 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             @ApiParam(value = "Use data from earliest received, subject to retention period")
             @QueryParam("fromEarliest") Boolean fromEarliest,
             @ApiParam(value = "Limit the number of data points returned") @QueryParam("limit") Integer limit,
-            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order
+            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order,
+            @ApiParam(value = "Maximum number of data points returned for each metric, by downsampling the raw data")
+                @QueryParam("points") Integer points,
+            @ApiParam(value = "Downsampling method, defaults to lttb", allowableValues = "lttb, minmax")
+                @QueryParam("downsample") Downsampling downsample
     ) {
+        String downsamplingProblem = checkDownsampling(downsample, points);
+        if (downsamplingProblem != null) {
+            asyncResponse.resume(badRequest(new ApiError(downsamplingProblem)));
+            return;
+        }
         metricsService.findMetricIdentifiersWithFilters(getTenant(), COUNTER, tags)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<Long>deferredBuilder(start, end)
                         .fromEarliest(fromEarliest, metricIds, this::findTimeRange)
                         .sortOptions(limit, order)
                         .toObservable()
-                        .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
-                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                        .flatMap(p -> findDataPoints(metricIds, p, downsample, points)
                                 .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, COUNTER));
     }
@@ -50,6 +50,7 @@ import javax.ws.rs.core.UriInfo;
 
 import org.hawkular.metrics.api.jaxrs.AggregatedStatsQueryRequest;
 import org.hawkular.metrics.api.jaxrs.QueryRequest;
+import org.hawkular.metrics.api.jaxrs.TopSeriesQueryRequest;
 import org.hawkular.metrics.api.jaxrs.handler.observer.MetricCreatedObserver;
 import org.hawkular.metrics.api.jaxrs.handler.observer.ResultSetObserver;
 import org.hawkular.metrics.api.jaxrs.handler.template.IMetricsHandler;
@@ -57,6 +58,7 @@ import org.hawkular.metrics.api.jaxrs.param.TimeAndBucketParams;
 import org.hawkular.metrics.api.jaxrs.param.TimeAndSortParams;
 import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
 import org.hawkular.metrics.api.jaxrs.util.Logged;
+import org.hawkular.metrics.core.service.Downsampling;
 import org.hawkular.metrics.core.service.Functions;
 import org.hawkular.metrics.core.service.Order;
 import org.hawkular.metrics.core.service.transformers.MinMaxTimestampTransformer;
@@ -67,6 +69,7 @@ import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
 import org.hawkular.metrics.model.NumericBucketPoint;
 import org.hawkular.metrics.model.Percentile;
+import org.hawkular.metrics.model.RankedSeries;
 import org.hawkular.metrics.model.TaggedBucketPoint;
 import org.hawkular.metrics.model.exception.RuntimeApiError;
 import org.hawkular.metrics.model.param.BucketConfig;
@@ -185,7 +188,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                 .compose(new MinMaxTimestampTransformer<>(metricsService))
                 .map(metric -> Response.ok(metric).build())
                 .switchIfEmpty(Observable.just(ApiUtils.noContent()))
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @DELETE
@@ -216,7 +219,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                         @ApiParam("Tag query") @PathParam("tags") Tags tags) {
         metricsService.getTagValues(getTenant(), GAUGE, tags.getTags())
                 .map(ApiUtils::mapToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @GET
@@ -233,7 +236,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
     ) {
         metricsService.getMetricTags(new MetricId<>(getTenant(), GAUGE, id))
                 .map(ApiUtils::mapToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @PUT
@@ -337,18 +340,73 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
             @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
                     "tags. The standard start, end, order, and limit query parameters are supported as well.")
                     QueryRequest query) {
+        Downsampling downsampling;
+        try {
+            downsampling = query.getDownsample() == null ? null : Downsampling.fromText(query.getDownsample());
+        } catch (IllegalArgumentException e) {
+            asyncResponse.resume(badRequest(new ApiError(e.getMessage())));
+            return;
+        }
+        String downsamplingProblem = checkDownsampling(downsampling, query.getPoints());
+        if (downsamplingProblem != null) {
+            asyncResponse.resume(badRequest(new ApiError(downsamplingProblem)));
+            return;
+        }
         findMetricsByNameOrTag(query.getIds(), query.getTags(), GAUGE)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<Double>deferredBuilder(query.getStart(), query.getEnd())
                         .fromEarliest(query.getFromEarliest(), metricIds, this::findTimeRange)
                         .sortOptions(query.getLimit(), query.getOrder())
                         .toObservable()
-                        .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
-                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                        .flatMap(p -> findDataPoints(metricIds, p, downsampling, query.getPoints())
                                 .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, GAUGE));
     }
 
+    @POST
+    @Path("/raw/latest")
+    @ApiOperation(value = "Fetch the latest data point of multiple gauge metrics. The limit and order parameters " +
+            "are ignored. This endpoint is experimental and may undergo non-backwards compatible changes in future " +
+            "releases.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched the latest data points."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "No metric ids are specified", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getLatestData(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
+                    "tags. The standard start and end query parameters are supported as well.")
+                    QueryRequest query) {
+        findLatestDataPoints(asyncResponse, query, GAUGE);
+    }
+
+    @POST
+    @Path("/top/query")
+    @ApiOperation(value = "Rank gauges by an aggregate of their data points and fetch the best ones. The rank " +
+            "function is one of avg, min, max, sum, last or a percentile such as p95, avg by default. The order " +
+            "desc ranks the highest values first, asc the lowest. This endpoint is experimental and may undergo " +
+            "non-backwards compatible changes in future releases.",
+            response = RankedSeries.class, responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully ranked the metrics."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "Either tags or metric ids is required but not both. The rank " +
+                    "function, order or limit is invalid.", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getTopSeries(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
+                    "tags. The rank function (by), limit, order, start and end parameters are supported as well.")
+                    TopSeriesQueryRequest query) {
+        findTopSeries(metricsService, queryCancellation, asyncResponse, query,
+                findMetricsByNameOrTag(query.getIds(), query.getTags(), GAUGE));
+    }
+
     @POST
     @Path("/rate/query")
     @ApiOperation(value = "Fetch rate data points for multiple metrics. This endpoint is experimental and may " +
@@ -439,7 +497,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
             metricsService.findDataPoints(metricId, timeRange.getStart(), timeRange.getEnd(), limit, order)
                     .toList()
                     .map(ApiUtils::collectionToResponse)
-                    .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                    .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
 
             return;
         }
@@ -496,7 +554,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @GET
@@ -516,18 +574,26 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
             @ApiParam(value = "Use data from earliest received, subject to retention period")
                 @QueryParam("fromEarliest") Boolean fromEarliest,
             @ApiParam(value = "Limit the number of data points returned") @QueryParam("limit") Integer limit,
-            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order
+            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order,
+            @ApiParam(value = "Maximum number of data points returned, by downsampling the raw data")
+                @QueryParam("points") Integer points,
+            @ApiParam(value = "Downsampling method, defaults to lttb", allowableValues = "lttb, minmax")
+                @QueryParam("downsample") Downsampling downsample
             ) {
+        String downsamplingProblem = checkDownsampling(downsample, points);
+        if (downsamplingProblem != null) {
+            asyncResponse.resume(badRequest(new ApiError(downsamplingProblem)));
+            return;
+        }
         MetricId<Double> metricId = new MetricId<>(getTenant(), GAUGE, id);
         TimeAndSortParams.<Double>deferredBuilder(start, end)
                 .fromEarliest(fromEarliest, metricId, this::findTimeRange)
                 .sortOptions(limit, order)
                 .toObservable()
-                .flatMap(p -> metricsService.findDataPoints(metricId, p.getTimeRange().getStart(), p.getTimeRange()
-                        .getEnd(), p.getLimit(), p.getOrder()))
+                .flatMap(p -> findDataPoints(metricId, p, downsample, points))
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @GET
@@ -565,7 +631,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @GET
@@ -612,7 +678,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @POST
@@ -646,7 +712,30 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                 .skipWhile(bucket -> Boolean.TRUE.equals(query.getFromEarliest()) && bucket.isEmpty())
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
+    }
+
+    @POST
+    @Path("/stats/group/query")
+    @ApiOperation(value = "Find stats for multiple gauges grouped by the values of one of their tags. Each " +
+            "group is aggregated into a single statistics series. This endpoint is experimental and may undergo " +
+            "non-backwards compatible changes in future releases.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched metric data."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "Either tags or metric ids is required but not both. The groupBy " +
+                    "parameter is required. Either the buckets or the bucketDuration parameter is required but not " +
+                    "both.", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getStatsGroupedByTag(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids " +
+                    "or tags and the name of the tag to group by. If stacked is true the stats of a group are the " +
+                    "sum of the stats of its metrics.")
+                    AggregatedStatsQueryRequest query) {
+        findStatsGroupedByTag(asyncResponse, query, GAUGE);
     }
 
     @GET
@@ -682,7 +771,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
         metricsService.findGaugeStats(metricId, tags.getTags(), timeRange.getStart(), timeRange.getEnd(),
                 percentiles.getPercentiles())
                 .map(ApiUtils::mapToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @Deprecated
@@ -767,7 +856,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
             MetricId<Double> metricId = new MetricId<>(getTenant(), GAUGE, id);
             metricsService.getPeriods(metricId, predicate, timeRange.getStart(), timeRange.getEnd())
                     .map(ApiUtils::collectionToResponse)
-                    .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                    .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
         }
     }
 
@@ -800,7 +889,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                         .getEnd(), p.getLimit(), p.getOrder()))
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @GET
@@ -839,7 +928,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @GET
@@ -884,7 +973,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @GET
@@ -906,16 +995,24 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
             @ApiParam(value = "Use data from earliest received, subject to retention period")
             @QueryParam("fromEarliest") Boolean fromEarliest,
             @ApiParam(value = "Limit the number of data points returned") @QueryParam("limit") Integer limit,
-            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order
+            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order,
+            @ApiParam(value = "Maximum number of data points returned for each metric, by downsampling the raw data")
+                @QueryParam("points") Integer points,
+            @ApiParam(value = "Downsampling method, defaults to lttb", allowableValues = "lttb, minmax")
+                @QueryParam("downsample") Downsampling downsample
     ) {
+        String downsamplingProblem = checkDownsampling(downsample, points);
+        if (downsamplingProblem != null) {
+            asyncResponse.resume(badRequest(new ApiError(downsamplingProblem)));
+            return;
+        }
         metricsService.findMetricIdentifiersWithFilters(getTenant(), GAUGE, tags)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<Double>deferredBuilder(start, end)
                         .fromEarliest(fromEarliest, metricIds, this::findTimeRange)
                         .sortOptions(limit, order)
                         .toObservable()
-                        .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
-                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                        .flatMap(p -> findDataPoints(metricIds, p, downsample, points)
                                 .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, GAUGE));
     }
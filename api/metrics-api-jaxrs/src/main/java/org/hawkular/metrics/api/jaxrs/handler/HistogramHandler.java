@@ -0,0 +1,306 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.handler;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+import static org.hawkular.metrics.api.jaxrs.util.ApiUtils.badRequest;
+import static org.hawkular.metrics.model.MetricType.HISTOGRAM;
+import static org.hawkular.metrics.model.MetricType.UNDEFINED;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.UriInfo;
+
+import org.hawkular.metrics.api.jaxrs.AggregatedStatsQueryRequest;
+import org.hawkular.metrics.api.jaxrs.QueryRequest;
+import org.hawkular.metrics.api.jaxrs.handler.observer.MetricCreatedObserver;
+import org.hawkular.metrics.api.jaxrs.handler.observer.ResultSetObserver;
+import org.hawkular.metrics.api.jaxrs.param.TimeAndBucketParams;
+import org.hawkular.metrics.api.jaxrs.param.TimeAndSortParams;
+import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
+import org.hawkular.metrics.api.jaxrs.util.Logged;
+import org.hawkular.metrics.core.service.Functions;
+import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.model.ApiError;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.HistogramSketch;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.param.Duration;
+import org.hawkular.metrics.model.param.Percentiles;
+import org.jboss.resteasy.annotations.GZIP;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+/**
+ * Histograms store the distribution of the values observed during an interval, such as request latencies, as a
+ * mergeable sketch per data point. Their stats merge the sketches of all the queried metrics in each bucket.
+ */
+@Path("/histograms")
+@Consumes(APPLICATION_JSON)
+@Produces(APPLICATION_JSON)
+@GZIP
+@Api(tags = "Histogram", description = "This resource is experimental and changes may be made to it in subsequent " +
+        "releases that are not backwards compatible.")
+@ApplicationScoped
+@Logged
+public class HistogramHandler extends MetricsServiceHandler {
+
+    @POST
+    @Path("/")
+    @ApiOperation(value = "Create histogram metric.", notes = "Clients are not required to explicitly create "
+            + "a metric before storing data. Doing so however allows clients to prevent naming collisions and to "
+            + "specify tags and data retention.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 201, message = "Metric created successfully"),
+            @ApiResponse(code = 400, message = "Missing or invalid payload", response = ApiError.class),
+            @ApiResponse(code = 409, message = "Histogram metric with given id already exists",
+                    response = ApiError.class),
+            @ApiResponse(code = 500, message = "Metric creation failed due to an unexpected error",
+                    response = ApiError.class)
+    })
+    public void createMetric(
+            @Suspended final AsyncResponse asyncResponse,
+            @ApiParam(required = true) Metric<HistogramSketch> metric,
+            @ApiParam(value = "Overwrite previously created metric configuration if it exists. "
+                    + "Only data retention and tags are overwriten; existing data points are unnafected. "
+                    + "Defaults to false."
+            ) @DefaultValue("false") @QueryParam("overwrite") Boolean overwrite,
+            @Context UriInfo uriInfo
+    ) {
+        if (metric.getType() != null && UNDEFINED != metric.getType() && HISTOGRAM != metric.getType()) {
+            asyncResponse.resume(badRequest(new ApiError("Metric type does not match " + HISTOGRAM.getText())));
+            return;
+        }
+        metric = new Metric<>(new MetricId<>(getTenant(), HISTOGRAM, metric.getId()), metric.getTags(),
+                metric.getDataRetention());
+        URI location = uriInfo.getBaseUriBuilder().path("/histograms/{id}").build(metric.getMetricId().getName());
+        metricsService.createMetric(metric, overwrite).subscribe(new MetricCreatedObserver(asyncResponse, location));
+    }
+
+    @POST
+    @Path("/raw")
+    @ApiOperation(value = "Add data for multiple histogram metrics in a single call.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Adding data succeeded."),
+            @ApiResponse(code = 400, message = "Missing or invalid payload", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error happened while storing the data",
+                    response = ApiError.class)
+    })
+    public void addData(
+            @Suspended final AsyncResponse asyncResponse,
+            @ApiParam(value = "List of metrics", required = true) List<Metric<HistogramSketch>> histograms) {
+        Observable<Metric<HistogramSketch>> metrics = Functions.metricToObservable(getTenant(), histograms,
+                HISTOGRAM);
+        metricsService.addDataPoints(HISTOGRAM, metrics).subscribe(new ResultSetObserver(asyncResponse));
+    }
+
+    @POST
+    @Path("/{id}/raw")
+    @ApiOperation(value = "Add data for a single histogram metric.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Adding data succeeded."),
+            @ApiResponse(code = 400, message = "Missing or invalid payload", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error happened while storing the data",
+                    response = ApiError.class),
+    })
+    public void addMetricData(
+            @Suspended final AsyncResponse asyncResponse,
+            @PathParam("id") String id,
+            @ApiParam(value = "List of datapoints containing timestamp and sketch, either as the observed values or " +
+                    "as the buckets returned by queries", required = true)
+            List<DataPoint<HistogramSketch>> data
+    ) {
+        Observable<Metric<HistogramSketch>> metrics = Functions.dataPointToObservable(getTenant(), id, data,
+                HISTOGRAM);
+        metricsService.addDataPoints(HISTOGRAM, metrics).subscribe(new ResultSetObserver(asyncResponse));
+    }
+
+    @GET
+    @Path("/{id}/raw")
+    @ApiOperation(value = "Retrieve the sketches of a histogram.", response = DataPoint.class,
+            responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched metric data."),
+            @ApiResponse(code = 204, message = "No metric data was found."),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getMetricData(
+            @Suspended AsyncResponse asyncResponse,
+            @PathParam("id") String id,
+            @ApiParam(value = "Defaults to now - 8 hours") @QueryParam("start") String start,
+            @ApiParam(value = "Defaults to now") @QueryParam("end") String end,
+            @ApiParam(value = "Use data from earliest received, subject to retention period")
+                @QueryParam("fromEarliest") Boolean fromEarliest,
+            @ApiParam(value = "Limit the number of data points returned") @QueryParam("limit") Integer limit,
+            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order) {
+        MetricId<HistogramSketch> metricId = new MetricId<>(getTenant(), HISTOGRAM, id);
+        TimeAndSortParams.<HistogramSketch>deferredBuilder(start, end)
+                .fromEarliest(fromEarliest, metricId, this::findTimeRange)
+                .sortOptions(limit, order)
+                .toObservable()
+                .flatMap(p -> metricsService.findDataPoints(metricId, p.getTimeRange().getStart(),
+                        p.getTimeRange().getEnd(), p.getLimit(), p.getOrder()))
+                .toList()
+                .map(ApiUtils::collectionToResponse)
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
+    }
+
+    @POST
+    @Path("/raw/query")
+    @ApiOperation(value = "Fetch the sketches of multiple histograms.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched metric data points."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "No metric ids are specified", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getData(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
+                    "tags. The standard start, end, order, and limit query parameters are supported as well.")
+                    QueryRequest query) {
+        findMetricsByNameOrTag(query.getIds(), query.getTags(), HISTOGRAM)
+                .toList()
+                .flatMap(metricIds -> TimeAndSortParams.<HistogramSketch>deferredBuilder(query.getStart(),
+                        query.getEnd())
+                        .fromEarliest(query.getFromEarliest(), metricIds, this::findTimeRange)
+                        .sortOptions(query.getLimit(), query.getOrder())
+                        .toObservable()
+                        .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
+                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                .observeOn(Schedulers.io())))
+                .subscribe(createNamedDataPointObserver(asyncResponse, HISTOGRAM));
+    }
+
+    @POST
+    @Path("/raw/latest")
+    @ApiOperation(value = "Fetch the latest sketch of multiple histogram metrics. The limit and order parameters " +
+            "are ignored.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched the latest data points."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "No metric ids are specified", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getLatestData(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
+                    "tags. The standard start and end query parameters are supported as well.")
+                    QueryRequest query) {
+        findLatestDataPoints(asyncResponse, query, HISTOGRAM);
+    }
+
+    @GET
+    @Path("/{id}/stats")
+    @ApiOperation(value = "Retrieve histogram stats.", notes = "The time range between start and end will be divided "
+            + "in buckets of equal duration, the sketches of each bucket are merged to compute its statistics.",
+            response = NumericBucketPoint.class, responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched metric data."),
+            @ApiResponse(code = 204, message = "No metric data was found."),
+            @ApiResponse(code = 400, message = "buckets or bucketDuration parameter is invalid, or both are used.",
+                    response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getMetricStats(
+            @Suspended AsyncResponse asyncResponse,
+            @PathParam("id") String id,
+            @ApiParam(value = "Defaults to now - 8 hours") @QueryParam("start") String start,
+            @ApiParam(value = "Defaults to now") @QueryParam("end") String end,
+            @ApiParam(value = "Use data from earliest received, subject to retention period")
+                @QueryParam("fromEarliest") Boolean fromEarliest,
+            @ApiParam(value = "Total number of buckets") @QueryParam("buckets") Integer bucketsCount,
+            @ApiParam(value = "Bucket duration") @QueryParam("bucketDuration") Duration bucketDuration,
+            @ApiParam(value = "Percentiles to calculate") @QueryParam("percentiles") Percentiles percentiles) {
+        MetricId<HistogramSketch> metricId = new MetricId<>(getTenant(), HISTOGRAM, id);
+        TimeAndBucketParams.<HistogramSketch>deferredBuilder(start, end)
+                .fromEarliest(fromEarliest, metricId, this::findTimeRange)
+                .bucketConfig(bucketsCount, bucketDuration)
+                .percentiles(percentiles)
+                .toObservable()
+                .flatMap(p -> metricsService.findHistogramStats(Collections.singletonList(metricId),
+                        p.getTimeRange().getStart(), p.getTimeRange().getEnd(), p.getBucketConfig().getBuckets(),
+                        p.getPercentiles()))
+                .flatMap(Observable::from)
+                .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
+                .toList()
+                .map(ApiUtils::collectionToResponse)
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
+    }
+
+    @POST
+    @Path("/stats/query")
+    @ApiOperation(value = "Find stats for multiple histograms. The sketches of all the metrics are merged in each " +
+            "bucket, the percentiles are those of all the values the metrics observed.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched metric data."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "Either tags or metric ids is required but not both. Either the " +
+                    "buckets or the bucketDuration parameter is required but not both.", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getStats(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids " +
+                    "or tags. The standard start, end, buckets, bucketDuration and percentiles parameters are " +
+                    "supported as well, stacked is ignored.")
+                    AggregatedStatsQueryRequest query) {
+        findMetricsByNameOrTag(query.getMetrics(), query.getTags(), HISTOGRAM)
+                .toList()
+                .flatMap(metricIds -> TimeAndBucketParams.<HistogramSketch>deferredBuilder(query.getStart(),
+                        query.getEnd())
+                        .fromEarliest(query.getFromEarliest(), metricIds, this::findTimeRange)
+                        .bucketConfig(query.getBuckets(), query.getBucketDuration())
+                        .percentiles(query.getPercentiles())
+                        .toObservable()
+                        .flatMap(p -> metricsService.findHistogramStats(metricIds, p.getTimeRange().getStart(),
+                                p.getTimeRange().getEnd(), p.getBucketConfig().getBuckets(), p.getPercentiles())))
+                .flatMap(Observable::from)
+                .skipWhile(bucket -> Boolean.TRUE.equals(query.getFromEarliest()) && bucket.isEmpty())
+                .toList()
+                .map(ApiUtils::collectionToResponse)
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
+    }
+}
@@ -17,7 +17,6 @@
 package org.hawkular.metrics.api.jaxrs.handler;
 
 import static java.util.Collections.emptyList;
-import static java.util.Collections.emptyMap;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 
@@ -33,6 +32,7 @@ import static org.hawkular.metrics.model.MetricType.GAUGE_RATE;
 import static org.hawkular.metrics.model.MetricType.STRING;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -57,14 +57,19 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
 import org.hawkular.metrics.api.jaxrs.StatsQueryRequest;
+import org.hawkular.metrics.api.jaxrs.TopSeriesQueryRequest;
 import org.hawkular.metrics.api.jaxrs.handler.observer.MetricCreatedObserver;
+import org.hawkular.metrics.api.jaxrs.handler.observer.ResponseObserver;
 import org.hawkular.metrics.api.jaxrs.param.DurationConverter;
 import org.hawkular.metrics.api.jaxrs.param.PercentilesConverter;
 import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
 import org.hawkular.metrics.api.jaxrs.util.Logged;
+import org.hawkular.metrics.api.jaxrs.util.MetricRegistryProvider;
 import org.hawkular.metrics.api.jaxrs.util.MetricTypeTextConverter;
+import org.hawkular.metrics.api.jaxrs.util.QueryCancellation;
 import org.hawkular.metrics.core.service.Functions;
 import org.hawkular.metrics.core.service.MetricsService;
+import org.hawkular.metrics.core.service.StatsQueryPlanner;
 import org.hawkular.metrics.core.service.transformers.MinMaxTimestampTransformer;
 import org.hawkular.metrics.model.ApiError;
 import org.hawkular.metrics.model.AvailabilityType;
@@ -74,6 +79,7 @@ import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
 import org.hawkular.metrics.model.MixedMetricsRequest;
 import org.hawkular.metrics.model.Percentile;
+import org.hawkular.metrics.model.RankedSeries;
 import org.hawkular.metrics.model.param.BucketConfig;
 import org.hawkular.metrics.model.param.Duration;
 import org.hawkular.metrics.model.param.Tags;
@@ -89,6 +95,7 @@ import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import rx.Observable;
+import rx.functions.Func1;
 
 
 /**
@@ -104,9 +111,14 @@ import rx.Observable;
 @ApplicationScoped
 @Logged
 public class MetricHandler {
+    private static final String SINGLE_STATS_QUERY = "query";
+
     @Inject
     private MetricsService metricsService;
 
+    @Inject
+    private QueryCancellation queryCancellation;
+
     @Context
     private HttpHeaders httpHeaders;
 
@@ -114,6 +126,11 @@ public class MetricHandler {
         return httpHeaders.getRequestHeaders().getFirst(TENANT_HEADER_NAME);
     }
 
+    private ResponseObserver createResponseObserver(AsyncResponse asyncResponse,
+            Func1<Throwable, Response> errorMapper) {
+        return MetricsServiceHandler.createResponseObserver(queryCancellation, asyncResponse, errorMapper);
+    }
+
     @POST
     @Path("/")
     @ApiOperation(value = "Create metric.", notes = "Clients are not required to explicitly create "
@@ -160,7 +177,7 @@ public class MetricHandler {
         metricsService.getTagNames(getTenant(), metricType, tagNameFilter)
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @GET
@@ -179,7 +196,7 @@ public class MetricHandler {
                             @ApiParam("Tag query") @PathParam("tags") Tags tags) {
         metricsService.getTagValues(getTenant(), metricType, tags.getTags())
                 .map(ApiUtils::mapToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @GET
@@ -302,9 +319,10 @@ public class MetricHandler {
     public void findStats(@Suspended AsyncResponse asyncResponse, StatsQueryRequest query) {
         try {
             checkRequiredParams(query);
-            doStatsQuery(query)
+            doStatsQueries(ImmutableMap.of(SINGLE_STATS_QUERY, query))
+                    .map(results -> results.get(SINGLE_STATS_QUERY))
                     .map(ApiUtils::mapToResponse)
-                    .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                    .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
         } catch (IllegalArgumentException e) {
             asyncResponse.resume(badRequest(new ApiError(e.getMessage())));
         }
@@ -312,24 +330,100 @@ public class MetricHandler {
 
     @POST
     @Path("/stats/batch/query")
-    @SuppressWarnings("unchecked")
     public void findStatsBatched(@Suspended AsyncResponse asyncResponse, Map<String, StatsQueryRequest> queries) {
         try {
             queries.values().forEach(this::checkRequiredParams);
-            Map<String, Observable<Map<String, Map<String, List<? extends BucketPoint>>>>> results = new HashMap<>();
-            queries.entrySet().forEach(entry -> results.put(entry.getKey(), doStatsQuery(entry.getValue())));
-            Observable.from(results.entrySet())
-                    .flatMap(entry -> entry.getValue()
-                            .map(map -> ImmutableMap.of(entry.getKey(), map)))
-                    .collect(HashMap::new, HashMap::putAll)
+            doStatsQueries(queries)
                     .map(ApiUtils::mapToResponse)
-                    .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                    .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
         } catch (IllegalArgumentException e) {
             asyncResponse.resume(badRequest(new ApiError(e.getMessage())));
         }
     }
 
-    private Observable<Map<String, Map<String, List<? extends BucketPoint>>>> doStatsQuery(StatsQueryRequest query) {
+    @POST
+    @Path("/top/query")
+    @ApiOperation(value = "Rank gauges and counters together by an aggregate of their data points and fetch the " +
+            "best ones. The types parameter restricts the metric types, gauges and counters by default. See the " +
+            "gauges top query for the other parameters. This endpoint is experimental and may undergo " +
+            "non-backwards compatible changes in future releases.",
+            response = RankedSeries.class, responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully ranked the metrics."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "Either tags or metric ids is required but not both. The types, rank " +
+                    "function, order or limit is invalid.", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void findTopSeries(@Suspended AsyncResponse asyncResponse, TopSeriesQueryRequest query) {
+        boolean hasIds = query.getIds() != null && !query.getIds().isEmpty();
+        if (hasIds == (query.getTags() != null)) {
+            asyncResponse.resume(badRequest(new ApiError("Either ids or tags is required but not both")));
+            return;
+        }
+        List<MetricType<? extends Number>> types = new ArrayList<>();
+        if (query.getTypes() == null || query.getTypes().isEmpty()) {
+            types.add(GAUGE);
+            types.add(COUNTER);
+        } else {
+            for (String text : query.getTypes()) {
+                MetricType<?> type;
+                try {
+                    type = MetricType.fromTextCode(text);
+                } catch (IllegalArgumentException e) {
+                    asyncResponse.resume(badRequest(new ApiError(e.getMessage())));
+                    return;
+                }
+                if (type == GAUGE) {
+                    types.add(GAUGE);
+                } else if (type == COUNTER) {
+                    types.add(COUNTER);
+                } else {
+                    asyncResponse.resume(badRequest(new ApiError("Only gauges and counters can be ranked")));
+                    return;
+                }
+            }
+        }
+        Observable<MetricId<? extends Number>> metricIds = Observable.from(types).concatMap(type -> {
+            if (hasIds) {
+                return Observable.from(query.getIds()).map(id -> new MetricId<>(getTenant(), type, id));
+            }
+            return metricsService.findMetricIdentifiersWithFilters(getTenant(), type, query.getTags());
+        });
+        MetricsServiceHandler.findTopSeries(metricsService, queryCancellation, asyncResponse, query, metricIds);
+    }
+
+    /**
+     * Plans the reads of all the queries before executing them, so that a series needed by several queries, or by
+     * several aggregates of the same query (e.g. gauge and gauge_rate), is fetched only once.
+     *
+     * @return the stats of each query, by metric type text and metric name
+     */
+    private Observable<Map<String, Map<String, Map<String, List<? extends BucketPoint>>>>> doStatsQueries(
+            Map<String, StatsQueryRequest> queries) {
+        Map<String, Observable<? extends MetricId<?>>> idsByTags = new HashMap<>();
+        List<Observable<StatsQueryPlanner.Request<StatsKey>>> requests = new ArrayList<>(queries.size());
+        queries.forEach((queryKey, query) -> requests.add(getStatsRequests(queryKey, query, idsByTags)));
+
+        StatsQueryPlanner<StatsKey> planner = new StatsQueryPlanner<>(metricsService,
+                MetricRegistryProvider.INSTANCE.getMetricRegistry().timer(StatsQueryPlanner.AGGREGATION_LATENCY));
+        return Observable.merge(requests)
+                .toList()
+                .flatMap(planner::execute)
+                .collect(() -> {
+                    Map<String, Map<String, Map<String, List<? extends BucketPoint>>>> stats = new HashMap<>();
+                    queries.keySet().forEach(queryKey -> stats.put(queryKey, new HashMap<>()));
+                    return stats;
+                }, (stats, result) -> {
+                    StatsKey key = result.getKey();
+                    stats.get(key.query).computeIfAbsent(key.type, type -> new HashMap<>())
+                            .put(key.name, result.getBucketPoints());
+                });
+    }
+
+    private Observable<StatsQueryPlanner.Request<StatsKey>> getStatsRequests(String queryKey,
+            StatsQueryRequest query, Map<String, Observable<? extends MetricId<?>>> idsByTags) {
         Duration duration;
         if (query.getBucketDuration() == null) {
             duration = null;
@@ -351,128 +445,55 @@ public class MetricHandler {
             types = query.getTypes().stream().map(MetricType::fromTextCode).collect(Collectors.toList());
         }
 
-        Observable<Map<String, List<? extends BucketPoint>>> gaugeStats = Observable.just(emptyMap());
-        Observable<Map<String, List<? extends BucketPoint>>> counterStats = Observable.just(emptyMap());
-        Observable<Map<String, List<? extends BucketPoint>>> availabilityStats = Observable.just(emptyMap());
-        Observable<Map<String, List<? extends BucketPoint>>> gaugeRateStats = Observable.just(emptyMap());
-        Observable<Map<String, List<? extends BucketPoint>>> counterRateStats = Observable.just(emptyMap());
-
-        // TODO Eliminate duplicate queries when fetching and rates
-        // When we return gauge and gauge rates and/or counter and counter rate data points we are doing extra queries
-        // that can be avoided. The code below can be optimized such that we fetch gauge/counter raw data, and then
-        // reuse that observable to compute stats and rate stats.
+        Observable<StatsQueryPlanner.Request<StatsKey>> gaugeRequests = Observable.empty();
+        Observable<StatsQueryPlanner.Request<StatsKey>> counterRequests = Observable.empty();
+        Observable<StatsQueryPlanner.Request<StatsKey>> availabilityRequests = Observable.empty();
 
         if (!query.getMetrics().isEmpty() && (query.getMetrics().containsKey(GAUGE.getText()) ||
                 query.getMetrics().containsKey(COUNTER.getText()) ||
                 query.getMetrics().containsKey(AVAILABILITY.getText())
         )) {
             if (!isMetricsEmpty(query, GAUGE)) {
-                if (types.isEmpty()) {
-                    gaugeStats = getGaugeStats(getMetricIds(query, GAUGE), bucketsConfig, percentiles);
-                } else if (types.contains(GAUGE_RATE)) {
-                    if (types.contains(GAUGE)) {
-                        gaugeStats = getGaugeStats(query, bucketsConfig, percentiles);
-                        gaugeRateStats = getRateStats(getMetricIds(query, GAUGE), bucketsConfig, percentiles);
-                    } else {
-                        gaugeRateStats = getRateStats(getMetricIds(query, GAUGE), bucketsConfig, percentiles);
-                    }
-                } else {
-                    gaugeStats = getGaugeStats(getMetricIds(query, GAUGE), bucketsConfig, percentiles);
-                }
+                boolean rates = types.contains(GAUGE_RATE);
+                boolean stats = !rates || types.contains(GAUGE);
+                gaugeRequests = getNumericStatsRequests(queryKey, getMetricIds(query, GAUGE), stats, rates,
+                        bucketsConfig, percentiles);
             }
-
             if (!isMetricsEmpty(query, COUNTER)) {
-                if (types.isEmpty()) {
-                    counterStats = getCounterStats(getMetricIds(query, COUNTER), bucketsConfig, percentiles);
-                } else if (types.contains(COUNTER_RATE)) {
-                    if (types.contains(COUNTER)) {
-                        counterStats = getCounterStats(getMetricIds(query, COUNTER), bucketsConfig, percentiles);
-                        counterRateStats = getRateStats(getMetricIds(query, COUNTER), bucketsConfig, percentiles);
-                    } else {
-                        counterRateStats = getRateStats(getMetricIds(query, COUNTER), bucketsConfig, percentiles);
-                    }
-                } else {
-                    counterStats = getCounterStats(query, bucketsConfig, percentiles);
-                }
+                boolean rates = types.contains(COUNTER_RATE);
+                boolean stats = !rates || types.contains(COUNTER);
+                counterRequests = getNumericStatsRequests(queryKey, getMetricIds(query, COUNTER), stats, rates,
+                        bucketsConfig, percentiles);
             }
-
             if (!isMetricsEmpty(query, AVAILABILITY)) {
-                availabilityStats = Observable.from(query.getMetrics().get("availability"))
-                        .flatMap(id -> metricsService.findAvailabilityStats(new MetricId<>(getTenant(), AVAILABILITY,
-                                id), timeRange.getStart(), timeRange.getEnd(), bucketsConfig.getBuckets())
-                                .map(bucketPoints -> new NamedBucketPoints<>(id, bucketPoints)))
-                        .collect(HashMap::new, (statsMap, namedBucketPoints) -> statsMap.put(namedBucketPoints.id,
-                                namedBucketPoints.bucketPoints));
+                availabilityRequests = getAvailabilityStatsRequests(queryKey, getMetricIds(query, AVAILABILITY),
+                        bucketsConfig);
             }
+        } else if (types.isEmpty()) {
+            gaugeRequests = getNumericStatsRequests(queryKey, getMetricIds(GAUGE, query.getTags(), idsByTags), true,
+                    false, bucketsConfig, percentiles);
+            counterRequests = getNumericStatsRequests(queryKey, getMetricIds(COUNTER, query.getTags(), idsByTags),
+                    true, false, bucketsConfig, percentiles);
+            availabilityRequests = getAvailabilityStatsRequests(queryKey,
+                    getMetricIds(AVAILABILITY, query.getTags(), idsByTags), bucketsConfig);
         } else {
-            Observable<MetricId<Double>> gauges;
-            Observable<MetricId<Long>> counters;
-
-            if (types.isEmpty()) {
-                gaugeStats = getGaugeStatsFromTags(bucketsConfig, percentiles, query.getTags());
-                counterStats = getCounterStatsFromTags(bucketsConfig, percentiles, query.getTags());
-                availabilityStats = getAvailabilityStatsFromTags(bucketsConfig, query.getTags());
-            } else {
-                if (types.contains(GAUGE) && types.contains(GAUGE_RATE)) {
-                    gauges = metricsService.findMetricIdentifiersWithFilters(getTenant(), GAUGE, query.getTags()).cache();
-                    gaugeStats = gauges.flatMap(gauge ->
-                            metricsService.findGaugeStats(gauge, bucketsConfig, percentiles)
-                            .map(bucketPoints -> new NamedBucketPoints<>(gauge.getName(),
-                                            bucketPoints)))
-                            .collect(HashMap::new, (statsMap, namedBucketPoints) ->
-                                    statsMap.put(namedBucketPoints.id, namedBucketPoints.bucketPoints));
-                    gaugeRateStats = getRateStats(gauges, bucketsConfig, percentiles);
-                } else if (types.contains(GAUGE)) {
-                    gaugeStats = getGaugeStatsFromTags(bucketsConfig, percentiles, query.getTags());
-                } else {
-                    gauges = metricsService.findMetricIdentifiersWithFilters(getTenant(), GAUGE, query.getTags());
-                    gaugeRateStats = getRateStats(gauges, bucketsConfig, percentiles);
-                }
-
-                if (types.contains(COUNTER) && types.contains(COUNTER_RATE)) {
-                    counters = metricsService.findMetricIdentifiersWithFilters(getTenant(), COUNTER, query.getTags())
-                            .cache();
-                    counterStats = counters.flatMap(counter ->
-                            metricsService.findCounterStats(counter, bucketsConfig, percentiles)
-                                    .map(bucketPoints -> new NamedBucketPoints<>(counter.getName(),
-                                            bucketPoints)))
-                            .collect(HashMap::new, (statsMap, namedBucketPoints) ->
-                                    statsMap.put(namedBucketPoints.id, namedBucketPoints.bucketPoints));
-                    counterRateStats = getRateStats(counters, bucketsConfig, percentiles);
-                } else if (types.contains(COUNTER)) {
-                    counterStats = getCounterStatsFromTags(bucketsConfig, percentiles, query.getTags());
-                } else {
-                    counters = metricsService.findMetricIdentifiersWithFilters(getTenant(), COUNTER, query.getTags());
-                    counterRateStats = getRateStats(counters, bucketsConfig, percentiles);
-                }
-
-                if (types.contains(AVAILABILITY)) {
-                    availabilityStats = getAvailabilityStatsFromTags(bucketsConfig, query.getTags());
-                }
+            boolean gaugeStats = types.contains(GAUGE);
+            boolean gaugeRates = !gaugeStats || types.contains(GAUGE_RATE);
+            gaugeRequests = getNumericStatsRequests(queryKey, getMetricIds(GAUGE, query.getTags(), idsByTags),
+                    gaugeStats, gaugeRates, bucketsConfig, percentiles);
+
+            boolean counterStats = types.contains(COUNTER);
+            boolean counterRates = !counterStats || types.contains(COUNTER_RATE);
+            counterRequests = getNumericStatsRequests(queryKey, getMetricIds(COUNTER, query.getTags(), idsByTags),
+                    counterStats, counterRates, bucketsConfig, percentiles);
+
+            if (types.contains(AVAILABILITY)) {
+                availabilityRequests = getAvailabilityStatsRequests(queryKey,
+                        getMetricIds(AVAILABILITY, query.getTags(), idsByTags), bucketsConfig);
             }
         }
 
-        return Observable.zip(gaugeStats, counterStats, availabilityStats, gaugeRateStats, counterRateStats,
-                (gaugeMap, counterMap, availabiltyMap, gaugeRateMap, counterRateMap) -> {
-                    Map<String, Map<String, List<? extends BucketPoint>>> stats = new HashMap<>();
-                    if (!gaugeMap.isEmpty()) {
-                        stats.put(GAUGE.getText(), gaugeMap);
-                    }
-                    if (!counterMap.isEmpty()) {
-                        stats.put(COUNTER.getText(), counterMap);
-                    }
-                    if (!availabiltyMap.isEmpty()) {
-                        stats.put(AVAILABILITY.getText(), availabiltyMap);
-                    }
-                    if (!gaugeRateMap.isEmpty()) {
-                        stats.put(GAUGE_RATE.getText(), gaugeRateMap);
-                    }
-                    if (!counterRateMap.isEmpty()) {
-                        stats.put(COUNTER_RATE.getText(), counterRateMap);
-                    }
-                    return stats;
-                })
-                .first();
+        return Observable.merge(gaugeRequests, counterRequests, availabilityRequests);
     }
 
     private void checkRequiredParams(StatsQueryRequest query) {
@@ -482,96 +503,49 @@ public class MetricHandler {
         if (query.getBuckets() == null && query.getBucketDuration() == null) {
             throw new IllegalArgumentException("Either the buckets or bucketDuration property must be set");
         }
+        // Checked before subscribing, the planner would only fail the whole request with a server error
+        TimeRange timeRange = new TimeRange(query.getStart(), query.getEnd());
+        if (!timeRange.isValid()) {
+            throw new IllegalArgumentException(timeRange.getProblem());
+        }
     }
 
-    private Observable<Map<String, List<? extends BucketPoint>>> getCounterStatsFromTags(BucketConfig bucketsConfig,
-            List<Percentile> percentiles, String tags) {
-        Observable<MetricId<Long>> counters = metricsService.findMetricIdentifiersWithFilters(getTenant(), COUNTER,
-                tags);
-        return counters.flatMap(counter ->
-                metricsService.findCounterStats(counter, bucketsConfig, percentiles)
-                        .map(bucketPoints -> new NamedBucketPoints<>(counter.getName(),
-                                bucketPoints)))
-                .collect(HashMap::new, (statsMap, namedBucketPoints) ->
-                        statsMap.put(namedBucketPoints.id, namedBucketPoints.bucketPoints));
-    }
-
-    private Observable<Map<String, List<? extends BucketPoint>>> getGaugeStatsFromTags(BucketConfig bucketsConfig,
-            List<Percentile> percentiles, String tags) {
-        Observable<MetricId<Double>> gauges = metricsService.findMetricIdentifiersWithFilters(getTenant(), GAUGE, tags);
-        return gauges.flatMap(gauge ->
-                metricsService.findGaugeStats(gauge, bucketsConfig, percentiles)
-                .map(bucketPoints -> new NamedBucketPoints<>(gauge.getName(),
-                                bucketPoints)))
-                .collect(HashMap::new, (statsMap, namedBucketPoints) ->
-                        statsMap.put(namedBucketPoints.id, namedBucketPoints.bucketPoints));
-    }
-
-    private Observable<Map<String, List<? extends BucketPoint>>> getAvailabilityStatsFromTags(
-            BucketConfig bucketsConfig, String tags) {
-        Observable<MetricId<AvailabilityType>> availabilities = metricsService.findMetricIdentifiersWithFilters
-                (getTenant(), AVAILABILITY, tags);
-        Observable<Map<String, List<? extends BucketPoint>>> availabilityStats;
-        availabilityStats = availabilities.flatMap(availability -> metricsService.findAvailabilityStats(
-                availability, bucketsConfig.getTimeRange().getStart(),
-                bucketsConfig.getTimeRange().getEnd(), bucketsConfig.getBuckets())
-                .map(bucketPoints -> new NamedBucketPoints<>(availability.getName(),
-                        bucketPoints)))
-                .collect(HashMap::new, (statsMap, namedBucketPoints) ->
-                        statsMap.put(namedBucketPoints.id, namedBucketPoints.bucketPoints));
-        return availabilityStats;
-    }
-
-    private Observable<Map<String, List<? extends BucketPoint>>> getGaugeStats(StatsQueryRequest query,
-            BucketConfig bucketsConfig, List<Percentile> percentiles) {
-        Observable<Map<String, List<? extends BucketPoint>>> gaugeStats;
-        gaugeStats = Observable.from(query.getMetrics().get("gauge"))
-                .flatMap(id -> metricsService.findGaugeStats(new MetricId<>(getTenant(), GAUGE, id),
-                        bucketsConfig, percentiles)
-                        .map(bucketPoints -> new NamedBucketPoints<>(id, bucketPoints)))
-                .collect(HashMap::new, (statsMap, namedBucketPoints) ->
-                        statsMap.put(namedBucketPoints.id, namedBucketPoints.bucketPoints));
-        return gaugeStats;
-    }
-
-    private Observable<Map<String, List<? extends BucketPoint>>> getGaugeStats(Observable<MetricId<Double>> ids,
-            BucketConfig bucketConfig, List<Percentile> percentiles) {
-        return ids.flatMap(id -> metricsService.findGaugeStats(id, bucketConfig, percentiles)
-                .map(bucketPoints -> new NamedBucketPoints<>(id.getName(), bucketPoints)))
-                .collect(HashMap::new, (statsMap, namedBucketPoints) ->
-                        statsMap.put(namedBucketPoints.id, namedBucketPoints.bucketPoints));
-    }
-
-    private Observable<Map<String, List<? extends BucketPoint>>> getCounterStats(Observable<MetricId<Long>> ids,
-            BucketConfig bucketConfig, List<Percentile> percentiles) {
-        return ids.flatMap(id -> metricsService.findCounterStats(id, bucketConfig, percentiles)
-                .map(bucketPoints -> new NamedBucketPoints<>(id.getName(), bucketPoints)))
-                .collect(HashMap::new, (statsMap, namedBucketPoints) ->
-                        statsMap.put(namedBucketPoints.id, namedBucketPoints.bucketPoints));
+    private <T extends Number> Observable<StatsQueryPlanner.Request<StatsKey>> getNumericStatsRequests(
+            String queryKey, Observable<MetricId<T>> ids, boolean stats, boolean rates, BucketConfig bucketConfig,
+            List<Percentile> percentiles) {
+        return ids.flatMap(id -> {
+            List<StatsQueryPlanner.Request<StatsKey>> requests = new ArrayList<>(2);
+            if (stats) {
+                StatsKey key = new StatsKey(queryKey, id.getType().getText(), id.getName());
+                requests.add(StatsQueryPlanner.Request.stats(key, id, bucketConfig, percentiles));
+            }
+            if (rates) {
+                MetricType<Double> rateType = id.getType() == GAUGE ? GAUGE_RATE : COUNTER_RATE;
+                StatsKey key = new StatsKey(queryKey, rateType.getText(), id.getName());
+                requests.add(StatsQueryPlanner.Request.rateStats(key, id, bucketConfig, percentiles));
+            }
+            return Observable.from(requests);
+        });
     }
 
-    private Observable<Map<String, List<? extends BucketPoint>>> getCounterStats(StatsQueryRequest query,
-            BucketConfig bucketsConfig, List<Percentile> percentiles) {
-        Observable<Map<String, List<? extends BucketPoint>>> counterStats;
-        counterStats = Observable.from(query.getMetrics().get("counter"))
-                .flatMap(id -> metricsService.findCounterStats(new MetricId<>(getTenant(), COUNTER, id),
-                        bucketsConfig, percentiles)
-                        .map(bucketPoints -> new NamedBucketPoints<>(id, bucketPoints)))
-                .collect(HashMap::new, (statsMap, namedBucketPoints) -> statsMap.put(namedBucketPoints.id,
-                        namedBucketPoints.bucketPoints));
-        return counterStats;
+    private Observable<StatsQueryPlanner.Request<StatsKey>> getAvailabilityStatsRequests(String queryKey,
+            Observable<MetricId<AvailabilityType>> ids, BucketConfig bucketConfig) {
+        return ids.map(id -> StatsQueryPlanner.Request.availabilityStats(
+                new StatsKey(queryKey, AVAILABILITY.getText(), id.getName()), id, bucketConfig));
     }
 
     private <T> Observable<MetricId<T>> getMetricIds(StatsQueryRequest query, MetricType<T> type) {
         return Observable.from(query.getMetrics().get(type.getText())).map(id -> new MetricId<>(getTenant(), type, id));
     }
 
-    private <T extends Number> Observable<Map<String, List<? extends BucketPoint>>> getRateStats(
-            Observable<MetricId<T>> ids, BucketConfig bucketConfig, List<Percentile> percentiles) {
-        return ids.flatMap(id -> metricsService.findRateStats(id, bucketConfig, percentiles)
-                .map(bucketPoints -> new NamedBucketPoints<>(id.getName(), bucketPoints)))
-                .collect(HashMap::new, (statsMap, namedBucketPoints) -> statsMap.put(namedBucketPoints.id,
-                        namedBucketPoints.bucketPoints));
+    /**
+     * Tag queries are shared by all the queries of a batch, so that each one is resolved only once.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Observable<MetricId<T>> getMetricIds(MetricType<T> type, String tags,
+            Map<String, Observable<? extends MetricId<?>>> idsByTags) {
+        return (Observable<MetricId<T>>) idsByTags.computeIfAbsent(type.getText() + "|" + tags,
+                key -> metricsService.findMetricIdentifiersWithFilters(getTenant(), type, tags).cache());
     }
 
     private <T> boolean isMetricsEmpty(StatsQueryRequest query, MetricType<T> type) {
@@ -587,13 +561,15 @@ public class MetricHandler {
                 query.getMetrics().getOrDefault("availability", emptyList()).isEmpty();
     }
 
-    private class NamedBucketPoints<T extends BucketPoint> {
-        public String id;
-        public List<T> bucketPoints;
+    private static class StatsKey {
+        final String query;
+        final String type;
+        final String name;
 
-        public NamedBucketPoints(String id, List<T> bucketPoints) {
-            this.id = id;
-            this.bucketPoints = bucketPoints;
+        StatsKey(String query, String type, String name) {
+            this.query = query;
+            this.type = type;
+            this.name = name;
         }
     }
 
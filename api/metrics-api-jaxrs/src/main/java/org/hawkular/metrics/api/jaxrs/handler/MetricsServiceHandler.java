@@ -17,6 +17,7 @@
 package org.hawkular.metrics.api.jaxrs.handler;
 
 import static org.hawkular.metrics.api.jaxrs.filter.TenantFilter.TENANT_HEADER_NAME;
+import static org.hawkular.metrics.api.jaxrs.util.ApiUtils.badRequest;
 
 import java.util.Collection;
 import java.util.List;
@@ -26,30 +27,52 @@ import javax.inject.Inject;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
 
+import org.hawkular.metrics.api.jaxrs.AggregatedStatsQueryRequest;
+import org.hawkular.metrics.api.jaxrs.QueryRequest;
+import org.hawkular.metrics.api.jaxrs.TopSeriesQueryRequest;
 import org.hawkular.metrics.api.jaxrs.handler.observer.NamedDataPointObserver;
+import org.hawkular.metrics.api.jaxrs.handler.observer.ResponseObserver;
+import org.hawkular.metrics.api.jaxrs.param.TimeAndBucketParams;
+import org.hawkular.metrics.api.jaxrs.param.TimeAndSortParams;
+import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
+import org.hawkular.metrics.api.jaxrs.util.QueryCancellation;
+import org.hawkular.metrics.core.service.Downsampling;
 import org.hawkular.metrics.core.service.MetricsService;
+import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.RankFunction;
+import org.hawkular.metrics.core.service.transformers.DownsampleTransformer;
+import org.hawkular.metrics.model.ApiError;
+import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
+import org.hawkular.metrics.model.NamedDataPoint;
 import org.hawkular.metrics.model.exception.RuntimeApiError;
 import org.hawkular.metrics.model.param.TimeRange;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import rx.Observable;
+import rx.functions.Func1;
 
 /**
  * @author jsanda
  */
 abstract class MetricsServiceHandler {
 
+    private static final int DEFAULT_TOP_SERIES_LIMIT = 10;
+
     @Inject
     protected MetricsService metricsService;
 
     @Inject
     protected ObjectMapper mapper;
 
+    @Inject
+    protected QueryCancellation queryCancellation;
+
     @Context
     protected HttpHeaders httpHeaders;
 
@@ -58,7 +81,24 @@ abstract class MetricsServiceHandler {
     }
 
     <T> NamedDataPointObserver<T> createNamedDataPointObserver(AsyncResponse response, MetricType<T> type) {
-        return new NamedDataPointObserver<>(response, mapper, type);
+        NamedDataPointObserver<T> observer = new NamedDataPointObserver<>(response, mapper, type);
+        queryCancellation.bind(response, observer);
+        return observer;
+    }
+
+    /**
+     * @return a subscriber resuming the response, which cancels the pipeline if the client goes away or the query runs
+     * past its deadline
+     */
+    ResponseObserver createResponseObserver(AsyncResponse response, Func1<Throwable, Response> errorMapper) {
+        return createResponseObserver(queryCancellation, response, errorMapper);
+    }
+
+    static ResponseObserver createResponseObserver(QueryCancellation queryCancellation, AsyncResponse response,
+            Func1<Throwable, Response> errorMapper) {
+        ResponseObserver observer = new ResponseObserver(response, errorMapper);
+        queryCancellation.bind(response, observer);
+        return observer;
     }
 
     <T> Observable<MetricId<T>> findMetricsByNameOrTag(List<String> metricNames, String tags, MetricType<T> type) {
@@ -76,6 +116,122 @@ abstract class MetricsServiceHandler {
         return metricsService.findMetricIdentifiersWithFilters(getTenant(), type, tags);
     }
 
+    /**
+     * Reads the raw data points of a metric. When points is set, the data points are downsampled to at most that
+     * many data points, using {@link Downsampling#LTTB} unless another method is given.
+     */
+    <T extends Number> Observable<DataPoint<T>> findDataPoints(MetricId<T> metricId, TimeAndSortParams params,
+            Downsampling downsampling, Integer points) {
+        long start = params.getTimeRange().getStart();
+        long end = params.getTimeRange().getEnd();
+        Observable<DataPoint<T>> dataPoints = metricsService.findDataPoints(metricId, start, end, params.getLimit(),
+                params.getOrder());
+        if (points == null) {
+            return dataPoints;
+        }
+        return dataPoints.compose(new DownsampleTransformer<>(downsampling == null ? Downsampling.LTTB : downsampling,
+                points, start, end));
+    }
+
+    /**
+     * Reads the raw data points of several metrics, each metric being downsampled separately.
+     *
+     * @see #findDataPoints(MetricId, TimeAndSortParams, Downsampling, Integer)
+     */
+    <T extends Number> Observable<NamedDataPoint<T>> findDataPoints(List<MetricId<T>> metricIds,
+            TimeAndSortParams params, Downsampling downsampling, Integer points) {
+        if (points == null) {
+            return metricsService.findDataPoints(metricIds, params.getTimeRange().getStart(),
+                    params.getTimeRange().getEnd(), params.getLimit(), params.getOrder());
+        }
+        return Observable.from(metricIds)
+                .concatMap(id -> findDataPoints(id, params, downsampling, points)
+                        .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)));
+    }
+
+    /**
+     * Resumes the response with the latest data point of each metric of the query within its time range. The limit and
+     * order of the query are ignored.
+     */
+    <T> void findLatestDataPoints(AsyncResponse asyncResponse, QueryRequest query, MetricType<T> type) {
+        TimeAndSortParams.<T>deferredBuilder(query.getStart(), query.getEnd())
+                .toObservable()
+                .flatMap(p -> metricsService.findLatestDataPoints(
+                        findMetricsByNameOrTag(query.getIds(), query.getTags(), type),
+                        p.getTimeRange().getStart(), p.getTimeRange().getEnd()))
+                .subscribe(createNamedDataPointObserver(asyncResponse, type));
+    }
+
+    /**
+     * Resumes the response with the stats of the metrics of the query grouped by the values of the groupBy tag.
+     */
+    <T extends Number> void findStatsGroupedByTag(AsyncResponse asyncResponse, AggregatedStatsQueryRequest query,
+            MetricType<T> type) {
+        if (query.getGroupBy() == null || query.getGroupBy().isEmpty()) {
+            asyncResponse.resume(badRequest(new ApiError("The groupBy parameter is required")));
+            return;
+        }
+        findMetricsByNameOrTag(query.getMetrics(), query.getTags(), type)
+                .toList()
+                .flatMap(metricIds -> TimeAndBucketParams.<T>deferredBuilder(query.getStart(), query.getEnd())
+                        .fromEarliest(query.getFromEarliest(), metricIds, this::findTimeRange)
+                        .bucketConfig(query.getBuckets(), query.getBucketDuration())
+                        .percentiles(query.getPercentiles())
+                        .toObservable()
+                        .flatMap(p -> metricsService.findNumericStatsGroupedByTag(metricIds, query.getGroupBy(),
+                                p.getTimeRange().getStart(), p.getTimeRange().getEnd(),
+                                p.getBucketConfig().getBuckets(), p.getPercentiles(), query.isStacked())))
+                .map(ApiUtils::mapToResponse)
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
+    }
+
+    /**
+     * Resumes the response with the series ranked by the rank function of the query, avg by default. The ten series
+     * with the highest values are returned, unless the limit and order of the query say otherwise.
+     */
+    static void findTopSeries(MetricsService metricsService, QueryCancellation queryCancellation,
+            AsyncResponse asyncResponse, TopSeriesQueryRequest query,
+            Observable<? extends MetricId<? extends Number>> metricIds) {
+        TimeRange timeRange = new TimeRange(query.getStart(), query.getEnd());
+        if (!timeRange.isValid()) {
+            asyncResponse.resume(badRequest(new ApiError(timeRange.getProblem())));
+            return;
+        }
+        RankFunction function;
+        Order order;
+        try {
+            function = query.getBy() == null ? RankFunction.AVG : RankFunction.fromText(query.getBy());
+            order = query.getOrder() == null ? Order.DESC : Order.fromText(query.getOrder());
+        } catch (IllegalArgumentException e) {
+            asyncResponse.resume(badRequest(new ApiError(e.getMessage())));
+            return;
+        }
+        int limit = query.getLimit() == null ? DEFAULT_TOP_SERIES_LIMIT : query.getLimit();
+        if (limit <= 0) {
+            asyncResponse.resume(badRequest(new ApiError("The limit must be positive")));
+            return;
+        }
+        metricIds.toList()
+                .flatMap(ids -> metricsService.findTopSeries(ids, timeRange.getStart(), timeRange.getEnd(), function,
+                        limit, order))
+                .toList()
+                .map(ApiUtils::collectionToResponse)
+                .subscribe(createResponseObserver(queryCancellation, asyncResponse, ApiUtils::error));
+    }
+
+    /**
+     * @return the problem with the downsampling parameters, or null if they are valid
+     */
+    static String checkDownsampling(Downsampling downsampling, Integer points) {
+        if (points == null) {
+            return downsampling == null ? null : "The points parameter is required for downsampling";
+        }
+        if (points < 2) {
+            return "The points parameter must be at least 2";
+        }
+        return null;
+    }
+
     <T> Observable<TimeRange> findTimeRange(String start, String end, Boolean fromEarliest,
                                                     Collection<MetricId<T>> metricIds) {
         if (Boolean.TRUE.equals(fromEarliest)) {
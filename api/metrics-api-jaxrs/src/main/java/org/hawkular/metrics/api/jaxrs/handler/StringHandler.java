@@ -170,7 +170,7 @@ public class StringHandler extends MetricsServiceHandler implements IMetricsHand
                 .compose(new MinMaxTimestampTransformer<>(metricsService))
                 .map(metric -> Response.ok(metric).build())
                 .switchIfEmpty(Observable.just(ApiUtils.noContent()))
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @DELETE
@@ -200,7 +200,7 @@ public class StringHandler extends MetricsServiceHandler implements IMetricsHand
             @ApiParam("Tag query") @PathParam("tags") Tags tags) {
         metricsService.getTagValues(getTenant(), STRING, tags.getTags())
                 .map(ApiUtils::mapToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @GET
@@ -215,7 +215,7 @@ public class StringHandler extends MetricsServiceHandler implements IMetricsHand
             @PathParam("id") String id) {
         metricsService.getMetricTags(new MetricId<>(getTenant(), STRING, id))
                 .map(ApiUtils::mapToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.serverError(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::serverError));
     }
 
     @PUT
@@ -317,6 +317,26 @@ public class StringHandler extends MetricsServiceHandler implements IMetricsHand
                 .subscribe(createNamedDataPointObserver(asyncResponse, STRING));
     }
 
+    @POST
+    @Path("/raw/latest")
+    @ApiOperation(value = "Fetch the latest data point of multiple string metrics. The limit and order parameters " +
+            "are ignored. This endpoint is experimental and may undergo non-backwards compatible changes in future " +
+            "releases.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched the latest data points."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "No metric ids are specified", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getLatestData(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
+                    "tags. The standard start and end query parameters are supported as well.")
+                    QueryRequest query) {
+        findLatestDataPoints(asyncResponse, query, STRING);
+    }
+
     @GET
     @Path("/{id}/raw")
     @ApiOperation(value = "Retrieve string data.", response = DataPoint.class, responseContainer = "List")
@@ -348,7 +368,7 @@ public class StringHandler extends MetricsServiceHandler implements IMetricsHand
                         .getTimeRange().getEnd(), distinct, p.getLimit(), p.getOrder()))
                 .toList()
                 .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createResponseObserver(asyncResponse, ApiUtils::error));
     }
 
     @GET
@@ -29,6 +29,7 @@ import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
 import org.hawkular.metrics.model.AvailabilityType;
 import org.hawkular.metrics.model.MetricType;
 import org.hawkular.metrics.model.NamedDataPoint;
+import org.hawkular.metrics.model.exception.QueryRejectedException;
 import org.jboss.logging.Logger;
 
 import com.fasterxml.jackson.core.JsonEncoding;
@@ -74,6 +75,8 @@ public class NamedDataPointObserver<T> extends Subscriber<NamedDataPoint<T>> {
             };
         } else if (type == MetricType.STRING) {
             writeValue = dataPoint -> generator.writeStringField("value", (String) dataPoint.getValue());
+        } else if (type == MetricType.HISTOGRAM) {
+            writeValue = dataPoint -> generator.writeObjectField("value", dataPoint.getValue());
         } else {
             throw new IllegalArgumentException(type + " is not supported metric type. This class should be " +
                     "updated to add support for it!");
@@ -137,7 +140,9 @@ public class NamedDataPointObserver<T> extends Subscriber<NamedDataPoint<T>> {
     public void onError(Throwable e) {
         log.trace("Fetching data failed", e);
         try {
-            if (currentMetric == null) {
+            if (e instanceof QueryRejectedException) {
+                response.resume(ApiUtils.tooManyRequests((QueryRejectedException) e));
+            } else if (currentMetric == null) {
                 response.resume(ApiUtils.serverError(e));
             } else {
                 generator.close();
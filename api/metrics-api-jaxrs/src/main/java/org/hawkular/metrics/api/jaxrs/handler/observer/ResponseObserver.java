@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.handler.observer;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+
+import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
+import org.hawkular.metrics.model.exception.QueryRejectedException;
+
+import rx.Subscriber;
+import rx.functions.Func1;
+
+/**
+ * Subscriber resuming the response with the single {@link Response} emitted by a pipeline, or with the response
+ * mapped from its error. Queries rejected by the admission control of their tenant are always answered with a 429.
+ * Being a subscriber, it can be unsubscribed to cancel the pipeline, see
+ * {@link org.hawkular.metrics.api.jaxrs.util.QueryCancellation}.
+ */
+public class ResponseObserver extends Subscriber<Response> {
+
+    private final AsyncResponse asyncResponse;
+    private final Func1<Throwable, Response> errorMapper;
+
+    public ResponseObserver(AsyncResponse asyncResponse, Func1<Throwable, Response> errorMapper) {
+        this.asyncResponse = asyncResponse;
+        this.errorMapper = errorMapper;
+    }
+
+    @Override
+    public void onNext(Response response) {
+        asyncResponse.resume(response);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (t instanceof QueryRejectedException) {
+            asyncResponse.resume(ApiUtils.tooManyRequests((QueryRejectedException) t));
+        } else {
+            asyncResponse.resume(errorMapper.call(t));
+        }
+    }
+
+    @Override
+    public void onCompleted() {
+        // The response has been resumed by onNext
+    }
+}
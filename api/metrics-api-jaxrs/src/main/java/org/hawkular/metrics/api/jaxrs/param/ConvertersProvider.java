@@ -23,6 +23,7 @@ import javax.ws.rs.ext.ParamConverter;
 import javax.ws.rs.ext.ParamConverterProvider;
 import javax.ws.rs.ext.Provider;
 
+import org.hawkular.metrics.core.service.Downsampling;
 import org.hawkular.metrics.core.service.Order;
 import org.hawkular.metrics.model.MetricType;
 import org.hawkular.metrics.model.param.Duration;
@@ -49,6 +50,7 @@ public class ConvertersProvider implements ParamConverterProvider {
                 .put(TagNames.class, new TagNamesConverter())
                 .put(MetricType.class, new MetricTypeConverter())
                 .put(Order.class, new OrderConverter())
+                .put(Downsampling.class, new DownsamplingConverter())
                 .put(Percentiles.class, new PercentilesConverter())
                 .build();
     }
@@ -19,12 +19,14 @@ package org.hawkular.metrics.api.jaxrs.util;
 import java.util.Collection;
 import java.util.Map;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.hawkular.metrics.api.jaxrs.log.RestLogger;
 import org.hawkular.metrics.api.jaxrs.log.RestLogging;
 import org.hawkular.metrics.model.ApiError;
+import org.hawkular.metrics.model.exception.QueryRejectedException;
 import org.hawkular.metrics.model.exception.RuntimeApiError;
 
 import com.google.common.base.Throwables;
@@ -35,6 +37,9 @@ import com.google.common.base.Throwables;
 public class ApiUtils {
     private static final RestLogger log = RestLogging.getRestLogger(ApiUtils.class);
 
+    // Not part of Response.Status before JAX-RS 2.1
+    private static final int TOO_MANY_REQUESTS = 429;
+
     public static Response collectionToResponse(Collection<?> collection) {
         return collection.isEmpty() ? noContent() : Response.ok(collection).type(MediaType.APPLICATION_JSON).build();
     }
@@ -46,6 +51,8 @@ public class ApiUtils {
     public static Response error(Throwable t) {
         if(t instanceof RuntimeApiError) {
             return badRequest(t);
+        } else if (t instanceof QueryRejectedException) {
+            return tooManyRequests((QueryRejectedException) t);
         } else {
             return serverError(t);
         }
@@ -62,6 +69,17 @@ public class ApiUtils {
         return serverError(t, "Failed to perform operation due to an error");
     }
 
+    /**
+     * @return a 429 response telling the client when to retry the query turned away by the admission control
+     */
+    public static Response tooManyRequests(QueryRejectedException e) {
+        return Response.status(TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, e.getRetryAfter())
+                .type(MediaType.APPLICATION_JSON)
+                .entity(new ApiError(e.getMessage()))
+                .build();
+    }
+
     public static Response noContent() {
         return Response.noContent().build();
     }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.util;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.QUERY_DEADLINE;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ConnectionCallback;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.hawkular.metrics.api.jaxrs.config.Configurable;
+import org.hawkular.metrics.api.jaxrs.config.ConfigurationProperty;
+import org.hawkular.metrics.model.ApiError;
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
+
+import rx.Subscription;
+
+/**
+ * Ties the Rx pipeline of a read request to its {@link AsyncResponse}, so that the pipeline is unsubscribed, and stops
+ * reading from Cassandra, when nobody is waiting for its result anymore. That is when the client disconnects, if the
+ * container reports it, or when the request runs past the {@link
+ * org.hawkular.metrics.api.jaxrs.config.ConfigurationKey#QUERY_DEADLINE QUERY_DEADLINE}, in which case the client gets
+ * a 503.
+ */
+@ApplicationScoped
+public class QueryCancellation {
+
+    /**
+     * Name of the meter counting the read requests cancelled because their client disconnected
+     */
+    public static final String DISCONNECTED_QUERIES = "RESTDisconnectedQueries";
+
+    /**
+     * Name of the meter counting the read requests cancelled because they ran past the deadline
+     */
+    public static final String EXPIRED_QUERIES = "RESTExpiredQueries";
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(QUERY_DEADLINE)
+    String queryDeadlineConfig;
+
+    private long deadline;
+
+    @PostConstruct
+    protected void init() {
+        try {
+            deadline = Long.parseLong(queryDeadlineConfig);
+        } catch (NumberFormatException e) {
+            deadline = Long.parseLong(QUERY_DEADLINE.defaultValue());
+        }
+    }
+
+    /**
+     * Must be called before the pipeline is subscribed to, on the thread handling the request.
+     *
+     * @param subscription the subscriber of the pipeline, which resumes the response
+     */
+    public void bind(AsyncResponse asyncResponse, Subscription subscription) {
+        // Not all containers report disconnections through JAX-RS, the servlet async context reports I/O errors
+        asyncResponse.register((ConnectionCallback) disconnected -> cancel(subscription, DISCONNECTED_QUERIES));
+        HttpServletRequest servletRequest = ResteasyProviderFactory.getContextData(HttpServletRequest.class);
+        if (servletRequest != null && servletRequest.isAsyncStarted()) {
+            servletRequest.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onError(AsyncEvent event) throws IOException {
+                    cancel(subscription, DISCONNECTED_QUERIES);
+                }
+
+                @Override
+                public void onComplete(AsyncEvent event) throws IOException {
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) throws IOException {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) throws IOException {
+                }
+            });
+        }
+        if (deadline > 0) {
+            asyncResponse.setTimeoutHandler(expired -> {
+                cancel(subscription, EXPIRED_QUERIES);
+                expired.resume(Response.status(Status.SERVICE_UNAVAILABLE)
+                        .type(APPLICATION_JSON_TYPE)
+                        .entity(new ApiError("The query did not complete within " + deadline + " seconds"))
+                        .build());
+            });
+            asyncResponse.setTimeout(deadline, TimeUnit.SECONDS);
+        }
+    }
+
+    private void cancel(Subscription subscription, String meterName) {
+        if (!subscription.isUnsubscribed()) {
+            subscription.unsubscribe();
+            MetricRegistryProvider.INSTANCE.getMetricRegistry().meter(meterName).mark();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.handler.observer;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
+import org.hawkular.metrics.model.exception.QueryRejectedException;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class ResponseObserverTest {
+
+    @Test
+    public void shouldAnswerRejectedQueriesWithTooManyRequests() {
+        AsyncResponse asyncResponse = mock(AsyncResponse.class);
+        ResponseObserver observer = new ResponseObserver(asyncResponse, ApiUtils::serverError);
+
+        observer.onError(new QueryRejectedException("t1", 3));
+
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(asyncResponse).resume(response.capture());
+        assertEquals(429, response.getValue().getStatus());
+        assertEquals("3", response.getValue().getHeaderString(HttpHeaders.RETRY_AFTER));
+    }
+}
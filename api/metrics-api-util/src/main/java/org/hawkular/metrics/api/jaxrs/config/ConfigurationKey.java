@@ -63,6 +63,23 @@ public enum ConfigurationKey {
     WAIT_FOR_SERVICE("hawkular.metrics.waitForService", null, null, true),
     DEFAULT_TTL("hawkular.metrics.default-ttl", "7", "DEFAULT_TTL", false),
     JMX_REPORTING_ENABLED("hawkular.metrics.jmx-reporting-enabled", null, "JMX_REPORTING_ENABLED", true),
+    // Accept requests as soon as writes can be served, the background jobs are started afterwards
+    EARLY_READINESS("hawkular.metrics.early-readiness", null, "EARLY_READINESS", true),
+    // Maximum number of data points of the compressed blocks cached on each node, 0 disables the cache
+    COMPRESSED_CACHE_SIZE("hawkular.metrics.compressed-cache.size", "2000000", "COMPRESSED_CACHE_SIZE", false),
+    // Number of temporary tables reused round-robin by the time slices, 0 creates and drops a table for every slice
+    TEMP_TABLE_RING_SIZE("hawkular.metrics.temp-tables.ring-size", "0", "TEMP_TABLE_RING_SIZE", false),
+    // Megabytes used by the latest data point of the series queried recently, 0 disables the cache
+    LATEST_VALUE_CACHE_SIZE("hawkular.metrics.latest-value-cache.size", "64", "LATEST_VALUE_CACHE_SIZE", false),
+    // Seconds after which a read request is cancelled and answered with a 503, 0 disables the deadline
+    QUERY_DEADLINE("hawkular.metrics.query.deadline", "120", "QUERY_DEADLINE", false),
+    // Queries reading several series a tenant may run at a time on each node, 0 for no limit
+    QUERY_TENANT_MAX_CONCURRENT("hawkular.metrics.query.tenant.max-concurrent", "8", "QUERY_TENANT_MAX_CONCURRENT",
+            false),
+    // Estimated cost, in partitions read, of the queries a tenant may run at a time on each node, 0 for no limit
+    QUERY_TENANT_MAX_COST("hawkular.metrics.query.tenant.max-cost", "1000000", "QUERY_TENANT_MAX_COST", false),
+    // Queries of a tenant waiting for admission on each node, further queries are answered with a 429
+    QUERY_TENANT_MAX_QUEUED("hawkular.metrics.query.tenant.max-queued", "16", "QUERY_TENANT_MAX_QUEUED", false),
 
     //Admin
     ADMIN_TOKEN("hawkular.metrics.admin-token", null, "ADMIN_TOKEN", false),
@@ -74,6 +91,8 @@ public enum ConfigurationKey {
 
     //Metric expiration job configuration
     METRICS_EXPIRATION_DELAY("hawkular.metrics.expiration.delay", "1", "METRICS_EXPIRATION_DELAY", false),
+    // Hours added to the expiration written to the expiration index, so that it is not updated on every compression
+    METRICS_EXPIRATION_SLACK("hawkular.metrics.expiration.slack", "24", "METRICS_EXPIRATION_SLACK", false),
     METRICS_EXPIRATION_JOB_FREQUENCY("hawkular.metrics.jobs.expiration.frequency", "7",
             "METRICS_EXPIRATION_JOB_FREQUENCY", false),
     METRICS_EXPIRATION_JOB_ENABLED("hawkular.metrics.jobs.expiration.enabled", "true",
@@ -87,6 +106,8 @@ public enum ConfigurationKey {
 
     INGEST_MAX_RETRIES("hawkular.metrics.ingestion.retry.max-retries", null, "INGEST_MAX_RETRIES", false),
     INGEST_MAX_RETRY_DELAY("hawkular.metrics.ingestion.retry.max-delay", null, "INGEST_MAX_RETRY_DELAY", false),
+    // "true" for all tenants, or a comma separated list of the tenants whose batches adapt to the write latency
+    INGEST_ADAPTIVE_BATCHING("hawkular.metrics.ingestion.batching.adaptive", null, "INGEST_ADAPTIVE_BATCHING", false),
 
     //Alerting
     METRICS_PUBLISH_BUFFER_SIZE("hawkular.metrics.publish-buffer-size", "100", "METRICS_PUBLISH_BUFFER_SIZE", false),
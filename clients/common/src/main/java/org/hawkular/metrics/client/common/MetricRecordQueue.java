@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.client.common;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded FIFO queue of primitive metric records: a metric type, a name identifier (see {@link MetricNameTable}), a
+ * timestamp and a value. Counter values are stored as {@code long}, other values as the raw bits of a {@code double}.
+ * <p>
+ * Records are stored in a pre-allocated ring, which is lock-free for one producer thread and one consumer thread. When
+ * the ring is full, records can optionally overflow to memory-mapped segment files; they are read back in order once
+ * the ring has been drained. When both are full, new records are dropped and counted.
+ * <p>
+ * Records are consumed in two steps: {@link #peek(int, RecordVisitor)} and then {@link #remove(int)}, so that a batch
+ * is only removed once it has been sent successfully.
+ *
+ * @author Thomas Segismont
+ */
+public final class MetricRecordQueue {
+
+    /**
+     * Receives the records visited by {@link #peek(int, RecordVisitor)}.
+     */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        void visit(MetricType type, int nameId, long timestamp, long value);
+    }
+
+    private static final MetricType[] TYPES = MetricType.values();
+
+    private final int mask;
+    private final byte[] types;
+    private final int[] nameIds;
+    private final long[] timestamps;
+    private final long[] values;
+    // Index of the next record to consume
+    private final AtomicLong head = new AtomicLong();
+    // Index of the next record to produce
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final SpillSegments spill;
+
+    /**
+     * Creates a new memory only queue.
+     *
+     * @param capacity the maximum number of records, rounded up to the next power of two
+     */
+    public MetricRecordQueue(int capacity) {
+        this(capacity, null);
+    }
+
+    MetricRecordQueue(int capacity, SpillSegments spill) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        types = new byte[size];
+        nameIds = new int[size];
+        timestamps = new long[size];
+        values = new long[size];
+        this.spill = spill;
+    }
+
+    /**
+     * Creates a new queue overflowing to segment files in {@code directory}. Segment files left over by a previous
+     * instance are deleted.
+     *
+     * @param capacity         the maximum number of records kept in memory, rounded up to the next power of two
+     * @param directory        the directory of segment files, created if needed
+     * @param maxSpilledBytes  the maximum size of segment files
+     *
+     * @throws IOException if the directory cannot be prepared
+     */
+    public MetricRecordQueue(int capacity, Path directory, long maxSpilledBytes) throws IOException {
+        this(capacity, new SpillSegments(directory, maxSpilledBytes));
+    }
+
+    /**
+     * Inserts a counter record.
+     *
+     * @return false if the queue is full and the record was dropped
+     */
+    public boolean offerCounter(int nameId, long timestamp, long value) {
+        return offer(MetricType.COUNTER, nameId, timestamp, value);
+    }
+
+    /**
+     * Inserts a gauge record.
+     *
+     * @return false if the queue is full and the record was dropped
+     */
+    public boolean offerGauge(int nameId, long timestamp, double value) {
+        return offer(MetricType.GAUGE, nameId, timestamp, Double.doubleToRawLongBits(value));
+    }
+
+    private boolean offer(MetricType type, int nameId, long timestamp, long value) {
+        // Once records have overflowed, newer records must follow them to preserve ordering
+        if (spill == null || spill.isEmpty()) {
+            long t = tail.get();
+            if (t - head.get() <= mask) {
+                int index = (int) t & mask;
+                types[index] = (byte) type.ordinal();
+                nameIds[index] = nameId;
+                timestamps[index] = timestamp;
+                values[index] = value;
+                tail.lazySet(t + 1);
+                return true;
+            }
+        }
+        if (spill != null && spill.append((byte) type.ordinal(), nameId, timestamp, value)) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Visits the oldest records, without removing them. A single call visits either in-memory or spilled records, so
+     * fewer than {@code max} records may be visited even if more are available.
+     *
+     * @param max     the maximum number of records to visit
+     * @param visitor the record visitor
+     *
+     * @return the number of visited records
+     */
+    public int peek(int max, RecordVisitor visitor) {
+        long h = head.get();
+        long available = tail.get() - h;
+        if (available == 0) {
+            // While spilled records remain, the producer does not use the ring
+            return spill == null ? 0 : spill.peek(max, (type, nameId, timestamp, value) -> {
+                visitor.visit(TYPES[type], nameId, timestamp, value);
+            });
+        }
+        int count = (int) Math.min(available, max);
+        for (long i = h; i < h + count; i++) {
+            int index = (int) i & mask;
+            visitor.visit(TYPES[types[index]], nameIds[index], timestamps[index], values[index]);
+        }
+        return count;
+    }
+
+    /**
+     * Removes the oldest records, after they have been visited with {@link #peek(int, RecordVisitor)}.
+     *
+     * @param count the number of records returned by the last call to {@link #peek(int, RecordVisitor)}
+     */
+    public void remove(int count) {
+        long h = head.get();
+        if (tail.get() > h) {
+            head.lazySet(h + Math.min(tail.get() - h, count));
+        } else if (spill != null) {
+            spill.remove(count);
+        }
+    }
+
+    /**
+     * @return the timestamp of the oldest record, or -1 if the queue is empty
+     */
+    public long oldestTimestamp() {
+        long h = head.get();
+        if (tail.get() > h) {
+            return timestamps[(int) h & mask];
+        }
+        long[] oldest = {-1};
+        if (spill != null) {
+            spill.peek(1, (type, nameId, timestamp, value) -> oldest[0] = timestamp);
+        }
+        return oldest[0];
+    }
+
+    /**
+     * @return the number of records in this queue, including spilled records
+     */
+    public long size() {
+        long size = tail.get() - head.get();
+        return spill == null ? size : size + spill.size();
+    }
+
+    /**
+     * @return the number of records which could not be inserted because the queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of records currently stored in segment files
+     */
+    public long getSpilled() {
+        return spill == null ? 0 : spill.size();
+    }
+
+    /**
+     * Releases segment files, if any.
+     */
+    public void close() {
+        if (spill != null) {
+            spill.close();
+        }
+    }
+}
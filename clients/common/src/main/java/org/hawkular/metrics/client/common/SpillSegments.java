@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.client.common;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Overflow storage of {@link MetricRecordQueue}: fixed-size records appended to memory-mapped segment files. A segment
+ * file is deleted as soon as all its records have been removed. Access is internally synchronized, except for
+ * {@link #isEmpty()}.
+ *
+ * @author Thomas Segismont
+ */
+final class SpillSegments {
+    private static final Logger LOG = LoggerFactory.getLogger(SpillSegments.class);
+
+    static final int RECORD_SIZE = 1 + 4 + 8 + 8;
+    private static final int MAX_SEGMENT_SIZE = 1 << 20;
+    private static final String SUFFIX = ".seg";
+
+    @FunctionalInterface
+    interface Visitor {
+        void visit(byte type, int nameId, long timestamp, long value);
+    }
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final long maxSegments;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long sequence;
+    private volatile long size;
+
+    SpillSegments(Path directory, long maxBytes) throws IOException {
+        this(directory, maxBytes, MAX_SEGMENT_SIZE);
+    }
+
+    SpillSegments(Path directory, long maxBytes, int segmentBytes) throws IOException {
+        if (maxBytes < RECORD_SIZE) {
+            throw new IllegalArgumentException("maxBytes: " + maxBytes);
+        }
+        this.directory = directory;
+        segmentRecords = (int) (Math.max(RECORD_SIZE, Math.min(maxBytes, segmentBytes)) / RECORD_SIZE);
+        maxSegments = maxBytes / ((long) segmentRecords * RECORD_SIZE);
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path leftover : stream) {
+                Files.delete(leftover);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    long size() {
+        return size;
+    }
+
+    synchronized boolean append(byte type, int nameId, long timestamp, long value) {
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.written == segmentRecords) {
+            if (segments.size() == maxSegments) {
+                return false;
+            }
+            try {
+                segment = new Segment(directory.resolve(String.format(Locale.ROOT, "%020d%s", sequence++, SUFFIX)),
+                        segmentRecords);
+            } catch (IOException e) {
+                LOG.warn("Could not create segment file in " + directory, e);
+                return false;
+            }
+            segments.addLast(segment);
+        }
+        int position = segment.written * RECORD_SIZE;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.put(position, type);
+        buffer.putInt(position + 1, nameId);
+        buffer.putLong(position + 5, timestamp);
+        buffer.putLong(position + 13, value);
+        segment.written++;
+        size++;
+        return true;
+    }
+
+    synchronized int peek(int max, Visitor visitor) {
+        int count = 0;
+        for (Iterator<Segment> i = segments.iterator(); i.hasNext() && count < max; ) {
+            Segment segment = i.next();
+            MappedByteBuffer buffer = segment.buffer;
+            for (int record = segment.read; record < segment.written && count < max; record++, count++) {
+                int position = record * RECORD_SIZE;
+                visitor.visit(buffer.get(position), buffer.getInt(position + 1), buffer.getLong(position + 5),
+                        buffer.getLong(position + 13));
+            }
+        }
+        return count;
+    }
+
+    synchronized void remove(int count) {
+        while (count > 0 && !segments.isEmpty()) {
+            Segment segment = segments.peekFirst();
+            int removed = Math.min(count, segment.written - segment.read);
+            segment.read += removed;
+            count -= removed;
+            size -= removed;
+            if (segment.read == segment.written) {
+                if (segment.written == segmentRecords || segments.size() > 1) {
+                    segments.removeFirst();
+                    segment.delete();
+                } else {
+                    // Only segment, reuse it from the start
+                    segment.read = 0;
+                    segment.written = 0;
+                }
+            }
+        }
+    }
+
+    synchronized void close() {
+        segments.forEach(Segment::delete);
+        segments.clear();
+        size = 0;
+    }
+
+    private static class Segment {
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int written;
+        int read;
+
+        Segment(Path path, int records) throws IOException {
+            this.path = path;
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) records * RECORD_SIZE);
+        }
+
+        void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOG.warn("Could not delete segment file " + path, e);
+            }
+        }
+    }
+}
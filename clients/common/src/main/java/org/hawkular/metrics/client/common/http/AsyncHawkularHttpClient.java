@@ -0,0 +1,408 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.client.common.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking implementation of {@link HawkularHttpClient}.<br/>
+ * Requests are sent by a fixed number of sender threads, so that at most {@code maxInFlight} requests are in flight
+ * at the same time. Response bodies are always read fully, which lets the JDK keep the connections alive and reuse
+ * them. Request bodies are gzip compressed, unless disabled.<br/>
+ * Requests that failed because the server could not be reached, was unavailable or throttled the client are retried
+ * after an exponential delay with jitter. Requests that still failed, and requests that could not be queued because
+ * too many were pending, are kept in the failover cache, and sent again by {@link #manageFailover()}.<br/>
+ * {@link #postMetrics(String)} and {@link #putTags(String, String, String)} wait for the final response. Use
+ * {@link #postMetricsAsync(String)} and {@link #putTagsAsync(String, String, String)} to avoid blocking.
+ * @author Joel Takvorian
+ */
+public class AsyncHawkularHttpClient implements HawkularHttpClient, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncHawkularHttpClient.class);
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_RETRY_DELAY = 500;
+
+    private static final int PENDING_PER_SENDER = 16;
+
+    private final String uri;
+    private final Map<String, String> headers = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor senders;
+    private final ScheduledExecutorService retryScheduler;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean gzip = true;
+    private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+    private volatile long retryDelay = DEFAULT_RETRY_DELAY;
+    private volatile Optional<Long> failoverCacheDuration = Optional.empty();
+    private volatile Optional<Integer> failoverCacheMaxSize = Optional.empty();
+    private final Queue<Message> failoverCache = new LinkedBlockingQueue<>();
+
+    public AsyncHawkularHttpClient(String uri) {
+        this(uri, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param uri         Hawkular server URI
+     * @param maxInFlight max number of requests sent concurrently
+     */
+    public AsyncHawkularHttpClient(String uri, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.uri = uri + "/hawkular/metrics";
+        senders = new ThreadPoolExecutor(maxInFlight, maxInFlight, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxInFlight * PENDING_PER_SENDER), daemonThreads("hawkular-http-sender-"));
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("hawkular-http-retry-"));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Enable or disable gzip compression of request bodies. Enabled by default.
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * @param maxRetries max number of retries of a failed request, before it goes to the failover cache
+     * @param retryDelay base retry delay, in milliseconds; it doubles on each retry and is randomized by +/- 50%
+     */
+    public void setRetryOptions(int maxRetries, long retryDelay) {
+        this.maxRetries = maxRetries;
+        this.retryDelay = retryDelay;
+    }
+
+    @Override
+    public void addHeaders(Map<String, String> headers) {
+        this.headers.putAll(headers);
+    }
+
+    @Override
+    public HawkularHttpResponse postMetrics(String jsonBody) {
+        return postMetricsAsync(jsonBody).join();
+    }
+
+    @Override
+    public CompletableFuture<HawkularHttpResponse> postMetricsAsync(String jsonBody) {
+        return buildURLAndSend("POST", "/metrics/raw", jsonBody);
+    }
+
+    @Override
+    public HawkularHttpResponse putTags(String metricType, String metricName, String jsonBody) {
+        return putTagsAsync(metricType, metricName, jsonBody).join();
+    }
+
+    @Override
+    public CompletableFuture<HawkularHttpResponse> putTagsAsync(String metricType, String metricName,
+                                                                String jsonBody) {
+        try {
+            String encodedFullName = URLEncoder.encode(metricName, "UTF-8");
+            String resourcePath = "/" + metricType + "/" + encodedFullName + "/tags";
+            return buildURLAndSend("PUT", resourcePath, jsonBody);
+        } catch (UnsupportedEncodingException e) {
+            return CompletableFuture.completedFuture(
+                    new HawkularHttpResponse("", -1, "Message not sent, unsupported encoding: " + e.getMessage()));
+        }
+    }
+
+    private CompletableFuture<HawkularHttpResponse> buildURLAndSend(String verb, String resourcePath, String body) {
+        final URL url;
+        try {
+            url = new URL(uri + resourcePath);
+        } catch (MalformedURLException e) {
+            LOG.error("Bad URL", e);
+            return CompletableFuture.completedFuture(
+                    new HawkularHttpResponse("", -1, "Message not sent, bad URL: " + e.getMessage()));
+        }
+        CompletableFuture<HawkularHttpResponse> result = new CompletableFuture<>();
+        submit(new Message(verb, url, body), 0, result);
+        return result;
+    }
+
+    private void submit(Message msg, int attempt, CompletableFuture<HawkularHttpResponse> result) {
+        try {
+            senders.execute(() -> sendAndHandleError(msg, attempt, result));
+        } catch (RejectedExecutionException e) {
+            if (!senders.isShutdown()) {
+                addToFailoverCache(msg);
+            }
+            result.complete(new HawkularHttpResponse("", -1, "Message not sent: too many pending requests"));
+        }
+    }
+
+    private void sendAndHandleError(Message msg, int attempt, CompletableFuture<HawkularHttpResponse> result) {
+        HawkularHttpResponse response;
+        inFlight.incrementAndGet();
+        try {
+            response = send(msg);
+        } catch (IOException e) {
+            LOG.debug("Failed to send data:", e);
+            response = new HawkularHttpResponse("", -1, "Message not sent: " + e.getMessage());
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        int code = response.getResponseCode();
+        if (code > 0 && code < 400) {
+            if (code != 200 && code != 204) {
+                LOG.debug("Server response: {}, {}", code, response.getErrorMsg());
+            }
+            result.complete(response);
+            return;
+        }
+        LOG.debug("Server response: {}, {}", code, response.getErrorMsg());
+        if (isRetriable(code) && attempt < maxRetries) {
+            try {
+                retryScheduler.schedule(() -> submit(msg, attempt + 1, result), retryDelay(attempt),
+                        TimeUnit.MILLISECONDS);
+                return;
+            } catch (RejectedExecutionException ignored) {
+                // Closed
+            }
+        }
+        addToFailoverCache(msg);
+        result.complete(response);
+    }
+
+    private static boolean isRetriable(int code) {
+        return code < 0 || code >= 500 || code == 408 || code == 429;
+    }
+
+    private long retryDelay(int attempt) {
+        long delay = retryDelay << Math.min(attempt, 16);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay + 1);
+    }
+
+    private HawkularHttpResponse send(Message message) throws IOException {
+        byte[] content = message.getContent(gzip);
+        int responseCode = -1;
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) message.getUrl().openConnection();
+            connection.setDoOutput(true);
+            connection.setUseCaches(false);
+            connection.setRequestMethod(message.getVerb());
+            connection.setRequestProperty("Content-Type", "application/json");
+            if (gzip) {
+                connection.setRequestProperty("Content-Encoding", "gzip");
+            }
+            connection.setFixedLengthStreamingMode(content.length);
+            headers.forEach(connection::setRequestProperty);
+            try (OutputStream os = connection.getOutputStream()) {
+                os.write(content);
+            }
+            responseCode = connection.getResponseCode();
+            // Read the body until the end, even on error, otherwise the connection would not be reused
+            InputStream is = responseCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            String data = readFully(is);
+            if (responseCode >= 400) {
+                return new HawkularHttpResponse(data, responseCode, connection.getResponseMessage());
+            }
+            return new HawkularHttpResponse(data, responseCode);
+        } catch (IOException e) {
+            if (responseCode > 0) {
+                return new HawkularHttpResponse("", responseCode, e.getMessage());
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    private static String readFully(InputStream is) throws IOException {
+        if (is == null) {
+            return "";
+        }
+        try (InputStream in = is; ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            final byte[] buffer = new byte[2 * 1024];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                baos.write(buffer, 0, n);
+            }
+            return new String(baos.toByteArray(), UTF_8);
+        }
+    }
+
+    @Override
+    public void setFailoverOptions(Optional<Long> failoverCacheDuration, Optional<Integer> failoverCacheMaxSize) {
+        this.failoverCacheDuration = failoverCacheDuration;
+        this.failoverCacheMaxSize = failoverCacheMaxSize;
+    }
+
+    /**
+     * Submit the requests of the failover cache again. This method does not wait for their responses.
+     */
+    @Override
+    public void manageFailover() {
+        Long oldestAllowed = failoverCacheDuration.map(d -> System.currentTimeMillis() - d).orElse(0L);
+        // Elements might be added during the cache list processing, so get its size once for all and don't process
+        // more than that
+        int size = failoverCache.size();
+        int countTrashed = 0;
+        for (int i = 0; i < size; i++) {
+            Message msg = failoverCache.poll();
+            if (msg == null) {
+                break;
+            }
+            if (msg.getTimestamp() >= oldestAllowed) {
+                submit(msg, 0, new CompletableFuture<>());
+            } else {
+                countTrashed++;
+            }
+        }
+        if (countTrashed > 0) {
+            LOG.warn("Failover cache contained {} old items that have been trashed", countTrashed);
+        }
+    }
+
+    private synchronized void addToFailoverCache(Message msg) {
+        Optional<Integer> maxSize = failoverCacheMaxSize;
+        if (maxSize.isPresent() && maxSize.get() == 0) {
+            // Failover cache disabled
+            return;
+        }
+        maxSize.ifPresent(max -> {
+            int size = failoverCache.size();
+            if (size >= max) {
+                LOG.warn("Failover cache reached its maximum capacity ({} requests). Oldest elements will be lost.",
+                        max);
+            }
+            while (size >= max) {
+                // Trash oldest items
+                failoverCache.poll();
+                size--;
+            }
+        });
+        if (failoverCache.isEmpty()) {
+            LOG.info("Failed to send data to Hawkular. Data is kept in memory and will be sent again later. " +
+                    "More info on DEBUG logs.");
+        }
+        failoverCache.offer(msg);
+    }
+
+    public int getFailoverCacheSize() {
+        return failoverCache.size();
+    }
+
+    /**
+     * @return the number of requests being sent
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of requests waiting for a sender thread
+     */
+    public int getPending() {
+        return senders.getQueue().size();
+    }
+
+    /**
+     * Stop accepting requests. Pending requests are still sent, but failed requests are no longer retried.
+     */
+    @Override
+    public void close() {
+        // Delayed retries still run, but are rejected by the senders, which completes their futures
+        senders.shutdown();
+        retryScheduler.shutdown();
+    }
+
+    private static class Message {
+        private final String verb;
+        private final URL url;
+        private final String body;
+        private final long timestamp;
+        private volatile byte[] plain;
+        private volatile byte[] compressed;
+
+        private Message(String verb, URL url, String body) {
+            this.verb = verb;
+            this.url = url;
+            this.body = body;
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        String getVerb() {
+            return verb;
+        }
+
+        URL getUrl() {
+            return url;
+        }
+
+        /**
+         * Encoded lazily, on a sender thread, and kept for retries.
+         */
+        byte[] getContent(boolean gzip) throws IOException {
+            if (!gzip) {
+                if (plain == null) {
+                    plain = body.getBytes(UTF_8);
+                }
+                return plain;
+            }
+            if (compressed == null) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(64, body.length() / 8));
+                try (GZIPOutputStream gzipStream = new GZIPOutputStream(baos, 8 * 1024)) {
+                    gzipStream.write(body.getBytes(UTF_8));
+                }
+                compressed = baos.toByteArray();
+            }
+            return compressed;
+        }
+
+        Long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
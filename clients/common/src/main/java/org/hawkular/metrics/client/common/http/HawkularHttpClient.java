@@ -18,6 +18,7 @@ package org.hawkular.metrics.client.common.http;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Http client interface for Hawkular, in case someone would like to use other than the default one
@@ -27,6 +28,23 @@ public interface HawkularHttpClient {
     void addHeaders(Map<String, String> headers);
     HawkularHttpResponse postMetrics(String jsonBody);
     HawkularHttpResponse putTags(String type, String metricName, String jsonBody);
+
+    /**
+     * Post metrics without waiting for the server response, when the implementation supports it. The default
+     * implementation delegates to {@link #postMetrics(String)}, so the returned future is already completed.
+     */
+    default CompletableFuture<HawkularHttpResponse> postMetricsAsync(String jsonBody) {
+        return CompletableFuture.completedFuture(postMetrics(jsonBody));
+    }
+
+    /**
+     * Put tags without waiting for the server response, when the implementation supports it. The default
+     * implementation delegates to {@link #putTags(String, String, String)}.
+     */
+    default CompletableFuture<HawkularHttpResponse> putTagsAsync(String type, String metricName, String jsonBody) {
+        return CompletableFuture.completedFuture(putTags(type, metricName, jsonBody));
+    }
+
     void setFailoverOptions(Optional<Long> failoverCacheDuration, Optional<Integer> failoverCacheMaxSize);
     void manageFailover();
 }
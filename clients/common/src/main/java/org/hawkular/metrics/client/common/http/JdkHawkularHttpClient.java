@@ -205,6 +205,10 @@ public class JdkHawkularHttpClient implements HawkularHttpClient {
     }
 
     private void addToFailoverCache(Message msg) {
+        if (failoverCacheMaxSize.isPresent() && failoverCacheMaxSize.get() == 0) {
+            // Failover cache disabled
+            return;
+        }
         failoverCacheMaxSize.ifPresent(max -> {
             int size = failoverCache.size();
             if (size >= max) {
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.client.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Thomas Segismont
+ */
+public class MetricRecordQueueTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldConsumeInInsertionOrder() {
+        MetricRecordQueue queue = new MetricRecordQueue(4);
+        List<Long> consumed = new ArrayList<>();
+        for (int round = 0; round < 5; round++) {
+            // Wrap around the ring several times
+            queue.offerCounter(0, round * 3, round * 3);
+            queue.offerCounter(0, round * 3 + 1, round * 3 + 1);
+            queue.offerGauge(1, round * 3 + 2, round * 3 + 2.5);
+            drain(queue, 3, consumed);
+        }
+        assertEquals(0, queue.size());
+        assertEquals(15, consumed.size());
+        for (int i = 0; i < 15; i++) {
+            assertEquals(i, consumed.get(i).longValue());
+        }
+    }
+
+    @Test
+    public void shouldKeepRecordsUntilRemoved() {
+        MetricRecordQueue queue = new MetricRecordQueue(4);
+        queue.offerGauge(7, 100, 1.5);
+        List<Object> visited = new ArrayList<>();
+        MetricRecordQueue.RecordVisitor visitor = (type, nameId, timestamp, value) -> {
+            visited.add(type);
+            visited.add(nameId);
+            visited.add(timestamp);
+            visited.add(Double.longBitsToDouble(value));
+        };
+        assertEquals(1, queue.peek(10, visitor));
+        assertEquals(1, queue.peek(10, visitor));
+        assertArrayEquals(new Object[]{MetricType.GAUGE, 7, 100L, 1.5, MetricType.GAUGE, 7, 100L, 1.5},
+                visited.toArray());
+        assertEquals(100, queue.oldestTimestamp());
+
+        queue.remove(1);
+        assertEquals(0, queue.size());
+        assertEquals(-1, queue.oldestTimestamp());
+    }
+
+    @Test
+    public void shouldDropNewRecordsWhenFull() {
+        MetricRecordQueue queue = new MetricRecordQueue(3);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offerCounter(0, i, i));
+        }
+        assertFalse(queue.offerCounter(0, 4, 4));
+        assertEquals(4, queue.size());
+        assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    public void shouldSpillInOrder() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        // 2 segments of 2 records
+        MetricRecordQueue queue = new MetricRecordQueue(2, new SpillSegments(directory.toPath(),
+                4 * SpillSegments.RECORD_SIZE, 2 * SpillSegments.RECORD_SIZE));
+        for (int i = 0; i < 6; i++) {
+            assertTrue(queue.offerCounter(0, i, i));
+        }
+        assertEquals(4, queue.getSpilled());
+        assertEquals(2, directory.list().length);
+        assertFalse(queue.offerCounter(0, 6, 6));
+        assertEquals(1, queue.getDropped());
+
+        List<Long> consumed = new ArrayList<>();
+        drain(queue, 3, consumed);
+        assertEquals(2, consumed.size());
+        drain(queue, 3, consumed);
+        assertEquals(1, directory.list().length);
+        // Records keep following the spilled ones until they have all been consumed
+        assertTrue(queue.offerCounter(0, 7, 7));
+        assertEquals(2, directory.list().length);
+        drain(queue, 3, consumed);
+
+        assertEquals(0, queue.size());
+        long[] expected = {0, 1, 2, 3, 4, 5, 7};
+        assertEquals(expected.length, consumed.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], consumed.get(i).longValue());
+        }
+        assertTrue(queue.offerCounter(0, 8, 8));
+        assertEquals(0, queue.getSpilled());
+
+        queue.close();
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void shouldDeleteLeftoverSegments() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        assertTrue(new File(directory, "00000000000000000000.seg").createNewFile());
+        new MetricRecordQueue(2, directory.toPath(), 1024).close();
+        assertEquals(0, directory.list().length);
+    }
+
+    private static void drain(MetricRecordQueue queue, int max, List<Long> consumed) {
+        int count = queue.peek(max, (type, nameId, timestamp, value) -> consumed.add(timestamp));
+        queue.remove(count);
+    }
+}
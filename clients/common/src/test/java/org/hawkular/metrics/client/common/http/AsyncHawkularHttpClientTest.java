@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.client.common.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class AsyncHawkularHttpClientTest {
+
+    private HttpServer server;
+    private String uri;
+    private final Queue<String> bodies = new ConcurrentLinkedQueue<>();
+    private final Set<Integer> remotePorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private AsyncHawkularHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/hawkular/metrics/metrics/raw", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        uri = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        release.countDown();
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int current = concurrent.incrementAndGet();
+        maxConcurrent.accumulateAndGet(current, Math::max);
+        try {
+            release.await(10, TimeUnit.SECONDS);
+            remotePorts.add(exchange.getRemoteAddress().getPort());
+            byte[] content = read(exchange.getRequestBody());
+            InputStream in = new ByteArrayInputStream(content);
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                in = new GZIPInputStream(in);
+            }
+            String body = new String(read(in), UTF_8);
+            int code = 200;
+            if (failuresLeft.getAndDecrement() > 0) {
+                code = 503;
+            } else {
+                bodies.add(body);
+            }
+            exchange.sendResponseHeaders(code, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            concurrent.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            baos.write(buffer, 0, n);
+        }
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void shouldSendGzipBodiesOnReusedConnections() throws Exception {
+        client = new AsyncHawkularHttpClient(uri, 2);
+        List<CompletableFuture<HawkularHttpResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(client.postMetricsAsync("{\"gauges\":[" + i + "]}"));
+        }
+        for (CompletableFuture<HawkularHttpResponse> future : futures) {
+            assertEquals(200, future.get(10, TimeUnit.SECONDS).getResponseCode());
+        }
+        assertEquals(20, bodies.size());
+        assertTrue(bodies.contains("{\"gauges\":[7]}"));
+        assertTrue("Connections were not reused: " + remotePorts, remotePorts.size() <= 2);
+    }
+
+    @Test
+    public void shouldBoundInFlightRequests() throws Exception {
+        release = new CountDownLatch(1);
+        client = new AsyncHawkularHttpClient(uri, 2);
+        List<CompletableFuture<HawkularHttpResponse>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            futures.add(client.postMetricsAsync("{}"));
+        }
+        // Posting does not wait for the server
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        while (client.getInFlight() < 2) {
+            Thread.sleep(10);
+        }
+        assertEquals(8, client.getPending());
+        release.countDown();
+        for (CompletableFuture<HawkularHttpResponse> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(2, maxConcurrent.get());
+        assertEquals(10, bodies.size());
+    }
+
+    @Test
+    public void shouldRetryAndThenUseFailoverCache() throws Exception {
+        client = new AsyncHawkularHttpClient(uri, 1);
+        client.setRetryOptions(2, 10);
+
+        failuresLeft.set(2);
+        assertEquals(200, client.postMetrics("{\"a\":1}").getResponseCode());
+        assertEquals(0, client.getFailoverCacheSize());
+
+        failuresLeft.set(3);
+        assertEquals(503, client.postMetrics("{\"b\":2}").getResponseCode());
+        assertEquals(1, client.getFailoverCacheSize());
+
+        client.setFailoverOptions(Optional.empty(), Optional.empty());
+        client.manageFailover();
+        while (bodies.size() < 2) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.getFailoverCacheSize());
+        assertEquals("{\"b\":2}", new ArrayList<>(bodies).get(1));
+    }
+}
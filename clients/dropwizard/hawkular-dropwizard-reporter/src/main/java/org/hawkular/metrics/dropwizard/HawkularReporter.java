@@ -16,6 +16,8 @@
  */
 package org.hawkular.metrics.dropwizard;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Collection;
@@ -27,6 +29,8 @@ import java.util.concurrent.TimeUnit;
 
 import org.hawkular.metrics.client.common.http.HawkularHttpClient;
 import org.hawkular.metrics.client.common.http.HawkularJson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.Clock;
 import com.codahale.metrics.Counter;
@@ -43,11 +47,14 @@ import com.codahale.metrics.Timer;
  */
 public class HawkularReporter extends ScheduledReporter {
 
+    private static final Logger LOG = LoggerFactory.getLogger(HawkularReporter.class);
+
     private final Optional<String> prefix;
     private final Clock clock;
     private final HawkularHttpClient hawkularClient;
     private final MetricsDecomposer decomposer;
     private final MetricsTagger tagger;
+    private final Optional<OutageBuffer> outageBuffer;
 
     HawkularReporter(MetricRegistry registry,
                      HawkularHttpClient hawkularClient,
@@ -56,7 +63,8 @@ public class HawkularReporter extends ScheduledReporter {
                      MetricsTagger tagger,
                      TimeUnit rateUnit,
                      TimeUnit durationUnit,
-                     MetricFilter filter) {
+                     MetricFilter filter,
+                     Optional<OutageBuffer> outageBuffer) {
         super(registry, "hawkular-reporter", filter, rateUnit, durationUnit);
 
         this.prefix = prefix;
@@ -64,6 +72,7 @@ public class HawkularReporter extends ScheduledReporter {
         this.hawkularClient = hawkularClient;
         this.decomposer = decomposer;
         this.tagger = tagger;
+        this.outageBuffer = outageBuffer;
     }
 
     @Override
@@ -76,7 +85,7 @@ public class HawkularReporter extends ScheduledReporter {
         hawkularClient.manageFailover();
 
         if (gauges.isEmpty() && counters.isEmpty() && histograms.isEmpty() && meters.isEmpty() &&
-                timers.isEmpty()) {
+                timers.isEmpty() && !outageBuffer.isPresent()) {
             return;
         }
 
@@ -89,9 +98,13 @@ public class HawkularReporter extends ScheduledReporter {
         processHistograms(accu, histograms);
         processTimers(accu, timers);
 
-        if (!accu.getCounters().isEmpty() || !accu.getGauges().isEmpty()) {
+        if (outageBuffer.isPresent()) {
+            // Also called without new data, to replay buffered data
+            outageBuffer.get().report(timestamp, accu.getCounters(), accu.getGauges());
+        } else if (!accu.getCounters().isEmpty() || !accu.getGauges().isEmpty()) {
             String json = HawkularJson.metricsToString(timestamp, accu.getCounters(), accu.getGauges());
-            hawkularClient.postMetrics(json);
+            // Failures are handled by the client, through its failover cache
+            hawkularClient.postMetricsAsync(json);
         }
     }
 
@@ -132,6 +145,19 @@ public class HawkularReporter extends ScheduledReporter {
         }
     }
 
+    @Override
+    public void stop() {
+        super.stop();
+        outageBuffer.ifPresent(OutageBuffer::close);
+        if (hawkularClient instanceof Closeable) {
+            try {
+                ((Closeable) hawkularClient).close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close Hawkular client", e);
+            }
+        }
+    }
+
     public Optional<String> getPrefix() {
         return prefix;
     }
@@ -144,6 +170,13 @@ public class HawkularReporter extends ScheduledReporter {
         return hawkularClient;
     }
 
+    /**
+     * @return the outage buffer, if enabled with {@link HawkularReporterBuilder#outageBuffer(int)}
+     */
+    public Optional<OutageBuffer> getOutageBuffer() {
+        return outageBuffer;
+    }
+
     public Map<String, String> getTagsForMetrics(String m) {
         return tagger.getTagsForMetrics(m);
     }
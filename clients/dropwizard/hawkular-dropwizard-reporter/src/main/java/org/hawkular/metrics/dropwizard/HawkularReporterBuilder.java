@@ -16,6 +16,9 @@
  */
 package org.hawkular.metrics.dropwizard;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
@@ -29,9 +32,13 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 
+import org.hawkular.metrics.client.common.MetricRecordQueue;
+import org.hawkular.metrics.client.common.http.AsyncHawkularHttpClient;
 import org.hawkular.metrics.client.common.http.HawkularHttpClient;
 import org.hawkular.metrics.client.common.http.JdkHawkularHttpClient;
 
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 
@@ -39,6 +46,7 @@ import com.codahale.metrics.MetricRegistry;
 
     private static final String KEY_HEADER_TENANT = "Hawkular-Tenant";
     private static final String KEY_HEADER_AUTHORIZATION = "Authorization";
+    private static final String OUTAGE_BUFFER_METRICS_PREFIX = "hawkular-reporter.outage-buffer.";
 
     private final MetricRegistry registry;
     private String uri = "http://localhost:8080";
@@ -56,6 +64,11 @@ import com.codahale.metrics.MetricRegistry;
     private Optional<Integer> failoverCacheMaxSize = Optional.empty();
     private final Map<String, Set<String>> namedMetricsComposition = new HashMap<>();
     private final Collection<RegexContainer<Set<String>>> regexComposition = new ArrayList<>();
+    private Optional<Integer> outageBufferCapacity = Optional.empty();
+    private Optional<Path> outageBufferDirectory = Optional.empty();
+    private long outageBufferMaxSpilledBytes;
+    private long outageBufferReplayRate = 10_000;
+    private Optional<Integer> asyncMaxInFlight = Optional.empty();
 
     /**
      * Create a new builder for an {@link HawkularReporter}
@@ -340,7 +353,7 @@ import com.codahale.metrics.MetricRegistry;
     /**
      * Set the failover cache maximum size, in number of requests<br/>
      * This cache is used to store post attempts in memory when the hawkular server cannot be reached<br/>
-     * By default this parameter is unset, which means there's no maximum
+     * By default this parameter is unset, which means there's no maximum. Zero disables the cache.
      * @param reqs max number of requests to store
      */
     public HawkularReporterBuilder failoverCacheMaxSize(int reqs) {
@@ -348,6 +361,58 @@ import com.codahale.metrics.MetricRegistry;
         return this;
     }
 
+    /**
+     * Enable outage buffering<br/>
+     * Reported data points are queued, and only removed from the queue once Hawkular has accepted them. Data points
+     * reported while Hawkular cannot be reached are sent again, in order, when it answers again. This replaces the
+     * failover cache.<br/>
+     * Occupancy, dropped data points and replay lag are registered as gauges, under the
+     * "hawkular-reporter.outage-buffer." prefix
+     * @param capacity max number of data points kept in memory; when the buffer is full, new data points are
+     *                 spilled to disk if enabled with {@link #outageBufferSpill(Path, long)}, or dropped otherwise
+     */
+    public HawkularReporterBuilder outageBuffer(int capacity) {
+        outageBufferCapacity = Optional.of(capacity);
+        return this;
+    }
+
+    /**
+     * Let the outage buffer spill to memory-mapped segment files when its in-memory capacity is reached<br/>
+     * Segment files are not meant to survive a restart: files left over in the directory are deleted when the
+     * reporter is built
+     * @param directory directory of segment files
+     * @param maxBytes max size of segment files, in bytes
+     */
+    public HawkularReporterBuilder outageBufferSpill(Path directory, long maxBytes) {
+        outageBufferDirectory = Optional.of(directory);
+        outageBufferMaxSpilledBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Set the max number of buffered data points replayed per second, in addition to the data points of the current
+     * report<br/>
+     * Default is 10000
+     * @param dataPointsPerSecond replay rate
+     */
+    public HawkularReporterBuilder outageBufferReplayRate(long dataPointsPerSecond) {
+        outageBufferReplayRate = dataPointsPerSecond;
+        return this;
+    }
+
+    /**
+     * Send data with an {@link AsyncHawkularHttpClient} instead of the default blocking client<br/>
+     * Reports return without waiting for the server response. Connections are kept alive, request bodies are gzip
+     * compressed and failed requests are retried with jitter before going to the failover cache.<br/>
+     * With {@link #outageBuffer(int)}, reports still wait for the server response, as buffered data points are only
+     * removed once Hawkular has accepted them
+     * @param maxInFlight max number of requests sent concurrently
+     */
+    public HawkularReporterBuilder asyncHttpClient(int maxInFlight) {
+        asyncMaxInFlight = Optional.of(maxInFlight);
+        return this;
+    }
+
     /**
      * Use a custom {@link HawkularHttpClient}
      * @param httpClientProvider function that provides a custom {@link HawkularHttpClient} from input URI as String
@@ -363,12 +428,44 @@ import com.codahale.metrics.MetricRegistry;
     public HawkularReporter build() {
         HawkularHttpClient client = httpClientProvider
                 .map(provider -> provider.apply(uri))
-                .orElseGet(() -> new JdkHawkularHttpClient(uri));
+                .orElseGet(() -> asyncMaxInFlight
+                        .<HawkularHttpClient>map(maxInFlight -> new AsyncHawkularHttpClient(uri, maxInFlight))
+                        .orElseGet(() -> new JdkHawkularHttpClient(uri)));
         client.addHeaders(headers);
-        client.setFailoverOptions(failoverCacheDuration, failoverCacheMaxSize);
+        Optional<OutageBuffer> outageBuffer = outageBufferCapacity.map(capacity -> createOutageBuffer(client));
+        // The outage buffer replaces the failover cache
+        client.setFailoverOptions(failoverCacheDuration,
+                outageBuffer.isPresent() ? Optional.of(0) : failoverCacheMaxSize);
         MetricsDecomposer decomposer = new MetricsDecomposer(namedMetricsComposition, regexComposition);
         MetricsTagger tagger = new MetricsTagger(prefix, globalTags, perMetricTags, regexTags, tagComposition,
                 decomposer, client, registry, filter);
-        return new HawkularReporter(registry, client, prefix, decomposer, tagger, rateUnit, durationUnit, filter);
+        outageBuffer.ifPresent(buffer -> {
+            registerGauge("occupancy", buffer::getOccupancy);
+            registerGauge("dropped", buffer::getDropped);
+            registerGauge("replay-lag", buffer::getReplayLag);
+        });
+        return new HawkularReporter(registry, client, prefix, decomposer, tagger, rateUnit, durationUnit, filter,
+                outageBuffer);
+    }
+
+    private OutageBuffer createOutageBuffer(HawkularHttpClient client) {
+        int capacity = outageBufferCapacity.get();
+        MetricRecordQueue queue;
+        if (outageBufferDirectory.isPresent()) {
+            try {
+                queue = new MetricRecordQueue(capacity, outageBufferDirectory.get(), outageBufferMaxSpilledBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            queue = new MetricRecordQueue(capacity);
+        }
+        return new OutageBuffer(queue, client, outageBufferReplayRate, Clock.defaultClock());
+    }
+
+    private void registerGauge(String name, Gauge<Long> gauge) {
+        String fullName = OUTAGE_BUFFER_METRICS_PREFIX + name;
+        registry.remove(fullName);
+        registry.register(fullName, gauge);
     }
 }
@@ -91,7 +91,7 @@ class MetricsTagger implements MetricRegistryListener {
         tags.putAll(getTagsForMetrics(baseName));
         tags.putAll(getTagsForMetrics(nameWithSuffix));
         if (!tags.isEmpty()) {
-            hawkularClient.putTags(metricPart.getMetricType(), fullName, HawkularJson.tagsToString(tags));
+            hawkularClient.putTagsAsync(metricPart.getMetricType(), fullName, HawkularJson.tagsToString(tags));
         }
     }
 
@@ -101,7 +101,7 @@ class MetricsTagger implements MetricRegistryListener {
         // Don't use prefixed name for per-metric tagging
         tags.putAll(getTagsForMetrics(baseName));
         if (!tags.isEmpty()) {
-            hawkularClient.putTags(metricType, fullName, HawkularJson.tagsToString(tags));
+            hawkularClient.putTagsAsync(metricType, fullName, HawkularJson.tagsToString(tags));
         }
     }
 
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+
+import org.hawkular.metrics.client.common.MetricNameTable;
+import org.hawkular.metrics.client.common.MetricRecordQueue;
+import org.hawkular.metrics.client.common.MetricType;
+import org.hawkular.metrics.client.common.http.HawkularHttpClient;
+import org.hawkular.metrics.client.common.http.HawkularHttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Clock;
+
+/**
+ * Send path of the {@link HawkularReporter} when outage buffering is enabled.<br/>
+ * Each report is queued as primitive records in a {@link MetricRecordQueue}, and the queue is drained in order, in
+ * batches. A batch is removed from the queue only when the server has accepted it, so reports are kept while Hawkular
+ * cannot be reached and replayed when it answers again.<br/>
+ * Replay is rate-limited: besides the records of the current report, at most {@code replayRate} buffered records per
+ * second are sent.
+ * @author Joel Takvorian
+ */
+public class OutageBuffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OutageBuffer.class);
+
+    static final int BATCH_SIZE = 1000;
+
+    private final MetricRecordQueue queue;
+    private final MetricNameTable names = new MetricNameTable();
+    private final HawkularHttpClient client;
+    private final long replayRate;
+    private final Clock clock;
+    private final AtomicLong rejected = new AtomicLong();
+    private long lastSendTime = -1;
+    private boolean available = true;
+
+    OutageBuffer(MetricRecordQueue queue, HawkularHttpClient client, long replayRate, Clock clock) {
+        this.queue = queue;
+        this.client = client;
+        this.replayRate = replayRate;
+        this.clock = clock;
+    }
+
+    /**
+     * Queue a report and send as much as the replay rate permits
+     */
+    void report(long timestamp, Map<String, Long> counters, Map<String, Double> gauges) {
+        int queued = 0;
+        for (Map.Entry<String, Long> e : counters.entrySet()) {
+            if (queue.offerCounter(names.id(e.getKey()), timestamp, e.getValue())) {
+                queued++;
+            }
+        }
+        for (Map.Entry<String, Double> e : gauges.entrySet()) {
+            if (queue.offerGauge(names.id(e.getKey()), timestamp, e.getValue())) {
+                queued++;
+            }
+        }
+        send(queued);
+    }
+
+    private void send(int queued) {
+        long now = clock.getTime();
+        long elapsed = lastSendTime < 0 ? 0 : Math.max(0, now - lastSendTime);
+        lastSendTime = now;
+        double budget = queued + replayRate * (elapsed / 1000d);
+        while (budget >= 1) {
+            BatchBuilder batch = new BatchBuilder();
+            int count = queue.peek((int) Math.min(BATCH_SIZE, budget), batch);
+            if (count == 0) {
+                return;
+            }
+            if (!isAccepted(client.postMetrics(batch.toJson()), count)) {
+                return;
+            }
+            queue.remove(count);
+            budget -= count;
+        }
+    }
+
+    private boolean isAccepted(HawkularHttpResponse response, int count) {
+        if (response == null) {
+            // Custom clients may not provide a response
+            return true;
+        }
+        int code = response.getResponseCode();
+        if (code >= 200 && code < 300) {
+            if (!available) {
+                LOG.info("Hawkular is available again, {} buffered data points to replay", queue.size() - count);
+                available = true;
+            }
+            return true;
+        }
+        if (code >= 400 && code < 500 && code != 408 && code != 429) {
+            // Sending the same batch again would not help
+            LOG.warn("Hawkular rejected {} data points: {}, {}", count, code, response.getErrorMsg());
+            rejected.addAndGet(count);
+            return true;
+        }
+        if (available) {
+            LOG.info("Failed to send data to Hawkular ({}). Data is buffered and will be sent again later.", code);
+            available = false;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of buffered data points, including spilled ones
+     */
+    public long getOccupancy() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of buffered data points stored in segment files
+     */
+    public long getSpilled() {
+        return queue.getSpilled();
+    }
+
+    /**
+     * @return the number of data points dropped because the buffer was full
+     */
+    public long getDropped() {
+        return queue.getDropped();
+    }
+
+    /**
+     * @return the number of data points rejected by the server, and thus not replayed
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the age of the oldest buffered data point, in milliseconds, or 0 if the buffer is empty
+     */
+    public long getReplayLag() {
+        long oldest = queue.oldestTimestamp();
+        return oldest < 0 ? 0 : Math.max(0, clock.getTime() - oldest);
+    }
+
+    void close() {
+        queue.close();
+    }
+
+    private class BatchBuilder implements MetricRecordQueue.RecordVisitor {
+        private final Map<Integer, JsonArrayBuilder> counters = new LinkedHashMap<>();
+        private final Map<Integer, JsonArrayBuilder> gauges = new LinkedHashMap<>();
+
+        @Override
+        public void visit(MetricType type, int nameId, long timestamp, long value) {
+            JsonObjectBuilder dataPoint = Json.createObjectBuilder().add("timestamp", timestamp);
+            if (type == MetricType.COUNTER) {
+                counters.computeIfAbsent(nameId, id -> Json.createArrayBuilder()).add(dataPoint.add("value", value));
+            } else {
+                gauges.computeIfAbsent(nameId, id -> Json.createArrayBuilder())
+                        .add(dataPoint.add("value", Double.longBitsToDouble(value)));
+            }
+        }
+
+        private String toJson() {
+            JsonObjectBuilder builder = Json.createObjectBuilder();
+            if (!counters.isEmpty()) {
+                builder.add("counters", metricsJson(counters));
+            }
+            if (!gauges.isEmpty()) {
+                builder.add("gauges", metricsJson(gauges));
+            }
+            return builder.build().toString();
+        }
+
+        private JsonArrayBuilder metricsJson(Map<Integer, JsonArrayBuilder> dataPoints) {
+            JsonArrayBuilder metrics = Json.createArrayBuilder();
+            dataPoints.forEach((nameId, points) -> metrics.add(Json.createObjectBuilder()
+                    .add("id", names.name(nameId))
+                    .add("dataPoints", points)));
+            return metrics;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.hawkular.metrics.client.common.MetricRecordQueue;
+import org.hawkular.metrics.client.common.http.HawkularHttpClient;
+import org.hawkular.metrics.client.common.http.HawkularHttpResponse;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Joel Takvorian
+ */
+public class OutageBufferTest {
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+    private HttpServer server;
+    private int port;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldReplayWithoutGapsAfterServerRestart() throws Exception {
+        startServer(0);
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .uri("http://localhost:" + port)
+                .outageBuffer(1000)
+                .outageBufferReplayRate(Long.MAX_VALUE)
+                .filter((name, metric) -> name.equals("my.counter"))
+                .build();
+        Counter counter = registry.counter("my.counter");
+
+        for (int i = 0; i < 3; i++) {
+            counter.inc();
+            reporter.report();
+        }
+        server.stop(0);
+        for (int i = 0; i < 5; i++) {
+            counter.inc();
+            reporter.report();
+        }
+        OutageBuffer buffer = reporter.getOutageBuffer().get();
+        assertThat(buffer.getOccupancy()).isEqualTo(5);
+        assertThat(registry.getGauges().get("hawkular-reporter.outage-buffer.occupancy").getValue()).isEqualTo(5L);
+
+        startServer(port);
+        for (int i = 0; i < 2; i++) {
+            counter.inc();
+            reporter.report();
+        }
+        reporter.stop();
+
+        assertThat(buffer.getOccupancy()).isEqualTo(0);
+        assertThat(buffer.getDropped()).isEqualTo(0);
+        assertThat(buffer.getReplayLag()).isEqualTo(0);
+        assertThat(counterValues()).containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+    }
+
+    @Test
+    public void shouldLimitReplayRate() {
+        long[] time = {0};
+        Clock clock = new Clock() {
+            @Override
+            public long getTick() {
+                return time[0] * 1000000;
+            }
+
+            @Override
+            public long getTime() {
+                return time[0];
+            }
+        };
+        FlakyClient client = new FlakyClient();
+        OutageBuffer buffer = new OutageBuffer(new MetricRecordQueue(100), client, 2, clock);
+
+        client.available = false;
+        for (long i = 0; i < 10; i++) {
+            buffer.report(time[0], Collections.singletonMap("c", i), Collections.emptyMap());
+            time[0] += 1000;
+        }
+        assertThat(buffer.getOccupancy()).isEqualTo(10);
+        assertThat(buffer.getReplayLag()).isEqualTo(10000);
+
+        client.available = true;
+        // Each report sends its own data point plus 2 buffered data points per second
+        buffer.report(time[0], Collections.singletonMap("c", 10L), Collections.emptyMap());
+        assertThat(buffer.getOccupancy()).isEqualTo(8);
+        time[0] += 1000;
+        buffer.report(time[0], Collections.singletonMap("c", 11L), Collections.emptyMap());
+        assertThat(buffer.getOccupancy()).isEqualTo(6);
+        time[0] += 3000;
+        buffer.report(time[0], Collections.emptyMap(), Collections.emptyMap());
+        assertThat(buffer.getOccupancy()).isEqualTo(0);
+
+        List<Long> values = new ArrayList<>();
+        client.bodies.forEach(body -> values.addAll(counterValues(body)));
+        assertThat(values).containsExactly(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L);
+    }
+
+    private void startServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/hawkular/metrics/metrics/raw", exchange -> {
+            received.add(read(exchange.getRequestBody()));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        this.port = server.getAddress().getPort();
+    }
+
+    private List<Long> counterValues() {
+        List<Long> values = new ArrayList<>();
+        received.forEach(body -> values.addAll(counterValues(body)));
+        return values;
+    }
+
+    private static List<Long> counterValues(String body) {
+        List<Long> values = new ArrayList<>();
+        JSONObject json = new JSONObject(body);
+        if (json.has("counters")) {
+            JSONArray counters = json.getJSONArray("counters");
+            for (int i = 0; i < counters.length(); i++) {
+                JSONArray dataPoints = counters.getJSONObject(i).getJSONArray("dataPoints");
+                for (int j = 0; j < dataPoints.length(); j++) {
+                    values.add(dataPoints.getJSONObject(j).getLong("value"));
+                }
+            }
+        }
+        return values;
+    }
+
+    private static String read(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[2 * 1024];
+        int n;
+        while ((n = is.read(buffer)) >= 0) {
+            baos.write(buffer, 0, n);
+        }
+        return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static class FlakyClient implements HawkularHttpClient {
+        private final List<String> bodies = new ArrayList<>();
+        private boolean available = true;
+
+        @Override public void addHeaders(Map<String, String> headers) {}
+
+        @Override public HawkularHttpResponse postMetrics(String jsonBody) {
+            if (!available) {
+                return new HawkularHttpResponse("", -1, "Connection refused");
+            }
+            bodies.add(jsonBody);
+            return new HawkularHttpResponse("", 200);
+        }
+
+        @Override public HawkularHttpResponse putTags(String type, String metricName, String jsonBody) {
+            return new HawkularHttpResponse("", 200);
+        }
+
+        @Override
+        public void setFailoverOptions(Optional<Long> failoverCacheDuration, Optional<Integer> failoverCacheMaxSize) {
+        }
+
+        @Override public void manageFailover() {
+        }
+    }
+}
@@ -33,11 +33,14 @@ import static org.hawkular.metrics.clients.ptrans.ConfigurationKey.SERVICES_GANG
 import static org.hawkular.metrics.clients.ptrans.ConfigurationKey.SERVICES_GANGLIA_MULTICAST_INTERFACE;
 import static org.hawkular.metrics.clients.ptrans.ConfigurationKey.SERVICES_GANGLIA_PORT;
 import static org.hawkular.metrics.clients.ptrans.ConfigurationKey.SERVICES_GRAPHITE_PORT;
+import static org.hawkular.metrics.clients.ptrans.ConfigurationKey.SERVICES_STATSD_FLUSH_INTERVAL;
+import static org.hawkular.metrics.clients.ptrans.ConfigurationKey.SERVICES_STATSD_PERCENTILES;
 import static org.hawkular.metrics.clients.ptrans.ConfigurationKey.SERVICES_STATSD_PORT;
 import static org.hawkular.metrics.clients.ptrans.ConfigurationKey.SERVICES_TCP_PORT;
 import static org.hawkular.metrics.clients.ptrans.ConfigurationKey.SERVICES_UDP_PORT;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
@@ -67,6 +70,8 @@ public class Configuration {
     private final String gangliaGroup;
     private final String multicastIfOverride;
     private final int statsDport;
+    private final int statsDflushInterval;
+    private final List<Double> statsDpercentiles;
     private final int collectdPort;
     private final int graphitePort;
     private final URI metricsUrl;
@@ -81,7 +86,8 @@ public class Configuration {
     private final Set<String> validationMessages;
 
     private Configuration(Set<Service> services, int udpPort, int tcpPort, int gangliaPort, String gangliaGroup,
-                          String multicastIfOverride, int statsDport, int collectdPort, int graphitePort,
+                          String multicastIfOverride, int statsDport, int statsDflushInterval,
+                          List<Double> statsDpercentiles, int collectdPort, int graphitePort,
                           URI metricsUrl, boolean sendTenant, String tenant, boolean authEnabled, String authId,
                           String authSecret, JsonObject httpHeaders, int maxConnections, int batchSize,
                           Set<String> validationMessages) {
@@ -92,6 +98,8 @@ public class Configuration {
         this.gangliaGroup = gangliaGroup;
         this.multicastIfOverride = multicastIfOverride;
         this.statsDport = statsDport;
+        this.statsDflushInterval = statsDflushInterval;
+        this.statsDpercentiles = statsDpercentiles;
         this.collectdPort = collectdPort;
         this.graphitePort = graphitePort;
         this.metricsUrl = metricsUrl;
@@ -115,6 +123,12 @@ public class Configuration {
         String gangliaGroup = properties.getProperty(SERVICES_GANGLIA_GROUP.toString(), "239.2.11.71");
         String multicastIfOverride = properties.getProperty(SERVICES_GANGLIA_MULTICAST_INTERFACE.toString());
         int statsDport = getIntProperty(properties, SERVICES_STATSD_PORT, 8125);
+        int statsDflushInterval = getIntProperty(properties, SERVICES_STATSD_FLUSH_INTERVAL, 10);
+        if (statsDflushInterval <= 0) {
+            validationMessages.add(String.format(Locale.ROOT, "Property %s must be positive",
+                    SERVICES_STATSD_FLUSH_INTERVAL.toString()));
+        }
+        List<Double> statsDpercentiles = getStatsdPercentiles(properties, validationMessages);
         int collectdPort = getIntProperty(properties, SERVICES_COLLECTD_PORT, 25826);
         int graphitePort = getIntProperty(properties, SERVICES_GRAPHITE_PORT, 2003);
         URI metricsUrl = URI.create(properties.getProperty(METRICS_URL.toString(),
@@ -135,6 +149,8 @@ public class Configuration {
                 gangliaGroup,
                 multicastIfOverride,
                 statsDport,
+                statsDflushInterval,
+                statsDpercentiles,
                 collectdPort,
                 graphitePort,
                 metricsUrl,
@@ -176,6 +192,28 @@ public class Configuration {
         return services;
     }
 
+    private static List<Double> getStatsdPercentiles(Properties properties, Set<String> validationMessages) {
+        String percentilesProperty = properties.getProperty(SERVICES_STATSD_PERCENTILES.toString(), "90,95,99");
+        List<Double> percentiles = new ArrayList<>();
+        StringTokenizer tokenizer = new StringTokenizer(percentilesProperty, ",");
+        while (tokenizer.hasMoreTokens()) {
+            String token = tokenizer.nextToken().trim();
+            if (token.isEmpty()) {
+                continue;
+            }
+            try {
+                double percentile = Double.parseDouble(token);
+                if (percentile <= 0 || percentile >= 100) {
+                    throw new NumberFormatException();
+                }
+                percentiles.add(percentile);
+            } catch (NumberFormatException e) {
+                validationMessages.add(String.format(Locale.ROOT, "Invalid statsd percentile %s", token));
+            }
+        }
+        return Collections.unmodifiableList(percentiles);
+    }
+
     private static int getIntProperty(Properties properties, ConfigurationKey key, int defaultValue) {
         String property = properties.getProperty(key.toString());
         if (property == null) {
@@ -262,6 +300,14 @@ public class Configuration {
         return statsDport;
     }
 
+    public int getStatsDflushInterval() {
+        return statsDflushInterval;
+    }
+
+    public List<Double> getStatsDpercentiles() {
+        return statsDpercentiles;
+    }
+
     public int getCollectdPort() {
         return collectdPort;
     }
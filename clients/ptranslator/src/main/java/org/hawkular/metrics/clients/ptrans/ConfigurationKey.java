@@ -50,6 +50,14 @@ public enum ConfigurationKey {
      * UDP port for statsd type of messages.
      */
     SERVICES_STATSD_PORT("services.statsd.port"),
+    /**
+     * Statsd aggregation flush interval, in seconds.
+     */
+    SERVICES_STATSD_FLUSH_INTERVAL("services.statsd.flush-interval"),
+    /**
+     * Statsd timer percentiles (comma-separated).
+     */
+    SERVICES_STATSD_PERCENTILES("services.statsd.percentiles"),
     /**
      * UDP port for collectd type of messages.
      */
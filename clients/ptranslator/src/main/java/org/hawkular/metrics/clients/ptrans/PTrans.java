@@ -100,15 +100,16 @@ public class PTrans {
         workerGroup = new NioEventLoopGroup();
 
         URI metricsUrl = configuration.getMetricsUrl();
+        boolean ssl = "https".equalsIgnoreCase(metricsUrl.getScheme());
 
         VertxHawkularOptions metricsOptions = new VertxHawkularOptions()
                 .setEnabled(true)
                 .setHost(metricsUrl.getHost())
-                .setPort(metricsUrl.getPort())
+                .setPort(metricsUrl.getPort() > 0 ? metricsUrl.getPort() : (ssl ? 443 : 80))
                 .setMetricsServiceUri(metricsUrl.getPath())
                 .setHttpOptions(new HttpClientOptions()
                         .setMaxPoolSize(configuration.getMaxConnections())
-                        .setSsl("https".equalsIgnoreCase(metricsUrl.getScheme())))
+                        .setSsl(ssl))
                 .setTenant(configuration.getTenant())
                 .setSendTenantHeader(configuration.isSendTenant())
                 .setAuthenticationOptions(new AuthenticationOptions()
@@ -185,7 +186,7 @@ public class PTrans {
                     .group(group)
                     .channel(NioDatagramChannel.class)
                     .localAddress(configuration.getStatsDport())
-                    .handler(new StatsdChannelInitializer(nettyToVertxHandler));
+                    .handler(new StatsdChannelInitializer(configuration, nettyToVertxHandler));
             ChannelFuture statsdBindFuture = statsdBootstrap.bind().syncUninterruptibly();
             log.infoServerListening("Statsd", "UDP", statsdBindFuture.channel().localAddress());
             closeFutures.add(statsdBindFuture.channel().closeFuture());
@@ -193,7 +194,7 @@ public class PTrans {
 
         if (services.contains(Service.GRAPHITE)) {
             CountDownLatch latch = new CountDownLatch(1);
-            vertx.deployVerticle(new GraphiteServer(configuration), handler -> {
+            vertx.deployVerticle(new GraphiteServer(metricsOptions, configuration.getGraphitePort()), handler -> {
                 log.infoServerListening("Graphite", "TCP", configuration.getGraphitePort());
                 latch.countDown();
             });
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.clients.ptrans.graphite;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.logging.Logger;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Groups Graphite samples per series and forwards them to the backend as gauge batches.
+ * <p>
+ * A batch is sent as soon as {@code batchSize} samples are pending, or when {@link #flush()} is called. At most
+ * {@code maxInFlight} batches are sent concurrently; meanwhile samples keep accumulating, which improves grouping. When
+ * the number of pending samples reaches a high watermark, registered connections are paused. They are resumed once the
+ * backend has caught up, below a low watermark.
+ * <p>
+ * Instances are not thread safe, they are expected to be confined to the verticle event loop.
+ *
+ * @author Thomas Segismont
+ */
+class GraphiteForwarder implements SampleHandler {
+    private static final Logger log = Logger.getLogger(GraphiteForwarder.class);
+
+    /**
+     * Sends a batch of gauges, in the format of the {@code gauges/raw} endpoint.
+     */
+    @FunctionalInterface
+    interface Sender {
+        void send(JsonArray gauges, Handler<AsyncResult<Void>> resultHandler);
+    }
+
+    private final Sender sender;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final int highWatermark;
+    private final int lowWatermark;
+
+    private final Map<String, Series> pending = new LinkedHashMap<>();
+    private final Set<ReadStream<?>> streams = new HashSet<>();
+    private int pendingSamples;
+    private int inFlight;
+    private boolean sending;
+    private boolean paused;
+
+    GraphiteForwarder(Sender sender, int batchSize, int maxInFlight) {
+        this.sender = sender;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        highWatermark = 2 * batchSize * maxInFlight;
+        lowWatermark = highWatermark / 2;
+    }
+
+    /**
+     * Registers a connection, so that it is paused when the backend lags.
+     */
+    void register(ReadStream<?> stream) {
+        streams.add(stream);
+        if (paused) {
+            stream.pause();
+        }
+    }
+
+    void unregister(ReadStream<?> stream) {
+        streams.remove(stream);
+    }
+
+    @Override
+    public void sample(String name, long timestamp, double value) {
+        Series series = pending.get(name);
+        if (series == null) {
+            series = new Series();
+            pending.put(name, series);
+        }
+        series.add(timestamp, value);
+        pendingSamples++;
+        if (pendingSamples >= batchSize) {
+            send(false);
+        }
+        if (!paused && pendingSamples >= highWatermark) {
+            log.debugf("%d samples pending, pausing %d connection(s)", pendingSamples, streams.size());
+            paused = true;
+            streams.forEach(ReadStream::pause);
+        }
+    }
+
+    /**
+     * Sends pending samples, even if there are not enough of them to fill a batch.
+     */
+    void flush() {
+        send(true);
+    }
+
+    int getPendingSamples() {
+        return pendingSamples;
+    }
+
+    int getInFlight() {
+        return inFlight;
+    }
+
+    boolean isPaused() {
+        return paused;
+    }
+
+    private void send(boolean partial) {
+        if (sending) {
+            // Re-entrant call from a synchronously completed send, the loop below will pick up the work
+            return;
+        }
+        sending = true;
+        try {
+            while (inFlight < maxInFlight && (pendingSamples >= batchSize || (partial && pendingSamples > 0))) {
+                int before = pendingSamples;
+                JsonArray gauges = nextBatch();
+                int count = before - pendingSamples;
+                inFlight++;
+                sender.send(gauges, result -> onSent(result, count));
+            }
+        } finally {
+            sending = false;
+        }
+        if (paused && pendingSamples <= lowWatermark) {
+            log.debugf("%d samples pending, resuming %d connection(s)", pendingSamples, streams.size());
+            paused = false;
+            streams.forEach(ReadStream::resume);
+        }
+    }
+
+    private JsonArray nextBatch() {
+        JsonArray gauges = new JsonArray();
+        int size = 0;
+        for (Iterator<Map.Entry<String, Series>> i = pending.entrySet().iterator(); i.hasNext() && size < batchSize; ) {
+            Map.Entry<String, Series> entry = i.next();
+            Series series = entry.getValue();
+            int taken = Math.min(series.size, batchSize - size);
+            gauges.add(new JsonObject().put("id", entry.getKey()).put("data", series.toJson(taken)));
+            if (taken == series.size) {
+                i.remove();
+            } else {
+                series.drop(taken);
+            }
+            size += taken;
+        }
+        pendingSamples -= size;
+        return gauges;
+    }
+
+    private void onSent(AsyncResult<Void> result, int count) {
+        inFlight--;
+        if (result.failed()) {
+            log.warnf(result.cause(), "Could not send %d Graphite samples", count);
+        }
+        send(false);
+    }
+
+    private static class Series {
+        long[] timestamps = new long[4];
+        double[] values = new double[4];
+        int size;
+
+        void add(long timestamp, double value) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+
+        JsonArray toJson(int count) {
+            JsonArray data = new JsonArray();
+            for (int i = 0; i < count; i++) {
+                data.add(new JsonObject().put("timestamp", timestamps[i]).put("value", values[i]));
+            }
+            return data;
+        }
+
+        void drop(int count) {
+            System.arraycopy(timestamps, count, timestamps, 0, size - count);
+            System.arraycopy(values, count, values, 0, size - count);
+            size -= count;
+        }
+    }
+}
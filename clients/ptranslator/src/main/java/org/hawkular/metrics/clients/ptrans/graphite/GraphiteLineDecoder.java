@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.clients.ptrans.graphite;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import static org.hawkular.metrics.clients.ptrans.util.Numbers.parseDouble;
+
+import org.jboss.logging.Logger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Decodes the Graphite plaintext protocol: {@code <path> <value> <timestamp>} lines, the timestamp being expressed in
+ * seconds. A negative timestamp stands for the current time, like in Carbon. Invalid lines are skipped.
+ * <p>
+ * Lines are parsed in place in the received buffers. Only an incomplete trailing line is copied, until the rest of it
+ * is received. An instance must be created for each connection.
+ *
+ * @author Thomas Segismont
+ */
+class GraphiteLineDecoder implements Handler<Buffer> {
+    private static final Logger log = Logger.getLogger(GraphiteLineDecoder.class);
+
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final SampleHandler sampleHandler;
+    private final ByteBuf partialLine = Unpooled.buffer(256);
+    private boolean discarding;
+
+    GraphiteLineDecoder(SampleHandler sampleHandler) {
+        this.sampleHandler = sampleHandler;
+    }
+
+    @Override
+    public void handle(Buffer buffer) {
+        ByteBuf buf = buffer.getByteBuf();
+        int index = buf.readerIndex();
+        int end = buf.writerIndex();
+        if (partialLine.isReadable() || discarding) {
+            int eol = buf.indexOf(index, end, (byte) '\n');
+            if (eol < 0) {
+                appendPartialLine(buf, index, end);
+                return;
+            }
+            appendPartialLine(buf, index, eol);
+            if (!discarding) {
+                decodeLine(partialLine, partialLine.readerIndex(), partialLine.writerIndex());
+            }
+            partialLine.clear();
+            discarding = false;
+            index = eol + 1;
+        }
+        while (index < end) {
+            int eol = buf.indexOf(index, end, (byte) '\n');
+            if (eol < 0) {
+                appendPartialLine(buf, index, end);
+                return;
+            }
+            decodeLine(buf, index, eol);
+            index = eol + 1;
+        }
+    }
+
+    private void appendPartialLine(ByteBuf buf, int from, int to) {
+        if (discarding) {
+            return;
+        }
+        if (partialLine.readableBytes() + to - from > MAX_LINE_LENGTH) {
+            log.debugf("Skipping line longer than %d bytes", MAX_LINE_LENGTH);
+            partialLine.clear();
+            discarding = true;
+            return;
+        }
+        partialLine.writeBytes(buf, from, to - from);
+    }
+
+    private void decodeLine(ByteBuf buf, int from, int to) {
+        from = skipWhitespaces(buf, from, to);
+        while (to > from && isWhitespace(buf.getByte(to - 1))) {
+            to--;
+        }
+        if (from == to) {
+            return;
+        }
+        int nameEnd = nextWhitespace(buf, from, to);
+        int valueStart = skipWhitespaces(buf, nameEnd, to);
+        int valueEnd = nextWhitespace(buf, valueStart, to);
+        int timestampStart = skipWhitespaces(buf, valueEnd, to);
+        int timestampEnd = nextWhitespace(buf, timestampStart, to);
+        if (timestampStart == timestampEnd || timestampEnd != to) {
+            invalidLine(buf, from, to);
+            return;
+        }
+        double value = parseDouble(buf, valueStart, valueEnd);
+        double timestamp = parseDouble(buf, timestampStart, timestampEnd);
+        if (Double.isNaN(value) || Double.isNaN(timestamp)) {
+            invalidLine(buf, from, to);
+            return;
+        }
+        String name = buf.toString(from, nameEnd - from, CharsetUtil.UTF_8);
+        sampleHandler.sample(name, toMillis(timestamp), value);
+    }
+
+    static long toMillis(double timestamp) {
+        if (timestamp < 0) {
+            return System.currentTimeMillis();
+        }
+        return (long) (timestamp * SECONDS.toMillis(1));
+    }
+
+    private static int skipWhitespaces(ByteBuf buf, int from, int to) {
+        while (from < to && isWhitespace(buf.getByte(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int nextWhitespace(ByteBuf buf, int from, int to) {
+        while (from < to && !isWhitespace(buf.getByte(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private void invalidLine(ByteBuf buf, int from, int to) {
+        if (log.isTraceEnabled()) {
+            log.tracef("Unknown data format for '%s', skipping", buf.toString(from, to - from, CharsetUtil.UTF_8));
+        }
+    }
+}
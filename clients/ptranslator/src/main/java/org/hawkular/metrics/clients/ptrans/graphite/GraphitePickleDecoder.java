@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.clients.ptrans.graphite;
+
+import static org.hawkular.metrics.clients.ptrans.graphite.GraphiteLineDecoder.toMillis;
+
+import java.util.List;
+
+import org.jboss.logging.Logger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Decodes the Graphite pickle protocol. Each frame is made of a 4 bytes big-endian length header followed by a
+ * pickled list of {@code (path, (timestamp, value))} tuples. Invalid entries are skipped.
+ * <p>
+ * Frames are decoded in place in the received buffers. Only an incomplete trailing frame is copied, until the rest of
+ * it is received. An instance must be created for each connection.
+ *
+ * @author Thomas Segismont
+ */
+class GraphitePickleDecoder implements Handler<Buffer> {
+    private static final Logger log = Logger.getLogger(GraphitePickleDecoder.class);
+
+    /**
+     * Same limit as Carbon's pickle receiver.
+     */
+    static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    private static final int HEADER_LENGTH = 4;
+
+    private final SampleHandler sampleHandler;
+    private final ByteBuf partialFrame = Unpooled.buffer(0);
+
+    GraphitePickleDecoder(SampleHandler sampleHandler) {
+        this.sampleHandler = sampleHandler;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a frame is malformed, in which case the connection should be closed
+     */
+    @Override
+    public void handle(Buffer buffer) {
+        ByteBuf buf = buffer.getByteBuf();
+        if (partialFrame.isReadable()) {
+            partialFrame.writeBytes(buf);
+            decodeFrames(partialFrame);
+            partialFrame.discardReadBytes();
+        } else {
+            decodeFrames(buf);
+            if (buf.isReadable()) {
+                partialFrame.writeBytes(buf);
+            }
+        }
+    }
+
+    private void decodeFrames(ByteBuf buf) {
+        while (buf.readableBytes() >= HEADER_LENGTH) {
+            int length = buf.getInt(buf.readerIndex());
+            if (length < 0 || length > MAX_FRAME_LENGTH) {
+                throw new IllegalArgumentException("Invalid pickle frame length: " + length);
+            }
+            if (buf.readableBytes() < HEADER_LENGTH + length) {
+                return;
+            }
+            int from = buf.readerIndex() + HEADER_LENGTH;
+            decodeFrame(Unpickler.load(buf, from, from + length));
+            buf.skipBytes(HEADER_LENGTH + length);
+        }
+    }
+
+    private void decodeFrame(Object payload) {
+        if (!(payload instanceof List)) {
+            throw new IllegalArgumentException("Pickle payload is not a list");
+        }
+        for (Object item : (List<?>) payload) {
+            if (!decodeItem(item)) {
+                log.tracef("Unknown data format for '%s', skipping", item);
+            }
+        }
+    }
+
+    private boolean decodeItem(Object item) {
+        if (!(item instanceof List) || ((List<?>) item).size() != 2) {
+            return false;
+        }
+        List<?> metric = (List<?>) item;
+        if (!(metric.get(0) instanceof String) || !(metric.get(1) instanceof List)) {
+            return false;
+        }
+        List<?> point = (List<?>) metric.get(1);
+        if (point.size() != 2 || !(point.get(0) instanceof Number) || !(point.get(1) instanceof Number)) {
+            return false;
+        }
+        double timestamp = ((Number) point.get(0)).doubleValue();
+        double value = ((Number) point.get(1)).doubleValue();
+        sampleHandler.sample((String) metric.get(0), toMillis(timestamp), value);
+        return true;
+    }
+}
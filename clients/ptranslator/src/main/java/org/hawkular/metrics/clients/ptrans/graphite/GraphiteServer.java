@@ -16,42 +16,72 @@
  */
 package org.hawkular.metrics.clients.ptrans.graphite;
 
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static java.util.concurrent.TimeUnit.SECONDS;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
 
-import static org.hawkular.metrics.clients.ptrans.backend.Constants.METRIC_ADDRESS;
-
-import org.hawkular.metrics.clients.ptrans.Configuration;
 import org.jboss.logging.Logger;
 
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.buffer.Buffer;
-import io.vertx.core.json.JsonObject;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.net.NetServer;
-import io.vertx.core.parsetools.RecordParser;
+import io.vertx.core.net.NetSocket;
+import io.vertx.ext.hawkular.AuthenticationOptions;
+import io.vertx.ext.hawkular.VertxHawkularOptions;
 
 /**
- * A TCP server for the Graphite plaintext protocol.
+ * A TCP server for the Graphite plaintext and pickle protocols. The protocol is detected on the first byte received on
+ * a connection: pickle frames start with a length header, the first byte of which is always zero.
+ * <p>
+ * Samples are sent directly to the backend, grouped per series, by a {@link GraphiteForwarder}. Connections are paused
+ * when the backend lags. The backend is reached with the same options as the metrics reporter of the other servers.
  *
  * @author Thomas Segismont
  */
 public class GraphiteServer extends AbstractVerticle {
     private static final Logger log = Logger.getLogger(GraphiteServer.class);
 
+    private static final long FLUSH_DELAY = 1000;
+
+    private final VertxHawkularOptions metricsOptions;
     private final int port;
-    private final RecordParser recordParser;
 
-    public GraphiteServer(Configuration configuration) {
-        port = configuration.getGraphitePort();
-        recordParser = RecordParser.newDelimited("\n", this::handleRecord);
+    private HttpClient httpClient;
+    private GraphiteForwarder forwarder;
+    private long flushTimerId;
+
+    /**
+     * @param metricsOptions the options of the metrics reporter, which hold the backend address and credentials
+     * @param port the port to listen on
+     */
+    public GraphiteServer(VertxHawkularOptions metricsOptions, int port) {
+        this.metricsOptions = metricsOptions;
+        this.port = port;
     }
 
     @Override
     public void start(Future<Void> startFuture) throws Exception {
+        HttpClientOptions httpOptions = metricsOptions.getHttpOptions();
+        httpClient = vertx.createHttpClient(new HttpClientOptions(httpOptions)
+                .setDefaultHost(metricsOptions.getHost())
+                .setDefaultPort(metricsOptions.getPort())
+                .setKeepAlive(true));
+        forwarder = new GraphiteForwarder(this::send, metricsOptions.getBatchSize(), httpOptions.getMaxPoolSize());
+        flushTimerId = vertx.setPeriodic(FLUSH_DELAY, id -> forwarder.flush());
+
         NetServer tcpServer = vertx.createNetServer();
         tcpServer.connectHandler(socket -> {
-            socket.handler(recordParser);
+            forwarder.register(socket);
+            socket.closeHandler(v -> forwarder.unregister(socket));
+            socket.handler(new ConnectionHandler(socket));
         });
         tcpServer.listen(port, result -> {
             if (result.succeeded()) {
@@ -62,23 +92,92 @@ public class GraphiteServer extends AbstractVerticle {
         });
     }
 
-    private void handleRecord(Buffer buf) {
-        String msg = buf.toString("UTF-8");
+    @Override
+    public void stop() throws Exception {
+        vertx.cancelTimer(flushTimerId);
+        forwarder.flush();
+        httpClient.close();
+    }
+
+    private void send(JsonArray gauges, Handler<AsyncResult<Void>> resultHandler) {
+        Handler<AsyncResult<Void>> handler = new Handler<AsyncResult<Void>>() {
+            boolean done;
+
+            @Override
+            public void handle(AsyncResult<Void> result) {
+                // Exceptions may be reported after the response has been received
+                if (!done) {
+                    done = true;
+                    resultHandler.handle(result);
+                }
+            }
+        };
+        String uri = metricsOptions.getMetricsServiceUri() + "/gauges/raw";
+        HttpClientRequest request = httpClient.post(uri, response -> {
+            if (response.statusCode() / 100 == 2) {
+                handler.handle(Future.succeededFuture());
+            } else {
+                response.bodyHandler(body -> handler.handle(Future.failedFuture(
+                        response.statusCode() + " " + response.statusMessage() + ": " + body)));
+            }
+        });
+        request.exceptionHandler(t -> handler.handle(Future.failedFuture(t)));
+        request.putHeader("Content-Type", "application/json");
+        putHeaders(request);
+        request.end(gauges.encode());
+    }
 
-        String[] items = msg.split(" ");
-        if (items.length != 3) {
-            log.tracef("Unknown data format for '%s', skipping", msg);
+    /**
+     * Sets the tenant, authentication and user defined headers, the way the metrics reporter does.
+     */
+    private void putHeaders(HttpClientRequest request) {
+        if (metricsOptions.isSendTenantHeader()) {
+            request.putHeader("Hawkular-Tenant", metricsOptions.getTenant());
+        }
+        AuthenticationOptions authenticationOptions = metricsOptions.getAuthenticationOptions();
+        if (authenticationOptions.isEnabled()) {
+            String credentials = authenticationOptions.getId() + ":" + authenticationOptions.getSecret();
+            request.putHeader("Authorization", "Basic "
+                    + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+        }
+        if (metricsOptions.getHttpHeaders() == null) {
             return;
         }
+        for (Map.Entry<String, Object> header : metricsOptions.getHttpHeaders()) {
+            Object value = header.getValue();
+            if (value instanceof JsonArray) {
+                @SuppressWarnings("unchecked")
+                List<String> values = ((JsonArray) value).getList();
+                request.putHeader(header.getKey(), values);
+            } else {
+                request.putHeader(header.getKey(), String.valueOf(value));
+            }
+        }
+    }
 
-        String name = items[0];
-        double value = Double.parseDouble(items[1]);
-        long timestamp = MILLISECONDS.convert(Long.parseLong(items[2]), SECONDS);
+    private class ConnectionHandler implements Handler<Buffer> {
+        private final NetSocket socket;
+        private Handler<Buffer> decoder;
 
-        JsonObject metric = new JsonObject()
-                .put("id", name)
-                .put("timestamp", timestamp)
-                .put("value", value);
-        vertx.eventBus().publish(METRIC_ADDRESS, metric);
+        ConnectionHandler(NetSocket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void handle(Buffer buffer) {
+            if (buffer.length() == 0) {
+                return;
+            }
+            if (decoder == null) {
+                boolean pickle = buffer.getByte(0) == 0;
+                decoder = pickle ? new GraphitePickleDecoder(forwarder) : new GraphiteLineDecoder(forwarder);
+            }
+            try {
+                decoder.handle(buffer);
+            } catch (IllegalArgumentException e) {
+                log.debugf(e, "Closing Graphite connection from %s", socket.remoteAddress());
+                socket.close();
+            }
+        }
     }
 }
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.clients.ptrans.graphite;
+
+/**
+ * Receives the samples decoded from a Graphite connection.
+ *
+ * @author Thomas Segismont
+ */
+@FunctionalInterface
+interface SampleHandler {
+
+    /**
+     * @param name      the metric path
+     * @param timestamp sample timestamp, in milliseconds
+     * @param value     sample value
+     */
+    void sample(String name, long timestamp, double value);
+}
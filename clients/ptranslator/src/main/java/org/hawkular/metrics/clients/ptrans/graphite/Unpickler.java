@@ -0,0 +1,365 @@
+/*
+ * Copyright 2014-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.clients.ptrans.graphite;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
+/**
+ * A minimal unpickler for the payloads of the Graphite pickle protocol, which are lists of
+ * {@code (path, (timestamp, value))} tuples.
+ * <p>
+ * Only the opcodes needed to describe strings, numbers, booleans, {@code None}, lists and tuples are supported
+ * (protocols 0 to 4). Opcodes which would build arbitrary objects are rejected, so untrusted input can be decoded
+ * safely. Lists and tuples are both returned as {@link List} instances, integers as {@link Long} and floats as
+ * {@link Double}.
+ *
+ * @author Thomas Segismont
+ */
+class Unpickler {
+    private static final Object MARK = new Object();
+
+    private final ByteBuf buf;
+    private final int end;
+    private final List<Object> stack = new ArrayList<>();
+    private final Map<Long, Object> memo = new HashMap<>();
+    private int index;
+
+    private Unpickler(ByteBuf buf, int from, int to) {
+        this.buf = buf;
+        this.index = from;
+        this.end = to;
+    }
+
+    /**
+     * @param buf  the buffer holding the pickle
+     * @param from index of the first byte, inclusive
+     * @param to   index of the last byte, exclusive
+     *
+     * @return the unpickled object
+     *
+     * @throws IllegalArgumentException if the pickle is malformed or uses an unsupported opcode
+     */
+    static Object load(ByteBuf buf, int from, int to) {
+        return new Unpickler(buf, from, to).load();
+    }
+
+    private Object load() {
+        while (true) {
+            int opcode = readUnsignedByte();
+            switch (opcode) {
+                case 0x80: // PROTO
+                    readUnsignedByte();
+                    break;
+                case 0x95: // FRAME
+                    skip(8);
+                    break;
+                case '.': // STOP
+                    return pop();
+                case '(': // MARK
+                    push(MARK);
+                    break;
+                case 'N': // NONE
+                    push(null);
+                    break;
+                case 0x88: // NEWTRUE
+                    push(Boolean.TRUE);
+                    break;
+                case 0x89: // NEWFALSE
+                    push(Boolean.FALSE);
+                    break;
+                case 'I': { // INT
+                    String line = readLine();
+                    if ("00".equals(line)) {
+                        push(Boolean.FALSE);
+                    } else if ("01".equals(line)) {
+                        push(Boolean.TRUE);
+                    } else {
+                        push(parseInteger(line));
+                    }
+                    break;
+                }
+                case 'J': // BININT
+                    push((long) readInt());
+                    break;
+                case 'K': // BININT1
+                    push((long) readUnsignedByte());
+                    break;
+                case 'M': // BININT2
+                    push((long) readUnsignedShort());
+                    break;
+                case 'L': { // LONG
+                    String line = readLine();
+                    push(parseInteger(line.endsWith("L") ? line.substring(0, line.length() - 1) : line));
+                    break;
+                }
+                case 0x8a: // LONG1
+                    push(readLong(readUnsignedByte()));
+                    break;
+                case 0x8b: // LONG4
+                    push(readLong(readLength()));
+                    break;
+                case 'F': // FLOAT
+                    push(parseDouble(readLine()));
+                    break;
+                case 'G': // BINFLOAT
+                    checkAvailable(8);
+                    // Big-endian, unlike the other binary opcodes
+                    push(buf.getDouble(index));
+                    index += 8;
+                    break;
+                case 'S': // STRING
+                    push(unquote(readLine()));
+                    break;
+                case 'V': // UNICODE
+                    push(readLine());
+                    break;
+                case 'T': // BINSTRING
+                case 'X': // BINUNICODE
+                case 'B': // BINBYTES
+                    push(readString(readLength(), opcode == 'X' ? CharsetUtil.UTF_8 : CharsetUtil.ISO_8859_1));
+                    break;
+                case 'U': // SHORT_BINSTRING
+                case 'C': // SHORT_BINBYTES
+                    push(readString(readUnsignedByte(), CharsetUtil.ISO_8859_1));
+                    break;
+                case 0x8c: // SHORT_BINUNICODE
+                    push(readString(readUnsignedByte(), CharsetUtil.UTF_8));
+                    break;
+                case ']': // EMPTY_LIST
+                    push(new ArrayList<>());
+                    break;
+                case 'l': // LIST
+                    push(new ArrayList<>(popMark()));
+                    break;
+                case 'a': { // APPEND
+                    Object value = pop();
+                    list(peek()).add(value);
+                    break;
+                }
+                case 'e': { // APPENDS
+                    List<Object> values = popMark();
+                    list(peek()).addAll(values);
+                    break;
+                }
+                case ')': // EMPTY_TUPLE
+                    push(Arrays.asList());
+                    break;
+                case 't': // TUPLE
+                    push(Arrays.asList(popMark().toArray()));
+                    break;
+                case 0x85: // TUPLE1
+                    push(Arrays.asList(pop()));
+                    break;
+                case 0x86: { // TUPLE2
+                    Object second = pop();
+                    push(Arrays.asList(pop(), second));
+                    break;
+                }
+                case 0x87: { // TUPLE3
+                    Object third = pop();
+                    Object second = pop();
+                    push(Arrays.asList(pop(), second, third));
+                    break;
+                }
+                case 'p': // PUT
+                    memo.put(parseLong(readLine()), peek());
+                    break;
+                case 'q': // BINPUT
+                    memo.put((long) readUnsignedByte(), peek());
+                    break;
+                case 'r': // LONG_BINPUT
+                    memo.put(readInt() & 0xffffffffL, peek());
+                    break;
+                case 0x94: // MEMOIZE
+                    memo.put((long) memo.size(), peek());
+                    break;
+                case 'g': // GET
+                    push(memoGet(parseLong(readLine())));
+                    break;
+                case 'h': // BINGET
+                    push(memoGet(readUnsignedByte()));
+                    break;
+                case 'j': // LONG_BINGET
+                    push(memoGet(readInt() & 0xffffffffL));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported pickle opcode: 0x" + Integer.toHexString(opcode));
+            }
+        }
+    }
+
+    private void push(Object value) {
+        stack.add(value);
+    }
+
+    private Object pop() {
+        if (stack.isEmpty()) {
+            throw new IllegalArgumentException("Pickle stack underflow");
+        }
+        Object value = stack.remove(stack.size() - 1);
+        if (value == MARK) {
+            throw new IllegalArgumentException("Unexpected mark");
+        }
+        return value;
+    }
+
+    private Object peek() {
+        if (stack.isEmpty() || stack.get(stack.size() - 1) == MARK) {
+            throw new IllegalArgumentException("Pickle stack underflow");
+        }
+        return stack.get(stack.size() - 1);
+    }
+
+    private List<Object> popMark() {
+        int mark = stack.lastIndexOf(MARK);
+        if (mark < 0) {
+            throw new IllegalArgumentException("Mark not found");
+        }
+        List<Object> items = new ArrayList<>(stack.subList(mark + 1, stack.size()));
+        stack.subList(mark, stack.size()).clear();
+        return items;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(Object value) {
+        if (!(value instanceof ArrayList)) {
+            throw new IllegalArgumentException("Not a list: " + value);
+        }
+        return (List<Object>) value;
+    }
+
+    private Object memoGet(long key) {
+        if (!memo.containsKey(key)) {
+            throw new IllegalArgumentException("Memo key not found: " + key);
+        }
+        return memo.get(key);
+    }
+
+    private void checkAvailable(long length) {
+        if (length < 0 || end - index < length) {
+            throw new IllegalArgumentException("Truncated pickle");
+        }
+    }
+
+    private void skip(int length) {
+        checkAvailable(length);
+        index += length;
+    }
+
+    private int readUnsignedByte() {
+        checkAvailable(1);
+        return buf.getUnsignedByte(index++);
+    }
+
+    private int readUnsignedShort() {
+        checkAvailable(2);
+        int value = buf.getUnsignedShortLE(index);
+        index += 2;
+        return value;
+    }
+
+    private int readInt() {
+        checkAvailable(4);
+        int value = buf.getIntLE(index);
+        index += 4;
+        return value;
+    }
+
+    private int readLength() {
+        int length = readInt();
+        checkAvailable(length);
+        return length;
+    }
+
+    private Object readLong(int length) {
+        checkAvailable(length);
+        if (length == 0) {
+            return 0L;
+        }
+        // Little-endian two's complement
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[length - 1 - i] = buf.getByte(index + i);
+        }
+        index += length;
+        return narrow(new BigInteger(bytes));
+    }
+
+    private static Object narrow(BigInteger value) {
+        return value.bitLength() < Long.SIZE ? (Object) value.longValue() : (Object) value.doubleValue();
+    }
+
+    private String readString(int length, Charset charset) {
+        checkAvailable(length);
+        String value = buf.toString(index, length, charset);
+        index += length;
+        return value;
+    }
+
+    private String readLine() {
+        int eol = buf.indexOf(index, end, (byte) '\n');
+        if (eol < 0) {
+            throw new IllegalArgumentException("Truncated pickle");
+        }
+        String line = buf.toString(index, eol - index, CharsetUtil.UTF_8);
+        index = eol + 1;
+        return line;
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid integer: " + value);
+        }
+    }
+
+    private static Object parseInteger(String value) {
+        try {
+            return narrow(new BigInteger(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid integer: " + value);
+        }
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid float: " + value);
+        }
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2) {
+            char quote = value.charAt(0);
+            if ((quote == '\'' || quote == '"') && value.charAt(value.length() - 1) == quote) {
+                return value.substring(1, value.length() - 1);
+            }
+        }
+        throw new IllegalArgumentException("Invalid string: " + value);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.clients.ptrans.statsd;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hawkular.metrics.client.common.MetricType;
+import org.hawkular.metrics.client.common.SingleMetric;
+
+/**
+ * Aggregates statsd samples over a flush interval, the way the statsd daemon does:
+ * <ul>
+ *     <li>counters are summed (and scaled according to their sample rate)</li>
+ *     <li>gauges keep their last value, a signed value is applied as a delta</li>
+ *     <li>timers (and histograms) report count, min, max, mean and the configured percentiles</li>
+ *     <li>sets report the number of distinct values</li>
+ * </ul>
+ * {@link #flush(long)} returns one {@link SingleMetric} per aggregated series and resets the interval state, so the
+ * number of metrics sent to the backend depends on the number of series, not on the number of packets received.
+ * <p>
+ * Instances are not thread safe, they are expected to be confined to the channel event loop.
+ *
+ * @author Thomas Segismont
+ */
+class StatsdAggregator {
+    private static final double SKETCH_RELATIVE_ACCURACY = 0.01;
+
+    private final double[] quantiles;
+    private final String[] percentileSuffixes;
+
+    private final Map<String, CounterAggregate> counters = new HashMap<>();
+    private final Map<String, GaugeAggregate> gauges = new HashMap<>();
+    private final Map<String, TimerAggregate> timers = new HashMap<>();
+    private final Map<String, Set<Long>> sets = new HashMap<>();
+
+    /**
+     * @param percentiles timer percentiles to report, for example {@code 99.9}
+     */
+    StatsdAggregator(List<Double> percentiles) {
+        quantiles = new double[percentiles.size()];
+        percentileSuffixes = new String[percentiles.size()];
+        for (int i = 0; i < quantiles.length; i++) {
+            double percentile = percentiles.get(i);
+            quantiles[i] = percentile / 100;
+            String suffix = String.valueOf(percentile);
+            if (suffix.endsWith(".0")) {
+                suffix = suffix.substring(0, suffix.length() - 2);
+            }
+            percentileSuffixes[i] = ".p" + suffix.replace(".", "");
+        }
+    }
+
+    void counter(String name, double value, double sampleRate) {
+        CounterAggregate counter = counters.get(name);
+        if (counter == null) {
+            counter = new CounterAggregate();
+            counters.put(name, counter);
+        }
+        counter.sum += value / sampleRate;
+        counter.updated = true;
+    }
+
+    void gauge(String name, double value, boolean delta) {
+        GaugeAggregate gauge = gauges.get(name);
+        if (gauge == null) {
+            gauge = new GaugeAggregate();
+            gauges.put(name, gauge);
+        }
+        gauge.value = delta ? gauge.value + value : value;
+        gauge.updated = true;
+    }
+
+    void timer(String name, double value, double sampleRate) {
+        TimerAggregate timer = timers.get(name);
+        if (timer == null) {
+            timer = new TimerAggregate();
+            timers.put(name, timer);
+        }
+        if (!timer.updated) {
+            timer.min = value;
+            timer.max = value;
+            timer.updated = true;
+        } else {
+            timer.min = Math.min(timer.min, value);
+            timer.max = Math.max(timer.max, value);
+        }
+        timer.count += 1 / sampleRate;
+        timer.sum += value;
+        timer.sketch.add(value);
+    }
+
+    void set(String name, long valueHash) {
+        Set<Long> set = sets.get(name);
+        if (set == null) {
+            set = new HashSet<>();
+            sets.put(name, set);
+        }
+        set.add(valueHash);
+    }
+
+    /**
+     * @param timestamp timestamp of the generated metrics
+     *
+     * @return the aggregated metrics of the interval, possibly empty
+     */
+    List<SingleMetric> flush(long timestamp) {
+        List<SingleMetric> metrics = new ArrayList<>(counters.size() + gauges.size() + sets.size()
+                + timers.size() * (4 + quantiles.length));
+
+        for (Iterator<Map.Entry<String, CounterAggregate>> i = counters.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<String, CounterAggregate> entry = i.next();
+            CounterAggregate counter = entry.getValue();
+            if (!counter.updated) {
+                // Idle during a whole interval
+                i.remove();
+                continue;
+            }
+            metrics.add(gauge(entry.getKey(), timestamp, counter.sum));
+            counter.sum = 0;
+            counter.updated = false;
+        }
+
+        for (Map.Entry<String, GaugeAggregate> entry : gauges.entrySet()) {
+            GaugeAggregate gauge = entry.getValue();
+            if (gauge.updated) {
+                // The value is kept, in order to apply later deltas
+                metrics.add(gauge(entry.getKey(), timestamp, gauge.value));
+                gauge.updated = false;
+            }
+        }
+
+        for (Iterator<Map.Entry<String, TimerAggregate>> i = timers.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<String, TimerAggregate> entry = i.next();
+            TimerAggregate timer = entry.getValue();
+            if (!timer.updated) {
+                i.remove();
+                continue;
+            }
+            String name = entry.getKey();
+            metrics.add(gauge(name + ".count", timestamp, timer.count));
+            metrics.add(gauge(name + ".min", timestamp, timer.min));
+            metrics.add(gauge(name + ".max", timestamp, timer.max));
+            metrics.add(gauge(name + ".mean", timestamp, timer.sum / timer.sketch.getCount()));
+            for (int q = 0; q < quantiles.length; q++) {
+                metrics.add(gauge(name + percentileSuffixes[q], timestamp, timer.sketch.quantile(quantiles[q])));
+            }
+            timer.reset();
+        }
+
+        for (Map.Entry<String, Set<Long>> entry : sets.entrySet()) {
+            metrics.add(gauge(entry.getKey(), timestamp, entry.getValue().size()));
+        }
+        sets.clear();
+
+        return metrics;
+    }
+
+    private static SingleMetric gauge(String name, long timestamp, double value) {
+        return new SingleMetric(name, timestamp, value, MetricType.GAUGE);
+    }
+
+    private static class CounterAggregate {
+        double sum;
+        boolean updated;
+    }
+
+    private static class GaugeAggregate {
+        double value;
+        boolean updated;
+    }
+
+    private static class TimerAggregate {
+        final TimerSketch sketch = new TimerSketch(SKETCH_RELATIVE_ACCURACY);
+        double count;
+        double sum;
+        double min;
+        double max;
+        boolean updated;
+
+        void reset() {
+            sketch.reset();
+            count = 0;
+            sum = 0;
+            updated = false;
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,6 +16,7 @@
  */
 package org.hawkular.metrics.clients.ptrans.statsd;
 
+import org.hawkular.metrics.clients.ptrans.Configuration;
 import org.hawkular.metrics.clients.ptrans.backend.NettyToVertxHandler;
 
 import io.netty.channel.Channel;
@@ -28,9 +29,11 @@ import io.netty.channel.ChannelPipeline;
  * @author Thomas Segismont
  */
 public class StatsdChannelInitializer extends ChannelInitializer<Channel> {
+    private final Configuration configuration;
     private final NettyToVertxHandler nettyToVertxHandler;
 
-    public StatsdChannelInitializer(NettyToVertxHandler nettyToVertxHandler) {
+    public StatsdChannelInitializer(Configuration configuration, NettyToVertxHandler nettyToVertxHandler) {
+        this.configuration = configuration;
         this.nettyToVertxHandler = nettyToVertxHandler;
     }
 
@@ -38,7 +41,8 @@ public class StatsdChannelInitializer extends ChannelInitializer<Channel> {
     @Override
     public void initChannel(Channel socketChannel) throws Exception {
         ChannelPipeline pipeline = socketChannel.pipeline();
-        pipeline.addLast(new StatsdDecoder());
+        pipeline.addLast(new StatsdDecoder(configuration.getStatsDflushInterval(),
+                configuration.getStatsDpercentiles()));
         pipeline.addLast(nettyToVertxHandler);
     }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
  * and other contributors as indicated by the @author tags.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,64 +16,211 @@
  */
 package org.hawkular.metrics.clients.ptrans.statsd;
 
+import static org.hawkular.metrics.clients.ptrans.util.Numbers.parseDouble;
+
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
-import org.hawkular.metrics.client.common.MetricType;
 import org.hawkular.metrics.client.common.SingleMetric;
+import org.hawkular.metrics.clients.ptrans.log.PTransLogger;
+import org.hawkular.metrics.clients.ptrans.log.PTransLogging;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.socket.DatagramPacket;
-import io.netty.handler.codec.MessageToMessageDecoder;
 import io.netty.util.CharsetUtil;
 
 /**
- * Decoder for Stats packets that comes in the form of
- * name:value[|type]
- * Type is a letter:
- * <ul>
- *     <li>g: Gauge</li>
- *     <li>c: Counter</li>
- *     <li>ms: Timing</li>
- *     <li>s: Set</li>
- * </ul>
+ * Decodes statsd packets directly from the datagram {@link ByteBuf} and feeds the samples into a
+ * {@link StatsdAggregator}. A packet may hold several lines, each of the form
+ * {@code <name>:<value>|<type>[|@<sample rate>][|#<tags>]}. Supported types are {@code c}, {@code g}, {@code ms},
+ * {@code h} and {@code s}. Invalid lines are skipped.
+ * <p>
+ * Aggregated metrics are sent down the pipeline as a {@link List} of {@link SingleMetric} once per flush interval.
+ * Decoding does not allocate for already known metric names.
+ *
  * @author Heiko W. Rupp
+ * @author Thomas Segismont
  */
-public class StatsdDecoder extends MessageToMessageDecoder<DatagramPacket> {
+public class StatsdDecoder extends SimpleChannelInboundHandler<DatagramPacket> {
+    private static final PTransLogger log = PTransLogging.getPTransLogger(StatsdDecoder.class);
+
+    private static final int NAME_CACHE_SIZE = 4096;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final StatsdAggregator aggregator;
+    private final long flushInterval;
+
+    // Direct-mapped cache of decoded metric names
+    private final byte[][] nameBytes = new byte[NAME_CACHE_SIZE][];
+    private final String[] names = new String[NAME_CACHE_SIZE];
+
+    private ScheduledFuture<?> flushFuture;
+
+    /**
+     * @param flushInterval flush interval, in seconds
+     * @param percentiles   timer percentiles to report
+     */
+    public StatsdDecoder(int flushInterval, List<Double> percentiles) {
+        this.aggregator = new StatsdAggregator(percentiles);
+        this.flushInterval = TimeUnit.SECONDS.toMillis(flushInterval);
+    }
 
     @Override
-    protected void decode(ChannelHandlerContext ctx, DatagramPacket msg, List<Object> out) throws Exception {
-        ByteBuf buf = msg.content();
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        flushFuture = ctx.executor().scheduleAtFixedRate(() -> flush(ctx), flushInterval, flushInterval,
+                TimeUnit.MILLISECONDS);
+        super.channelActive(ctx);
+    }
 
-        if (buf.readableBytes()<3) {
-            // Not enough data - nothing to do.
-            buf.clear();
-            ctx.close();
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+        flush(ctx);
+        super.channelInactive(ctx);
+    }
+
+    private void flush(ChannelHandlerContext ctx) {
+        List<SingleMetric> metrics = aggregator.flush(System.currentTimeMillis());
+        if (!metrics.isEmpty()) {
+            ctx.fireChannelRead(metrics);
+        }
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket msg) throws Exception {
+        decode(msg.content());
+    }
+
+    void decode(ByteBuf buf) {
+        int index = buf.readerIndex();
+        int end = buf.writerIndex();
+        while (index < end) {
+            int eol = buf.indexOf(index, end, (byte) '\n');
+            if (eol < 0) {
+                eol = end;
+            }
+            decodeLine(buf, index, eol);
+            index = eol + 1;
+        }
+    }
+
+    private void decodeLine(ByteBuf buf, int from, int to) {
+        while (from < to && isWhitespace(buf.getByte(from))) {
+            from++;
+        }
+        while (to > from && isWhitespace(buf.getByte(to - 1))) {
+            to--;
+        }
+        if (from == to) {
             return;
         }
 
-        String packet = buf.toString(CharsetUtil.UTF_8).trim();
-        if (!packet.contains(":")) {
-            buf.clear();
-            ctx.close();
+        int colon = buf.indexOf(from, to, (byte) ':');
+        int valueEnd = colon < 0 ? -1 : buf.indexOf(colon + 1, to, (byte) '|');
+        if (colon <= from || valueEnd <= colon + 1 || valueEnd == to - 1) {
+            invalidLine(buf, from, to);
             return;
         }
+        int typeStart = valueEnd + 1;
+        int typeEnd = buf.indexOf(typeStart, to, (byte) '|');
+        if (typeEnd < 0) {
+            typeEnd = to;
+        }
+
+        double sampleRate = 1;
+        int fieldStart = typeEnd + 1;
+        while (fieldStart < to) {
+            int fieldEnd = buf.indexOf(fieldStart, to, (byte) '|');
+            if (fieldEnd < 0) {
+                fieldEnd = to;
+            }
+            if (buf.getByte(fieldStart) == '@') {
+                sampleRate = parseDouble(buf, fieldStart + 1, fieldEnd);
+                if (!(sampleRate > 0 && sampleRate <= 1)) {
+                    invalidLine(buf, from, to);
+                    return;
+                }
+            }
+            // Other fields (like dogstatsd tags) are ignored
+            fieldStart = fieldEnd + 1;
+        }
+
+        int typeLength = typeEnd - typeStart;
+        byte type = buf.getByte(typeStart);
+        if (typeLength == 1 && type == 's') {
+            aggregator.set(name(buf, from, colon), hash(buf, colon + 1, valueEnd));
+            return;
+        }
+
+        double value = parseDouble(buf, colon + 1, valueEnd);
+        if (Double.isNaN(value)) {
+            invalidLine(buf, from, to);
+            return;
+        }
+        if (typeLength == 1 && type == 'c') {
+            aggregator.counter(name(buf, from, colon), value, sampleRate);
+        } else if (typeLength == 1 && type == 'g') {
+            byte sign = buf.getByte(colon + 1);
+            aggregator.gauge(name(buf, from, colon), value, sign == '+' || sign == '-');
+        } else if ((typeLength == 2 && type == 'm' && buf.getByte(typeStart + 1) == 's')
+                || (typeLength == 1 && type == 'h')) {
+            aggregator.timer(name(buf, from, colon), value, sampleRate);
+        } else {
+            invalidLine(buf, from, to);
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\r' || b == '\t' || b == '\n';
+    }
 
+    private void invalidLine(ByteBuf buf, int from, int to) {
+        if (log.isDebugEnabled()) {
+            log.debugf("Skipping invalid statsd line [%s]", buf.toString(from, to - from, CharsetUtil.UTF_8));
+        }
+    }
 
-        String name = packet.substring(0,packet.indexOf(":"));
-        String remainder = packet.substring(packet.indexOf(":")+1);
-        String valString;
-        String type;
-        if (remainder.contains("|")) {
-            valString = remainder.substring(0,remainder.indexOf("|"));
-            type = remainder.substring(remainder.indexOf("|")+1);
+    String name(ByteBuf buf, int from, int to) {
+        int length = to - from;
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + buf.getByte(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+        byte[] cached = nameBytes[slot];
+        if (cached != null && cached.length == length && sameBytes(buf, from, cached)) {
+            return names[slot];
         }
-        else {
-            valString = remainder;
-            type = "";
+        byte[] bytes = new byte[length];
+        buf.getBytes(from, bytes);
+        String name = new String(bytes, CharsetUtil.UTF_8);
+        nameBytes[slot] = bytes;
+        names[slot] = name;
+        return name;
+    }
+
+    private static boolean sameBytes(ByteBuf buf, int from, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buf.getByte(from + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hash(ByteBuf buf, int from, int to) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = from; i < to; i++) {
+            hash ^= buf.getByte(i) & 0xff;
+            hash *= FNV_PRIME;
         }
-        Double value = Double.valueOf(valString);
-        SingleMetric singleMetric = new SingleMetric(name, System.currentTimeMillis(),value, MetricType.from(type));
-        out.add(singleMetric);
+        return hash;
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.clients.ptrans.statsd;
+
+import static org.hawkular.metrics.clients.ptrans.util.Arguments.checkArgument;
+
+import java.util.Arrays;
+
+/**
+ * A quantile sketch with bounded relative error. Positive values are counted in logarithmically sized buckets: the
+ * bucket of index {@code i} covers {@code (gamma^(i-1), gamma^i]}, so any quantile is estimated within
+ * {@code relativeAccuracy} of its actual value, whatever the number of samples. Values lower than or equal to zero
+ * are counted together.
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @author Thomas Segismont
+ */
+class TimerSketch {
+    private static final double MIN_POSITIVE = 1e-9;
+    private static final int GROWTH = 64;
+
+    private final double gamma;
+    private final double logGamma;
+
+    private long[] counts = new long[0];
+    private int minIndex;
+    private long zeroCount;
+    private long count;
+
+    TimerSketch(double relativeAccuracy) {
+        checkArgument(relativeAccuracy > 0 && relativeAccuracy < 1, "relativeAccuracy must be in (0,1)");
+        gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        logGamma = Math.log(gamma);
+    }
+
+    void add(double value) {
+        count++;
+        if (value <= MIN_POSITIVE) {
+            zeroCount++;
+            return;
+        }
+        int index = (int) Math.ceil(Math.log(value) / logGamma);
+        ensureCapacity(index);
+        counts[index - minIndex]++;
+    }
+
+    private void ensureCapacity(int index) {
+        if (counts.length == 0) {
+            counts = new long[GROWTH];
+            minIndex = index - GROWTH / 2;
+            return;
+        }
+        int maxIndex = minIndex + counts.length - 1;
+        if (index >= minIndex && index <= maxIndex) {
+            return;
+        }
+        int newMin = Math.min(minIndex, index - (index < minIndex ? GROWTH : 0));
+        int newMax = Math.max(maxIndex, index + (index > maxIndex ? GROWTH : 0));
+        long[] newCounts = new long[newMax - newMin + 1];
+        System.arraycopy(counts, 0, newCounts, minIndex - newMin, counts.length);
+        counts = newCounts;
+        minIndex = newMin;
+    }
+
+    /**
+     * @param quantile a value in [0, 1]
+     *
+     * @return the estimated value at {@code quantile}, or {@link Double#NaN} if the sketch is empty
+     */
+    double quantile(double quantile) {
+        checkArgument(quantile >= 0 && quantile <= 1, "quantile must be in [0,1]");
+        if (count == 0) {
+            return Double.NaN;
+        }
+        // Nearest-rank method
+        long rank = Math.max(0, (long) Math.ceil(quantile * count) - 1);
+        long seen = zeroCount;
+        if (rank < seen) {
+            return 0;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (rank < seen) {
+                return 2 * Math.pow(gamma, i + minIndex) / (gamma + 1);
+            }
+        }
+        return 2 * Math.pow(gamma, counts.length - 1 + minIndex) / (gamma + 1);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Clear the counts. The bucket array is kept, so that steady series do not allocate on every flush.
+     */
+    void reset() {
+        if (count == 0) {
+            return;
+        }
+        Arrays.fill(counts, 0);
+        zeroCount = 0;
+        count = 0;
+    }
+}
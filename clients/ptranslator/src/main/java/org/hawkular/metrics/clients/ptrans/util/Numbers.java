@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.clients.ptrans.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Number parsing utility, working directly on {@link ByteBuf} content.
+ *
+ * @author Thomas Segismont
+ */
+public class Numbers {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    /**
+     * Parses plain decimal numbers (optional sign, digits, optional fraction) without allocating. Other notations
+     * are delegated to {@link Double#parseDouble(String)}.
+     *
+     * @param buf  the buffer holding the number
+     * @param from index of the first byte, inclusive
+     * @param to   index of the last byte, exclusive
+     *
+     * @return the parsed value, or {@link Double#NaN} if the input is not a number
+     */
+    public static double parseDouble(ByteBuf buf, int from, int to) {
+        if (from >= to) {
+            return Double.NaN;
+        }
+        int i = from;
+        boolean negative = false;
+        byte first = buf.getByte(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        boolean sawDigit = false;
+        for (; i < to; i++) {
+            byte b = buf.getByte(i);
+            if (b >= '0' && b <= '9') {
+                // Beyond 15 significant digits, or 18 fraction digits, the result would not be exact
+                if (digits == 15 || fractionDigits == POWERS_OF_TEN.length - 1) {
+                    return slowParseDouble(buf, from, to);
+                }
+                sawDigit = true;
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+                if (fraction) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                return slowParseDouble(buf, from, to);
+            }
+        }
+        if (!sawDigit) {
+            return Double.NaN;
+        }
+        double value = fractionDigits == 0 ? mantissa : mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private static double slowParseDouble(ByteBuf buf, int from, int to) {
+        try {
+            return Double.parseDouble(buf.toString(from, to - from, CharsetUtil.US_ASCII));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private Numbers() {
+        // Utility class
+    }
+}
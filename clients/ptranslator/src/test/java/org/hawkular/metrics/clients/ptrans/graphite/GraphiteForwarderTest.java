@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.clients.ptrans.graphite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.net.NetSocket;
+
+public class GraphiteForwarderTest {
+    private final List<JsonArray> batches = new ArrayList<>();
+    private final List<Handler<AsyncResult<Void>>> handlers = new ArrayList<>();
+
+    private GraphiteForwarder forwarder;
+
+    @Before
+    public void setUp() {
+        forwarder = new GraphiteForwarder((gauges, handler) -> {
+            batches.add(gauges);
+            handlers.add(handler);
+        }, 4, 2);
+    }
+
+    @Test
+    public void shouldGroupSamplesPerSeries() {
+        forwarder.sample("a", 1, 1);
+        forwarder.sample("b", 1, 2);
+        forwarder.sample("a", 2, 3);
+        assertTrue(batches.isEmpty());
+
+        forwarder.sample("a", 3, 4);
+        assertEquals(1, batches.size());
+        JsonArray gauges = batches.get(0);
+        assertEquals(2, gauges.size());
+        assertEquals("a", gauges.getJsonObject(0).getString("id"));
+        assertEquals(3, gauges.getJsonObject(0).getJsonArray("data").size());
+        assertEquals(3.0, gauges.getJsonObject(0).getJsonArray("data").getJsonObject(1).getDouble("value"), 0.0);
+        assertEquals("b", gauges.getJsonObject(1).getString("id"));
+        assertEquals(0, forwarder.getPendingSamples());
+
+        forwarder.sample("c", 1, 5);
+        forwarder.flush();
+        assertEquals(2, batches.size());
+        assertEquals(1, batches.get(1).size());
+        assertEquals(2, forwarder.getInFlight());
+    }
+
+    @Test
+    public void shouldSplitLargeSeries() {
+        for (int i = 0; i < 6; i++) {
+            forwarder.sample("a", i, i);
+        }
+        forwarder.flush();
+        assertEquals(2, batches.size());
+        assertEquals(4, batches.get(0).getJsonObject(0).getJsonArray("data").size());
+        assertEquals(2, batches.get(1).getJsonObject(0).getJsonArray("data").size());
+        assertEquals(4L, (long) batches.get(1).getJsonObject(0).getJsonArray("data").getJsonObject(0)
+                .getLong("timestamp"));
+    }
+
+    @Test
+    public void shouldPauseConnectionsWhenBackendLags() {
+        NetSocket socket = mock(NetSocket.class);
+        forwarder.register(socket);
+
+        // Two batches in flight, then samples accumulate up to the high watermark (2 * 4 * 2)
+        for (int i = 0; i < 8 + 15; i++) {
+            forwarder.sample("a", i, i);
+        }
+        assertEquals(2, batches.size());
+        assertFalse(forwarder.isPaused());
+        forwarder.sample("a", 23, 23);
+        assertTrue(forwarder.isPaused());
+        verify(socket).pause();
+
+        NetSocket newSocket = mock(NetSocket.class);
+        forwarder.register(newSocket);
+        verify(newSocket).pause();
+
+        // Failures do not block the pipeline
+        handlers.get(0).handle(Future.failedFuture("backend down"));
+        assertTrue(forwarder.isPaused());
+        handlers.get(1).handle(Future.succeededFuture());
+        assertFalse(forwarder.isPaused());
+        verify(socket).resume();
+        verify(newSocket).resume();
+        assertEquals(4, batches.size());
+        assertEquals(8, forwarder.getPendingSamples());
+
+        forwarder.unregister(socket);
+        for (int i = 0; i < 8; i++) {
+            forwarder.sample("a", i, i);
+        }
+        assertTrue(forwarder.isPaused());
+        verify(socket, times(1)).pause();
+        verify(newSocket, times(2)).pause();
+    }
+}
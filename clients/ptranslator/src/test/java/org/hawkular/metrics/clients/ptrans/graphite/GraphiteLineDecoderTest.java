@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.clients.ptrans.graphite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.vertx.core.buffer.Buffer;
+
+public class GraphiteLineDecoderTest {
+    private final List<String> samples = new ArrayList<>();
+
+    @Test
+    public void shouldDecodeLines() {
+        GraphiteLineDecoder decoder = new GraphiteLineDecoder(this::record);
+        decoder.handle(Buffer.buffer("foo.bar 1.5 1500000000\r\n  foo.baz\t-2   1500000001.5 \n\nfoo.now 3 -1\n"));
+
+        assertEquals(3, samples.size());
+        assertEquals("foo.bar 1500000000000 1.5", samples.get(0));
+        assertEquals("foo.baz 1500000001500 -2.0", samples.get(1));
+        assertTrue(samples.get(2).startsWith("foo.now "));
+    }
+
+    @Test
+    public void shouldDecodeLinesSplitAcrossBuffers() {
+        GraphiteLineDecoder decoder = new GraphiteLineDecoder(this::record);
+        decoder.handle(Buffer.buffer("foo.bar 1 15000"));
+        decoder.handle(Buffer.buffer("00000\nfoo"));
+        decoder.handle(Buffer.buffer(".baz 2"));
+        decoder.handle(Buffer.buffer(" 1500000000\n"));
+
+        assertEquals(2, samples.size());
+        assertEquals("foo.bar 1500000000000 1.0", samples.get(0));
+        assertEquals("foo.baz 1500000000000 2.0", samples.get(1));
+    }
+
+    @Test
+    public void shouldKeepConnectionsIndependent() {
+        GraphiteLineDecoder first = new GraphiteLineDecoder(this::record);
+        GraphiteLineDecoder second = new GraphiteLineDecoder(this::record);
+        first.handle(Buffer.buffer("first 1 15"));
+        second.handle(Buffer.buffer("second 2 15"));
+        first.handle(Buffer.buffer("00000000\n"));
+        second.handle(Buffer.buffer("00000000\n"));
+
+        assertEquals(2, samples.size());
+        assertEquals("first 1500000000000 1.0", samples.get(0));
+        assertEquals("second 1500000000000 2.0", samples.get(1));
+    }
+
+    @Test
+    public void shouldSkipInvalidLines() {
+        GraphiteLineDecoder decoder = new GraphiteLineDecoder(this::record);
+        decoder.handle(Buffer.buffer("foo\nfoo 1\nfoo 1 2 3\nfoo abc 1\nfoo 1 abc\nok 1 1\n"));
+
+        assertEquals(1, samples.size());
+        assertEquals("ok 1000 1.0", samples.get(0));
+    }
+
+    @Test
+    public void shouldSkipTooLongLines() {
+        GraphiteLineDecoder decoder = new GraphiteLineDecoder(this::record);
+        StringBuilder name = new StringBuilder();
+        while (name.length() <= GraphiteLineDecoder.MAX_LINE_LENGTH) {
+            name.append("abcdefgh");
+        }
+        decoder.handle(Buffer.buffer("x"));
+        decoder.handle(Buffer.buffer(name.toString()));
+        decoder.handle(Buffer.buffer(" 1 1\nok 1 1\n"));
+
+        assertEquals(1, samples.size());
+        assertEquals("ok 1000 1.0", samples.get(0));
+    }
+
+    private void record(String name, long timestamp, double value) {
+        samples.add(name + " " + timestamp + " " + value);
+    }
+}
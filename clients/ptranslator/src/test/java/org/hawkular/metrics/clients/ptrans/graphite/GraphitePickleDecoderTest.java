@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.clients.ptrans.graphite;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.vertx.core.buffer.Buffer;
+
+public class GraphitePickleDecoderTest {
+    // pickle.dumps([('foo.bar', (1500000000, 1.5)), ('foo.baz', (1500000001.5, -2)), ('bad', (1,)),
+    //               ('foo.bar', (1500000002, 10**20))], protocol=...)
+    private static final String PROTOCOL_0 = "286c70300a2856666f6f2e6261720a70310a2849313530303030303030300a46312e35"
+            + "0a7470320a7470330a612856666f6f2e62617a0a70340a2846313530303030303030312e350a492d320a7470350a7470360a"
+            + "6128566261640a70370a2849310a7470380a7470390a612867310a2849313530303030303030320a4c313030303030303030"
+            + "3030303030303030303030304c0a747031300a747031310a612e";
+    private static final String PROTOCOL_2 = "80025d7100285807000000666f6f2e62617271014a002f6859473ff800000000000086"
+            + "71028671035807000000666f6f2e62617a71044741d65a0bc06000004afeffffff867105867106580300000062616471074b01"
+            + "85710886710968014a022f68598a09000010632d5ec76b0586710a86710b652e";
+    private static final String PROTOCOL_4 = "8004955f000000000000005d94288c07666f6f2e626172944a002f6859473ff8000000"
+            + "000000869486948c07666f6f2e62617a944741d65a0bc06000004afeffffff869486948c03626164944b018594869468014a02"
+            + "2f68598a09000010632d5ec76b0586948694652e";
+
+    private static final List<String> EXPECTED = Arrays.asList(
+            "foo.bar 1500000000000 1.5",
+            "foo.baz 1500000001500 -2.0",
+            "foo.bar 1500000002000 1.0E20"
+    );
+
+    private final List<String> samples = new ArrayList<>();
+
+    @Test
+    public void shouldDecodeProtocols() {
+        for (String pickle : Arrays.asList(PROTOCOL_0, PROTOCOL_2, PROTOCOL_4)) {
+            samples.clear();
+            new GraphitePickleDecoder(this::record).handle(frame(pickle));
+            assertEquals(EXPECTED, samples);
+        }
+    }
+
+    @Test
+    public void shouldDecodeFramesSplitAcrossBuffers() {
+        GraphitePickleDecoder decoder = new GraphitePickleDecoder(this::record);
+        Buffer frames = frame(PROTOCOL_2).appendBuffer(frame(PROTOCOL_4));
+        int half = frames.length() / 2;
+        decoder.handle(frames.getBuffer(0, 2));
+        decoder.handle(frames.getBuffer(2, half));
+        decoder.handle(frames.getBuffer(half, frames.length()));
+
+        List<String> expected = new ArrayList<>(EXPECTED);
+        expected.addAll(EXPECTED);
+        assertEquals(expected, samples);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectOversizedFrames() {
+        new GraphitePickleDecoder(this::record).handle(Buffer.buffer().appendInt(Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectObjectConstruction() {
+        // pickle.dumps(collections.OrderedDict(), protocol=2)
+        new GraphitePickleDecoder(this::record).handle(
+                frame("800263636f6c6c656374696f6e730a4f726465726564446963740a7100295271012e"));
+    }
+
+    private static Buffer frame(String hex) {
+        Buffer pickle = Buffer.buffer();
+        for (int i = 0; i < hex.length(); i += 2) {
+            pickle.appendByte((byte) Integer.parseInt(hex.substring(i, i + 2), 16));
+        }
+        return Buffer.buffer().appendInt(pickle.length()).appendBuffer(pickle);
+    }
+
+    private void record(String name, long timestamp, double value) {
+        samples.add(name + " " + timestamp + " " + value);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.clients.ptrans.statsd;
+
+import static java.util.stream.Collectors.toMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.metrics.client.common.SingleMetric;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.CharsetUtil;
+
+public class StatsdDecoderTest {
+    private static final InetSocketAddress RECIPIENT = new InetSocketAddress("localhost", 8125);
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        channel = new EmbeddedChannel(new StatsdDecoder(3600, Arrays.asList(50.0, 99.9)));
+    }
+
+    @Test
+    public void shouldAggregateMultiLinePackets() {
+        send("hits:1|c\nhits:2|c|@0.5\r\ntemp:20|g\ntemp:+5|g\nusers:alice|s\nusers:bob|s\nusers:alice|s");
+        send("latency:100|ms\nlatency:200|ms\nlatency:300|h\n\n");
+
+        Map<String, Double> metrics = flush();
+        assertEquals(5.0, metrics.get("hits"), 0.0);
+        assertEquals(25.0, metrics.get("temp"), 0.0);
+        assertEquals(2.0, metrics.get("users"), 0.0);
+        assertEquals(3.0, metrics.get("latency.count"), 0.0);
+        assertEquals(100.0, metrics.get("latency.min"), 0.0);
+        assertEquals(300.0, metrics.get("latency.max"), 0.0);
+        assertEquals(200.0, metrics.get("latency.mean"), 0.0);
+        assertEquals(200.0, metrics.get("latency.p50"), 200.0 * 0.01);
+        assertEquals(300.0, metrics.get("latency.p999"), 300.0 * 0.01);
+        assertEquals(9, metrics.size());
+    }
+
+    @Test
+    public void shouldSkipInvalidLines() {
+        send("nocolon|c\n:1|c\nfoo:1\nfoo:|c\nfoo:abc|c\nfoo:1|x\nfoo:1|c|@2\nok:1.5|g");
+
+        Map<String, Double> metrics = flush();
+        assertEquals(1, metrics.size());
+        assertEquals(1.5, metrics.get("ok"), 0.0);
+    }
+
+    @Test
+    public void shouldNotEmitAnythingWhenIdle() {
+        channel.close();
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    public void sketchShouldHaveBoundedRelativeError() {
+        TimerSketch sketch = new TimerSketch(0.01);
+        for (int i = 1; i <= 10000; i++) {
+            sketch.add(i);
+        }
+        assertEquals(10000, sketch.getCount());
+        assertEquals(5000, sketch.quantile(0.5), 5000 * 0.01);
+        assertEquals(9900, sketch.quantile(0.99), 9900 * 0.01);
+        assertEquals(1, sketch.quantile(0), 0.01);
+
+        sketch.reset();
+        assertTrue(Double.isNaN(sketch.quantile(0.5)));
+        sketch.add(0);
+        assertEquals(0, sketch.quantile(0.5), 0.0);
+    }
+
+    private void send(String content) {
+        channel.writeInbound(new DatagramPacket(Unpooled.copiedBuffer(content, CharsetUtil.UTF_8), RECIPIENT));
+    }
+
+    private Map<String, Double> flush() {
+        channel.close();
+        @SuppressWarnings("unchecked")
+        List<SingleMetric> metrics = (List<SingleMetric>) channel.readInbound();
+        return metrics.stream().collect(toMap(SingleMetric::getSource, SingleMetric::getValue));
+    }}
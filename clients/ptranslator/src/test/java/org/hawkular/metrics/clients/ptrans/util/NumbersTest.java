@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014-2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.clients.ptrans.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+public class NumbersTest {
+
+    @Test
+    public void shouldParseNumbers() {
+        assertEquals(0.0, parse("0"), 0.0);
+        assertEquals(-12.5, parse("-12.5"), 0.0);
+        assertEquals(12.5, parse("+12.5"), 0.0);
+        assertEquals(0.001, parse(".001"), 0.0);
+        assertEquals(3.0, parse("3."), 0.0);
+        assertEquals(1.5e10, parse("1.5e10"), 0.0);
+        assertEquals(1234567890.1234567, parse("1234567890.1234567"), 0.0);
+        assertEquals(1e-20, parse("0.00000000000000000001"), 0.0);
+        assertTrue(Double.isNaN(parse("-")));
+        assertTrue(Double.isNaN(parse(".")));
+        assertTrue(Double.isNaN(parse("1.2.3")));
+    }
+
+    private static double parse(String value) {
+        return Numbers.parseDouble(Unpooled.copiedBuffer(value, CharsetUtil.US_ASCII), 0, value.length());
+    }
+}
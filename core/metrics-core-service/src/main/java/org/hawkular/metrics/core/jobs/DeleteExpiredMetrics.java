@@ -92,7 +92,13 @@ public class DeleteExpiredMetrics implements Func1<JobDetails, Completable> {
                 .flatMap(row -> session.execute(findEligibleMetrics.bind(row.getString(0), row.getByte(1))))
                 .flatMap(Observable::from)
                 .filter(row -> row.getTimestamp(3).getTime() < expirationTime)
-                .map(row -> new MetricId<>(row.getString(0), MetricType.fromCode(row.getByte(1)), row.getString(2)));
+                .<MetricId<?>>map(row -> new MetricId<>(row.getString(0), MetricType.fromCode(row.getByte(1)),
+                        row.getString(2)))
+                // The expiration may have been updated since the index was flushed
+                .filter(metricId -> {
+                    Long trackedExpiration = metricsService.getTrackedMetricExpiration(metricId);
+                    return trackedExpiration == null || trackedExpiration < expirationTime;
+                });
 
         //If the compression job is disabled then check the data point table for data
         String compressJobEnabledConfig = configurationService.load(CompressData.CONFIG_ID, "enabled").toBlocking()
@@ -116,7 +122,10 @@ public class DeleteExpiredMetrics implements Func1<JobDetails, Completable> {
                             .map(empty -> r));
         }
 
-        return expirationIndexResults
+        // Write the pending expiration updates of this node before reading the index
+        return metricsService.flushMetricExpirations()
+                .onErrorComplete()
+                .andThen(expirationIndexResults)
                 .concatMap(metricId -> metricsService.deleteMetric(metricId))
                 .onErrorResumeNext(e -> {
                     logger.error("Failed to delete metric data", e);
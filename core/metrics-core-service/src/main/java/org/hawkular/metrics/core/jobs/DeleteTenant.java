@@ -41,6 +41,7 @@ public class DeleteTenant implements Func1<JobDetails, Completable> {
 
     private PreparedStatement deleteTenant;
     private PreparedStatement deleteFromMetricsIndex;
+    private PreparedStatement deleteFromSeriesIndex;
     private PreparedStatement findTags;
     private PreparedStatement deleteTag;
     private PreparedStatement deleteRetentions;
@@ -53,6 +54,8 @@ public class DeleteTenant implements Func1<JobDetails, Completable> {
         deleteTenant = session.getSession().prepare("DELETE FROM tenants WHERE id = ?");
         deleteFromMetricsIndex = session.getSession().prepare(
                 "DELETE FROM metrics_idx WHERE tenant_id = ? AND type = ?");
+        deleteFromSeriesIndex = session.getSession().prepare(
+                "DELETE FROM metrics_series_idx WHERE tenant_id = ? AND type = ?");
         findTags = session.getSession().prepare("SELECT DISTINCT tenant_id, tname FROM metrics_tags_idx");
         deleteTag = session.getSession().prepare("DELETE FROM metrics_tags_idx WHERE tenant_id = ? AND tname = ?");
         deleteRetentions = session.getSession().prepare("DELETE FROM retentions_idx WHERE tenant_id = ? AND type = ?");
@@ -82,7 +85,8 @@ public class DeleteTenant implements Func1<JobDetails, Completable> {
 
     private Observable<Void> deleteMetricsIndex(String tenantId) {
         return Observable.from(MetricType.all())
-                .flatMap(type -> session.execute(deleteFromMetricsIndex.bind(tenantId, type.getCode())))
+                .flatMap(type -> session.execute(deleteFromMetricsIndex.bind(tenantId, type.getCode()))
+                        .mergeWith(session.execute(deleteFromSeriesIndex.bind(tenantId, type.getCode()))))
                 .map(r -> null);
     }
 
@@ -127,6 +127,16 @@ public class JobsServiceImpl implements JobsService, JobsServiceImplMBean {
 
         maybeScheduleTempDataCompressor(backgroundJobs);
 
+        // Use the same retry policy as for tenant deletion, the series index would be incomplete otherwise
+        scheduler.register(RebuildSeriesIndex.JOB_NAME, new RebuildSeriesIndex(metricsService),
+                deleteTenantRetryPolicy);
+        maybeScheduleRebuildSeriesIndex(backgroundJobs);
+
+        // Reads include the legacy partition of the compressed data until this job has completed
+        scheduler.register(PartitionCompressedData.JOB_NAME, new PartitionCompressedData(metricsService),
+                deleteTenantRetryPolicy);
+        maybeSchedulePartitionCompressedData(backgroundJobs);
+
         deleteExpiredMetrics = new DeleteExpiredMetrics(metricsService, session, configurationService,
                 this.metricExpirationDelay);
         scheduler.register(DeleteExpiredMetrics.JOB_NAME, deleteExpiredMetrics);
@@ -173,6 +183,35 @@ public class JobsServiceImpl implements JobsService, JobsServiceImplMBean {
         }
     }
 
+    private void maybeScheduleRebuildSeriesIndex(List<JobDetails> backgroundJobs) {
+        String configId = RebuildSeriesIndex.CONFIG_ID;
+        Configuration config = configurationService.load(configId).toBlocking()
+                .firstOrDefault(new Configuration(configId, new HashMap<>()));
+        if (config.get("jobId") == null) {
+            JobDetails jobDetails = scheduler.scheduleJob(RebuildSeriesIndex.JOB_NAME, RebuildSeriesIndex.JOB_NAME,
+                    ImmutableMap.of(), new SingleExecutionTrigger.Builder().withDelay(1, TimeUnit.MINUTES).build())
+                    .toBlocking().value();
+            backgroundJobs.add(jobDetails);
+            configurationService.save(configId, "jobId", jobDetails.getJobId().toString()).toBlocking();
+            logger.info("Scheduled series index rebuild " + jobDetails);
+        }
+    }
+
+    private void maybeSchedulePartitionCompressedData(List<JobDetails> backgroundJobs) {
+        String configId = PartitionCompressedData.CONFIG_ID;
+        Configuration config = configurationService.load(configId).toBlocking()
+                .firstOrDefault(new Configuration(configId, new HashMap<>()));
+        if (config.get("jobId") == null) {
+            JobDetails jobDetails = scheduler.scheduleJob(PartitionCompressedData.JOB_NAME,
+                    PartitionCompressedData.JOB_NAME, ImmutableMap.of(),
+                    new SingleExecutionTrigger.Builder().withDelay(1, TimeUnit.MINUTES).build())
+                    .toBlocking().value();
+            backgroundJobs.add(jobDetails);
+            configurationService.save(configId, "jobId", jobDetails.getJobId().toString()).toBlocking();
+            logger.info("Scheduled partitioning of the compressed data " + jobDetails);
+        }
+    }
+
     private void unscheduleCompressData() {
         Configuration config = configurationService.load(CompressData.CONFIG_ID).toBlocking()
                 .firstOrDefault(new Configuration(CompressData.CONFIG_ID, new HashMap<>()));
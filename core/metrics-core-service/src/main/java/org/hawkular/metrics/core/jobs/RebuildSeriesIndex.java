@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.jobs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.core.service.MetricsService;
+import org.hawkular.metrics.scheduler.api.JobDetails;
+import org.jboss.logging.Logger;
+
+import com.google.common.base.Stopwatch;
+
+import rx.Completable;
+import rx.functions.Func1;
+
+/**
+ * Registers the series of the data tables into the series index. New series are registered when they receive their
+ * first data points, so this job runs only once, in order to register the series stored before the index existed.
+ */
+public class RebuildSeriesIndex implements Func1<JobDetails, Completable> {
+
+    private static Logger logger = Logger.getLogger(RebuildSeriesIndex.class);
+
+    public static final String JOB_NAME = "REBUILD_SERIES_INDEX";
+    public static final String CONFIG_ID = "org.hawkular.metrics.jobs." + JOB_NAME;
+
+    private MetricsService metricsService;
+
+    public RebuildSeriesIndex(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    @Override
+    public Completable call(JobDetails jobDetails) {
+        logger.info("Starting to rebuild the series index");
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        return metricsService.rebuildSeriesIndex()
+                .doOnCompleted(() -> logger.info("Finished rebuilding the series index in " +
+                        stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms"));
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.List;
+
+import org.hawkular.metrics.model.AvailabilityBucketPoint;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+
+import rx.Observable;
+import rx.Observable.Transformer;
+
+/**
+ * Transforms a sequence of availability data points, sorted in time ascending order, into a list of
+ * {@link AvailabilityBucketPoint}.
+ */
+class AvailabilityBucketPointTransformer
+        implements Transformer<DataPoint<AvailabilityType>, List<AvailabilityBucketPoint>> {
+
+    private final Buckets buckets;
+
+    AvailabilityBucketPointTransformer(Buckets buckets) {
+        this.buckets = buckets;
+    }
+
+    @Override
+    public Observable<List<AvailabilityBucketPoint>> call(Observable<DataPoint<AvailabilityType>> dataPoints) {
+        return dataPoints
+                .groupBy(dataPoint -> buckets.getIndex(dataPoint.getTimestamp()))
+                .flatMap(group -> group.collect(() -> new AvailabilityDataPointCollector(buckets, group.getKey()),
+                        AvailabilityDataPointCollector::increment))
+                .map(AvailabilityDataPointCollector::toBucketPoint)
+                .toMap(AvailabilityBucketPoint::getStart)
+                .map(pointMap -> AvailabilityBucketPoint.toList(pointMap, buckets));
+    }
+}
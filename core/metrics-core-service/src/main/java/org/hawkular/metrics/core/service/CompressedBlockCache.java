@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.core.service.Order.ASC;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Keeps the decompressed blocks of the {@code data_compressed} table, so that reading the same time ranges again, as
+ * dashboards do on every refresh, neither fetches nor decompresses the same blocks again.
+ * <p>
+ * A block is written once, when the compression job compresses it after it has been closed. Only closed blocks are
+ * cached, the open block is always read from Cassandra. Late data points of a closed block are stored in the temporary
+ * tables and merged at read time, they still invalidate the cached block, as does compressing the block again.
+ * <p>
+ * A metric which does not receive data points all the time has no compressed block for most time slices. Once the
+ * compression job is done with a time slice, an absent block is cached as an empty block, so that the reads of sparse
+ * metrics do not query Cassandra again for the blocks which do not exist.
+ * <p>
+ * The data points are kept in primitive arrays. The size of the cache is bounded by the total number of data points of
+ * its blocks, a size of zero disables the cache.
+ */
+class CompressedBlockCache {
+
+    static final long DEFAULT_MAX_DATA_POINTS = 2_000_000;
+
+    private final Cache<BlockKey, Block> blocks;
+
+    CompressedBlockCache() {
+        this(DEFAULT_MAX_DATA_POINTS);
+    }
+
+    CompressedBlockCache(long maxDataPoints) {
+        if (maxDataPoints > 0) {
+            blocks = CacheBuilder.newBuilder()
+                    .maximumWeight(maxDataPoints)
+                    .weigher((BlockKey key, Block block) -> Math.max(1, block.timestamps.length))
+                    .build();
+        } else {
+            blocks = null;
+        }
+    }
+
+    boolean isEnabled() {
+        return blocks != null;
+    }
+
+    /**
+     * @return the block starting at blockStart, or null if it is not cached
+     */
+    Block get(MetricId<?> id, long blockStart) {
+        if (blocks == null) {
+            return null;
+        }
+        return blocks.getIfPresent(new BlockKey(id, blockStart));
+    }
+
+    /**
+     * @param dataPoints all the data points of the block, in ascending order
+     */
+    <T> Block put(MetricId<T> id, long blockStart, List<DataPoint<T>> dataPoints) {
+        Block block = new Block(id.getType(), dataPoints);
+        if (blocks != null) {
+            blocks.put(new BlockKey(id, blockStart), block);
+        }
+        return block;
+    }
+
+    /**
+     * Records that the block starting at blockStart does not exist. The block must already be sealed, i.e. the
+     * compression job must be done with its time slice, as the block would otherwise be hidden once it is written.
+     */
+    void putAbsent(MetricId<?> id, long blockStart) {
+        if (blocks != null) {
+            blocks.put(new BlockKey(id, blockStart), Block.ABSENT);
+        }
+    }
+
+    void invalidate(MetricId<?> id, long blockStart) {
+        if (blocks != null) {
+            blocks.invalidate(new BlockKey(id, blockStart));
+        }
+    }
+
+    void clear() {
+        if (blocks != null) {
+            blocks.invalidateAll();
+        }
+    }
+
+    /**
+     * The data points of a block. The values are stored as doubles, like the compressor does.
+     */
+    static final class Block {
+        private static final Block ABSENT = new Block();
+
+        private final long[] timestamps;
+        private final double[] values;
+        private final Map<Long, Map<String, String>> tags;
+
+        private Block() {
+            timestamps = new long[0];
+            values = new double[0];
+            tags = null;
+        }
+
+        private <T> Block(MetricType<T> type, List<DataPoint<T>> dataPoints) {
+            timestamps = new long[dataPoints.size()];
+            values = new double[dataPoints.size()];
+            Map<Long, Map<String, String>> tags = null;
+            for (int i = 0; i < dataPoints.size(); i++) {
+                DataPoint<T> dataPoint = dataPoints.get(i);
+                timestamps[i] = dataPoint.getTimestamp();
+                values[i] = toDouble(type, dataPoint.getValue());
+                if (!dataPoint.getTags().isEmpty()) {
+                    if (tags == null) {
+                        tags = new TreeMap<>();
+                    }
+                    tags.put(dataPoint.getTimestamp(), dataPoint.getTags());
+                }
+            }
+            this.tags = tags;
+        }
+
+        /**
+         * @return the data points of the block within [start, end), sorted in the given order
+         */
+        <T> List<DataPoint<T>> getDataPoints(MetricType<T> type, long start, long end, Order order) {
+            int from = lowerBound(start);
+            int to = lowerBound(end);
+            if (from >= to) {
+                return Collections.emptyList();
+            }
+            List<DataPoint<T>> dataPoints = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                T value = fromDouble(type, values[i]);
+                Map<String, String> dpTags = tags == null ? null : tags.get(timestamps[i]);
+                dataPoints.add(dpTags == null ? new DataPoint<>(timestamps[i], value)
+                        : new DataPoint<>(timestamps[i], value, dpTags));
+            }
+            if (order != ASC) {
+                Collections.reverse(dataPoints);
+            }
+            return dataPoints;
+        }
+
+        int size() {
+            return timestamps.length;
+        }
+
+        private int lowerBound(long timestamp) {
+            int i = Arrays.binarySearch(timestamps, timestamp);
+            if (i < 0) {
+                return -i - 1;
+            }
+            // Timestamps are unique within a block
+            return i;
+        }
+
+        private static double toDouble(MetricType<?> type, Object value) {
+            if (type == MetricType.AVAILABILITY) {
+                return ((AvailabilityType) value).getCode();
+            }
+            return ((Number) value).doubleValue();
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T fromDouble(MetricType<T> type, double value) {
+            if (type == MetricType.GAUGE) {
+                return (T) Double.valueOf(value);
+            }
+            if (type == MetricType.COUNTER) {
+                return (T) Long.valueOf((long) value);
+            }
+            if (type == MetricType.AVAILABILITY) {
+                return (T) AvailabilityType.fromByte((byte) value);
+            }
+            throw new IllegalArgumentException("Metric of type " + type.getText() + " is not compressed");
+        }
+    }
+
+    private static final class BlockKey {
+        private final MetricId<?> id;
+        private final long blockStart;
+
+        private BlockKey(MetricId<?> id, long blockStart) {
+            this.id = id;
+            this.blockStart = blockStart;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            BlockKey blockKey = (BlockKey) o;
+            return blockStart == blockKey.blockStart && id.equals(blockKey.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, blockStart);
+        }
+    }
+}
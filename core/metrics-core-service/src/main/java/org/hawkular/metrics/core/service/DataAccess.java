@@ -21,6 +21,7 @@ import java.util.Set;
 import java.util.function.Function;
 
 import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.model.HistogramSketch;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
@@ -65,6 +66,14 @@ public interface DataAccess {
 
     <T> Observable<Row> findMetricsInMetricsIndex(String tenantId, MetricType<T> type);
 
+    Observable<Integer> insertIntoSeriesIndex(Observable<? extends MetricId<?>> ids);
+
+    <T> Observable<Row> findMetricsInSeriesIndex(String tenantId, MetricType<T> type);
+
+    Observable<Row> findAllMetricsInSeriesIndex();
+
+    <T> Observable<ResultSet> deleteFromSeriesIndex(MetricId<T> id);
+
     /*
     https://issues.apache.org/jira/browse/CASSANDRA-11143
     https://issues.apache.org/jira/browse/CASSANDRA-10699
@@ -74,6 +83,10 @@ public interface DataAccess {
 
     Observable<Observable<Row>> findAllDataFromBucket(long timestamp, int pageSize, int maxConcurrency);
 
+    /**
+     * Removes the temporary data of the time slice after it has been compressed. The table of the slice is dropped, or
+     * truncated if it belongs to the ring of reused tables.
+     */
     Observable<ResultSet> dropTempTable(long timestamp);
 
     Observable<Row> findAllMetricIdentifiersInData();
@@ -87,19 +100,56 @@ public interface DataAccess {
 
     Observable<Integer> insertStringData(Metric<String> metric, int ttl, int maxSize);
 
+    /**
+     * Stores the sketches of histogram data points in the {@code data_histogram} table, partitioned by time window like
+     * the compressed data.
+     */
+    Observable<Integer> insertHistogramData(Observable<Metric<HistogramSketch>> histograms,
+            Function<MetricId<HistogramSketch>, Integer> ttlFetcher);
+
+    Observable<Row> findHistogramData(MetricId<HistogramSketch> id, long startTime, long endTime, int limit,
+            Order order, int pageSize);
+
     Observable<Row> findCompressedData(MetricId<?> id, long startTime, long endTime, int limit, Order
             order);
 
+    /**
+     * Finds the series which still have blocks in the legacy partition of the {@code data_compressed} table, which
+     * earlier versions used for all the blocks of a series.
+     */
+    Observable<Row> findSeriesInLegacyCompressedPartition();
+
+    /**
+     * Moves the blocks of the legacy partition of a series to the partitions of their time windows.
+     *
+     * @return the number of blocks moved
+     */
+    <T> Observable<Integer> moveLegacyCompressedData(MetricId<T> id);
+
+    /**
+     * Stops reading the legacy partition of the {@code data_compressed} table, once all its blocks have been moved.
+     */
+    void setLegacyCompressedDataMoved(boolean moved);
+
     <T> Observable<Row> findTempData(MetricId<T> id, long startTime, long endTime, int limit, Order order,
                                      int pageSize);
 
+    /**
+     * @return the number of temporary tables {@link #findTempData(MetricId, long, long, int, Order, int)} reads for
+     * the time range
+     */
+    int countTempTables(long startTime, long endTime);
+
 //    <T> Observable<Row> findOldData(MetricId<T> id, long startTime, long endTime, int limit, Order order,
 //                                    int pageSize);
 
     Observable<Row> findStringData(MetricId<String> id, long startTime, long endTime, int limit, Order order,
                                    int pageSize);
 
-    <T> Observable<ResultSet> deleteMetricData(MetricId<T> id);
+    /**
+     * @param dataRetention the data retention of the metric, in seconds, the data points older than it have expired
+     */
+    <T> Observable<ResultSet> deleteMetricData(MetricId<T> id, int dataRetention);
 
     <T> Observable<ResultSet> deleteMetricFromRetentionIndex(MetricId<T> id);
 
@@ -131,6 +181,11 @@ public interface DataAccess {
 
     <T> Observable<ResultSet> updateMetricExpirationIndex(MetricId<T> id, long expirationTime);
 
+    /**
+     * Writes the expirations in unlogged batches, each of which targets a single partition.
+     */
+    Observable<Integer> updateMetricExpirationIndex(Map<? extends MetricId<?>, Long> expirations);
+
     <T> Observable<ResultSet> deleteFromMetricExpirationIndex(MetricId<T> id);
 
     <T> Observable<Row> findMetricExpiration(MetricId<T> id);
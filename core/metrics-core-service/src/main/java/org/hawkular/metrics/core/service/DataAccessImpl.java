@@ -20,6 +20,7 @@ import static java.time.ZoneOffset.UTC;
 import static java.util.stream.Collectors.toMap;
 
 import static org.hawkular.metrics.core.service.TimeUUIDUtils.getTimeUUID;
+import static org.hawkular.metrics.model.MetricType.HISTOGRAM;
 import static org.hawkular.metrics.model.MetricType.STRING;
 
 import java.nio.ByteBuffer;
@@ -30,9 +31,13 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.temporal.ChronoField;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Objects;
@@ -43,16 +48,20 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
 import org.hawkular.metrics.core.service.log.CoreLogger;
 import org.hawkular.metrics.core.service.log.CoreLogging;
+import org.hawkular.metrics.core.service.transformers.AdaptiveBatchSize;
 import org.hawkular.metrics.core.service.transformers.BatchStatementTransformer;
 import org.hawkular.metrics.core.service.transformers.BoundBatchStatementTransformer;
+import org.hawkular.metrics.core.service.transformers.SortedMerge;
 import org.hawkular.metrics.datetime.DateTimeService;
 import org.hawkular.metrics.model.AvailabilityType;
 import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.HistogramSketch;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
@@ -62,6 +71,7 @@ import org.hawkular.rx.cassandra.driver.RxSessionImpl;
 
 import com.datastax.driver.core.AbstractTableMetadata;
 import com.datastax.driver.core.AggregateMetadata;
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.CodecRegistry;
@@ -83,9 +93,12 @@ import com.datastax.driver.core.TokenRange;
 import com.datastax.driver.core.UserType;
 import com.datastax.driver.core.exceptions.DriverException;
 import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 
 import rx.Observable;
 import rx.exceptions.Exceptions;
+import rx.functions.Func1;
 import rx.schedulers.Schedulers;
 
 /**
@@ -101,6 +114,35 @@ public class DataAccessImpl implements DataAccess {
     public static final String TEMP_TABLE_NAME_FORMAT_STRING = TEMP_TABLE_NAME_PROTOTYPE + "%s";
 
     public static final long DPART = 0;
+
+    /**
+     * The {@code data_compressed} table is partitioned by time windows of this size, the {@code dpart} column holds the
+     * start of the window of the block. Earlier versions wrote all the blocks of a series to the {@link #DPART}
+     * partition, which is read as well until its blocks have been {@link #moveLegacyCompressedData(MetricId) moved}.
+     */
+    public static final long COMPRESSED_PARTITION_SIZE = TimeUnit.DAYS.toMillis(30);
+
+    /**
+     * How far back {@link #findMetricInData(MetricId)} looks for the compressed blocks of a series
+     */
+    private static final long COMPRESSED_EXISTENCE_CHECK = TimeUnit.DAYS.toMillis(365);
+
+    private static final int MAX_CONCURRENT_PARTITION_READS = 8;
+
+    /**
+     * Rows buffered per partition read in parallel, until the partitions before it have been emitted
+     */
+    private static final int PARTITION_READ_BUFFER_SIZE = 128;
+
+    private static final int MAX_CONCURRENT_MOVES = 16;
+
+    private volatile boolean legacyCompressedDataMoved;
+
+    private final AdaptiveBatchSize adaptiveBatchSize = new AdaptiveBatchSize();
+
+    // Tenants whose data points are written in batches sized by adaptiveBatchSize
+    private volatile Predicate<String> adaptiveBatching = tenantId -> false;
+
     private Session session;
 
     private RxSession rxSession;
@@ -109,13 +151,17 @@ public class DataAccessImpl implements DataAccess {
 
     // Turn to MetricType agnostic
     // See getMapKey(byte, int)
-    private NavigableMap<Long, Map<Integer, PreparedStatement>> prepMap;
+    // The statements of a table are prepared on first use, see registerTempStatements(String, Long)
+    private NavigableMap<Long, Supplier<Map<Integer, PreparedStatement>>> prepMap;
 
     // TODO Move all of these to a new class (Cassandra specific temp table) to allow multiple implementations (such
     // as in-memory + WAL in Cassandra)
 
     private TemporaryTableStatementCreator tableCreator = null;
 
+    // Null unless the temporary tables are reused round-robin, see TempTableRing
+    private TempTableRing tempTableRing;
+
     private enum StatementType {
         READ, WRITE, SCAN, CREATE, DELETE
     }
@@ -182,6 +228,8 @@ public class DataAccessImpl implements DataAccess {
 
     // Create statement prototype
 
+    // Only the temp tables created from this prototype have frozen tags. Cassandra can not alter the type of an
+    // existing collection column, so data_0 and the data table of existing installs keep their non-frozen tags.
     private static String TEMP_TABLE_BASE_CREATE = "CREATE TABLE %s ( " +
             "tenant_id text, " +
             "type tinyint, " +
@@ -190,7 +238,7 @@ public class DataAccessImpl implements DataAccess {
             "n_value double, " +
             "availability blob, " +
             "l_value bigint, " +
-            "tags map<text,text>, " +
+            "tags frozen<map<text,text>>, " +
             "PRIMARY KEY ((tenant_id, type, metric), time)" +
             ") WITH CLUSTERING ORDER BY (time DESC)";
 
@@ -215,6 +263,8 @@ public class DataAccessImpl implements DataAccess {
             "SET %s = ? " +
             "WHERE tenant_id = ? AND type = ? AND metric = ? AND time = ? ";
 
+    // Overwriting a frozen collection does not write a tombstone. The tables created before the tags were frozen still
+    // get one, appending to their tags instead would keep the tags a data point is rewritten without.
     private static String dataWithTags = "UPDATE %s " +
             "SET %s = ?, tags = ? " +
             "WHERE tenant_id = ? AND type = ? AND metric = ? AND time = ? ";
@@ -255,10 +305,22 @@ public class DataAccessImpl implements DataAccess {
 
     private PreparedStatement findAllMetricsInDataCompressed;
 
+    private PreparedStatement findLegacyCompressedData;
+
+    private PreparedStatement deleteLegacyCompressedData;
+
     private PreparedStatement findMetricInMetricsIndex;
 
     private PreparedStatement findAllMetricsFromTagsIndex;
 
+    private PreparedStatement insertIntoSeriesIndex;
+
+    private PreparedStatement findMetricsInSeriesIndex;
+
+    private PreparedStatement findAllMetricsInSeriesIndex;
+
+    private PreparedStatement deleteFromSeriesIndex;
+
     private PreparedStatement getMetricTags;
 
     private PreparedStatement getTagNames;
@@ -285,6 +347,14 @@ public class DataAccessImpl implements DataAccess {
 
     private PreparedStatement findCompressedDataByDateRangeExclusiveWithLimitASC;
 
+    private PreparedStatement insertHistogramData;
+
+    private PreparedStatement findHistogramDataWithLimit;
+
+    private PreparedStatement findHistogramDataWithLimitASC;
+
+    private PreparedStatement deleteHistogramData;
+
     private PreparedStatement findStringDataByDateRangeExclusive;
 
     private PreparedStatement findStringDataByDateRangeExclusiveWithLimit;
@@ -337,6 +407,14 @@ public class DataAccessImpl implements DataAccess {
     private Metadata metadata;
 
     public DataAccessImpl(Session session) {
+        this(session, 0);
+    }
+
+    /**
+     * @param tempTableRingSize The number of temporary tables reused round-robin by the time slices, 0 creates a new
+     *                          table for every slice and drops it once the slice has been compressed
+     */
+    public DataAccessImpl(Session session, int tempTableRingSize) {
         this.session = session;
         rxSession = new RxSessionImpl(session);
         loadBalancingPolicy = session.getCluster().getConfiguration().getPolicies().getLoadBalancingPolicy();
@@ -345,6 +423,9 @@ public class DataAccessImpl implements DataAccess {
 
         initPreparedStatements();
         initializeTemporaryTableStatements();
+        if (tempTableRingSize > 0) {
+            initializeTempTableRing(tempTableRingSize);
+        }
     }
 
     /**
@@ -357,26 +438,51 @@ public class DataAccessImpl implements DataAccess {
      *
      * @return Integer with those two combined
      */
-    private Integer getMapKey(byte code, int ordinal) {
+    private static Integer getMapKey(byte code, int ordinal) {
         int key = ordinal;
         key |= code << 24;
         return key;
     }
 
-    private Integer getMapKey(MetricType type, TempStatement ts) {
+    private static Integer getMapKey(MetricType type, TempStatement ts) {
         return getMapKey(type.getCode(), ts.ordinal());
     }
 
     void prepareTempStatements(String tableName, Long mapKey) {
-        // Create an entry to the correct Long
+        Map<Integer, PreparedStatement> statementMap = prepareTempStatementMap(tableName);
+        prepMap.put(mapKey, Suppliers.ofInstance(statementMap));
+    }
+
+    /**
+     * Registers a temporary table whose statements are only prepared when the table is accessed for the first time.
+     * Used at startup for the tables which only wait for the compression job.
+     */
+    void registerTempStatements(String tableName, Long mapKey) {
+        prepMap.putIfAbsent(mapKey, Suppliers.memoize(() -> prepareTempStatementMap(tableName)));
+    }
+
+    private Map<Integer, PreparedStatement> prepareTempStatementMap(String tableName) {
         Map<Integer, PreparedStatement> statementMap = new HashMap<>();
+        StatementPreparer preparer = new StatementPreparer(session);
+        getTempStatements(tableName).forEach((key, statement) ->
+                preparer.prepare(statement, prepared -> statementMap.put(key, prepared)));
+        preparer.await();
+        return statementMap;
+    }
+
+    /**
+     * @return the statements of a temporary table keyed by {@link #getMapKey(MetricType, TempStatement)}
+     */
+    static Map<Integer, String> getTempStatements(String tableName) {
+        Map<Integer, String> statements = new HashMap<>();
 
         // Per metricType
         for (MetricType<?> metricType : MetricType.userTypes()) {
-            if(metricType == STRING) { continue; } // We don't support String metrics in temp tables yet
+            // We don't support String metrics in temp tables yet, histograms have a table of their own
+            if (metricType == STRING || metricType == HISTOGRAM) {
+                continue;
+            }
             for (TempStatement st : TempStatement.values()) {
-                Integer key = getMapKey(metricType, st);
-
                 String formatSt;
                 switch(st.getType()) {
                     case READ:
@@ -392,13 +498,11 @@ public class DataAccessImpl implements DataAccess {
                         continue;
                 }
 
-                PreparedStatement prepared = session.prepare(formatSt);
-                statementMap.put(key, prepared);
+                statements.put(getMapKey(metricType, st), formatSt);
             }
         }
         // Untyped
         for (TempStatement st : TempStatement.values()) {
-            Integer key = getMapKey(MetricType.UNDEFINED, st);
             String formatSt;
             switch(st.getType()) {
                 case SCAN:
@@ -409,14 +513,17 @@ public class DataAccessImpl implements DataAccess {
                 default:
                     continue;
             }
-            PreparedStatement prepared = session.prepare(formatSt);
-            statementMap.put(key, prepared);
+            statements.put(getMapKey(MetricType.UNDEFINED, st), formatSt);
         }
-        prepMap.put(mapKey, statementMap);
+        return statements;
     }
 
     @Override
     public Observable<ResultSet> createTempTablesIfNotExists(final Set<Long> timestamps) {
+        if (tempTableRing != null) {
+            // The tables of the ring have been created at startup
+            return Observable.empty();
+        }
         return Observable.fromCallable(() -> {
             Set<String> tables = timestamps.stream()
                     .map(this::getTempTableName)
@@ -447,13 +554,19 @@ public class DataAccessImpl implements DataAccess {
         setTempTableCreator(new TemporaryTableStatementCreator());
 
         boolean zeroTableExists = false;
+        // Late data points of the previous block are still common, so its table counts as receiving writes
+        Long writableTableKey = tableToMapKey(getTempTableName(DateTimeService.now.get().minusHours(2).getMillis()));
 
-        // At startup we should initialize preparedStatements for all the temporary tables that exists
+        // At startup we register all the temporary tables that exist, but only the tables receiving writes have their
+        // statements prepared right away. The older ones are prepared when a query or the compression job reaches them.
         for (TableMetadata table : metadata.getKeyspace(session.getLoggedKeyspace()).getTables()) {
             if(table.getName().startsWith(TEMP_TABLE_NAME_PROTOTYPE)) {
-                // Proceed to create the preparedStatements against this table
                 Long mapKey = tableToMapKey(table.getName());
-                prepareTempStatements(table.getName(), mapKey);
+                if (mapKey >= writableTableKey) {
+                    prepareTempStatements(table.getName(), mapKey);
+                } else {
+                    registerTempStatements(table.getName(), mapKey);
+                }
             } else if(table.getName().equals(OUT_OF_ORDER_TABLE_NAME)) {
                 zeroTableExists = true;
             }
@@ -475,7 +588,29 @@ public class DataAccessImpl implements DataAccess {
         prepareTempStatements(OUT_OF_ORDER_TABLE_NAME, 0L); // Fall back is always at value 0 (floorKey/floorEntry will hit it)
     }
 
-    private String metricTypeToColumnName(MetricType<?> type) {
+    private void initializeTempTableRing(int size) {
+        Set<String> existingTables = metadata.getKeyspace(session.getLoggedKeyspace()).getTables().stream()
+                .map(AbstractTableMetadata::getName)
+                .collect(Collectors.toSet());
+
+        for (int i = 0; i < size; i++) {
+            String tableName = TempTableRing.getTableName(i);
+            if (!existingTables.contains(tableName)) {
+                createTemporaryTable(tableName).toBlocking().subscribe();
+            }
+        }
+        tempTableRing = new TempTableRing(size, this::prepareTempStatementMap);
+
+        // Prepare the tables receiving writes right away, as is done for the per slice tables
+        long now = DateTimeService.now.get().getMillis();
+        long current = TempTableRing.getSlice(now);
+        for (long slice = current - TempTableRing.SLICE_SIZE; slice <= current + TempTableRing.SLICE_SIZE;
+             slice += TempTableRing.SLICE_SIZE) {
+            tempTableRing.getStatements(slice);
+        }
+    }
+
+    private static String metricTypeToColumnName(MetricType<?> type) {
         switch(type.getCode()) {
             case 0:
                 return "n_value";
@@ -495,212 +630,276 @@ public class DataAccessImpl implements DataAccess {
     }
 
     protected void initPreparedStatements() {
-        insertTenant = session.prepare(
-            "INSERT INTO tenants (id, retentions) VALUES (?, ?) IF NOT EXISTS");
+        StatementPreparer preparer = new StatementPreparer(session);
 
-        insertTenantOverwrite = session.prepare(
-                "INSERT INTO tenants (id, retentions) VALUES (?, ?)");
+        preparer.prepare(
+            "INSERT INTO tenants (id, retentions) VALUES (?, ?) IF NOT EXISTS", ps -> insertTenant = ps);
 
-        findAllTenantIds = session.prepare("SELECT DISTINCT id FROM tenants");
+        preparer.prepare(
+                "INSERT INTO tenants (id, retentions) VALUES (?, ?)", ps -> insertTenantOverwrite = ps);
 
-        findAllTenantIdsFromMetricsIdx = session.prepare("SELECT DISTINCT tenant_id, type FROM metrics_idx");
+        preparer.prepare("SELECT DISTINCT id FROM tenants", ps -> findAllTenantIds = ps);
 
-        findTenant = session.prepare("SELECT id, retentions FROM tenants WHERE id = ?");
+        preparer.prepare("SELECT DISTINCT tenant_id, type FROM metrics_idx",
+                ps -> findAllTenantIdsFromMetricsIdx = ps);
 
-        findMetricInData = session.prepare(
+        preparer.prepare("SELECT id, retentions FROM tenants WHERE id = ?", ps -> findTenant = ps);
+
+        preparer.prepare(
             "SELECT DISTINCT tenant_id, type, metric, dpart " +
             "FROM data " +
-            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? ");
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? ", ps -> findMetricInData = ps);
 
-        findMetricInDataCompressed = session.prepare(
+        preparer.prepare(
                 "SELECT DISTINCT tenant_id, type, metric, dpart " +
                         "FROM data_compressed " +
-                        "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? ");
+                        "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? ",
+                ps -> findMetricInDataCompressed = ps);
 
-        findMetricInMetricsIndex = session.prepare(
+        preparer.prepare(
             "SELECT metric, tags, data_retention " +
             "FROM metrics_idx " +
-            "WHERE tenant_id = ? AND type = ? AND metric = ?");
+            "WHERE tenant_id = ? AND type = ? AND metric = ?", ps -> findMetricInMetricsIndex = ps);
 
-        getMetricTags = session.prepare(
+        preparer.prepare(
             "SELECT tags " +
             "FROM metrics_idx " +
-            "WHERE tenant_id = ? AND type = ? AND metric = ?");
+            "WHERE tenant_id = ? AND type = ? AND metric = ?", ps -> getMetricTags = ps);
 
-        getTagNames = session.prepare(
+        preparer.prepare(
                 "SELECT DISTINCT tenant_id, tname " +
-                        "FROM metrics_tags_idx"); // Cassandra 3.10 will allow filtering by tenant_id
+                        "FROM metrics_tags_idx", // Cassandra 3.10 will allow filtering by tenant_id
+                ps -> getTagNames = ps);
 
-        getTagNamesWithType = session.prepare(
+        preparer.prepare(
                 "SELECT tenant_id, tname, type " +
-                        "FROM metrics_tags_idx");
+                        "FROM metrics_tags_idx", ps -> getTagNamesWithType = ps);
 
-        insertIntoMetricsIndex = session.prepare(
+        preparer.prepare(
             "INSERT INTO metrics_idx (tenant_id, type, metric, data_retention, tags) " +
             "VALUES (?, ?, ?, ?, ?) " +
-            "IF NOT EXISTS");
+            "IF NOT EXISTS", ps -> insertIntoMetricsIndex = ps);
 
-        insertIntoMetricsIndexOverwrite = session.prepare(
+        preparer.prepare(
             "INSERT INTO metrics_idx (tenant_id, type, metric, data_retention, tags) " +
-            "VALUES (?, ?, ?, ?, ?) ");
+            "VALUES (?, ?, ?, ?, ?) ", ps -> insertIntoMetricsIndexOverwrite = ps);
 
-        updateMetricsIndex = session.prepare(
-            "INSERT INTO metrics_idx (tenant_id, type, metric) VALUES (?, ?, ?)");
+        preparer.prepare(
+            "INSERT INTO metrics_idx (tenant_id, type, metric) VALUES (?, ?, ?)", ps -> updateMetricsIndex = ps);
 
-        addTagsToMetricsIndex = session.prepare(
+        preparer.prepare(
             "UPDATE metrics_idx " +
             "SET tags = tags + ? " +
-            "WHERE tenant_id = ? AND type = ? AND metric = ?");
+            "WHERE tenant_id = ? AND type = ? AND metric = ?", ps -> addTagsToMetricsIndex = ps);
 
-        deleteTagsFromMetricsIndex = session.prepare(
+        preparer.prepare(
             "UPDATE metrics_idx " +
             "SET tags = tags - ?" +
-            "WHERE tenant_id = ? AND type = ? AND metric = ?");
+            "WHERE tenant_id = ? AND type = ? AND metric = ?", ps -> deleteTagsFromMetricsIndex = ps);
 
-        readMetricsIndex = session.prepare(
+        preparer.prepare(
             "SELECT metric, tags, data_retention " +
             "FROM metrics_idx " +
             "WHERE tenant_id = ? AND type = ? " +
-            "ORDER BY metric ASC");
+            "ORDER BY metric ASC", ps -> readMetricsIndex = ps);
+
+        preparer.prepare(
+            "INSERT INTO metrics_series_idx (tenant_id, type, metric) VALUES (?, ?, ?)",
+                ps -> insertIntoSeriesIndex = ps);
 
-        findAllMetricsInData = session.prepare(
+        preparer.prepare(
+            "SELECT metric " +
+            "FROM metrics_series_idx " +
+            "WHERE tenant_id = ? AND type = ?", ps -> findMetricsInSeriesIndex = ps);
+
+        preparer.prepare(
+            "SELECT tenant_id, type, metric " +
+            "FROM metrics_series_idx", ps -> findAllMetricsInSeriesIndex = ps);
+
+        preparer.prepare(
+            "DELETE FROM metrics_series_idx " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ?", ps -> deleteFromSeriesIndex = ps);
+
+        preparer.prepare(
             "SELECT DISTINCT tenant_id, type, metric, dpart " +
-            "FROM data");
+            "FROM data", ps -> findAllMetricsInData = ps);
 
-        findAllMetricsInDataCompressed = session.prepare(
+        preparer.prepare(
                 "SELECT DISTINCT tenant_id, type, metric, dpart " +
-                        "FROM data_compressed");
+                        "FROM data_compressed", ps -> findAllMetricsInDataCompressed = ps);
 
-        findAllMetricsFromTagsIndex = session.prepare(
+        preparer.prepare(
+                "SELECT time, c_value, tags, TTL(c_value) FROM data_compressed " +
+                        "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ?",
+                ps -> findLegacyCompressedData = ps);
+
+        preparer.prepare(
+                "DELETE FROM data_compressed " +
+                        "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time <= ?",
+                ps -> deleteLegacyCompressedData = ps);
+
+        preparer.prepare(
                 "SELECT tenant_id, type, metric " +
-                        "FROM metrics_tags_idx");
+                        "FROM metrics_tags_idx", ps -> findAllMetricsFromTagsIndex = ps);
 
-        insertCompressedData = session.prepare(
+        preparer.prepare(
                 "UPDATE data_compressed " +
                         "USING TTL ? " +
                         "SET c_value = ? " +
-                        "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ? ");
+                        "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ? ",
+                ps -> insertCompressedData = ps);
 
-        insertCompressedDataWithTags = session.prepare(
+        preparer.prepare(
                 "UPDATE data_compressed " +
                         "USING TTL ? " +
                         "SET c_value = ?, tags = ? " +
-                        "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ? ");
+                        "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ? ",
+                ps -> insertCompressedDataWithTags = ps);
 
-        insertStringData = session.prepare(
+        preparer.prepare(
             "UPDATE data " +
             "SET s_value = ? " +
-            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ?");
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ?", ps -> insertStringData = ps);
 
-        insertStringDataUsingTTL = session.prepare(
+        preparer.prepare(
             "UPDATE data " +
             "USING TTL ? " +
             "SET s_value = ? " +
-            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ?");
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ?",
+                ps -> insertStringDataUsingTTL = ps);
 
-        insertStringDataWithTags = session.prepare(
+        preparer.prepare(
             "UPDATE data " +
             "SET s_value = ?, tags = ? " +
-            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ? ");
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ? ",
+                ps -> insertStringDataWithTags = ps);
 
-        insertStringDataWithTagsUsingTTL = session.prepare(
+        preparer.prepare(
               "UPDATE data " +
               "USING TTL ? " +
               "SET s_value = ?, tags = ? " +
-              "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ? ");
+              "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ? ",
+                ps -> insertStringDataWithTagsUsingTTL = ps);
 
-        findCompressedDataByDateRangeExclusive = session.prepare(
+        preparer.prepare(
                 "SELECT time, c_value, tags FROM data_compressed " +
-                        "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time < ?");
+                        "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time < ?",
+                ps -> findCompressedDataByDateRangeExclusive = ps);
 
-        findCompressedDataByDateRangeExclusiveWithLimit = session.prepare(
+        preparer.prepare(
                 "SELECT time, c_value, tags FROM data_compressed " +
                         " WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time < ?" +
-                        " LIMIT ?");
+                        " LIMIT ?", ps -> findCompressedDataByDateRangeExclusiveWithLimit = ps);
 
-        findCompressedDataByDateRangeExclusiveASC = session.prepare(
+        preparer.prepare(
                 "SELECT time, c_value, tags FROM data_compressed " +
                         "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ?" +
-                        " AND time < ? ORDER BY time ASC");
+                        " AND time < ? ORDER BY time ASC", ps -> findCompressedDataByDateRangeExclusiveASC = ps);
 
-        findCompressedDataByDateRangeExclusiveWithLimitASC = session.prepare(
+        preparer.prepare(
                 "SELECT time, c_value, tags FROM data_compressed" +
                         " WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ?" +
                         " AND time < ? ORDER BY time ASC" +
-                        " LIMIT ?");
+                        " LIMIT ?", ps -> findCompressedDataByDateRangeExclusiveWithLimitASC = ps);
+
+        preparer.prepare(
+            "INSERT INTO data_histogram (tenant_id, type, metric, dpart, time, sketch, tags) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?) USING TTL ?", ps -> insertHistogramData = ps);
 
-        findStringDataByDateRangeExclusive = session.prepare(
+        preparer.prepare(
+            "SELECT time, sketch, tags FROM data_histogram " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time < ? LIMIT ?",
+                ps -> findHistogramDataWithLimit = ps);
+
+        preparer.prepare(
+            "SELECT time, sketch, tags FROM data_histogram " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time < ? " +
+            "ORDER BY time ASC LIMIT ?", ps -> findHistogramDataWithLimitASC = ps);
+
+        preparer.prepare(
+            "DELETE FROM data_histogram WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ?",
+                ps -> deleteHistogramData = ps);
+
+        preparer.prepare(
             "SELECT time, s_value, tags FROM data " +
-            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time < ?");
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time < ?",
+                ps -> findStringDataByDateRangeExclusive = ps);
 
-        findStringDataByDateRangeExclusiveWithLimit = session.prepare(
+        preparer.prepare(
             "SELECT time, s_value, tags FROM data " +
             " WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time < ?" +
-            " LIMIT ?");
+            " LIMIT ?", ps -> findStringDataByDateRangeExclusiveWithLimit = ps);
 
-        findStringDataByDateRangeExclusiveASC = session.prepare(
+        preparer.prepare(
             "SELECT time, s_value, tags FROM data " +
             "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ?" +
-            " AND time < ? ORDER BY time ASC");
+            " AND time < ? ORDER BY time ASC", ps -> findStringDataByDateRangeExclusiveASC = ps);
 
-        findStringDataByDateRangeExclusiveWithLimitASC = session.prepare(
+        preparer.prepare(
             "SELECT time, s_value, tags FROM data" +
              " WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ?" +
              " AND time < ? ORDER BY time ASC" +
-             " LIMIT ?");
+             " LIMIT ?", ps -> findStringDataByDateRangeExclusiveWithLimitASC = ps);
 
-        deleteMetricData = session.prepare(
+        preparer.prepare(
             "DELETE FROM data " +
-            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ?");
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ?", ps -> deleteMetricData = ps);
 
-        deleteMetricDataWithLimit = session.prepare(
+        preparer.prepare(
             "DELETE FROM data " +
-            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time < ?");
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time < ?",
+                ps -> deleteMetricDataWithLimit = ps);
 
-        deleteFromMetricRetentionIndex = session.prepare(
+        preparer.prepare(
             "DELETE FROM retentions_idx " +
-            "WHERE tenant_id = ? AND type = ? AND metric = ?");
+            "WHERE tenant_id = ? AND type = ? AND metric = ?", ps -> deleteFromMetricRetentionIndex = ps);
 
-        deleteMetricFromMetricsIndex = session.prepare(
+        preparer.prepare(
             "DELETE FROM metrics_idx " +
-            "WHERE tenant_id = ? AND type = ? AND metric = ?");
+            "WHERE tenant_id = ? AND type = ? AND metric = ?", ps -> deleteMetricFromMetricsIndex = ps);
 
-        updateRetentionsIndex = session.prepare(
-            "INSERT INTO retentions_idx (tenant_id, type, metric, retention) VALUES (?, ?, ?, ?)");
+        preparer.prepare(
+            "INSERT INTO retentions_idx (tenant_id, type, metric, retention) VALUES (?, ?, ?, ?)",
+                ps -> updateRetentionsIndex = ps);
 
-        findDataRetentions = session.prepare(
+        preparer.prepare(
             "SELECT tenant_id, type, metric, retention " +
             "FROM retentions_idx " +
-            "WHERE tenant_id = ? AND type = ?");
+            "WHERE tenant_id = ? AND type = ?", ps -> findDataRetentions = ps);
 
-        insertMetricsTagsIndex = session.prepare(
-            "INSERT INTO metrics_tags_idx (tenant_id, tname, tvalue, type, metric) VALUES (?, ?, ?, ?, ?)");
+        preparer.prepare(
+            "INSERT INTO metrics_tags_idx (tenant_id, tname, tvalue, type, metric) VALUES (?, ?, ?, ?, ?)",
+                ps -> insertMetricsTagsIndex = ps);
 
-        deleteMetricsTagsIndex = session.prepare(
+        preparer.prepare(
             "DELETE FROM metrics_tags_idx " +
-            "WHERE tenant_id = ? AND tname = ? AND tvalue = ? AND type = ? AND metric = ?");
+            "WHERE tenant_id = ? AND tname = ? AND tvalue = ? AND type = ? AND metric = ?",
+                ps -> deleteMetricsTagsIndex = ps);
 
-        findMetricsByTagName = session.prepare(
+        preparer.prepare(
             "SELECT tenant_id, type, metric, tvalue " +
             "FROM metrics_tags_idx " +
-            "WHERE tenant_id = ? AND tname = ?");
+            "WHERE tenant_id = ? AND tname = ?", ps -> findMetricsByTagName = ps);
 
-        findMetricsByTagNameValue = session.prepare(
+        preparer.prepare(
                 "SELECT tenant_id, type, metric, tvalue " +
                 "FROM metrics_tags_idx " +
-                "WHERE tenant_id = ? AND tname = ? AND tvalue = ?");
+                "WHERE tenant_id = ? AND tname = ? AND tvalue = ?", ps -> findMetricsByTagNameValue = ps);
 
-        updateMetricExpirationIndex = session.prepare(
-                "INSERT INTO metrics_expiration_idx (tenant_id, type, metric, time) VALUES (?, ?, ?, ?)");
+        preparer.prepare(
+                "INSERT INTO metrics_expiration_idx (tenant_id, type, metric, time) VALUES (?, ?, ?, ?)",
+                ps -> updateMetricExpirationIndex = ps);
 
-        deleteFromMetricExpirationIndex = session.prepare(
+        preparer.prepare(
                 "DELETE FROM metrics_expiration_idx " +
-                "WHERE tenant_id = ? AND type = ? AND metric = ?");
+                "WHERE tenant_id = ? AND type = ? AND metric = ?", ps -> deleteFromMetricExpirationIndex = ps);
 
-        findMetricExpiration = session.prepare(
+        preparer.prepare(
                 "SELECT time " +
                 "FROM metrics_expiration_idx " +
-                "WHERE tenant_id = ? AND type = ? and metric = ?");
+                "WHERE tenant_id = ? AND type = ? and metric = ?", ps -> findMetricExpiration = ps);
+
+        preparer.await();
     }
 
     @Override
@@ -747,9 +946,23 @@ public class DataAccessImpl implements DataAccess {
                 .flatMap(b -> rxSession.executeAndFetch(b))
                 .concatWith(rxSession.executeAndFetch(findMetricInData
                         .bind(id.getTenantId(), id.getType().getCode(), id.getName(), DPART))
-                        .concatWith(
-                                rxSession.executeAndFetch(findMetricInDataCompressed
-                                        .bind(id.getTenantId(), id.getType().getCode(), id.getName(), DPART))))
+                        .concatWith(findMetricInDataCompressed(id)))
+                .take(1);
+    }
+
+    /**
+     * Checks the partitions from the most recent one, the next one is only read if the previous one is empty
+     */
+    private <T> Observable<Row> findMetricInDataCompressed(MetricId<T> id) {
+        long now = DateTimeService.now.get().getMillis();
+        List<Long> partitions = getCompressedPartitions(now - COMPRESSED_EXISTENCE_CHECK, now + 1);
+        Collections.reverse(partitions);
+        if (!legacyCompressedDataMoved) {
+            partitions.add(DPART);
+        }
+        return Observable.from(partitions)
+                .concatMap(dpart -> rxSession.executeAndFetch(findMetricInDataCompressed
+                        .bind(id.getTenantId(), id.getType().getCode(), id.getName(), dpart)))
                 .take(1);
     }
 
@@ -803,6 +1016,28 @@ public class DataAccessImpl implements DataAccess {
         return rxSession.executeAndFetch(readMetricsIndex.bind(tenantId, type.getCode()));
     }
 
+    @Override
+    public Observable<Integer> insertIntoSeriesIndex(Observable<? extends MetricId<?>> ids) {
+        return ids.map(id -> insertIntoSeriesIndex.bind(id.getTenantId(), id.getType().getCode(), id.getName()))
+                .compose(new BatchStatementTransformer())
+                .flatMap(batch -> rxSession.execute(batch).map(resultSet -> batch.size()));
+    }
+
+    @Override
+    public <T> Observable<Row> findMetricsInSeriesIndex(String tenantId, MetricType<T> type) {
+        return rxSession.executeAndFetch(findMetricsInSeriesIndex.bind(tenantId, type.getCode()));
+    }
+
+    @Override
+    public Observable<Row> findAllMetricsInSeriesIndex() {
+        return rxSession.executeAndFetch(findAllMetricsInSeriesIndex.bind());
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteFromSeriesIndex(MetricId<T> id) {
+        return rxSession.execute(deleteFromSeriesIndex.bind(id.getTenantId(), id.getType().getCode(), id.getName()));
+    }
+
     /**
      * Fetch all the data from a temporary table for the compression job. Using TokenRanges avoids fetching first
      * all the metrics' partition keys and then requesting them.
@@ -816,6 +1051,10 @@ public class DataAccessImpl implements DataAccess {
      */
     @Override
     public Observable<Observable<Row>> findAllDataFromBucket(long timestamp, int pageSize, int maxConcurrency) {
+        if (tempTableRing != null && !prepMap.containsKey(TempTableRing.getSlice(timestamp))) {
+            return findAllDataFromRing(TempTableRing.getSlice(timestamp), pageSize);
+        }
+
         PreparedStatement ts =
                 getTempStatement(MetricType.UNDEFINED, TempStatement.SCAN_WITH_TOKEN_RANGES, timestamp);
 
@@ -834,6 +1073,29 @@ public class DataAccessImpl implements DataAccess {
                                 .setFetchSize(pageSize)));
     }
 
+    private Observable<Observable<Row>> findAllDataFromRing(long slice, int pageSize) {
+        if (!tempTableRing.isRetained(slice, DateTimeService.now.get().getMillis())) {
+            log.warnf("The table of the time slice %d has already been reused, the slice can not be compressed",
+                    slice);
+            return Observable.empty();
+        }
+
+        PreparedStatement scan = tempTableRing.getStatements(slice)
+                .get(getMapKey(MetricType.UNDEFINED, TempStatement.SCAN_WITH_TOKEN_RANGES));
+        long end = slice + TempTableRing.SLICE_SIZE;
+
+        // A slice which was not compressed in time leaves its rows behind for the next slice of the table
+        return Observable.from(getTokenRanges())
+                .map(tr -> rxSession.executeAndFetch(scan.bind()
+                        .setToken(0, tr.getStart())
+                        .setToken(1, tr.getEnd())
+                        .setFetchSize(pageSize))
+                        .filter(row -> {
+                            long time = row.getTimestamp(3).getTime();
+                            return time >= slice && time < end;
+                        }));
+    }
+
     private Set<TokenRange> getTokenRanges() {
         Set<TokenRange> tokenRanges = new HashSet<>();
         for (TokenRange tokenRange : metadata.getTokenRanges()) {
@@ -844,14 +1106,35 @@ public class DataAccessImpl implements DataAccess {
 
     @Override
     public Observable<ResultSet> dropTempTable(long timestamp) {
+        if (tempTableRing != null && !prepMap.containsKey(TempTableRing.getSlice(timestamp))) {
+            long slice = TempTableRing.getSlice(timestamp);
+            // Checked on every subscription, right before truncating, as retries may come much later
+            return Observable.defer(() -> {
+                long now = DateTimeService.now.get().getMillis();
+                if (!tempTableRing.isRetained(slice, now)) {
+                    // The table holds a later slice by now
+                    return Observable.empty();
+                }
+                if (tempTableRing.isTableWritable(slice, now)) {
+                    log.warnf("Not truncating the table %s of the time slice %d, the table is still accepting writes",
+                            tempTableRing.getTableName(slice), slice);
+                    return Observable.empty();
+                }
+                return rxSession.execute(String.format("TRUNCATE %s", tempTableRing.getTableName(slice)));
+            });
+        }
         String fullTableName = getTempTableName(timestamp);
         String dropCQL = String.format("DROP TABLE %s", fullTableName);
         return rxSession.execute(dropCQL);
     }
 
     private Observable<PreparedStatement> getPrepForAllTempTables(TempStatement ts) {
-        return Observable.from(prepMap.entrySet())
-                .map(Map.Entry::getValue)
+        Observable<Supplier<Map<Integer, PreparedStatement>>> tables = Observable.from(prepMap.values());
+        if (tempTableRing != null) {
+            tables = tables.concatWith(Observable.from(tempTableRing.getTables()));
+        }
+        return tables
+                .map(Supplier::get)
                 .map(pMap -> pMap.get(getMapKey(MetricType.UNDEFINED, ts)));
     }
 
@@ -867,6 +1150,10 @@ public class DataAccessImpl implements DataAccess {
      * Applies micro-batching capabilities by taking advantage of token ranges in the Cassandra
      */
     private Observable.Transformer<BoundStatement, Integer> applyMicroBatching() {
+        return applyMicroBatching(false);
+    }
+
+    private Observable.Transformer<BoundStatement, Integer> applyMicroBatching(boolean adaptive) {
         return tObservable -> tObservable
                 .groupBy(b -> {
                     ByteBuffer routingKey = b.getRoutingKey(ProtocolVersion.NEWEST_SUPPORTED,
@@ -880,14 +1167,27 @@ public class DataAccessImpl implements DataAccess {
                     log.warn("Unable to find any Cassandra node to insert token " + token.toString());
                     return session.getCluster().getMetadata().getTokenRanges().iterator().next();
                 })
-                .flatMap(g -> g.compose(new BoundBatchStatementTransformer()))
-                .flatMap(batch -> rxSession
-                        .execute(batch)
+                .flatMap(g -> g.compose(adaptive ? new BoundBatchStatementTransformer(adaptiveBatchSize)
+                        : new BoundBatchStatementTransformer()))
+                .flatMap(batch -> executeBatch(batch, adaptive)
                         .compose(applyInsertRetryPolicy())
                         .map(resultSet -> batch.size())
                 );
     }
 
+    private Observable<ResultSet> executeBatch(BatchStatement batch, boolean adaptive) {
+        if (!adaptive) {
+            return rxSession.execute(batch);
+        }
+        // Deferred so that every attempt of the retry policy is measured
+        return Observable.defer(() -> {
+            long start = System.nanoTime();
+            return rxSession.execute(batch)
+                    .doOnNext(resultSet -> adaptiveBatchSize.onSuccess(batch.size(), System.nanoTime() - start))
+                    .doOnError(adaptiveBatchSize::onFailure);
+        });
+    }
+
     /*
      * Apply our current retry policy to the insert behavior
      */
@@ -924,12 +1224,30 @@ public class DataAccessImpl implements DataAccess {
                 .format(TEMP_TABLE_DATEFORMATTER));
     }
 
+    /**
+     * Writes go to the ring if the time slice has no table of its own, which is the case for all the slices once the
+     * tables created before the ring was enabled have been compressed.
+     */
+    private PreparedStatement getTempInsertStatement(MetricType type, TempStatement ts, long timestamp) {
+        if (tempTableRing != null) {
+            long slice = TempTableRing.getSlice(timestamp);
+            if (!prepMap.containsKey(slice)) {
+                if (tempTableRing.isWritable(slice, DateTimeService.now.get().getMillis())) {
+                    return tempTableRing.getStatements(slice).get(getMapKey(type, ts));
+                }
+                // Data points outside of the writable slices must not end up in the table of another slice
+                return getTempStatement(type, ts, 0L);
+            }
+        }
+        return getTempStatement(type, ts, timestamp);
+    }
+
     PreparedStatement getTempStatement(MetricType type, TempStatement ts, long timestamp) {
-        Map.Entry<Long, Map<Integer, PreparedStatement>> floorEntry = prepMap
+        Map.Entry<Long, Supplier<Map<Integer, PreparedStatement>>> floorEntry = prepMap
                 .floorEntry(timestamp);
 
         if(floorEntry != null) {
-                return floorEntry.getValue()
+                return floorEntry.getValue().get()
                     .get(getMapKey(type, ts));
         }
         return null;
@@ -937,10 +1255,25 @@ public class DataAccessImpl implements DataAccess {
 
     @Override
     public <T> Observable<Integer> insertData(Observable<Metric<T>> metrics) {
+        Predicate<String> adaptive = adaptiveBatching;
         return metrics
-                .flatMap(m -> Observable.from(m.getDataPoints())
-                        .compose(mapTempInsertStatement(m)))
-                .compose(applyMicroBatching());
+                .groupBy(m -> adaptive.test(m.getMetricId().getTenantId()))
+                .flatMap(g -> g
+                        .flatMap(m -> Observable.from(m.getDataPoints())
+                                .compose(mapTempInsertStatement(m)))
+                        .compose(applyMicroBatching(g.getKey())));
+    }
+
+    /**
+     * @param adaptiveBatching selects the tenants whose data points are written in batches adapting to the write
+     *                         latency, see {@link AdaptiveBatchSize}
+     */
+    public void setAdaptiveBatching(Predicate<String> adaptiveBatching) {
+        this.adaptiveBatching = adaptiveBatching;
+    }
+
+    public AdaptiveBatchSize getAdaptiveBatchSize() {
+        return adaptiveBatchSize;
     }
 
     @SuppressWarnings("unchecked")
@@ -954,7 +1287,7 @@ public class DataAccessImpl implements DataAccess {
                     int i = 1;
                     PreparedStatement st;
                     if (dataPoint.getTags().isEmpty()) {
-                        st = getTempStatement(type, TempStatement.INSERT_DATA, dataPoint.getTimestamp());
+                        st = getTempInsertStatement(type, TempStatement.INSERT_DATA, dataPoint.getTimestamp());
 
                         if(st == null) {
                             return null;
@@ -962,7 +1295,8 @@ public class DataAccessImpl implements DataAccess {
 
                         bs = st.bind();
                     } else {
-                        st = getTempStatement(type, TempStatement.INSERT_DATA_WITH_TAGS, dataPoint.getTimestamp());
+                        st = getTempInsertStatement(type, TempStatement.INSERT_DATA_WITH_TAGS,
+                                dataPoint.getTimestamp());
 
                         if(st == null) {
                             return null;
@@ -1090,31 +1424,198 @@ public class DataAccessImpl implements DataAccess {
                 metricId.getName(), DPART, getTimeUUID(timestamp));
     }
 
+    @Override
+    public Observable<Integer> insertHistogramData(Observable<Metric<HistogramSketch>> histograms,
+            Function<MetricId<HistogramSketch>, Integer> ttlFetcher) {
+        return histograms
+                .flatMap(histogram -> {
+                    MetricId<HistogramSketch> id = histogram.getMetricId();
+                    int ttl = Math.max(ttlFetcher.apply(id), 0);
+                    return Observable.from(histogram.getDataPoints())
+                            .map(dataPoint -> insertHistogramData.bind(id.getTenantId(), id.getType().getCode(),
+                                    id.getName(), getCompressedPartition(dataPoint.getTimestamp()),
+                                    new Date(dataPoint.getTimestamp()), dataPoint.getValue().toByteBuffer(),
+                                    dataPoint.getTags(), ttl));
+                })
+                .compose(applyMicroBatching());
+    }
+
+    /**
+     * Reads the time windows like {@link #findCompressedData(MetricId, long, long, int, Order)}, the sketches of the
+     * windows ahead of the current one are not read.
+     */
+    @Override
+    public Observable<Row> findHistogramData(MetricId<HistogramSketch> id, long startTime, long endTime, int limit,
+            Order order, int pageSize) {
+        long now = DateTimeService.now.get().getMillis();
+        List<Long> partitions = getCompressedPartitions(startTime,
+                Math.min(endTime, getCompressedPartition(now) + 2 * COMPRESSED_PARTITION_SIZE));
+        if (order != Order.ASC) {
+            Collections.reverse(partitions);
+        }
+        PreparedStatement statement = order == Order.ASC ? findHistogramDataWithLimitASC : findHistogramDataWithLimit;
+        Func1<Long, Observable<Row>> findInPartition = dpart -> rxSession.executeAndFetch(statement.bind(
+                id.getTenantId(), id.getType().getCode(), id.getName(), dpart, new Date(startTime),
+                new Date(endTime), limit > 0 ? limit : Integer.MAX_VALUE).setFetchSize(pageSize));
+        if (limit > 0) {
+            return Observable.from(partitions)
+                    .concatMap(findInPartition)
+                    .take(limit);
+        }
+        return Observable.from(partitions)
+                .concatMapEager(findInPartition, PARTITION_READ_BUFFER_SIZE, MAX_CONCURRENT_PARTITION_READS);
+    }
+
+    /**
+     * Reads the partitions overlapping [startTime, endTime) in parallel, unless a limit is set in which case they are
+     * read one after the other so that the most recent (or oldest) ones are not read needlessly. The legacy partition
+     * is merged in as long as its blocks have not been moved.
+     */
     @Override
     public Observable<Row> findCompressedData(MetricId<?> id, long startTime, long endTime, int limit, Order
             order) {
+        // Blocks are only written once their time slice has ended
+        long now = DateTimeService.now.get().getMillis();
+        List<Long> partitions = getCompressedPartitions(startTime,
+                Math.min(endTime, getCompressedPartition(now) + 2 * COMPRESSED_PARTITION_SIZE));
+        boolean readLegacy = !legacyCompressedDataMoved;
+        if (readLegacy) {
+            partitions.remove(Long.valueOf(DPART));
+        }
+        if (order != Order.ASC) {
+            Collections.reverse(partitions);
+        }
+        Observable<Row> rows;
+        if (limit > 0) {
+            rows = Observable.from(partitions)
+                    .concatMap(dpart -> findCompressedData(id, dpart, startTime, endTime, limit, order));
+        } else {
+            rows = Observable.from(partitions)
+                    .concatMapEager(dpart -> findCompressedData(id, dpart, startTime, endTime, limit, order),
+                            PARTITION_READ_BUFFER_SIZE, MAX_CONCURRENT_PARTITION_READS);
+        }
+
+        if (readLegacy) {
+            Comparator<Row> comparator = Comparator.comparing(row -> row.getTimestamp(0));
+            if (order != Order.ASC) {
+                comparator = comparator.reversed();
+            }
+            List<Observable<? extends Row>> sources = new ArrayList<>(2);
+            sources.add(findCompressedData(id, DPART, startTime, endTime, limit, order));
+            sources.add(rows);
+            // A block being moved can be found in both partitions
+            rows = SortedMerge.create(sources, comparator, false)
+                    .distinctUntilChanged(row -> row.getTimestamp(0));
+        }
+        return limit > 0 ? rows.take(limit) : rows;
+    }
+
+    private Observable<Row> findCompressedData(MetricId<?> id, long dpart, long startTime, long endTime, int limit,
+            Order order) {
         if (order == Order.ASC) {
             if (limit <= 0) {
                 return rxSession.executeAndFetch(findCompressedDataByDateRangeExclusiveASC.bind(id.getTenantId(),
-                        id.getType().getCode(), id.getName(), DPART, new Date(startTime), new Date(endTime)));
+                        id.getType().getCode(), id.getName(), dpart, new Date(startTime), new Date(endTime)));
             } else {
                 return rxSession.executeAndFetch(findCompressedDataByDateRangeExclusiveWithLimitASC.bind(
-                        id.getTenantId(), id.getType().getCode(), id.getName(), DPART, new Date(startTime),
+                        id.getTenantId(), id.getType().getCode(), id.getName(), dpart, new Date(startTime),
                         new Date(endTime), limit));
             }
         } else {
             if (limit <= 0) {
                 return rxSession.executeAndFetch(findCompressedDataByDateRangeExclusive.bind(id.getTenantId(),
-                        id.getType().getCode(), id.getName(), DPART, new Date(startTime), new Date(endTime)));
+                        id.getType().getCode(), id.getName(), dpart, new Date(startTime), new Date(endTime)));
             } else {
                 return rxSession.executeAndFetch(findCompressedDataByDateRangeExclusiveWithLimit.bind(id.getTenantId(),
-                        id.getType().getCode(), id.getName(), DPART, new Date(startTime), new Date(endTime),
+                        id.getType().getCode(), id.getName(), dpart, new Date(startTime), new Date(endTime),
                         limit));
             }
         }
     }
 
-    private SortedMap<Long, Map<Integer, PreparedStatement>> subSetMap(long startTime, long endTime, Order order) {
+    /**
+     * @return the value of the {@code dpart} column of the compressed block starting at {@code timestamp}
+     */
+    public static long getCompressedPartition(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, COMPRESSED_PARTITION_SIZE);
+    }
+
+    /**
+     * @return the partitions of the blocks starting within [startTime, endTime), in ascending order
+     */
+    static List<Long> getCompressedPartitions(long startTime, long endTime) {
+        List<Long> partitions = new ArrayList<>();
+        if (startTime < endTime) {
+            for (long dpart = getCompressedPartition(startTime); dpart < endTime;
+                 dpart += COMPRESSED_PARTITION_SIZE) {
+                partitions.add(dpart);
+            }
+        }
+        return partitions;
+    }
+
+    @Override
+    public Observable<Row> findSeriesInLegacyCompressedPartition() {
+        return rxSession.executeAndFetch(findAllMetricsInDataCompressed.bind())
+                .filter(row -> row.getLong(3) == DPART);
+    }
+
+    /**
+     * Copies the blocks with their remaining TTL, then deletes them with a single range deletion. The blocks of the
+     * first time window share the legacy partition and are left in place. The deletion only covers the blocks which
+     * have been copied, the nodes not upgraded yet keep writing blocks to the legacy partition.
+     */
+    @Override
+    public <T> Observable<Integer> moveLegacyCompressedData(MetricId<T> id) {
+        return Observable.defer(() -> {
+            // Oldest and most recent copied blocks
+            long[] copied = {Long.MAX_VALUE, Long.MIN_VALUE};
+            return rxSession.executeAndFetch(findLegacyCompressedData.bind(id.getTenantId(), id.getType().getCode(),
+                    id.getName(), DPART, new Date(COMPRESSED_PARTITION_SIZE)))
+                    .map(row -> {
+                        Date time = row.getTimestamp(0);
+                        copied[0] = Math.min(copied[0], time.getTime());
+                        copied[1] = Math.max(copied[1], time.getTime());
+                        int ttl = row.isNull(3) ? 0 : row.getInt(3);
+                        long dpart = getCompressedPartition(time.getTime());
+                        if (row.isNull(2)) {
+                            return insertCompressedData.bind(ttl, row.getBytes(1), id.getTenantId(),
+                                    id.getType().getCode(), id.getName(), dpart, time);
+                        }
+                        return insertCompressedDataWithTags.bind(ttl, row.getBytes(1), row.getBytes(2),
+                                id.getTenantId(), id.getType().getCode(), id.getName(), dpart, time);
+                    })
+                    .flatMap(rxSession::execute, MAX_CONCURRENT_MOVES)
+                    .count()
+                    .concatMap(count -> {
+                        if (count == 0) {
+                            return Observable.just(count);
+                        }
+                        return rxSession.execute(deleteLegacyCompressedData.bind(id.getTenantId(),
+                                id.getType().getCode(), id.getName(), DPART, new Date(copied[0]),
+                                new Date(copied[1])))
+                                .map(resultSet -> count);
+                    });
+        });
+    }
+
+    @Override
+    public void setLegacyCompressedDataMoved(boolean moved) {
+        legacyCompressedDataMoved = moved;
+    }
+
+    private NavigableMap<Long, Supplier<Map<Integer, PreparedStatement>>> getTempTables() {
+        if (tempTableRing == null) {
+            return prepMap;
+        }
+        NavigableMap<Long, Supplier<Map<Integer, PreparedStatement>>> tables =
+                tempTableRing.getRetainedSlices(DateTimeService.now.get().getMillis());
+        tables.putAll(prepMap);
+        return tables;
+    }
+
+    private SortedMap<Long, Supplier<Map<Integer, PreparedStatement>>> subSetMap(long startTime, long endTime, Order order) {
+        NavigableMap<Long, Supplier<Map<Integer, PreparedStatement>>> prepMap = getTempTables();
         Long startKey = prepMap.floorKey(startTime);
         Long endKey = prepMap.floorKey(endTime);
 
@@ -1129,7 +1630,7 @@ public class DataAccessImpl implements DataAccess {
         }
 
         // Depending on the order, these must be read in the correct order also..
-        SortedMap<Long, Map<Integer, PreparedStatement>> statementMap;
+        SortedMap<Long, Supplier<Map<Integer, PreparedStatement>>> statementMap;
         if(order == Order.ASC) {
              statementMap = prepMap.subMap(startKey, true, endKey,
                     true);
@@ -1141,13 +1642,19 @@ public class DataAccessImpl implements DataAccess {
         return statementMap;
     }
 
+    @Override
+    public int countTempTables(long startTime, long endTime) {
+        return subSetMap(startTime, endTime, Order.ASC).size();
+    }
+
     @Override
     public <T> Observable<Row> findTempData(MetricId<T> id, long startTime, long endTime, int limit, Order order,
                                             int pageSize) {
         MetricType<T> type = id.getType();
 
-        SortedMap<Long, Map<Integer, PreparedStatement>> statementMap = subSetMap(startTime, endTime, order);
-        Observable<Map<Integer, PreparedStatement>> buckets = Observable.from(statementMap.values());
+        SortedMap<Long, Supplier<Map<Integer, PreparedStatement>>> statementMap = subSetMap(startTime, endTime, order);
+        Observable<Map<Integer, PreparedStatement>> buckets = Observable.from(statementMap.values())
+                .map(Supplier::get);
 
         if (order == Order.ASC) {
             if (limit <= 0) {
@@ -1211,10 +1718,18 @@ public class DataAccessImpl implements DataAccess {
     }
 
     @Override
-    public <T> Observable<ResultSet> deleteMetricData(MetricId<T> id) {
+    public <T> Observable<ResultSet> deleteMetricData(MetricId<T> id, int dataRetention) {
         if(id.getType() == STRING) {
             return rxSession.execute(deleteMetricData.bind(id.getTenantId(), id.getType().getCode(), id.getName(), DPART));
         }
+        if (id.getType() == HISTOGRAM) {
+            // Older windows have expired
+            long now = DateTimeService.now.get().getMillis();
+            return Observable.from(getCompressedPartitions(now - TimeUnit.SECONDS.toMillis(dataRetention),
+                    getCompressedPartition(now) + 2 * COMPRESSED_PARTITION_SIZE))
+                    .flatMap(dpart -> rxSession.execute(deleteHistogramData.bind(id.getTenantId(),
+                            id.getType().getCode(), id.getName(), dpart)));
+        }
 
         return getPrepForAllTempTables(TempStatement.DELETE_DATA)
                 .flatMap(p -> rxSession.execute(p.bind(id.getTenantId(), id.getType().getCode(), id.getName())));
@@ -1301,7 +1816,7 @@ public class DataAccessImpl implements DataAccess {
             b.setString(i, id.getTenantId())
                     .setByte(i+1, id.getType().getCode())
                     .setString(i+2, id.getName())
-                    .setLong(i+3, DPART)
+                    .setLong(i+3, getCompressedPartition(timeslice))
                     .setTimestamp(i+4, new Date(timeslice));
         };
 
@@ -1349,6 +1864,18 @@ public class DataAccessImpl implements DataAccess {
                 id.getType().getCode(), id.getName(), new Date(expirationTime)));
     }
 
+    @Override
+    public Observable<Integer> updateMetricExpirationIndex(Map<? extends MetricId<?>, Long> expirations) {
+        return Observable.from(expirations.entrySet())
+                .groupBy(entry -> entry.getKey().getType().getCode() + ":" + entry.getKey().getTenantId())
+                .flatMap(partition -> partition
+                        .map(entry -> updateMetricExpirationIndex.bind(entry.getKey().getTenantId(),
+                                entry.getKey().getType().getCode(), entry.getKey().getName(),
+                                new Date(entry.getValue())))
+                        .compose(new BatchStatementTransformer()))
+                .flatMap(batch -> rxSession.execute(batch).map(resultSet -> batch.size()));
+    }
+
     @Override
     public <T> Observable<ResultSet> deleteFromMetricExpirationIndex(MetricId<T> id) {
         return rxSession
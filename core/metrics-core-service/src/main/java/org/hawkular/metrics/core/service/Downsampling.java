@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedMap.Builder;
+
+/**
+ * Methods reducing the number of raw data points of a time range, while keeping the shape of the series.
+ *
+ * @see org.hawkular.metrics.core.service.transformers.DownsampleTransformer
+ */
+public enum Downsampling {
+    /**
+     * Largest triangle three buckets, keeps one data point per bucket, the one forming the largest triangle with the
+     * point kept in the previous bucket and the average of the next bucket. The first and last data points are kept.
+     */
+    LTTB("lttb"),
+    /**
+     * Keeps the data points with the lowest and the highest values of each bucket.
+     */
+    MIN_MAX("minmax");
+
+    private static final Map<String, Downsampling> texts;
+
+    static {
+        Builder<String, Downsampling> builder = ImmutableSortedMap.orderedBy(String.CASE_INSENSITIVE_ORDER);
+        for (Downsampling downsampling : values()) {
+            builder.put(downsampling.text, downsampling);
+        }
+        texts = builder.build();
+    }
+
+    private String text;
+
+    Downsampling(String text) {
+        this.text = text;
+    }
+
+    public static Downsampling fromText(String text) {
+        checkArgument(text != null, "text is null");
+        Downsampling downsampling = texts.get(text);
+        if (downsampling == null) {
+            throw new IllegalArgumentException(text + " is not a recognized downsampling method");
+        }
+        return downsampling;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -23,6 +23,7 @@ import java.util.Map;
 
 import org.hawkular.metrics.model.AvailabilityType;
 import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.HistogramSketch;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
@@ -64,6 +65,12 @@ public class Functions {
         TAGS
     }
 
+    private enum HISTOGRAM_COLS {
+        TIME,
+        SKETCH,
+        TAGS
+    }
+
     private Functions() {
     }
 
@@ -104,6 +111,13 @@ public class Functions {
                 row.getMap(STRING_COLS.TAGS.ordinal(), String.class, String.class));
     }
 
+    public static DataPoint<HistogramSketch> getHistogramDataPoint(Row row) {
+        return new DataPoint<>(
+                row.getTimestamp(HISTOGRAM_COLS.TIME.ordinal()).getTime(),
+                HistogramSketch.fromByteBuffer(row.getBytes(HISTOGRAM_COLS.SKETCH.ordinal())),
+                row.getMap(HISTOGRAM_COLS.TAGS.ordinal(), String.class, String.class));
+    }
+
     public static DataPoint<AvailabilityType> getAvailabilityDataPoint(Row row) {
         return new DataPoint<>(
                 UUIDs.unixTimestamp(row.getUUID(AVAILABILITY_COLS.TIME.ordinal())),
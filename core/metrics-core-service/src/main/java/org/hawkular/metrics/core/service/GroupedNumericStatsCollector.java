@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.metrics.core.service.transformers.NumericDataPointCollector;
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.Percentile;
+
+/**
+ * Accumulates the data points, or the bucket points, of many series into the buckets of the group each series belongs
+ * to. Only one collector per group and bucket is kept, whatever the number of series, so that the memory used does not
+ * grow with the number of series or data points.
+ */
+final class GroupedNumericStatsCollector {
+
+    private final Buckets buckets;
+    private final List<Percentile> percentiles;
+    private final Map<String, Map<Integer, NumericDataPointCollector>> dataPointCollectors = new HashMap<>();
+    private final Map<String, Map<Long, SumNumericBucketPointCollector>> sumCollectors = new HashMap<>();
+
+    GroupedNumericStatsCollector(Buckets buckets, List<Percentile> percentiles) {
+        this.buckets = buckets;
+        this.percentiles = percentiles;
+    }
+
+    /**
+     * Adds a raw data point to the stats of its group.
+     */
+    void increment(String group, DataPoint<? extends Number> dataPoint) {
+        int index = buckets.getIndex(dataPoint.getTimestamp());
+        dataPointCollectors.computeIfAbsent(group, g -> new HashMap<>())
+                .computeIfAbsent(index, i -> new NumericDataPointCollector(buckets, i, percentiles))
+                .increment(dataPoint);
+    }
+
+    /**
+     * Adds the bucket point of a single series to the stacked stats of its group.
+     */
+    void increment(String group, NumericBucketPoint bucketPoint) {
+        sumCollectors.computeIfAbsent(group, g -> new HashMap<>())
+                .computeIfAbsent(bucketPoint.getStart(), start -> new SumNumericBucketPointCollector())
+                .increment(bucketPoint);
+    }
+
+    /**
+     * @return the bucket points of each group
+     */
+    Map<String, List<NumericBucketPoint>> toBucketPoints() {
+        Map<String, List<NumericBucketPoint>> bucketPoints = new HashMap<>();
+        dataPointCollectors.forEach((group, collectors) -> {
+            Map<Long, NumericBucketPoint> pointMap = new HashMap<>();
+            collectors.values().forEach(collector -> {
+                NumericBucketPoint bucketPoint = collector.toBucketPoint();
+                pointMap.put(bucketPoint.getStart(), bucketPoint);
+            });
+            bucketPoints.put(group, NumericBucketPoint.toList(pointMap, buckets));
+        });
+        sumCollectors.forEach((group, collectors) -> {
+            Map<Long, NumericBucketPoint> pointMap = new HashMap<>();
+            collectors.forEach((start, collector) -> pointMap.put(start, collector.toBucketPoint()));
+            bucketPoints.put(group, NumericBucketPoint.toList(pointMap, buckets));
+        });
+        return bucketPoints;
+    }
+}
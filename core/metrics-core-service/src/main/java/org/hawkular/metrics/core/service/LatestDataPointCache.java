@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Keeps the latest data point of the series, so that queries for the current value, those with a limit of one in
+ * descending order, do not have to merge the compressed and the temporary data.
+ * <p>
+ * An entry holds the latest data point with a timestamp before its validity, which is a short while after the entry
+ * was loaded. Data points written through this node update the entry, queries ending after the validity are read
+ * from Cassandra and load the entry again, data points written through other nodes are therefore seen at most
+ * {@link #VALIDITY} later.
+ * <p>
+ * A data point written while an entry is being loaded must not be hidden by the older data point read from Cassandra.
+ * Writes therefore bump the generation of the series, even when it is not cached, and a loaded entry is only kept if
+ * the generation of its series did not change since the load started.
+ * <p>
+ * The size of the cache is bounded by an estimate of the memory its entries use, the least recently used entries are
+ * evicted first. A size of zero disables the cache.
+ */
+class LatestDataPointCache {
+
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    static final long VALIDITY = TimeUnit.MINUTES.toMillis(1);
+
+    // Power of two, the series share the generations of their stripe, a collision only causes a cache miss
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final Cache<MetricId<?>, Entry> entries;
+
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    LatestDataPointCache() {
+        this(DEFAULT_MAX_BYTES, Ticker.systemTicker());
+    }
+
+    LatestDataPointCache(long maxBytes) {
+        this(maxBytes, Ticker.systemTicker());
+    }
+
+    LatestDataPointCache(long maxBytes, Ticker ticker) {
+        if (maxBytes > 0) {
+            entries = CacheBuilder.newBuilder()
+                    .maximumWeight(maxBytes)
+                    .weigher(LatestDataPointCache::estimateSize)
+                    // Entries which are no longer valid are only loaded again when queried
+                    .expireAfterWrite(VALIDITY, TimeUnit.MILLISECONDS)
+                    .ticker(ticker)
+                    .build();
+        } else {
+            entries = null;
+        }
+    }
+
+    boolean isEnabled() {
+        return entries != null;
+    }
+
+    /**
+     * @return null if the cache can not answer the query, otherwise the latest data point within [start, end) if
+     * there is one
+     */
+    @SuppressWarnings("unchecked")
+    <T> Optional<DataPoint<T>> get(MetricId<T> id, long start, long end) {
+        if (entries == null) {
+            return null;
+        }
+        Entry entry = entries.getIfPresent(id);
+        if (entry == null || end > entry.validity || entry.dataPoint.getTimestamp() >= end) {
+            return null;
+        }
+        if (entry.dataPoint.getTimestamp() < start) {
+            return Optional.empty();
+        }
+        return Optional.of((DataPoint<T>) entry.dataPoint);
+    }
+
+    /**
+     * @return the generation to pass to {@link #put(MetricId, DataPoint, long, long) put}, read before loading the
+     * latest data point of the series
+     */
+    long getGeneration(MetricId<?> id) {
+        return generations.get(stripe(id));
+    }
+
+    /**
+     * @param dataPoint  the latest data point with a timestamp before validity
+     * @param generation the generation of the series when the data point was loaded
+     */
+    <T> void put(MetricId<T> id, DataPoint<T> dataPoint, long validity, long generation) {
+        if (entries == null) {
+            return;
+        }
+        Entry entry = new Entry(dataPoint, validity);
+        entries.put(id, entry);
+        // Checked once the entry is visible, a concurrent write either updates the entry or changes the generation
+        if (generations.get(stripe(id)) != generation) {
+            entries.asMap().remove(id, entry);
+        }
+    }
+
+    /**
+     * Updates the entry of the series with the data points being written, if the series is cached. The validity of the
+     * entry is not extended, it would otherwise hide the data points written through other nodes.
+     */
+    <T> void update(Metric<T> metric) {
+        if (entries == null) {
+            return;
+        }
+        // Before looking for the entry, see put
+        generations.incrementAndGet(stripe(metric.getMetricId()));
+        if (entries.getIfPresent(metric.getMetricId()) == null) {
+            return;
+        }
+        DataPoint<T> latest = null;
+        for (DataPoint<T> dataPoint : metric.getDataPoints()) {
+            if (latest == null || dataPoint.getTimestamp() >= latest.getTimestamp()) {
+                latest = dataPoint;
+            }
+        }
+        DataPoint<T> written = latest;
+        entries.asMap().computeIfPresent(metric.getMetricId(), (id, entry) -> {
+            if (written.getTimestamp() >= entry.dataPoint.getTimestamp() && written.getTimestamp() < entry.validity) {
+                return new Entry(written, entry.validity);
+            }
+            return entry;
+        });
+    }
+
+    void invalidate(MetricId<?> id) {
+        if (entries != null) {
+            entries.invalidate(id);
+        }
+    }
+
+    void invalidateAll(Collection<? extends MetricId<?>> ids) {
+        if (entries != null) {
+            entries.invalidateAll(ids);
+        }
+    }
+
+    void clear() {
+        if (entries != null) {
+            entries.invalidateAll();
+        }
+    }
+
+    private static int stripe(MetricId<?> id) {
+        int hash = id.hashCode();
+        return (hash ^ (hash >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    private static int estimateSize(MetricId<?> id, Entry entry) {
+        int size = 160 + 2 * (id.getTenantId().length() + id.getName().length());
+        if (entry.dataPoint.getValue() instanceof String) {
+            size += 2 * ((String) entry.dataPoint.getValue()).length();
+        }
+        for (Map.Entry<String, String> tag : entry.dataPoint.getTags().entrySet()) {
+            size += 64 + 2 * (tag.getKey().length() + tag.getValue().length());
+        }
+        return size;
+    }
+
+    private static class Entry {
+        final DataPoint<?> dataPoint;
+        final long validity;
+
+        Entry(DataPoint<?> dataPoint, long validity) {
+            this.dataPoint = dataPoint;
+            this.validity = validity;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.model.MetricId;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Tracks the expiration of metrics in memory, so that the {@code metrics_expiration_idx} table is only written when
+ * the expiration of a metric moves past the value stored in the index.
+ * <p>
+ * Stored values include a slack: when the expiration of a metric has to be updated, the index receives the
+ * expiration plus the slack, and later updates are skipped until the expiration goes beyond that value. The index
+ * never holds an expiration earlier than the actual one, a metric may only be deleted up to the slack later than it
+ * would have been otherwise.
+ * <p>
+ * Updates are kept pending until {@link MetricsService#flushMetricExpirations() flushed}. The values known to be
+ * stored in the index are held in a bounded cache, an evicted metric is simply written again.
+ */
+class MetricExpirationTracker {
+
+    static final long DEFAULT_SLACK = TimeUnit.DAYS.toMillis(1);
+    static final long DEFAULT_MAX_SIZE = 1_000_000;
+
+    private final ConcurrentMap<MetricId<?>, Long> pending = new ConcurrentHashMap<>();
+    private final Cache<MetricId<?>, Long> indexed;
+    private volatile long slack;
+
+    MetricExpirationTracker() {
+        this(DEFAULT_SLACK, DEFAULT_MAX_SIZE);
+    }
+
+    MetricExpirationTracker(long slack, long maxSize) {
+        this.slack = slack;
+        indexed = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+    }
+
+    void setSlack(long slack) {
+        this.slack = slack;
+    }
+
+    /**
+     * @return true if the index has to be updated, in which case the update is kept pending until the next flush
+     */
+    boolean update(MetricId<?> id, long expiration) {
+        Long indexedExpiration = indexed.getIfPresent(id);
+        if (indexedExpiration != null && expiration <= indexedExpiration) {
+            return false;
+        }
+        pending.merge(id, expiration + slack, Math::max);
+        return true;
+    }
+
+    /**
+     * Removes and returns the pending updates. The caller is expected to write them to the index, and then to report
+     * the outcome with {@link #indexed(Map)} or {@link #failed(Map)}.
+     */
+    Map<MetricId<?>, Long> drain() {
+        Map<MetricId<?>, Long> drained = new HashMap<>();
+        for (MetricId<?> id : pending.keySet()) {
+            Long expiration = pending.remove(id);
+            if (expiration != null) {
+                drained.put(id, expiration);
+            }
+        }
+        return drained;
+    }
+
+    void indexed(Map<MetricId<?>, Long> expirations) {
+        indexed.putAll(expirations);
+    }
+
+    void failed(Map<MetricId<?>, Long> expirations) {
+        expirations.forEach((id, expiration) -> pending.merge(id, expiration, Math::max));
+    }
+
+    /**
+     * @return the latest expiration recorded for the metric, pending or indexed, or null if it is not tracked
+     */
+    Long getExpiration(MetricId<?> id) {
+        Long pendingExpiration = pending.get(id);
+        Long indexedExpiration = indexed.getIfPresent(id);
+        if (pendingExpiration == null) {
+            return indexedExpiration;
+        }
+        if (indexedExpiration == null) {
+            return pendingExpiration;
+        }
+        return Math.max(pendingExpiration, indexedExpiration);
+    }
+
+    void remove(MetricId<?> id) {
+        pending.remove(id);
+        indexed.invalidate(id);
+    }
+
+    int getPendingCount() {
+        return pending.size();
+    }
+}
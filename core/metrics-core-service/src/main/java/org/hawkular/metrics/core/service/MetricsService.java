@@ -26,12 +26,15 @@ import org.hawkular.metrics.model.AvailabilityBucketPoint;
 import org.hawkular.metrics.model.AvailabilityType;
 import org.hawkular.metrics.model.Buckets;
 import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.HistogramSketch;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
 import org.hawkular.metrics.model.NamedDataPoint;
 import org.hawkular.metrics.model.NumericBucketPoint;
 import org.hawkular.metrics.model.Percentile;
+import org.hawkular.metrics.model.QueryBudgetUsage;
+import org.hawkular.metrics.model.RankedSeries;
 import org.hawkular.metrics.model.TaggedBucketPoint;
 import org.hawkular.metrics.model.Tenant;
 import org.hawkular.metrics.model.exception.MetricAlreadyExistsException;
@@ -98,8 +101,34 @@ public interface MetricsService {
      */
     Observable<Void> createMetric(Metric<?> metric, boolean overwrite);
 
+    /**
+     * Find the identifiers of all series which have received data points, for all tenants.
+     */
     Observable<MetricId<?>> findAllMetricIdentifiers();
 
+    /**
+     * Find the identifiers of the series of a tenant which have received data points. Metric definitions created
+     * without data points are not included.
+     *
+     * @param tenantId   The id of the tenant to which the metrics belong
+     * @param metricType If specified, only series of this type are returned. Otherwise series of all types are
+     *                   returned.
+     */
+    <T> Observable<MetricId<T>> findMetricIdentifiers(String tenantId, MetricType<T> metricType);
+
+    /**
+     * Register the series found in the data tables into the series index. This is a full scan of the data tables, it
+     * is only meant to fill the index once, after an upgrade. Until it has completed, the series are found by scanning
+     * the data tables instead of reading the index.
+     */
+    Completable rebuildSeriesIndex();
+
+    /**
+     * Moves the compressed blocks which earlier versions wrote to a single partition per series to the partitions of
+     * their time windows. Once done, reads no longer include the legacy partition.
+     */
+    Completable partitionCompressedData();
+
     <T> Observable<Metric<T>> findMetric(MetricId<T> id);
 
     <T> Observable<Void> deleteMetric(MetricId<T> id);
@@ -218,6 +247,19 @@ public interface MetricsService {
     <T> Observable<NamedDataPoint<T>> findDataPoints(String tenantId, MetricType<T> metricType,
             String tagFilters, long start, long end, int limit, Order order);
 
+    /**
+     * Fetch the latest data point of each metric in the time range. The data points are served from a node-local cache
+     * when possible, so data points written through other nodes may show up to a minute late.
+     *
+     * @param ids   the metrics to read
+     * @param start start time inclusive as a Unix timestamp in milliseconds
+     * @param end   end time exclusive as a Unix timestamp in milliseconds
+     *
+     * @return an {@link Observable} that emits a {@link NamedDataPoint named data point} for each metric that has data
+     * in the time range, in no particular order
+     */
+    <T> Observable<NamedDataPoint<T>> findLatestDataPoints(Observable<MetricId<T>> ids, long start, long end);
+
     /**
      * This method applies one or more functions to an Observable that emits data points of a gauge metric. The data
      * points Observable is asynchronous. The functions however, are applied serially in the order specified.
@@ -270,6 +312,89 @@ public interface MetricsService {
             List<MetricId<T>> metrics, long start, long end, Buckets buckets, List<Percentile>
             percentiles, boolean stacked, boolean isRate);
 
+    /**
+     * Computes stats on gauges or counters grouped by the value of one of their tags, e.g. the CPU usage of containers
+     * by namespace. The series are read concurrently and their data points are aggregated into the buckets of their
+     * group as they are read, so that the memory used only depends on the number of groups and buckets. Series
+     * without the tag are ignored.
+     *
+     * @param metrics The {@link MetricId} list of the gauge or counter metrics that will be queried
+     * @param tagName The name of the metric tag whose values define the groups
+     * @param start The start time inclusive as a Unix timestamp in milliseconds
+     * @param end The end time exclusive as a Unix timestamp in milliseconds
+     * @param buckets Determines the number of data points to be returned and how data points will be grouped based
+     *                on which time slice or bucket they fall into.
+     * @param stacked Whether the stats of a group are the sum of the stats of its series, see
+     *                {@link #findNumericStats(List, long, long, Buckets, List, boolean, boolean)}, or the stats of
+     *                all the data points of its series
+     * @return An {@link Observable} that emits a single map of the {@link NumericBucketPoint} list of each group, by
+     * tag value
+     */
+    <T extends Number> Observable<Map<String, List<NumericBucketPoint>>> findNumericStatsGroupedByTag(
+            List<MetricId<T>> metrics, String tagName, long start, long end, Buckets buckets,
+            List<Percentile> percentiles, boolean stacked);
+
+    /**
+     * Computes stats on one or more histograms. The sketches of all the metrics falling into the same bucket are merged
+     * before the statistics of the bucket are computed, so that the percentiles are those of all the values observed by
+     * the metrics during the bucket.
+     *
+     * @param metrics The {@link MetricId} list of the histogram metrics that will be queried
+     * @param start The start time inclusive as a Unix timestamp in milliseconds
+     * @param end The end time exclusive as a Unix timestamp in milliseconds
+     * @param buckets Determines the number of data points to be returned and how data points will be grouped based
+     *                on which time slice or bucket they fall into.
+     * @return An {@link Observable} that emits a single list of {@link NumericBucketPoint}
+     */
+    Observable<List<NumericBucketPoint>> findHistogramStats(List<MetricId<HistogramSketch>> metrics, long start,
+            long end, Buckets buckets, List<Percentile> percentiles);
+
+    /**
+     * Ranks gauges and counters by an aggregate of their data points over a time range, and keeps the best ones. The
+     * series are read concurrently, and the read of a series stops as soon as it can no longer make it into the
+     * ranking, e.g. when ranking by {@link RankFunction#MAX} with {@link Order#ASC}, once a data point exceeds the
+     * values of the series already ranked. Series without data points in the time range are not ranked.
+     *
+     * @param metrics The {@link MetricId} list of the gauge or counter metrics to rank
+     * @param start The start time inclusive as a Unix timestamp in milliseconds
+     * @param end The end time exclusive as a Unix timestamp in milliseconds
+     * @param function The aggregate by which the series are ranked
+     * @param limit The maximum number of series returned
+     * @param order {@link Order#DESC} for the series with the highest values, {@link Order#ASC} for the lowest
+     * @return An {@link Observable} that emits the ranked series, first to last
+     */
+    Observable<RankedSeries> findTopSeries(List<? extends MetricId<? extends Number>> metrics, long start, long end,
+            RankFunction function, int limit, Order order);
+
+    /**
+     * The queries reading several series at once, e.g. {@link #findNumericStats(List, long, long, Buckets, List,
+     * boolean, boolean) stats} or {@link #findTopSeries(List, long, long, RankFunction, int, Order) rankings}, go
+     * through the admission control of their tenant. Their cost is estimated from the number of series, compressed
+     * blocks and temporary tables they read. A query which does not fit in the budget of its tenant waits for other
+     * queries to finish, or fails with a {@link org.hawkular.metrics.model.exception.QueryRejectedException} when too
+     * many queries already wait.
+     *
+     * @return the query budget usage of the tenants on this node, by tenant id
+     */
+    Map<String, QueryBudgetUsage> getQueryBudgetUsage();
+
+    /**
+     * Estimates the cost of reading the data points of the series in the time range, in the unit of the query budgets.
+     *
+     * @see #getQueryBudgetUsage()
+     */
+    long estimateReadCost(int series, long start, long end);
+
+    /**
+     * Subjects a query built outside of this service, e.g. by the {@link StatsQueryPlanner}, to the admission control
+     * of its tenant.
+     *
+     * @param cost the estimated cost of the whole query, see {@link #estimateReadCost(int, long, long)}
+     * @return an {@link Observable} which subscribes to the query once the budget of the tenant allows it
+     * @see #getQueryBudgetUsage()
+     */
+    <R> Observable<R> admit(String tenantId, long cost, Observable<R> query);
+
     Observable<DataPoint<AvailabilityType>> findAvailabilityData(MetricId<AvailabilityType> id, long start, long end,
                                                                  boolean distinct, int limit, Order order);
 
@@ -368,5 +493,19 @@ public interface MetricsService {
 
     <T> Func1<MetricId<T>, Boolean> idFilter(String regexp);
 
+    /**
+     * Records the expiration of the metric, based on its data retention. The expiration index is only updated by the
+     * next {@link #flushMetricExpirations()}, and only if the expiration moved past the value stored in the index.
+     */
     <T> Observable<Void> updateMetricExpiration(MetricId<T> metric);
+
+    /**
+     * Writes the pending expiration index updates recorded by {@link #updateMetricExpiration(MetricId)}.
+     */
+    Completable flushMetricExpirations();
+
+    /**
+     * @return the latest expiration recorded by this node for the metric, or null if it is not known
+     */
+    <T> Long getTrackedMetricExpiration(MetricId<T> metric);
 }
@@ -24,6 +24,7 @@ import static org.hawkular.metrics.core.service.Order.ASC;
 import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
 import static org.hawkular.metrics.model.MetricType.COUNTER;
 import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.hawkular.metrics.model.MetricType.HISTOGRAM;
 import static org.hawkular.metrics.model.MetricType.STRING;
 import static org.hawkular.metrics.model.Utils.isValidTimeRange;
 
@@ -32,18 +33,23 @@ import static com.google.common.base.Preconditions.checkArgument;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
@@ -57,10 +63,13 @@ import org.hawkular.metrics.core.service.tags.SimpleTagQueryParser;
 import org.hawkular.metrics.core.service.tags.TagsConverter;
 import org.hawkular.metrics.core.service.transformers.DataPointCompressTransformer;
 import org.hawkular.metrics.core.service.transformers.DataPointDecompressTransformer;
+import org.hawkular.metrics.core.service.transformers.HistogramBucketPointTransformer;
 import org.hawkular.metrics.core.service.transformers.MetricFromDataRowTransformer;
 import org.hawkular.metrics.core.service.transformers.MetricIdentifierFromFullDataRowTransformer;
 import org.hawkular.metrics.core.service.transformers.MetricsIndexRowTransformer;
 import org.hawkular.metrics.core.service.transformers.NumericBucketPointTransformer;
+import org.hawkular.metrics.core.service.transformers.RateBucketPointTransformer;
+import org.hawkular.metrics.core.service.transformers.RateTransformer;
 import org.hawkular.metrics.core.service.transformers.SortedMerge;
 import org.hawkular.metrics.core.service.transformers.TaggedBucketPointTransformer;
 import org.hawkular.metrics.core.service.transformers.TempTableCompressTransformer;
@@ -70,12 +79,15 @@ import org.hawkular.metrics.model.AvailabilityType;
 import org.hawkular.metrics.model.BucketPoint;
 import org.hawkular.metrics.model.Buckets;
 import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.HistogramSketch;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
 import org.hawkular.metrics.model.NamedDataPoint;
 import org.hawkular.metrics.model.NumericBucketPoint;
 import org.hawkular.metrics.model.Percentile;
+import org.hawkular.metrics.model.QueryBudgetUsage;
+import org.hawkular.metrics.model.RankedSeries;
 import org.hawkular.metrics.model.Retention;
 import org.hawkular.metrics.model.TaggedBucketPoint;
 import org.hawkular.metrics.model.Tenant;
@@ -90,6 +102,7 @@ import org.hawkular.metrics.sysconfig.ConfigurationService;
 import org.joda.time.Duration;
 
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.RatioGauge;
 import com.codahale.metrics.Timer;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
@@ -99,7 +112,6 @@ import com.datastax.driver.core.exceptions.DriverException;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -108,11 +120,13 @@ import com.google.common.util.concurrent.MoreExecutors;
 
 import rx.Completable;
 import rx.Observable;
+import rx.functions.Action0;
 import rx.functions.Func1;
 import rx.functions.Func6;
 import rx.observable.ListenableFutureObservable;
 import rx.schedulers.Schedulers;
 import rx.subjects.PublishSubject;
+import rx.subscriptions.CompositeSubscription;
 
 /**
  * @author John Sanda
@@ -121,6 +135,35 @@ public class MetricsServiceImpl implements MetricsService {
     private static final CoreLogger log = CoreLogging.getCoreLogger(MetricsServiceImpl.class);
 
     private static final long DAY_TO_MILLIS = 24 * 3600 * 1000;
+
+    private static final Duration COMPRESSED_BLOCK_SIZE = Duration.standardHours(2);
+
+    /**
+     * Series read concurrently when looking up the latest data points of several series
+     */
+    private static final int MAX_CONCURRENT_LATEST_READS = 32;
+
+    /**
+     * Series read concurrently when ranking series
+     */
+    private static final int MAX_CONCURRENT_RANKED_READS = 32;
+
+    /**
+     * Series read concurrently when computing stats grouped by tag
+     */
+    private static final int MAX_CONCURRENT_GROUPED_READS = 32;
+
+    /**
+     * Set once the legacy partition of the compressed data table has been emptied, see {@link #partitionCompressedData()}
+     */
+    private static final String COMPRESSED_DATA_PARTITIONED = "compressed-data.partitioned";
+
+    private static final String SERIES_INDEX_COMPLETE = "series-index.complete";
+
+    /**
+     * Interval, in minutes, at which the flags set by the jobs running on another node are read again
+     */
+    private static final long CONFIGURATION_CHECK_INTERVAL = 10;
     public static final String SYSTEM_TENANT_ID = makeSafe("sysconfig");
 
     private static class DataRetentionKey {
@@ -160,6 +203,35 @@ public class MetricsServiceImpl implements MetricsService {
     private final Map<DataRetentionKey, Integer> dataRetentions = new ConcurrentHashMap<>();
     private final PublishSubject<Metric<?>> insertedDataPointEvents = PublishSubject.create();
 
+    /**
+     * Series already written to the series index by this node
+     */
+    private final SeriesIndexCache seriesIndexCache = new SeriesIndexCache();
+
+    private final MetricExpirationTracker expirationTracker = new MetricExpirationTracker();
+
+    private final CompositeSubscription configurationChecks = new CompositeSubscription();
+
+    /**
+     * Whether the series index holds the series stored before it existed, it is not read until then
+     */
+    private volatile boolean seriesIndexComplete;
+
+    /**
+     * Decompressed blocks of the closed time slices
+     */
+    private volatile CompressedBlockCache compressedBlockCache = new CompressedBlockCache();
+
+    /**
+     * The current value of the series, for the queries of a single data point in descending order
+     */
+    private volatile LatestDataPointCache latestDataPointCache = new LatestDataPointCache();
+
+    /**
+     * Per tenant budgets of the queries reading several series, unlimited unless configured
+     */
+    private volatile QueryAdmission queryAdmission = new QueryAdmission(0, 0, 0);
+
     private ListeningExecutorService metricsTasks;
 
     private DataAccess dataAccess;
@@ -214,7 +286,11 @@ public class MetricsServiceImpl implements MetricsService {
         session.execute("USE " + keyspace);
         log.infoKeyspaceUsed(keyspace);
         metricsTasks = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4, new MetricsThreadFactory()));
-        loadDataRetentions();
+
+        // Loading the retentions and creating the temporary tables are independent of the remaining steps, they run
+        // in the background while the service is being configured
+        ListenableFuture<?> dataRetentionsLoaded = metricsTasks.submit(this::loadDataRetentions);
+        ListenableFuture<?> tempTablesCreated = metricsTasks.submit(() -> verifyAndCreateTempTables());
 
         this.metricRegistry = metricRegistry;
 
@@ -240,6 +316,11 @@ public class MetricsServiceImpl implements MetricsService {
                     Observable<Metric<String>> string = (Observable<Metric<String>>) metric;
                     return dataAccess.insertStringDatas(string, this::getTTL, maxStringSize);
                 })
+                .put(HISTOGRAM, metric -> {
+                    @SuppressWarnings("unchecked")
+                    Observable<Metric<HistogramSketch>> histogram = (Observable<Metric<HistogramSketch>>) metric;
+                    return dataAccess.insertHistogramData(histogram, this::getTTL);
+                })
                 .build();
 
         dataPointFinders = ImmutableMap
@@ -250,6 +331,11 @@ public class MetricsServiceImpl implements MetricsService {
                     MetricId<String> stringId = (MetricId<String>) metricId;
                     return dataAccess.findStringData(stringId, start, end, limit, order, pageSize);
                 })
+                .put(HISTOGRAM, (metricId, start, end, limit, order, pageSize) -> {
+                    @SuppressWarnings("unchecked")
+                    MetricId<HistogramSketch> histogramId = (MetricId<HistogramSketch>) metricId;
+                    return dataAccess.findHistogramData(histogramId, start, end, limit, order, pageSize);
+                })
                 .build();
 
         dataPointMappers = ImmutableMap.<MetricType<?>, Func1<Row, ? extends DataPoint<?>>> builder()
@@ -257,6 +343,7 @@ public class MetricsServiceImpl implements MetricsService {
                 .put(AVAILABILITY, Functions::getAvailabilityDataPoint)
                 .put(COUNTER, Functions::getCounterDataPoint)
                 .put(STRING, Functions::getStringDataPoint)
+                .put(HISTOGRAM, Functions::getHistogramDataPoint)
                 .build();
 
         tempDataPointMappers = ImmutableMap.<MetricType<?>, Func1<Row, ? extends DataPoint<?>>> builder()
@@ -269,7 +356,7 @@ public class MetricsServiceImpl implements MetricsService {
         setDefaultTTL(session, keyspace);
         initMetrics();
 
-        verifyAndCreateTempTables();
+        Futures.getUnchecked(Futures.allAsList(dataRetentionsLoaded, tempTablesCreated));
 
         tagQueryParser = new SimpleTagQueryParser(this.dataAccess, this);
         expresssionTagQueryParser = new ExpressionTagQueryParser(this.dataAccess, this);
@@ -306,7 +393,22 @@ public class MetricsServiceImpl implements MetricsService {
     private void initMetrics() {
         metricRegistry.registerMetaData("DataPointsInserted", "Core", "Write");
         metricRegistry.registerMetaData("RawDataReadLatency", "Core", "Read");
+        metricRegistry.registerMetaData("RawDataReadsCancelled", "Core", "Read");
         metricRegistry.registerMetaData("MetricTagsQueryLatency", "Core", "Read");
+        metricRegistry.registerMetaData("DataPointDecompressionLatency", "Core", "Read");
+        metricRegistry.registerMetaData("CompressedBlockCacheHits", "Core", "Read");
+        metricRegistry.registerMetaData("CompressedBlockCacheMisses", "Core", "Read");
+        // The service may be started again with the same registry in tests
+        metricRegistry.remove("CompressedBlockCacheHitRatio");
+        metricRegistry.register("CompressedBlockCacheHitRatio", "Core", "Read", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                double hits = getCompressedBlockCacheHits().getFifteenMinuteRate();
+                double reads = hits + getCompressedBlockCacheMisses().getFifteenMinuteRate();
+                return reads > 0 ? Ratio.of(hits, reads) : Ratio.of(0, 1);
+            }
+        });
+        metricRegistry.registerMetaData(StatsQueryPlanner.AGGREGATION_LATENCY, "Core", "Read");
     }
 
     /**
@@ -323,6 +425,34 @@ public class MetricsServiceImpl implements MetricsService {
         return metricRegistry.timer("RawDataReadLatency");
     }
 
+    /**
+     * Raw data reads unsubscribed before all the data points were read
+     */
+    private Meter getRawDataReadsCancelled() {
+        return metricRegistry.meter("RawDataReadsCancelled");
+    }
+
+    /**
+     * Time spent decompressing a row of the compressed data table
+     */
+    private Timer getDataPointDecompressionLatency() {
+        return metricRegistry.timer("DataPointDecompressionLatency");
+    }
+
+    /**
+     * Compressed blocks read from the cache
+     */
+    private Meter getCompressedBlockCacheHits() {
+        return metricRegistry.meter("CompressedBlockCacheHits");
+    }
+
+    /**
+     * Closed compressed blocks read from Cassandra, whether they exist or not
+     */
+    private Meter getCompressedBlockCacheMisses() {
+        return metricRegistry.meter("CompressedBlockCacheMisses");
+    }
+
     /**
      * Metric tag query metrics
      */
@@ -346,6 +476,26 @@ public class MetricsServiceImpl implements MetricsService {
         log.infoInsertRetryConfig(insertMaxRetries, insertRetryMaxDelay);
 
         defaultPageSize = Integer.parseInt(configuration.get("page-size", "5000"));
+
+        checkConfigurationFlag(configuration, COMPRESSED_DATA_PARTITIONED,
+                () -> dataAccess.setLegacyCompressedDataMoved(true));
+        checkConfigurationFlag(configuration, SERIES_INDEX_COMPLETE, () -> seriesIndexComplete = true);
+    }
+
+    /**
+     * Calls onSet once the flag is set. The flags are only set in memory on the node which runs the job setting them,
+     * the other nodes poll the stored flag.
+     */
+    private void checkConfigurationFlag(Configuration configuration, String name, Action0 onSet) {
+        if (Boolean.parseBoolean(configuration.get(name, "false"))) {
+            onSet.call();
+            return;
+        }
+        configurationChecks.add(Observable.interval(CONFIGURATION_CHECK_INTERVAL, TimeUnit.MINUTES)
+                .concatMap(i -> configurationService.load("org.hawkular.metrics", name))
+                .filter(Boolean::parseBoolean)
+                .first()
+                .subscribe(value -> onSet.call(), t -> log.warn("Failed to check the configuration " + name, t)));
     }
 
     private void setDefaultTTL(Session session, String keyspace) {
@@ -419,6 +569,97 @@ public class MetricsServiceImpl implements MetricsService {
         this.defaultTTL = Duration.standardDays(defaultTTL).toStandardSeconds().getSeconds();
     }
 
+    /**
+     * Sets how far ahead of the actual expiration of a metric the expiration index is written, so that it does not
+     * have to be updated every time the metric is compressed.
+     *
+     * @param slack in milliseconds
+     */
+    public void setMetricExpirationSlack(long slack) {
+        expirationTracker.setSlack(slack);
+    }
+
+    /**
+     * Replaces the cache of compressed blocks with an empty one.
+     *
+     * @param maxDataPoints maximum number of data points of the cached blocks, zero disables the cache
+     */
+    public void setCompressedBlockCacheSize(long maxDataPoints) {
+        compressedBlockCache = new CompressedBlockCache(maxDataPoints);
+    }
+
+    /**
+     * Replaces the cache of the latest data points with an empty one.
+     *
+     * @param maxBytes estimated maximum memory used by the cached data points, zero disables the cache
+     */
+    public void setLatestDataPointCacheSize(long maxBytes) {
+        latestDataPointCache = new LatestDataPointCache(maxBytes);
+    }
+
+    /**
+     * Replaces the query budgets of the tenants, the queries already running or queued keep their former budget.
+     *
+     * @param maxConcurrent the number of queries a tenant may run at a time, zero for no limit
+     * @param maxCost       the estimated cost of the queries a tenant may run at a time, zero for no limit
+     * @param maxQueued     the number of queries of a tenant waiting for admission, further queries are rejected
+     * @see QueryAdmission
+     */
+    public void setQueryAdmission(int maxConcurrent, long maxCost, int maxQueued) {
+        queryAdmission = new QueryAdmission(maxConcurrent, maxCost, maxQueued);
+    }
+
+    @Override
+    public Map<String, QueryBudgetUsage> getQueryBudgetUsage() {
+        return queryAdmission.getUsage();
+    }
+
+    /**
+     * The cost is the number of partitions read, that is one per compressed block and temporary table for each series.
+     */
+    @Override
+    public long estimateReadCost(int series, long start, long end) {
+        long blockSize = COMPRESSED_BLOCK_SIZE.getMillis();
+        long blocksEnd = Math.min(end, DateTimeService.now.get().getMillis());
+        long blocks = blocksEnd <= start ? 0 : (blocksEnd - 1) / blockSize - start / blockSize + 1;
+        return series * (blocks + dataAccess.countTempTables(start, end));
+    }
+
+    @Override
+    public <R> Observable<R> admit(String tenantId, long cost, Observable<R> query) {
+        return queryAdmission.admit(tenantId, cost, query);
+    }
+
+    /**
+     * @return the query, run once the budget of the tenant of the series allows it
+     */
+    private <R> Observable<R> admit(List<? extends MetricId<?>> metrics, long cost, Observable<R> query) {
+        if (metrics.isEmpty()) {
+            return query;
+        }
+        return admit(metrics.get(0).getTenantId(), cost, query);
+    }
+
+    private <R> Observable<R> admit(List<? extends MetricId<?>> metrics, long start, long end,
+            Observable<R> query) {
+        return Observable.defer(() -> admit(metrics, estimateReadCost(metrics.size(), start, end), query));
+    }
+
+    /**
+     * Forget the cached latest data points, which are not invalidated when tables are truncated in tests.
+     */
+    public void clearLatestDataPointCache() {
+        latestDataPointCache.clear();
+    }
+
+    /**
+     * Forget the series registered so far, so that they are written again to the series index. This is only useful
+     * when the index has been truncated, in tests.
+     */
+    public void clearSeriesIndexCache() {
+        seriesIndexCache.clear();
+    }
+
     @Override
     public Observable<Void> createTenant(final Tenant tenant, boolean overwrite) {
         return Observable.create(subscriber -> {
@@ -470,8 +711,6 @@ public class MetricsServiceImpl implements MetricsService {
 
         ResultSetFuture future = dataAccess.insertMetricInMetricsIndex(metric, overwrite);
 
-        this.updateMetricExpiration(metric.getMetricId());
-
         Observable<ResultSet> indexUpdated = ListenableFutureObservable.from(future, metricsTasks);
         return Observable.create(subscriber -> indexUpdated.subscribe(resultSet -> {
             if (!overwrite && !resultSet.wasApplied()) {
@@ -506,11 +745,66 @@ public class MetricsServiceImpl implements MetricsService {
 
     @Override
     public Observable<MetricId<?>> findAllMetricIdentifiers() {
+        if (!seriesIndexComplete) {
+            return findAllMetricIdentifiersInData();
+        }
+        return dataAccess.findAllMetricsInSeriesIndex()
+                .compose(new MetricIdentifierFromFullDataRowTransformer(defaultTTL));
+    }
+
+    /**
+     * Scans all the data tables, used until the series index has been rebuilt
+     */
+    private Observable<MetricId<?>> findAllMetricIdentifiersInData() {
         return dataAccess.findAllMetricIdentifiersInData()
                 .compose(new MetricIdentifierFromFullDataRowTransformer(defaultTTL))
                 .distinct();
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> Observable<MetricId<T>> findMetricIdentifiers(String tenantId, MetricType<T> metricType) {
+        Observable<MetricType<T>> types;
+        if (metricType == null) {
+            types = Observable.from(MetricType.userTypes()).map(type -> (MetricType<T>) type);
+        } else {
+            types = Observable.just(metricType);
+        }
+        if (!seriesIndexComplete) {
+            return findAllMetricIdentifiersInData()
+                    .filter(id -> id.getTenantId().equals(tenantId))
+                    .filter(id -> metricType == null ? MetricType.userTypes().contains(id.getType())
+                            : metricType.equals(id.getType()))
+                    .map(id -> (MetricId<T>) id);
+        }
+        return types.concatMap(type -> dataAccess.findMetricsInSeriesIndex(tenantId, type)
+                .map(row -> new MetricId<>(tenantId, type, row.getString(0))));
+    }
+
+    @Override
+    public Completable rebuildSeriesIndex() {
+        // Scans all the data tables, only meant to fill the index of existing installations. A series has a partition
+        // per time window in the compressed data table.
+        return dataAccess.insertIntoSeriesIndex(findAllMetricIdentifiersInData())
+                .toCompletable()
+                .andThen(configurationService.save("org.hawkular.metrics", SERIES_INDEX_COMPLETE, "true")
+                        .toCompletable())
+                .doOnCompleted(() -> seriesIndexComplete = true);
+    }
+
+    @Override
+    public Completable partitionCompressedData() {
+        return dataAccess.findSeriesInLegacyCompressedPartition()
+                .compose(new MetricIdentifierFromFullDataRowTransformer(defaultTTL))
+                .flatMap(id -> dataAccess.moveLegacyCompressedData(id), 4)
+                .reduce(0, (moved, blocks) -> moved + blocks)
+                .doOnNext(moved -> log.debugf("Moved %d compressed blocks out of the legacy partition", moved))
+                .toCompletable()
+                .andThen(configurationService.save("org.hawkular.metrics", COMPRESSED_DATA_PARTITIONED, "true")
+                        .toCompletable())
+                .doOnCompleted(() -> dataAccess.setLegacyCompressedDataMoved(true));
+    }
+
     public <T> Observable.Transformer<MetricId<T>, Metric<T>> enrichToMetric() {
         return t -> t
                 .flatMap(id -> dataAccess.findMetricInMetricsIndex(id)
@@ -529,11 +823,7 @@ public class MetricsServiceImpl implements MetricsService {
     @Override
     public <T> Observable<Metric<T>> findMetrics(String tenantId, MetricType<T> metricType) {
         Observable<Metric<T>> setFromMetricsIndex = null;
-        Observable<Metric<T>> setFromData = dataAccess.findAllMetricIdentifiersInData()
-                .doOnError(Throwable::printStackTrace)
-                .filter(row -> tenantId.equals(row.getString(0)))
-                .compose(new MetricIdentifierFromFullDataRowTransformer(defaultTTL))
-                .distinct()
+        Observable<Metric<T>> setFromData = findMetricIdentifiers(tenantId, metricType)
                 .map(m -> new Metric(m, DEFAULT_RETENTION));
 
         if (metricType == null) {
@@ -544,8 +834,6 @@ public class MetricsServiceImpl implements MetricsService {
         } else {
             setFromMetricsIndex = dataAccess.findMetricsInMetricsIndex(tenantId, metricType)
                     .compose(new MetricsIndexRowTransformer<>(tenantId, metricType, defaultTTL));
-
-            setFromData = setFromData.filter(m -> metricType.equals(m.getType()));
         }
 
         return setFromMetricsIndex.concatWith(setFromData).distinct(Metric::getMetricId);
@@ -613,8 +901,6 @@ public class MetricsServiceImpl implements MetricsService {
             return Observable.error(e);
         }
 
-        this.updateMetricExpiration(metric.getMetricId());
-
         return dataAccess.insertIntoMetricsTagsIndex(metric, tags).concatWith(dataAccess.addTags(metric, tags))
                 .toList().map(l -> null);
     }
@@ -637,13 +923,59 @@ public class MetricsServiceImpl implements MetricsService {
     public <T> Observable<Void> addDataPoints(MetricType<T> metricType, Observable<Metric<T>> metrics) {
         checkArgument(metricType != null, "metricType is null");
 
-        return pointsInserter
-                .get(metricType)
-                .call(metrics
-                        .filter(metric -> !metric.getDataPoints().isEmpty())
-                        .doOnNext(insertedDataPointEvents::onNext))
-                .doOnNext(getDataPointsInserted()::mark)
-                .map(i -> null);
+        return Observable.defer(() -> {
+            // Series seen for the first time by this node, registered once their data points have been stored
+            List<MetricId<T>> newSeries = new ArrayList<>();
+            List<MetricId<T>> writtenSeries = new ArrayList<>();
+            return pointsInserter
+                    .get(metricType)
+                    .call(metrics
+                            .filter(metric -> !metric.getDataPoints().isEmpty())
+                            .doOnNext(insertedDataPointEvents::onNext)
+                            .doOnNext(metric -> {
+                                if (seriesIndexCache.add(metric.getMetricId())) {
+                                    newSeries.add(metric.getMetricId());
+                                }
+                                invalidateCompressedBlocks(metric);
+                                writtenSeries.add(metric.getMetricId());
+                                latestDataPointCache.update(metric);
+                            }))
+                    .doOnNext(getDataPointsInserted()::mark)
+                    .doOnError(t -> {
+                        seriesIndexCache.invalidateAll(newSeries);
+                        latestDataPointCache.invalidateAll(writtenSeries);
+                    })
+                    .map(i -> (Void) null)
+                    .concatWith(registerSeries(newSeries));
+        });
+    }
+
+    /**
+     * Late data points, those of closed time slices, invalidate the cached blocks of their slices.
+     */
+    private <T> void invalidateCompressedBlocks(Metric<T> metric) {
+        if (!compressedBlockCache.isEnabled() || metric.getType() == STRING || metric.getType() == HISTOGRAM) {
+            return;
+        }
+        long openBlockStart = getOpenBlockStart();
+        for (DataPoint<T> dataPoint : metric.getDataPoints()) {
+            if (dataPoint.getTimestamp() < openBlockStart) {
+                compressedBlockCache.invalidate(metric.getMetricId(),
+                        DateTimeService.getTimeSlice(dataPoint.getTimestamp(), COMPRESSED_BLOCK_SIZE));
+            }
+        }
+    }
+
+    private <T> Observable<Void> registerSeries(List<MetricId<T>> ids) {
+        return Observable.defer(() -> {
+            if (ids.isEmpty()) {
+                return Observable.empty();
+            }
+            return dataAccess.insertIntoSeriesIndex(Observable.from(ids))
+                    .doOnError(t -> seriesIndexCache.invalidateAll(ids))
+                    .ignoreElements()
+                    .map(i -> null);
+        });
     }
 
     @Override
@@ -655,25 +987,64 @@ public class MetricsServiceImpl implements MetricsService {
     @Override
     public <T> Observable<DataPoint<T>> findDataPoints(MetricId<T> metricId, long start, long end, int limit,
                                                        Order order, int pageSize) {
+        checkArgument(isValidTimeRange(start, end), "Invalid time range");
+        if (limit == 1 && order == Order.DESC && latestDataPointCache.isEnabled()) {
+            return findLatestDataPoint(metricId, start, end, pageSize);
+        }
+        return readDataPoints(metricId, start, end, limit, order, pageSize);
+    }
 
+    /**
+     * Serves the query from the cache of the latest data points. On a miss the latest data point up to the validity
+     * of a new cache entry is read, the requested time range is only read if that data point is after it.
+     */
+    private <T> Observable<DataPoint<T>> findLatestDataPoint(MetricId<T> metricId, long start, long end,
+            int pageSize) {
+        return Observable.defer(() -> {
+            LatestDataPointCache cache = latestDataPointCache;
+            Optional<DataPoint<T>> cached = cache.get(metricId, start, end);
+            if (cached != null) {
+                return cached.map(Observable::just).orElse(Observable.empty());
+            }
+            long validity = Math.max(end, DateTimeService.now.get().getMillis() + LatestDataPointCache.VALIDITY);
+            long generation = cache.getGeneration(metricId);
+            return readDataPoints(metricId, start, validity, 1, Order.DESC, pageSize)
+                    .doOnNext(dataPoint -> cache.put(metricId, dataPoint, validity, generation))
+                    .flatMap(dataPoint -> {
+                        if (dataPoint.getTimestamp() < end) {
+                            return Observable.just(dataPoint);
+                        }
+                        return readDataPoints(metricId, start, end, 1, Order.DESC, pageSize);
+                    });
+        });
+    }
+
+    @Override
+    public <T> Observable<NamedDataPoint<T>> findLatestDataPoints(Observable<MetricId<T>> ids, long start,
+            long end) {
+        // A single data point is read from each series, most often from the latest block or the cache
+        return ids.toList().flatMap(metrics -> admit(metrics, metrics.size(), Observable.from(metrics)
+                .flatMap(id -> findDataPoints(id, start, end, 1, Order.DESC)
+                        .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)),
+                        MAX_CONCURRENT_LATEST_READS)));
+    }
+
+    private <T> Observable<DataPoint<T>> readDataPoints(MetricId<T> metricId, long start, long end, int limit,
+            Order order, int pageSize) {
         Timer.Context context = getRawDataReadLatency().time();
-        checkArgument(isValidTimeRange(start, end), "Invalid time range");
         Order safeOrder = (null == order) ? Order.ASC : order;
         MetricType<T> metricType = metricId.getType();
         Func1<Row, DataPoint<T>> mapper = getDataPointMapper(metricType);
 
         if (metricType == GAUGE || metricType == AVAILABILITY || metricType == COUNTER) {
-            long sliceStart = DateTimeService.getTimeSlice(start, Duration.standardHours(2));
-
             Func1<Row, DataPoint<T>> tempMapper = (Func1<Row, DataPoint<T>>) tempDataPointMappers.get(metricType);
 
             // Calls mostly deprecated methods..
 //            Observable<DataPoint<T>> uncompressedPoints = dataAccess.findOldData(metricId, start, end, limit, safeOrder,
 //                    pageSize).map(mapper).doOnError(Throwable::printStackTrace);
 
-            Observable<DataPoint<T>> compressedPoints =
-                    dataAccess.findCompressedData(metricId, sliceStart, end, limit, safeOrder)
-                            .compose(new DataPointDecompressTransformer(metricType, safeOrder, limit, start, end));
+            Observable<DataPoint<T>> compressedPoints = findCompressedDataPoints(metricId, start, end, limit,
+                    safeOrder);
 
             Observable<DataPoint<T>> tempStoragePoints = dataAccess.findTempData(metricId, start, end, limit,
                     safeOrder, pageSize)
@@ -693,14 +1064,155 @@ public class MetricsServiceImpl implements MetricsService {
                 dataPoints = dataPoints.take(limit);
             }
 
-            return dataPoints;
+            return recordRead(dataPoints, context);
         }
         Func6<MetricId<T>, Long, Long, Integer, Order, Integer, Observable<Row>> finder =
                 getDataPointFinder(metricType);
 
         Observable<DataPoint<T>> results =
                 finder.call(metricId, start, end, limit, safeOrder, pageSize).map(mapper);
-        return results.doOnCompleted(context::stop);
+        return recordRead(results, context);
+    }
+
+    /**
+     * Stops the read latency timer once all the data points are read, and counts the reads unsubscribed before that,
+     * for instance because the client of the query went away. Unsubscribing stops the paging through the rows.
+     */
+    private <T> Observable<DataPoint<T>> recordRead(Observable<DataPoint<T>> dataPoints, Timer.Context context) {
+        return Observable.defer(() -> {
+            AtomicBoolean terminated = new AtomicBoolean();
+            return dataPoints
+                    .doOnTerminate(() -> terminated.set(true))
+                    .doOnCompleted(context::stop)
+                    .doOnUnsubscribe(() -> {
+                        if (!terminated.get()) {
+                            getRawDataReadsCancelled().mark();
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Reads the data points of the compressed blocks within [start, end). The closed blocks are served by the block
+     * cache, consecutive blocks missing from the cache are fetched with a single query and then cached, the sealed ones
+     * which turn out not to exist are cached as empty blocks. The open block
+     * and the blocks older than the retention of the metric are read from Cassandra without being cached, the latter
+     * so that the cache does not have to be probed for every slice of a very wide time range.
+     */
+    private <T> Observable<DataPoint<T>> findCompressedDataPoints(MetricId<T> metricId, long start, long end,
+            int limit, Order order) {
+        long sliceStart = DateTimeService.getTimeSlice(start, COMPRESSED_BLOCK_SIZE);
+        if (!compressedBlockCache.isEnabled()) {
+            return findUncachedCompressedDataPoints(metricId, sliceStart, end, start, end, limit, order);
+        }
+        return Observable.defer(() -> {
+            long openBlockStart = getOpenBlockStart();
+            long cachedEnd = Math.max(sliceStart, Math.min(end, openBlockStart));
+            long oldestCachedBlock = DateTimeService.getTimeSlice(DateTimeService.now.get().getMillis() -
+                    TimeUnit.SECONDS.toMillis(getTTL(metricId)), COMPRESSED_BLOCK_SIZE);
+            long cachedStart = Math.min(Math.max(sliceStart, oldestCachedBlock), cachedEnd);
+            long sealedEnd = getSealedBlocksEnd();
+            long blockSize = COMPRESSED_BLOCK_SIZE.getMillis();
+
+            List<Observable<DataPoint<T>>> segments = new ArrayList<>();
+            if (sliceStart < cachedStart) {
+                segments.add(findUncachedCompressedDataPoints(metricId, sliceStart, cachedStart, start, end, limit,
+                        order));
+            }
+            long missingStart = -1;
+            int hits = 0;
+            int misses = 0;
+            for (long blockStart = cachedStart; blockStart < cachedEnd; blockStart += blockSize) {
+                CompressedBlockCache.Block block = compressedBlockCache.get(metricId, blockStart);
+                if (block == null) {
+                    ++misses;
+                    if (missingStart < 0) {
+                        missingStart = blockStart;
+                    }
+                } else {
+                    ++hits;
+                    if (missingStart >= 0) {
+                        segments.add(findAndCacheCompressedBlocks(metricId, missingStart, blockStart, sealedEnd,
+                                start, end, order));
+                        missingStart = -1;
+                    }
+                    segments.add(Observable.defer(() -> Observable.from(block.getDataPoints(metricId.getType(),
+                            start, end, order))));
+                }
+            }
+            if (missingStart >= 0) {
+                segments.add(findAndCacheCompressedBlocks(metricId, missingStart, cachedEnd, sealedEnd, start, end,
+                        order));
+            }
+            if (cachedEnd < end) {
+                segments.add(findUncachedCompressedDataPoints(metricId, cachedEnd, end, start, end, limit, order));
+            }
+            getCompressedBlockCacheHits().mark(hits);
+            getCompressedBlockCacheMisses().mark(misses);
+
+            if (order != ASC) {
+                Collections.reverse(segments);
+            }
+            Observable<DataPoint<T>> dataPoints = Observable.concat(Observable.from(segments));
+            return limit > 0 ? dataPoints.take(limit) : dataPoints;
+        });
+    }
+
+    /**
+     * @param from start of the first block to read
+     * @param to end of the blocks to read, exclusive
+     */
+    private <T> Observable<DataPoint<T>> findUncachedCompressedDataPoints(MetricId<T> metricId, long from, long to,
+            long start, long end, int limit, Order order) {
+        return dataAccess.findCompressedData(metricId, from, to, limit, order)
+                .compose(new DataPointDecompressTransformer<>(metricId.getType(), order, limit, start, end,
+                        getDataPointDecompressionLatency()));
+    }
+
+    /**
+     * @param sealedEnd the blocks starting before sealedEnd which are not found are cached as absent
+     */
+    private <T> Observable<DataPoint<T>> findAndCacheCompressedBlocks(MetricId<T> metricId, long from, long to,
+            long sealedEnd, long start, long end, Order order) {
+        DataPointDecompressTransformer<T> decompressor = new DataPointDecompressTransformer<>(metricId.getType(), ASC,
+                0, from, to + COMPRESSED_BLOCK_SIZE.getMillis(), getDataPointDecompressionLatency());
+        return Observable.defer(() -> {
+            Set<Long> found = new HashSet<>();
+            return dataAccess.findCompressedData(metricId, from, to, 0, order)
+                    .map(row -> {
+                        long blockStart = row.getTimestamp("time").getTime();
+                        found.add(blockStart);
+                        return compressedBlockCache.put(metricId, blockStart, decompressor.decompress(row));
+                    })
+                    // Only once all the blocks have been read, a limit could stop the query early
+                    .doOnCompleted(() -> {
+                        long blockSize = COMPRESSED_BLOCK_SIZE.getMillis();
+                        for (long blockStart = from; blockStart < Math.min(to, sealedEnd); blockStart += blockSize) {
+                            if (!found.contains(blockStart)) {
+                                compressedBlockCache.putAbsent(metricId, blockStart);
+                            }
+                        }
+                    })
+                    .concatMap(block -> Observable.from(block.getDataPoints(metricId.getType(), start, end, order)));
+        });
+    }
+
+    /**
+     * @return the start of the time slice which is still receiving data points, and which is not compressed yet
+     */
+    private long getOpenBlockStart() {
+        return DateTimeService.getTimeSlice(DateTimeService.now.get().getMillis(), COMPRESSED_BLOCK_SIZE);
+    }
+
+    /**
+     * The compression job compresses a time slice once it has been closed, a whole time slice later the job is
+     * considered done with it. The compression job running late can therefore hide the data points of a block
+     * compressed by another node for as long as the absent block is cached.
+     *
+     * @return the end of the blocks which are sealed, i.e. which are not going to be written by the compression job
+     */
+    private long getSealedBlocksEnd() {
+        return getOpenBlockStart() - COMPRESSED_BLOCK_SIZE.getMillis();
     }
 
     private <T> Comparator<DataPoint<T>> getDataPointComparator(Order safeOrder) {
@@ -791,7 +1303,10 @@ public class MetricsServiceImpl implements MetricsService {
                                                         r.getString(2));
                                         return dataAccess
                                                 .insertCompressedData(metricId, startTimeSlice, cpc, getTTL(metricId))
-                                                .mergeWith(updateMetricExpiration(metricId).map(rs -> null));
+                                                .doOnCompleted(() -> {
+                                                    compressedBlockCache.invalidate(metricId, startTimeSlice);
+                                                    updateMetricExpiration(metricId);
+                                                });
                                     });
                                 }), maxConcurrency)
                         .flatMap(rs -> rs)
@@ -799,7 +1314,7 @@ public class MetricsServiceImpl implements MetricsService {
                                 .compose(applyRetryPolicy())
                                 .subscribeOn(Schedulers.io())
                                 .subscribe())
-        );
+        ).andThen(flushMetricExpirations());
     }
 
     @Override
@@ -816,23 +1331,24 @@ public class MetricsServiceImpl implements MetricsService {
                         .doOnNext(cpc -> subject.onNext(new Metric<>(metricId, getTTL(metricId))))
                         .concatMap(cpc -> dataAccess.deleteAndInsertCompressedGauge(metricId, startTimeSlice,
                                 (CompressedPointContainer) cpc, startTimeSlice, endTimeSlice, getTTL(metricId))
-                                .compose(applyRetryPolicy()))));
+                                .compose(applyRetryPolicy())
+                                .doOnCompleted(() -> compressedBlockCache.invalidate(metricId, startTimeSlice)))));
     }
 
     @Override
     public <T> Observable<NamedDataPoint<T>> findDataPoints(List<MetricId<T>> metricIds, long start,
             long end, int limit, Order order) {
-        return Observable.from(metricIds)
+        return admit(metricIds, start, end, Observable.from(metricIds)
                 .concatMap(id -> findDataPoints(id, start, end, limit, order)
-                        .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)));
+                        .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint))));
     }
 
     @Override
     public <T> Observable<NamedDataPoint<T>> findDataPoints(String tenantId, MetricType<T> metricType,
             String tagFilters, long start, long end, int limit, Order order) {
         return findMetricIdentifiersWithFilters(tenantId, metricType, tagFilters)
-                .concatMap(id -> findDataPoints(id, start, end, limit, order)
-                        .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)));
+                .toList()
+                .flatMap(metricIds -> findDataPoints(metricIds, start, end, limit, order));
     }
 
     @SuppressWarnings("unchecked")
@@ -864,31 +1380,15 @@ public class MetricsServiceImpl implements MetricsService {
         // We can't set the limit here, because some pairs can be discarded (counter resets)
         // But since the loading is reactive, we're not going to fetch more pages than needed (see #take at the end)
         Observable<DataPoint<Double>> dataPoints = this.findDataPoints(id, start, end, 0, order)
-                .buffer(2, 1) // emit previous/next pairs
-                // adapt pair to the order of traversal
-                .map(l -> order == ASC ? l : Lists.reverse(l))
-                // Drop the last buffer
-                .filter(l -> l.size() == 2)
-                // Filter out counter resets
-                .filter(l -> id.getType() != COUNTER
-                        || l.get(1).getValue().longValue() >= l.get(0).getValue().longValue())
-                .map(l -> {
-                    DataPoint<? extends Number> point1 = l.get(0);
-                    DataPoint<? extends Number> point2 = l.get(1);
-                    long timestamp = point2.getTimestamp();
-                    double value_diff = point2.getValue().doubleValue() - point1.getValue().doubleValue();
-                    double time_diff = point2.getTimestamp() - point1.getTimestamp();
-                    double rate = 60_000D * value_diff / time_diff;
-                    return new DataPoint<>(timestamp, rate);
-                });
+                .compose(new RateTransformer(id.getType(), order));
         return limit <= 0 ? dataPoints : dataPoints.take(limit);
     }
 
     @Override
     public <T extends Number> Observable<NamedDataPoint<Double>> findRateData(List<MetricId<T>> ids, long start,
                                                                      long end, int limit, Order order) {
-        return Observable.from(ids).concatMap(id -> findRateData(id, start, end, limit, order)
-                .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)));
+        return admit(ids, start, end, Observable.from(ids).concatMap(id -> findRateData(id, start, end, limit, order)
+                .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint))));
     }
 
     @Override
@@ -896,8 +1396,9 @@ public class MetricsServiceImpl implements MetricsService {
                                                               List<Percentile> percentiles) {
         TimeRange timeRange = bucketConfig.getTimeRange();
         checkArgument(isValidTimeRange(timeRange.getStart(), timeRange.getEnd()), "Invalid time range");
-        return findRateData(id, timeRange.getStart(), timeRange.getEnd(), 0, ASC)
-                .compose(new NumericBucketPointTransformer(bucketConfig.getBuckets(), percentiles));
+        checkArgument(id.getType() == COUNTER || id.getType() == GAUGE, "Unsupported metric type: %s", id.getType());
+        return Observable.just(findDataPoints(id, timeRange.getStart(), timeRange.getEnd(), 0, ASC))
+                .compose(new RateBucketPointTransformer(id.getType(), bucketConfig.getBuckets(), percentiles));
     }
 
     @SuppressWarnings("unchecked")
@@ -931,15 +1432,24 @@ public class MetricsServiceImpl implements MetricsService {
 
         // TODO Stats needs fixing to understand compressed values also..
         checkArgument(isValidTimeRange(start, end), "Invalid time range");
+        return admit(metrics, start, end, readNumericStats(metrics, start, end, buckets, percentiles, stacked, isRate));
+    }
+
+    private <T extends Number> Observable<List<NumericBucketPoint>> readNumericStats(List<MetricId<T>> metrics,
+            long start, long end, Buckets buckets, List<Percentile> percentiles, boolean stacked, boolean isRate) {
         if (!stacked) {
             if (!isRate) {
                 return Observable.from(metrics)
                         .flatMap(metricId -> findDataPoints(metricId, start, end, 0, Order.DESC))
                         .compose(new NumericBucketPointTransformer(buckets, percentiles));
             } else {
+                // All the metrics have the same data type, hence the same metric type
+                MetricType<?> type = metrics.isEmpty() ? GAUGE : metrics.get(0).getType();
                 return Observable.from(metrics)
-                        .flatMap(metricId -> findRateData(metricId, start, end, 0, ASC))
-                        .compose(new NumericBucketPointTransformer(buckets, percentiles));
+                        .doOnNext(metricId -> checkArgument(metricId.getType() == COUNTER
+                                || metricId.getType() == GAUGE, "Unsupported metric type: %s", metricId.getType()))
+                        .map(metricId -> findDataPoints(metricId, start, end, 0, ASC))
+                        .compose(new RateBucketPointTransformer(type, buckets, percentiles));
             }
         } else {
             Observable<Observable<NumericBucketPoint>> individualStats;
@@ -951,8 +1461,10 @@ public class MetricsServiceImpl implements MetricsService {
                 });
             } else {
                 individualStats = Observable.from(metrics).map(metricId -> {
-                    return findRateData(metricId, start, end, 0, ASC)
-                            .compose(new NumericBucketPointTransformer(buckets, percentiles))
+                    checkArgument(metricId.getType() == COUNTER || metricId.getType() == GAUGE,
+                            "Unsupported metric type: %s", metricId.getType());
+                    return Observable.just(findDataPoints(metricId, start, end, 0, ASC))
+                            .compose(new RateBucketPointTransformer(metricId.getType(), buckets, percentiles))
                             .flatMap(Observable::from);
                 });
             }
@@ -967,6 +1479,99 @@ public class MetricsServiceImpl implements MetricsService {
         }
     }
 
+    @Override
+    public <T extends Number> Observable<Map<String, List<NumericBucketPoint>>> findNumericStatsGroupedByTag(
+            List<MetricId<T>> metrics, String tagName, long start, long end, Buckets buckets,
+            List<Percentile> percentiles, boolean stacked) {
+        checkArgument(isValidTimeRange(start, end), "Invalid time range");
+        checkArgument(tagName != null, "Tag name is null");
+        return admit(metrics, start, end, readNumericStatsGroupedByTag(metrics, tagName, start, end, buckets,
+                percentiles, stacked));
+    }
+
+    private <T extends Number> Observable<Map<String, List<NumericBucketPoint>>> readNumericStatsGroupedByTag(
+            List<MetricId<T>> metrics, String tagName, long start, long end, Buckets buckets,
+            List<Percentile> percentiles, boolean stacked) {
+        Observable<MetricId<T>> ids = Observable.from(metrics)
+                .doOnNext(metricId -> checkArgument(metricId.getType() == COUNTER
+                        || metricId.getType() == GAUGE, "Unsupported metric type: %s", metricId.getType()));
+        if (stacked) {
+            return ids
+                    .flatMap(metricId -> getMetricTags(metricId)
+                            .map(tags -> tags.get(tagName))
+                            .filter(Objects::nonNull)
+                            .flatMap(group -> findDataPoints(metricId, start, end, 0, Order.DESC)
+                                    .compose(new NumericBucketPointTransformer(buckets, percentiles))
+                                    .flatMap(Observable::from)
+                                    .map(bucketPoint -> new SimpleImmutableEntry<>(group, bucketPoint))),
+                            MAX_CONCURRENT_GROUPED_READS)
+                    .collect(() -> new GroupedNumericStatsCollector(buckets, percentiles),
+                            (collector, entry) -> collector.increment(entry.getKey(), entry.getValue()))
+                    .map(GroupedNumericStatsCollector::toBucketPoints);
+        }
+        return ids
+                .flatMap(metricId -> getMetricTags(metricId)
+                        .map(tags -> tags.get(tagName))
+                        .filter(Objects::nonNull)
+                        .flatMap(group -> findDataPoints(metricId, start, end, 0, Order.DESC)
+                                .map(dataPoint -> new SimpleImmutableEntry<>(group, dataPoint))),
+                        MAX_CONCURRENT_GROUPED_READS)
+                .collect(() -> new GroupedNumericStatsCollector(buckets, percentiles),
+                        (collector, entry) -> collector.increment(entry.getKey(), entry.getValue()))
+                .map(GroupedNumericStatsCollector::toBucketPoints);
+    }
+
+    @Override
+    public Observable<List<NumericBucketPoint>> findHistogramStats(List<MetricId<HistogramSketch>> metrics, long start,
+            long end, Buckets buckets, List<Percentile> percentiles) {
+        checkArgument(isValidTimeRange(start, end), "Invalid time range");
+        return admit(metrics, start, end, Observable.from(metrics)
+                .flatMap(metricId -> findDataPoints(metricId, start, end, 0, Order.DESC))
+                .compose(new HistogramBucketPointTransformer(buckets, percentiles)));
+    }
+
+    @Override
+    public Observable<RankedSeries> findTopSeries(List<? extends MetricId<? extends Number>> metrics, long start,
+            long end, RankFunction function, int limit, Order order) {
+        checkArgument(isValidTimeRange(start, end), "Invalid time range");
+        checkArgument(function != null, "Rank function is null");
+        checkArgument(limit > 0, "The limit must be positive");
+        return admit(metrics, start, end, Observable.defer(() -> {
+            SeriesRanking ranking = new SeriesRanking(limit, order);
+            return Observable.from(metrics)
+                    .doOnNext(metricId -> checkArgument(metricId.getType() == COUNTER
+                            || metricId.getType() == GAUGE, "Unsupported metric type: %s", metricId.getType()))
+                    .flatMap(metricId -> rankSeries(metricId, start, end, function, ranking),
+                            MAX_CONCURRENT_RANKED_READS)
+                    .collect(() -> ranking, SeriesRanking::offer)
+                    .flatMap(r -> Observable.from(r.getRanked()));
+        }));
+    }
+
+    /**
+     * Computes the value of a series, unless the series is outranked before all its data points are read, in which
+     * case the read is unsubscribed and nothing is emitted.
+     */
+    private Observable<RankedSeries> rankSeries(MetricId<? extends Number> metricId, long start, long end,
+            RankFunction function, SeriesRanking ranking) {
+        return Observable.defer(() -> {
+            RankFunction.Accumulator accumulator = function.newAccumulator();
+            int limit = function.isLast() ? 1 : 0;
+            return findDataPoints(metricId, start, end, limit, Order.DESC)
+                    .doOnNext(dataPoint -> accumulator.add(dataPoint.getTimestamp(),
+                            dataPoint.getValue().doubleValue()))
+                    .takeUntil(dataPoint -> ranking.isOutranked(accumulator))
+                    .toCompletable()
+                    .andThen(Observable.defer(() -> {
+                        if (accumulator.isEmpty() || ranking.isOutranked(accumulator)) {
+                            return Observable.<RankedSeries>empty();
+                        }
+                        return Observable.just(new RankedSeries(metricId, accumulator.getTimestamp(),
+                                accumulator.getResult()));
+                    }));
+        });
+    }
+
     @Override
     public Observable<DataPoint<AvailabilityType>> findAvailabilityData(MetricId<AvailabilityType> id, long start,
             long end, boolean distinct, int limit, Order order) {
@@ -989,12 +1594,7 @@ public class MetricsServiceImpl implements MetricsService {
             long start, long end, Buckets buckets) {
         checkArgument(isValidTimeRange(start, end), "Invalid time range");
         return this.findDataPoints(metricId, start, end, 0, ASC)
-                .groupBy(dataPoint -> buckets.getIndex(dataPoint.getTimestamp()))
-                .flatMap(group -> group.collect(() -> new AvailabilityDataPointCollector(buckets, group.getKey()),
-                        AvailabilityDataPointCollector::increment))
-                .map(AvailabilityDataPointCollector::toBucketPoint)
-                .toMap(AvailabilityBucketPoint::getStart)
-                .map(pointMap -> AvailabilityBucketPoint.toList(pointMap, buckets));
+                .compose(new AvailabilityBucketPointTransformer(buckets));
     }
 
     @Override
@@ -1075,6 +1675,7 @@ public class MetricsServiceImpl implements MetricsService {
 
     public void shutdown() {
         insertedDataPointEvents.onCompleted();
+        configurationChecks.clear();
         metricsTasks.shutdown();
         unloadDataRetentions();
 //        dataAccess.shutdown();
@@ -1100,23 +1701,47 @@ public class MetricsServiceImpl implements MetricsService {
                 .flatMap(map -> dataAccess.deleteFromMetricsTagsIndex(id, map))
                 .map(r -> null);
         result = result.mergeWith(dataAccess.deleteMetricFromMetricsIndex(id).map(r -> null))
-                .mergeWith(dataAccess.deleteMetricData(id).map(r -> null))
+                .mergeWith(dataAccess.deleteFromSeriesIndex(id).map(r -> null))
+                .mergeWith(dataAccess.deleteMetricData(id, getTTL(id)).map(r -> null))
                 .mergeWith(dataAccess.deleteMetricFromRetentionIndex(id).map(r -> null))
                 .mergeWith(dataAccess.deleteFromMetricExpirationIndex(id).map(r -> null));
 
-        return result;
+        // Data points stored after the deletion register the series again
+        return result.doOnTerminate(() -> {
+            seriesIndexCache.invalidate(id);
+            latestDataPointCache.invalidate(id);
+            expirationTracker.remove(id);
+        });
     }
 
     @Override
     public <T> Observable<Void> updateMetricExpiration(MetricId<T> metric) {
         if (!MetricType.STRING.equals(metric.getType())) {
-                long expiration = DateTimeService.now.get().getMillis() + this.getTTL(metric) * DAY_TO_MILLIS;
-
-            return dataAccess.updateMetricExpirationIndex(metric, expiration)
-                    .doOnError(t -> log.error("Failure to update expiration index", t))
-                    .flatMap(r -> null);
+            long expiration = DateTimeService.now.get().getMillis() + this.getTTL(metric) * DAY_TO_MILLIS;
+            expirationTracker.update(metric, expiration);
         }
-
         return Observable.empty();
     }
+
+    @Override
+    public Completable flushMetricExpirations() {
+        return Completable.defer(() -> {
+            Map<MetricId<?>, Long> expirations = expirationTracker.drain();
+            if (expirations.isEmpty()) {
+                return Completable.complete();
+            }
+            return dataAccess.updateMetricExpirationIndex(expirations)
+                    .toCompletable()
+                    .doOnCompleted(() -> expirationTracker.indexed(expirations))
+                    .doOnError(t -> {
+                        log.error("Failure to update expiration index", t);
+                        expirationTracker.failed(expirations);
+                    });
+        });
+    }
+
+    @Override
+    public <T> Long getTrackedMetricExpiration(MetricId<T> metric) {
+        return expirationTracker.getExpiration(metric);
+    }
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hawkular.metrics.model.QueryBudgetUsage;
+import org.hawkular.metrics.model.exception.QueryRejectedException;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Admission control of the queries reading many series, so that a tenant running expensive queries cannot take all
+ * the Cassandra connections of a node from the other tenants. A tenant may run a limited number of queries at a time,
+ * whose estimated costs may not add up to more than its cost budget. A query that does not fit waits in the queue of
+ * its tenant until running queries finish, and fails with a {@link QueryRejectedException} when the queue is full.
+ * <p>
+ * A query whose cost alone exceeds the budget is admitted once no other query of its tenant runs, so that it is slow
+ * rather than impossible. Queued queries are admitted in order, a cheap query does not overtake an expensive one.
+ */
+public class QueryAdmission {
+
+    private final int maxConcurrent;
+    private final long maxCost;
+    private final int maxQueued;
+
+    private final ConcurrentMap<String, TenantBudget> budgets = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxConcurrent the number of queries a tenant may run at a time, zero for no limit
+     * @param maxCost       the estimated cost of the queries a tenant may run at a time, zero for no limit
+     * @param maxQueued     the number of queries of a tenant waiting for admission, further queries are rejected
+     */
+    public QueryAdmission(int maxConcurrent, long maxCost, int maxQueued) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxCost = maxCost;
+        this.maxQueued = maxQueued;
+    }
+
+    boolean isEnabled() {
+        return maxConcurrent > 0 || maxCost > 0;
+    }
+
+    /**
+     * @return an {@link Observable} which subscribes to the query once the budget of the tenant allows it
+     */
+    <T> Observable<T> admit(String tenantId, long cost, Observable<T> query) {
+        if (!isEnabled()) {
+            return query;
+        }
+        return Observable.create(subscriber -> budgets.computeIfAbsent(tenantId, TenantBudget::new)
+                .submit(new Ticket<>(cost, query, subscriber)));
+    }
+
+    /**
+     * @return the usage of the tenants which have run queries since this node started, by tenant id
+     */
+    Map<String, QueryBudgetUsage> getUsage() {
+        Map<String, QueryBudgetUsage> usage = new HashMap<>();
+        budgets.forEach((tenantId, budget) -> usage.put(tenantId, budget.getUsage()));
+        return usage;
+    }
+
+    private class TenantBudget {
+        private final String tenantId;
+        private final Deque<Ticket<?>> queue = new ArrayDeque<>();
+        private int running;
+        private long cost;
+        private long admitted;
+        private long rejected;
+        // Exponential moving average of the duration of the queries, in nanoseconds
+        private double meanDuration;
+
+        TenantBudget(String tenantId) {
+            this.tenantId = tenantId;
+        }
+
+        void submit(Ticket<?> ticket) {
+            boolean start = false;
+            long retryAfter = 0;
+            synchronized (this) {
+                if (queue.isEmpty() && fits(ticket.cost)) {
+                    acquire(ticket);
+                    start = true;
+                } else if (queue.size() < maxQueued) {
+                    queue.add(ticket);
+                } else {
+                    rejected++;
+                    retryAfter = Math.max(1, (long) Math.ceil(meanDuration / TimeUnit.SECONDS.toNanos(1)));
+                }
+            }
+            if (start) {
+                ticket.start(this);
+            } else if (retryAfter > 0) {
+                ticket.subscriber.onError(new QueryRejectedException(tenantId, retryAfter));
+            } else {
+                // Runs right away if the subscriber is already unsubscribed
+                ticket.subscriber.add(Subscriptions.create(() -> cancel(ticket)));
+            }
+        }
+
+        private boolean fits(long queryCost) {
+            return (maxConcurrent <= 0 || running < maxConcurrent)
+                    && (maxCost <= 0 || running == 0 || cost + queryCost <= maxCost);
+        }
+
+        private void acquire(Ticket<?> ticket) {
+            running++;
+            cost += ticket.cost;
+            admitted++;
+            ticket.startTime = System.nanoTime();
+        }
+
+        private synchronized void cancel(Ticket<?> ticket) {
+            queue.remove(ticket);
+        }
+
+        void release(Ticket<?> ticket) {
+            List<Ticket<?>> admittedTickets = new ArrayList<>();
+            synchronized (this) {
+                running--;
+                cost -= ticket.cost;
+                long duration = System.nanoTime() - ticket.startTime;
+                meanDuration = meanDuration == 0 ? duration : 0.8 * meanDuration + 0.2 * duration;
+                while (!queue.isEmpty() && fits(queue.peek().cost)) {
+                    Ticket<?> next = queue.poll();
+                    acquire(next);
+                    admittedTickets.add(next);
+                }
+            }
+            admittedTickets.forEach(next -> next.start(this));
+        }
+
+        synchronized QueryBudgetUsage getUsage() {
+            return new QueryBudgetUsage(running, queue.size(), cost, admitted, rejected);
+        }
+    }
+
+    private static class Ticket<T> {
+        final long cost;
+        final Observable<T> query;
+        final Subscriber<? super T> subscriber;
+        final AtomicBoolean released = new AtomicBoolean();
+        long startTime;
+
+        Ticket(long cost, Observable<T> query, Subscriber<? super T> subscriber) {
+            this.cost = cost;
+            this.query = query;
+            this.subscriber = subscriber;
+        }
+
+        void start(TenantBudget budget) {
+            Action0 release = () -> {
+                if (released.compareAndSet(false, true)) {
+                    budget.release(this);
+                }
+            };
+            // The budget is given back when the query terminates or when the subscriber goes away
+            subscriber.add(Subscriptions.create(release));
+            if (!subscriber.isUnsubscribed()) {
+                query.doOnTerminate(release).unsafeSubscribe(subscriber);
+            }
+        }
+    }
+}
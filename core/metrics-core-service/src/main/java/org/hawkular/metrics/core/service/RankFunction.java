@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Map;
+
+import org.hawkular.metrics.core.service.transformers.NumericDataPointCollector;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedMap.Builder;
+
+/**
+ * The aggregate of the data points of a series over a time range by which series are ranked, see
+ * {@link MetricsService#findTopSeries}. Percentiles are written as p followed by the percentile, e.g. p95 or p99.9.
+ */
+public final class RankFunction {
+
+    private enum Kind {
+        AVG, MIN, MAX, SUM, LAST, PERCENTILE
+    }
+
+    public static final RankFunction AVG = new RankFunction("avg", Kind.AVG, 0);
+    public static final RankFunction MIN = new RankFunction("min", Kind.MIN, 0);
+    public static final RankFunction MAX = new RankFunction("max", Kind.MAX, 0);
+    public static final RankFunction SUM = new RankFunction("sum", Kind.SUM, 0);
+    /**
+     * The value of the latest data point, which only needs a single data point per series.
+     */
+    public static final RankFunction LAST = new RankFunction("last", Kind.LAST, 0);
+
+    private static final Map<String, RankFunction> texts;
+
+    static {
+        Builder<String, RankFunction> builder = ImmutableSortedMap.orderedBy(String.CASE_INSENSITIVE_ORDER);
+        for (RankFunction function : new RankFunction[]{AVG, MIN, MAX, SUM, LAST}) {
+            builder.put(function.text, function);
+        }
+        texts = builder.build();
+    }
+
+    private final String text;
+    private final Kind kind;
+    private final double percentile;
+
+    private RankFunction(String text, Kind kind, double percentile) {
+        this.text = text;
+        this.kind = kind;
+        this.percentile = percentile;
+    }
+
+    /**
+     * @param percentile the percentile, greater than 0 and at most 100
+     */
+    public static RankFunction percentile(double percentile) {
+        checkArgument(percentile > 0 && percentile <= 100, "The percentile must be in ]0, 100]");
+        String text = percentile == Math.rint(percentile) ? Long.toString((long) percentile) :
+                Double.toString(percentile);
+        return new RankFunction("p" + text, Kind.PERCENTILE, percentile);
+    }
+
+    public static RankFunction fromText(String text) {
+        checkArgument(text != null, "text is null");
+        RankFunction function = texts.get(text);
+        if (function != null) {
+            return function;
+        }
+        if (text.length() > 1 && (text.charAt(0) == 'p' || text.charAt(0) == 'P')) {
+            try {
+                return percentile(Double.parseDouble(text.substring(1)));
+            } catch (NumberFormatException e) {
+                // Fall through
+            }
+        }
+        throw new IllegalArgumentException(text + " is not a recognized rank function");
+    }
+
+    boolean isLast() {
+        return kind == Kind.LAST;
+    }
+
+    Accumulator newAccumulator() {
+        return new Accumulator();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Computes the function over the data points of a single series. While the data points are added, the bounds
+     * tell the range the result is known to end up in, so that a series which can not make it into a ranking is not
+     * read up to the end.
+     */
+    final class Accumulator {
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private long timestamp = Long.MIN_VALUE;
+        private double last;
+        private PercentileWrapper percentileWrapper;
+
+        private Accumulator() {
+            if (kind == Kind.PERCENTILE) {
+                percentileWrapper = NumericDataPointCollector.createPercentile.apply(percentile);
+            }
+        }
+
+        /**
+         * Adds a data point, in any order. NaN values are ignored.
+         */
+        void add(long timestamp, double value) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+            ++count;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            if (timestamp >= this.timestamp) {
+                this.timestamp = timestamp;
+                last = value;
+            }
+            if (percentileWrapper != null) {
+                percentileWrapper.addValue(value);
+            }
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        double getResult() {
+            switch (kind) {
+                case AVG:
+                    return sum / count;
+                case MIN:
+                    return min;
+                case MAX:
+                    return max;
+                case SUM:
+                    return sum;
+                case LAST:
+                    return last;
+                default:
+                    return percentileWrapper.getResult();
+            }
+        }
+
+        /**
+         * @return a value the result will be greater than or equal to, whatever data points are added next
+         */
+        double getLowerBound() {
+            return kind == Kind.MAX ? max : Double.NEGATIVE_INFINITY;
+        }
+
+        /**
+         * @return a value the result will be less than or equal to, whatever data points are added next
+         */
+        double getUpperBound() {
+            return kind == Kind.MIN ? min : Double.POSITIVE_INFINITY;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.model.MetricId;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers the series this node has already written to the {@code metrics_series_idx} table, so that only the first
+ * data points of a series cause an index write.
+ * <p>
+ * Entries expire some time after they have been added. A series deleted by another node, for example by the expired
+ * metrics job, is then registered again once it receives new data points. The size of the cache is bounded as well,
+ * an evicted series is simply written again.
+ */
+class SeriesIndexCache {
+
+    static final long DEFAULT_MAX_SIZE = 1_000_000;
+    static final long DEFAULT_EXPIRATION = TimeUnit.DAYS.toMillis(1);
+
+    private final Cache<MetricId<?>, Boolean> registered;
+
+    SeriesIndexCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_EXPIRATION, Ticker.systemTicker());
+    }
+
+    SeriesIndexCache(long maxSize, long expiration, Ticker ticker) {
+        registered = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expiration, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * @return true if the series was not known yet, in which case the caller is expected to write it to the index, or
+     * to {@link #invalidate(MetricId) invalidate} it if the write fails
+     */
+    boolean add(MetricId<?> id) {
+        return registered.asMap().putIfAbsent(id, Boolean.TRUE) == null;
+    }
+
+    void invalidate(MetricId<?> id) {
+        registered.invalidate(id);
+    }
+
+    void invalidateAll(Collection<? extends MetricId<?>> ids) {
+        registered.invalidateAll(ids);
+    }
+
+    void clear() {
+        registered.invalidateAll();
+    }
+}
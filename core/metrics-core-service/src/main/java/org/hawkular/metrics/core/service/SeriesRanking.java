@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.hawkular.metrics.model.RankedSeries;
+
+/**
+ * Keeps the series with the highest, or the lowest, values offered so far in a bounded heap. Series are offered
+ * concurrently, once their value is known.
+ * <p>
+ * Once the heap is full, the value of its last series is the threshold a series must beat to enter the ranking. The
+ * threshold only gets tighter, which lets the readers of the other series stop as soon as the bounds of their value
+ * show they can not beat it, see {@link #isOutranked(RankFunction.Accumulator)}.
+ */
+class SeriesRanking {
+
+    private final int limit;
+    private final boolean highest;
+    private final Comparator<RankedSeries> order;
+    /**
+     * Head is the last series of the ranking
+     */
+    private final PriorityQueue<RankedSeries> heap;
+
+    private volatile double threshold;
+    private volatile boolean full;
+
+    /**
+     * @param order {@link Order#DESC} ranks the series with the highest values first, {@link Order#ASC} the series with
+     *              the lowest values first
+     */
+    SeriesRanking(int limit, Order order) {
+        checkArgument(limit > 0, "The limit must be positive");
+        this.limit = limit;
+        this.highest = order != Order.ASC;
+        Comparator<RankedSeries> byValue = Comparator.comparingDouble(RankedSeries::getValue);
+        // Ties are broken by name so that the ranking does not depend on the order series are offered in
+        this.order = (highest ? byValue.reversed() : byValue).thenComparing(RankedSeries::getId)
+                .thenComparing(series -> series.getType().getText());
+        this.heap = new PriorityQueue<>(limit + 1, this.order.reversed());
+    }
+
+    synchronized void offer(RankedSeries series) {
+        if (Double.isNaN(series.getValue())) {
+            return;
+        }
+        if (heap.size() < limit) {
+            heap.add(series);
+        } else if (order.compare(series, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(series);
+        } else {
+            return;
+        }
+        if (heap.size() == limit) {
+            threshold = heap.peek().getValue();
+            full = true;
+        }
+    }
+
+    /**
+     * @return true if the series whose value is being computed by the accumulator can not enter the ranking anymore
+     */
+    boolean isOutranked(RankFunction.Accumulator accumulator) {
+        if (!full || accumulator.isEmpty()) {
+            return false;
+        }
+        if (highest) {
+            return accumulator.getUpperBound() < threshold;
+        }
+        return accumulator.getLowerBound() > threshold;
+    }
+
+    /**
+     * @return the ranked series, first to last
+     */
+    synchronized List<RankedSeries> getRanked() {
+        List<RankedSeries> ranked = new ArrayList<>(heap);
+        ranked.sort(order);
+        return ranked;
+    }
+}
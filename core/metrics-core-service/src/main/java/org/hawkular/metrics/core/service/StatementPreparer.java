@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Prepares a set of statements concurrently. Each statement costs a round trip to the cluster, preparing them one
+ * after another made startup time grow with the number of statements and temporary tables.
+ * <p>
+ * The statements are sent with {@link #prepare(String, Consumer)} and {@link #await()} waits for all of them. The
+ * consumers are invoked from the thread calling {@link #await()}, in the order the statements were added.
+ */
+class StatementPreparer {
+
+    private final Session session;
+
+    private final List<ListenableFuture<PreparedStatement>> futures = new ArrayList<>();
+
+    private final List<Consumer<PreparedStatement>> consumers = new ArrayList<>();
+
+    StatementPreparer(Session session) {
+        this.session = session;
+    }
+
+    void prepare(String query, Consumer<PreparedStatement> consumer) {
+        futures.add(session.prepareAsync(query));
+        consumers.add(consumer);
+    }
+
+    /**
+     * Waits for all the statements and hands them over to their consumers. The first failure is rethrown, driver
+     * exceptions are unchecked and propagate unchanged.
+     */
+    void await() {
+        List<PreparedStatement> statements;
+        try {
+            statements = Uninterruptibles.getUninterruptibly(Futures.allAsList(futures));
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        for (int i = 0; i < statements.size(); i++) {
+            consumers.get(i).accept(statements.get(i));
+        }
+        futures.clear();
+        consumers.clear();
+    }
+}
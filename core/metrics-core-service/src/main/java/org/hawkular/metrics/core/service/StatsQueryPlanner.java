@@ -0,0 +1,299 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.core.service.Order.ASC;
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.hawkular.metrics.model.Utils.isValidTimeRange;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkular.metrics.core.service.transformers.NumericBucketPointTransformer;
+import org.hawkular.metrics.core.service.transformers.RateBucketPointTransformer;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.BucketPoint;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.Percentile;
+import org.hawkular.metrics.model.param.BucketConfig;
+import org.hawkular.metrics.model.param.TimeRange;
+
+import com.codahale.metrics.Timer;
+
+import rx.Observable;
+
+/**
+ * Executes a set of stats requests, reading the raw data of each series only once.
+ * <p>
+ * Requests are grouped by series, and the time ranges of a series which overlap or touch are merged into a single
+ * read. The data points of a read are then multicast to every request which needs them, whether it computes stats,
+ * rate stats or availability stats, so that asking for the stats and the rate stats of a gauge does not fetch the
+ * gauge twice. Each request only considers the data points of its own time range.
+ *
+ * @param <K> the type of the keys identifying the requests in the results
+ */
+public class StatsQueryPlanner<K> {
+
+    /**
+     * Name of the timer recording the time it takes to turn the data points of a request into bucket points, once
+     * the last data point has been read.
+     */
+    public static final String AGGREGATION_LATENCY = "StatsAggregationLatency";
+
+    private enum Aggregate {
+        STATS, RATE_STATS, AVAILABILITY_STATS
+    }
+
+    /**
+     * A single stats computation over a series.
+     */
+    public static final class Request<K> {
+        private final K key;
+        private final MetricId<?> id;
+        private final Aggregate aggregate;
+        private final BucketConfig bucketConfig;
+        private final List<Percentile> percentiles;
+
+        private Request(K key, MetricId<?> id, Aggregate aggregate, BucketConfig bucketConfig,
+                List<Percentile> percentiles) {
+            TimeRange timeRange = bucketConfig.getTimeRange();
+            checkArgument(isValidTimeRange(timeRange.getStart(), timeRange.getEnd()), "Invalid time range");
+            this.key = key;
+            this.id = id;
+            this.aggregate = aggregate;
+            this.bucketConfig = bucketConfig;
+            this.percentiles = percentiles;
+        }
+
+        /**
+         * Numeric stats of a gauge or a counter, as computed by {@link MetricsService#findGaugeStats} and
+         * {@link MetricsService#findCounterStats}.
+         */
+        public static <K> Request<K> stats(K key, MetricId<? extends Number> id, BucketConfig bucketConfig,
+                List<Percentile> percentiles) {
+            checkArgument(id.getType() == GAUGE || id.getType() == COUNTER, "Unsupported metric type: %s",
+                    id.getType());
+            return new Request<>(key, id, Aggregate.STATS, bucketConfig, percentiles);
+        }
+
+        /**
+         * Rate stats of a gauge or a counter, as computed by {@link MetricsService#findRateStats}.
+         */
+        public static <K> Request<K> rateStats(K key, MetricId<? extends Number> id, BucketConfig bucketConfig,
+                List<Percentile> percentiles) {
+            checkArgument(id.getType() == GAUGE || id.getType() == COUNTER, "Unsupported metric type: %s",
+                    id.getType());
+            return new Request<>(key, id, Aggregate.RATE_STATS, bucketConfig, percentiles);
+        }
+
+        /**
+         * Availability stats, as computed by {@link MetricsService#findAvailabilityStats}.
+         */
+        public static <K> Request<K> availabilityStats(K key, MetricId<AvailabilityType> id,
+                BucketConfig bucketConfig) {
+            checkArgument(id.getType() == AVAILABILITY, "Unsupported metric type: %s", id.getType());
+            return new Request<>(key, id, Aggregate.AVAILABILITY_STATS, bucketConfig, null);
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public MetricId<?> getId() {
+            return id;
+        }
+
+        long getStart() {
+            return bucketConfig.getTimeRange().getStart();
+        }
+
+        long getEnd() {
+            return bucketConfig.getTimeRange().getEnd();
+        }
+    }
+
+    /**
+     * The bucket points computed for a request.
+     */
+    public static final class Result<K> {
+        private final K key;
+        private final List<? extends BucketPoint> bucketPoints;
+
+        private Result(K key, List<? extends BucketPoint> bucketPoints) {
+            this.key = key;
+            this.bucketPoints = bucketPoints;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public List<? extends BucketPoint> getBucketPoints() {
+            return bucketPoints;
+        }
+    }
+
+    /**
+     * A read of the raw data of a series, shared by the requests whose time range it covers.
+     */
+    private static final class Read<K> {
+        final MetricId<?> id;
+        final long start;
+        long end;
+        final List<Request<K>> requests = new ArrayList<>();
+
+        Read(Request<K> request) {
+            this.id = request.getId();
+            this.start = request.getStart();
+            this.end = request.getEnd();
+            this.requests.add(request);
+        }
+    }
+
+    private final MetricsService metricsService;
+    private final Timer aggregationLatency;
+
+    public StatsQueryPlanner(MetricsService metricsService) {
+        this(metricsService, null);
+    }
+
+    /**
+     * @param aggregationLatency the {@link #AGGREGATION_LATENCY} timer, may be null
+     */
+    public StatsQueryPlanner(MetricsService metricsService, Timer aggregationLatency) {
+        this.metricsService = metricsService;
+        this.aggregationLatency = aggregationLatency;
+    }
+
+    /**
+     * The planned reads go through the admission control of the tenant at once, with the sum of their costs.
+     *
+     * @return one result per request, in no particular order
+     */
+    public Observable<Result<K>> execute(Collection<Request<K>> requests) {
+        return Observable.defer(() -> {
+            List<Read<K>> reads = plan(requests);
+            if (reads.isEmpty()) {
+                return Observable.empty();
+            }
+            long cost = reads.stream()
+                    .mapToLong(read -> metricsService.estimateReadCost(1, read.start, read.end))
+                    .sum();
+            return metricsService.admit(reads.get(0).id.getTenantId(), cost,
+                    Observable.from(reads).flatMap(this::execute));
+        });
+    }
+
+    /**
+     * Groups the requests into as few reads as possible, without reading data that no request needs.
+     */
+    private List<Read<K>> plan(Collection<Request<K>> requests) {
+        Map<MetricId<?>, List<Request<K>>> requestsById = new LinkedHashMap<>();
+        for (Request<K> request : requests) {
+            requestsById.computeIfAbsent(request.getId(), id -> new ArrayList<>()).add(request);
+        }
+        List<Read<K>> reads = new ArrayList<>();
+        for (List<Request<K>> seriesRequests : requestsById.values()) {
+            seriesRequests.sort(Comparator.comparingLong(Request::getStart));
+            Read<K> current = null;
+            for (Request<K> request : seriesRequests) {
+                if (current != null && request.getStart() <= current.end) {
+                    current.end = Math.max(current.end, request.getEnd());
+                    current.requests.add(request);
+                } else {
+                    current = new Read<>(request);
+                    reads.add(current);
+                }
+            }
+        }
+        return reads;
+    }
+
+    private Observable<Result<K>> execute(Read<K> read) {
+        Observable<DataPoint<Object>> dataPoints = metricsService.findDataPoints(rawId(read.id), read.start, read.end,
+                0, ASC);
+        if (read.requests.size() == 1) {
+            return compute(read, read.requests.get(0), dataPoints);
+        }
+        // All the requests subscribe to the multicast stream before the read starts
+        return dataPoints.publish(shared -> Observable.from(read.requests)
+                .flatMap(request -> compute(read, request, shared)));
+    }
+
+    private Observable<Result<K>> compute(Read<K> read, Request<K> request, Observable<DataPoint<Object>> shared) {
+        Observable<DataPoint<Object>> dataPoints;
+        if (request.getStart() == read.start && request.getEnd() == read.end) {
+            dataPoints = shared;
+        } else {
+            long start = request.getStart();
+            long end = request.getEnd();
+            dataPoints = shared.filter(dataPoint -> dataPoint.getTimestamp() >= start
+                    && dataPoint.getTimestamp() < end);
+        }
+        if (aggregationLatency != null) {
+            return Observable.defer(() -> {
+                AtomicLong readCompleted = new AtomicLong();
+                return aggregate(read, request, dataPoints.doOnCompleted(() -> readCompleted.set(System.nanoTime())))
+                        .doOnNext(result -> aggregationLatency.update(System.nanoTime() - readCompleted.get(),
+                                TimeUnit.NANOSECONDS));
+            });
+        }
+        return aggregate(read, request, dataPoints);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Observable<Result<K>> aggregate(Read<K> read, Request<K> request,
+            Observable<DataPoint<Object>> dataPoints) {
+        Observable<? extends List<? extends BucketPoint>> bucketPoints;
+        switch (request.aggregate) {
+            case STATS:
+                bucketPoints = dataPoints.map(dataPoint -> (DataPoint<? extends Number>) (DataPoint<?>) dataPoint)
+                        .compose(new NumericBucketPointTransformer(request.bucketConfig.getBuckets(),
+                                request.percentiles));
+                break;
+            case RATE_STATS:
+                bucketPoints = Observable.just(dataPoints
+                        .map(dataPoint -> (DataPoint<? extends Number>) (DataPoint<?>) dataPoint))
+                        .compose(new RateBucketPointTransformer(read.id.getType(),
+                                request.bucketConfig.getBuckets(), request.percentiles));
+                break;
+            case AVAILABILITY_STATS:
+                bucketPoints = dataPoints.map(dataPoint -> (DataPoint<AvailabilityType>) (DataPoint<?>) dataPoint)
+                        .compose(new AvailabilityBucketPointTransformer(request.bucketConfig.getBuckets()));
+                break;
+            default:
+                throw new IllegalStateException(request.aggregate.name());
+        }
+        return bucketPoints.map(points -> new Result<>(request.key, points));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MetricId<Object> rawId(MetricId<?> id) {
+        return (MetricId<Object>) id;
+    }
+}
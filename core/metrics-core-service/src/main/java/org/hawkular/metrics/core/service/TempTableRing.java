@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+/**
+ * A fixed set of temporary tables which are reused round-robin by the time slices, instead of creating a new table
+ * for every slice and dropping it once the slice has been compressed. The tables are created once at startup, a
+ * compressed slice is truncated.
+ * <p>
+ * Which slice a table currently holds is a function of time only, so that all the nodes agree on it without any
+ * coordination. The ring keeps {@link #SLICES_AHEAD} slices ahead of the current one writable and retains the rest of
+ * the tables for the slices behind it. A slice that has not been compressed by the time its table is needed again is
+ * lost, the size of the ring is therefore the lag the compression job may fall behind.
+ * <p>
+ * A slice accepts writes until {@link #WRITE_GRACE} after its end, which is when the compression job processes it.
+ * Later data points, as well as the ones too far in the future, are written to the
+ * {@link DataAccessImpl#OUT_OF_ORDER_TABLE_NAME out-of-order} table.
+ */
+class TempTableRing {
+
+    static final String TABLE_NAME_PROTOTYPE = "data_ring_";
+
+    static final long SLICE_SIZE = TimeUnit.HOURS.toMillis(2);
+
+    static final long WRITE_GRACE = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Matches the default forward time of the temporary table creator job
+     */
+    static final int SLICES_AHEAD = 12;
+
+    /**
+     * Room for the current slice and the previous one waiting for compression
+     */
+    static final int MIN_SIZE = SLICES_AHEAD + 2;
+
+    private final List<Supplier<Map<Integer, PreparedStatement>>> tables;
+
+    /**
+     * @param size The number of tables in the ring
+     * @param preparer Prepares the statements of a table, called on first access of the table
+     */
+    TempTableRing(int size, Function<String, Map<Integer, PreparedStatement>> preparer) {
+        checkArgument(size >= MIN_SIZE, "The temporary table ring needs at least %s tables", MIN_SIZE);
+        tables = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String tableName = getTableName(i);
+            tables.add(Suppliers.memoize(() -> preparer.apply(tableName)));
+        }
+    }
+
+    static String getTableName(int index) {
+        return TABLE_NAME_PROTOTYPE + index;
+    }
+
+    static long getSlice(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, SLICE_SIZE);
+    }
+
+    int size() {
+        return tables.size();
+    }
+
+    int getIndex(long slice) {
+        return (int) Math.floorMod(slice / SLICE_SIZE, (long) tables.size());
+    }
+
+    String getTableName(long slice) {
+        return getTableName(getIndex(slice));
+    }
+
+    /**
+     * @return true if the table of the slice has not been handed to a later slice yet
+     */
+    boolean isRetained(long slice, long now) {
+        long current = getSlice(now);
+        return slice <= current + SLICES_AHEAD * SLICE_SIZE
+                && slice > current + (SLICES_AHEAD - tables.size()) * SLICE_SIZE;
+    }
+
+    boolean isWritable(long slice, long now) {
+        return now < slice + SLICE_SIZE + WRITE_GRACE && slice <= getSlice(now) + SLICES_AHEAD * SLICE_SIZE;
+    }
+
+    /**
+     * @return true if any slice held by the table of the given slice, the slice itself or a later one the table has
+     * been handed to, still accepts writes
+     */
+    boolean isTableWritable(long slice, long now) {
+        int index = getIndex(slice);
+        long last = getSlice(now) + SLICES_AHEAD * SLICE_SIZE;
+        for (long s = getSlice(now - SLICE_SIZE - WRITE_GRACE); s <= last; s += SLICE_SIZE) {
+            if (getIndex(s) == index && isWritable(s, now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Map<Integer, PreparedStatement> getStatements(long slice) {
+        return tables.get(getIndex(slice)).get();
+    }
+
+    /**
+     * @return The statements of the retained slices keyed by the start of the slice
+     */
+    NavigableMap<Long, Supplier<Map<Integer, PreparedStatement>>> getRetainedSlices(long now) {
+        NavigableMap<Long, Supplier<Map<Integer, PreparedStatement>>> slices = new TreeMap<>();
+        long slice = getSlice(now) + SLICES_AHEAD * SLICE_SIZE;
+        for (int i = 0; i < tables.size(); i++, slice -= SLICE_SIZE) {
+            slices.put(slice, tables.get(getIndex(slice)));
+        }
+        return slices;
+    }
+
+    List<Supplier<Map<Integer, PreparedStatement>>> getTables() {
+        return tables;
+    }
+}
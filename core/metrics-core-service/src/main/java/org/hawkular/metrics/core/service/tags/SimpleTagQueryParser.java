@@ -130,9 +130,7 @@ public class SimpleTagQueryParser {
                     .compose(new TagsIndexRowTransformerFilter<>(metricType))
                     .filter(mId -> mId.getTenantId().equals(tenantId));
 
-            Observable<MetricId<?>> dataMetrics = metricsService.findAllMetricIdentifiers()
-                    .filter(m -> m.getTenantId().equals(tenantId))
-                    .filter(metricTypeFilter(metricType));
+            Observable<? extends MetricId<?>> dataMetrics = metricsService.findMetricIdentifiers(tenantId, metricType);
 
             groupMetrics = Observable.concat(tagsMetrics, dataMetrics).distinct();
         }
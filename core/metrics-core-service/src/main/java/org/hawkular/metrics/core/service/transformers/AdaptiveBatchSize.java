@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.datastax.driver.core.exceptions.DriverException;
+
+/**
+ * Limits of the batches created by {@link BoundBatchStatementTransformer}, adjusted to the write latency of Cassandra.
+ * <p>
+ * The number of statements in a batch grows by one with every batch which was full and written within the target
+ * latency, and is halved when a batch was slower or failed. Regardless of the number of statements, a batch is closed
+ * before it goes over the size and partition count at which Cassandra starts to warn about the batch.
+ */
+public class AdaptiveBatchSize {
+
+    public static final int DEFAULT_MIN_SIZE = 5;
+
+    public static final int DEFAULT_MAX_SIZE = 200;
+
+    /**
+     * The default of {@code batch_size_warn_threshold_in_kb} in cassandra.yaml
+     */
+    public static final int DEFAULT_MAX_BYTES = 5 * 1024;
+
+    /**
+     * The default of {@code unlogged_batch_across_partitions_warn_threshold} in cassandra.yaml
+     */
+    public static final int DEFAULT_MAX_PARTITIONS = 10;
+
+    public static final long DEFAULT_TARGET_LATENCY = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final int minSize;
+    private final int maxSize;
+    private final int maxBytes;
+    private final int maxPartitions;
+    private final long targetLatency;
+
+    private final AtomicInteger size;
+
+    private final Histogram batchSizes = new Histogram(new ExponentiallyDecayingReservoir());
+
+    public AdaptiveBatchSize() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_MAX_BYTES, DEFAULT_MAX_PARTITIONS, DEFAULT_TARGET_LATENCY);
+    }
+
+    /**
+     * @param minSize       lower bound of the number of statements in a batch
+     * @param maxSize       upper bound of the number of statements in a batch
+     * @param maxBytes      maximum size of the values of the statements in a batch
+     * @param maxPartitions maximum number of partitions a batch writes to
+     * @param targetLatency write latency in nanoseconds above which the batches get smaller
+     */
+    public AdaptiveBatchSize(int minSize, int maxSize, int maxBytes, int maxPartitions, long targetLatency) {
+        checkArgument(minSize > 0 && minSize <= maxSize, "Invalid batch size bounds [%s, %s]", minSize, maxSize);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxBytes = maxBytes;
+        this.maxPartitions = maxPartitions;
+        this.targetLatency = targetLatency;
+        size = new AtomicInteger(Math.min(maxSize, Math.max(minSize, BoundBatchStatementTransformer
+                .DEFAULT_BATCH_SIZE)));
+    }
+
+    /**
+     * @return the current maximum number of statements in a batch
+     */
+    public int getBatchSize() {
+        return size.get();
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getMaxPartitions() {
+        return maxPartitions;
+    }
+
+    /**
+     * The distribution of the number of statements in the batches created
+     */
+    public Histogram getBatchSizes() {
+        return batchSizes;
+    }
+
+    void onBatch(int statements) {
+        batchSizes.update(statements);
+    }
+
+    /**
+     * @param statements number of statements in the batch which was written
+     * @param latency    time it took to write the batch, in nanoseconds
+     */
+    public void onSuccess(int statements, long latency) {
+        if (latency > targetLatency) {
+            // Batches created before the last decrease do not decrease the size again
+            size.updateAndGet(current -> statements <= current ? Math.max(minSize, current / 2) : current);
+        } else if (statements >= size.get()) {
+            // Only a full batch shows that a larger one could have been written
+            size.updateAndGet(current -> Math.min(maxSize, current + 1));
+        }
+    }
+
+    public void onFailure(Throwable t) {
+        if (t instanceof DriverException) {
+            size.updateAndGet(current -> Math.max(minSize, current / 2));
+        }
+    }
+}
@@ -18,8 +18,14 @@ package org.hawkular.metrics.core.service.transformers;
 
 import static com.datastax.driver.core.BatchStatement.Type.UNLOGGED;
 
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
 import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ProtocolVersion;
 import com.datastax.driver.core.Statement;
 
 import rx.Observable;
@@ -41,6 +47,7 @@ public class BoundBatchStatementTransformer implements Transformer<BoundStatemen
 
     private final Func0<BatchStatement> batchStatementFactory;
     private final int batchSize;
+    private final AdaptiveBatchSize adaptiveBatchSize;
 
     /**
      * Creates a new transformer using the {@link #DEFAULT_BATCH_STATEMENT_FACTORY}.
@@ -57,12 +64,73 @@ public class BoundBatchStatementTransformer implements Transformer<BoundStatemen
         this.batchSize = batchSize;
 //        checkArgument(batchSize <= DEFAULT_BATCH_SIZE, "batchSize exceeds limit");
         this.batchStatementFactory = batchStatementFactory;
+        this.adaptiveBatchSize = null;
+    }
+
+    /**
+     * Creates a new transformer using the {@link #DEFAULT_BATCH_STATEMENT_FACTORY} whose batches are limited by the
+     * current state of {@code adaptiveBatchSize}.
+     */
+    public BoundBatchStatementTransformer(AdaptiveBatchSize adaptiveBatchSize) {
+        this.batchSize = DEFAULT_BATCH_SIZE;
+        this.batchStatementFactory = DEFAULT_BATCH_STATEMENT_FACTORY;
+        this.adaptiveBatchSize = adaptiveBatchSize;
     }
 
     @Override
     public Observable<BatchStatement> call(Observable<BoundStatement> statements) {
+        if (adaptiveBatchSize == null) {
+            return statements
+                    .window(batchSize)
+                    .flatMap(window -> window.collect(batchStatementFactory, BatchStatement::add));
+        }
         return statements
-                .window(batchSize)
-                .flatMap(window -> window.collect(batchStatementFactory, BatchStatement::add));
+                // The boundary is subscribed first, it sees the statement before the window it starts does
+                .publish(p -> {
+                    BatchLimits limits = new BatchLimits();
+                    return p.window(p.filter(limits::startsNewBatch));
+                })
+                .concatMap(window -> window.collect(batchStatementFactory, BatchStatement::add))
+                .filter(batch -> batch.size() > 0)
+                .doOnNext(batch -> adaptiveBatchSize.onBatch(batch.size()));
+    }
+
+    /**
+     * Tracks the content of the batch being created, which is only accessed by the boundary of the windows.
+     */
+    private class BatchLimits {
+        private int statements;
+        private int bytes;
+        private final Set<ByteBuffer> partitions = new HashSet<>();
+
+        boolean startsNewBatch(BoundStatement statement) {
+            int statementBytes = sizeOf(statement);
+            ByteBuffer partition = statement.getRoutingKey(ProtocolVersion.NEWEST_SUPPORTED,
+                    CodecRegistry.DEFAULT_INSTANCE);
+            boolean full = statements > 0 && (statements >= adaptiveBatchSize.getBatchSize()
+                    || bytes + statementBytes > adaptiveBatchSize.getMaxBytes()
+                    || (!partitions.contains(partition)
+                    && partitions.size() >= adaptiveBatchSize.getMaxPartitions()));
+            if (full) {
+                statements = 0;
+                bytes = 0;
+                partitions.clear();
+            }
+            statements++;
+            bytes += statementBytes;
+            partitions.add(partition);
+            return full;
+        }
+
+        private int sizeOf(BoundStatement statement) {
+            int size = 0;
+            for (int i = 0; i < statement.preparedStatement().getVariables().size(); i++) {
+                ByteBuffer value = statement.getBytesUnsafe(i);
+                if (value != null) {
+                    size += value.remaining();
+                }
+            }
+            return size;
+        }
     }
 }
@@ -19,6 +19,7 @@ package org.hawkular.metrics.core.service.transformers;
 import static org.hawkular.metrics.core.service.Order.ASC;
 
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -29,6 +30,7 @@ import org.hawkular.metrics.model.AvailabilityType;
 import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.MetricType;
 
+import com.codahale.metrics.Timer;
 import com.datastax.driver.core.Row;
 
 import fi.iki.yak.ts.compression.gorilla.BitInput;
@@ -49,8 +51,18 @@ public class DataPointDecompressTransformer<T> implements Observable.Transformer
     private long start;
     private long end;
     private MetricType<T> metricType;
+    private Timer decompressionLatency;
 
     public DataPointDecompressTransformer(MetricType<T> metricType, Order order, int limit, long start, long end) {
+        this(metricType, order, limit, start, end, null);
+    }
+
+    /**
+     * @param decompressionLatency records the time spent decompressing each row, may be null
+     */
+    public DataPointDecompressTransformer(MetricType<T> metricType, Order order, int limit, long start, long end,
+            Timer decompressionLatency) {
+        this.decompressionLatency = decompressionLatency;
         this.order = order;
         this.limit = limit;
         this.start = start;
@@ -64,72 +76,7 @@ public class DataPointDecompressTransformer<T> implements Observable.Transformer
 
         Observable<DataPoint<T>> datapoints =
                 rows.flatMap(r -> {
-                    Stream.Builder<DataPoint<T>> dataPointStreamBuilder = Stream.builder();
-
-                    ByteBuffer tagsBuffer = r.getBytes("tags");
-                    ByteBuffer compressedValue = r.getBytes("c_value");
-
-                    if (compressedValue != null) {
-                        // Read the HWKMETRICS internal header here, but don't process as of now
-                        compressedValue.get();
-
-                        BitInput in = new ByteBufferBitInput(compressedValue);
-
-                        Map<Long, Map<String, String>> tagMap = null;
-                        if(tagsBuffer != null) {
-                            long blockStart = r.getTimestamp("time").toInstant().toEpochMilli();
-                            TagsDeserializer deserializer = new TagsDeserializer(blockStart);
-                            tagMap = deserializer.deserialize(tagsBuffer);
-                        }
-
-                        Decompressor d = new Decompressor(in);
-                        Pair pair;
-                        while ((pair = d.readPair()) != null) {
-                            if (pair.getTimestamp() >= start && pair.getTimestamp() < end) {
-                                DataPoint<T> dataPoint = null;
-
-                                switch(metricType.getCode()) {
-                                    case 0: // GAUGE
-                                        dataPoint = new DataPoint(pair.getTimestamp(), pair.getDoubleValue());
-                                        break;
-                                    case 1: // AVAILABILITY
-                                        dataPoint = new DataPoint(pair.getTimestamp(), AvailabilityType.fromByte(
-                                                ((Double) pair.getDoubleValue()).byteValue()));
-                                        break;
-                                    case 2: // COUNTER
-                                        dataPoint = new DataPoint(pair.getTimestamp(), ((Double) pair.getDoubleValue
-                                                ()).longValue());
-                                        break;
-                                    default:
-                                        // Not supported yet
-                                        throw new RuntimeException(
-                                                "Metric of type " + metricType.getText() + " is not supported " +
-                                                        "in decompression");
-                                }
-
-                                // Add tags from the serialized tags
-                                if(tagMap != null) {
-                                    Long key = pair.getTimestamp();
-
-                                    if (tagMap.containsKey(key)) {
-                                        Map<String, String> dpTags = tagMap.get(key);
-                                        dataPoint = new DataPoint(dataPoint.getTimestamp(), dataPoint
-                                                .getValue(), dpTags);
-                                    }
-                                }
-
-                                dataPointStreamBuilder.add(dataPoint);
-                            }
-                        }
-                    }
-                    return Observable.from(dataPointStreamBuilder.build()
-                            .sorted((d1, d2) -> {
-                                if (order == ASC) {
-                                    return (d1.getTimestamp() > d2.getTimestamp()) ? 1 : -1;
-                                }
-                                return (d1.getTimestamp() < d2.getTimestamp()) ? 1 : -1;
-                            })
-                            .collect(Collectors.toList()));
+                    return Observable.from(decompress(r));
                 });
         if(limit > 0) {
             // TODO What about the min-max timestamp case when requesting metric info (MiQ)? Should we store it on
@@ -139,4 +86,91 @@ public class DataPointDecompressTransformer<T> implements Observable.Transformer
 
         return datapoints;
     }
+
+    /**
+     * Decompresses a single row, the data points outside of the time range are dropped.
+     *
+     * @return the data points of the row sorted in the requested order
+     */
+    public List<DataPoint<T>> decompress(Row r) {
+        if (decompressionLatency == null) {
+            return decompressRow(r);
+        }
+        Timer.Context context = decompressionLatency.time();
+        try {
+            return decompressRow(r);
+        } finally {
+            context.stop();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<DataPoint<T>> decompressRow(Row r) {
+        Stream.Builder<DataPoint<T>> dataPointStreamBuilder = Stream.builder();
+
+        ByteBuffer tagsBuffer = r.getBytes("tags");
+        ByteBuffer compressedValue = r.getBytes("c_value");
+
+        if (compressedValue != null) {
+            // Read the HWKMETRICS internal header here, but don't process as of now
+            compressedValue.get();
+
+            BitInput in = new ByteBufferBitInput(compressedValue);
+
+            Map<Long, Map<String, String>> tagMap = null;
+            if(tagsBuffer != null) {
+                long blockStart = r.getTimestamp("time").toInstant().toEpochMilli();
+                TagsDeserializer deserializer = new TagsDeserializer(blockStart);
+                tagMap = deserializer.deserialize(tagsBuffer);
+            }
+
+            Decompressor d = new Decompressor(in);
+            Pair pair;
+            while ((pair = d.readPair()) != null) {
+                if (pair.getTimestamp() >= start && pair.getTimestamp() < end) {
+                    DataPoint<T> dataPoint = null;
+
+                    switch(metricType.getCode()) {
+                        case 0: // GAUGE
+                            dataPoint = new DataPoint(pair.getTimestamp(), pair.getDoubleValue());
+                            break;
+                        case 1: // AVAILABILITY
+                            dataPoint = new DataPoint(pair.getTimestamp(), AvailabilityType.fromByte(
+                                    ((Double) pair.getDoubleValue()).byteValue()));
+                            break;
+                        case 2: // COUNTER
+                            dataPoint = new DataPoint(pair.getTimestamp(), ((Double) pair.getDoubleValue
+                                    ()).longValue());
+                            break;
+                        default:
+                            // Not supported yet
+                            throw new RuntimeException(
+                                    "Metric of type " + metricType.getText() + " is not supported " +
+                                            "in decompression");
+                    }
+
+                    // Add tags from the serialized tags
+                    if(tagMap != null) {
+                        Long key = pair.getTimestamp();
+
+                        if (tagMap.containsKey(key)) {
+                            Map<String, String> dpTags = tagMap.get(key);
+                            dataPoint = new DataPoint(dataPoint.getTimestamp(), dataPoint
+                                    .getValue(), dpTags);
+                        }
+                    }
+
+                    dataPointStreamBuilder.add(dataPoint);
+                }
+            }
+        }
+        return dataPointStreamBuilder.build()
+                .sorted((d1, d2) -> {
+                    if (order == ASC) {
+                        return (d1.getTimestamp() > d2.getTimestamp()) ? 1 : -1;
+                    }
+                    return (d1.getTimestamp() < d2.getTimestamp()) ? 1 : -1;
+                })
+                .collect(Collectors.toList());
+    }
 }
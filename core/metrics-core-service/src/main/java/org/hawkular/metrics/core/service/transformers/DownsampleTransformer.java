@@ -0,0 +1,232 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hawkular.metrics.core.service.Downsampling;
+import org.hawkular.metrics.model.DataPoint;
+
+import rx.Observable;
+import rx.Observable.Transformer;
+
+/**
+ * Reduces a sequence of gauge or counter data points to a bounded number of data points. The time range is split in
+ * buckets of equal duration, and each bucket which has data points is reduced according to the {@link Downsampling}
+ * method. The data points are processed as they arrive, only the data points of the last two buckets are held.
+ * <p>
+ * The source data points must be sorted by timestamp, in either order. The emitted data points are source data points,
+ * in the same order.
+ */
+public class DownsampleTransformer<T extends Number> implements Transformer<DataPoint<T>, DataPoint<T>> {
+
+    private final Downsampling downsampling;
+    private final long start;
+    private final long bucketSize;
+
+    /**
+     * @param downsampling the method
+     * @param points       maximum number of data points emitted
+     * @param start        start of the time range, inclusive
+     * @param end          end of the time range, exclusive
+     */
+    public DownsampleTransformer(Downsampling downsampling, int points, long start, long end) {
+        checkArgument(points >= 2, "At least two data points must be returned when downsampling");
+        checkArgument(start < end, "Invalid time range");
+        this.downsampling = downsampling;
+        this.start = start;
+        // LTTB keeps the first and last data points on top of one point per bucket, min-max keeps two per bucket
+        long buckets = downsampling == Downsampling.LTTB ? Math.max(1, points - 2) : points / 2;
+        this.bucketSize = (end - start + buckets - 1) / buckets;
+    }
+
+    @Override
+    public Observable<DataPoint<T>> call(Observable<DataPoint<T>> dataPoints) {
+        return Observable.defer(() -> {
+            Sampler<T> sampler = downsampling == Downsampling.LTTB ? new LargestTriangleThreeBuckets() : new MinMax();
+            return dataPoints
+                    .concatMapIterable(sampler::add)
+                    .concatWith(Observable.defer(() -> Observable.from(sampler.complete())));
+        });
+    }
+
+    private long getBucket(DataPoint<T> dataPoint) {
+        return Math.floorDiv(dataPoint.getTimestamp() - start, bucketSize);
+    }
+
+    private interface Sampler<T> {
+        /**
+         * @return the data points to emit, once the data point has been added
+         */
+        List<DataPoint<T>> add(DataPoint<T> dataPoint);
+
+        /**
+         * @return the data points to emit once all the data points have been added
+         */
+        List<DataPoint<T>> complete();
+    }
+
+    private class LargestTriangleThreeBuckets implements Sampler<T> {
+        private DataPoint<T> selected;
+        private List<DataPoint<T>> current = new ArrayList<>();
+        private long currentBucket;
+        private List<DataPoint<T>> next = new ArrayList<>();
+        private long nextBucket;
+
+        @Override
+        public List<DataPoint<T>> add(DataPoint<T> dataPoint) {
+            if (selected == null) {
+                selected = dataPoint;
+                return singletonList(dataPoint);
+            }
+            long bucket = getBucket(dataPoint);
+            if (current.isEmpty() || (next.isEmpty() && bucket == currentBucket)) {
+                currentBucket = bucket;
+                current.add(dataPoint);
+                return emptyList();
+            }
+            if (next.isEmpty() || bucket == nextBucket) {
+                nextBucket = bucket;
+                next.add(dataPoint);
+                return emptyList();
+            }
+            // The next bucket is complete, the current bucket can be reduced
+            selected = select(current, getAverageTimestamp(next), getAverageValue(next));
+            List<DataPoint<T>> reduced = current;
+            current = next;
+            currentBucket = nextBucket;
+            next = reduced;
+            next.clear();
+            next.add(dataPoint);
+            nextBucket = bucket;
+            return singletonList(selected);
+        }
+
+        @Override
+        public List<DataPoint<T>> complete() {
+            if (current.isEmpty()) {
+                return emptyList();
+            }
+            List<DataPoint<T>> lastBucket = next.isEmpty() ? current : next;
+            DataPoint<T> last = lastBucket.remove(lastBucket.size() - 1);
+            List<DataPoint<T>> dataPoints = new ArrayList<>(3);
+            if (!current.isEmpty()) {
+                if (next.isEmpty()) {
+                    selected = select(current, last.getTimestamp(), last.getValue().doubleValue());
+                } else {
+                    selected = select(current, getAverageTimestamp(next), getAverageValue(next));
+                }
+                dataPoints.add(selected);
+            }
+            if (!next.isEmpty()) {
+                dataPoints.add(select(next, last.getTimestamp(), last.getValue().doubleValue()));
+            }
+            dataPoints.add(last);
+            return dataPoints;
+        }
+
+        /**
+         * @return the data point of the bucket forming the largest triangle with the selected data point and the
+         * given third point
+         */
+        private DataPoint<T> select(List<DataPoint<T>> bucket, double timestamp, double value) {
+            double selectedTimestamp = selected.getTimestamp();
+            double selectedValue = selected.getValue().doubleValue();
+            DataPoint<T> largest = bucket.get(0);
+            double largestArea = -1;
+            for (DataPoint<T> dataPoint : bucket) {
+                // Twice the area, which does not change the comparison
+                double area = Math.abs((selectedTimestamp - timestamp) * (dataPoint.getValue().doubleValue() -
+                        selectedValue) - (selectedTimestamp - dataPoint.getTimestamp()) * (value - selectedValue));
+                if (area > largestArea) {
+                    largestArea = area;
+                    largest = dataPoint;
+                }
+            }
+            return largest;
+        }
+
+        private double getAverageTimestamp(List<DataPoint<T>> bucket) {
+            double sum = 0;
+            for (DataPoint<T> dataPoint : bucket) {
+                sum += dataPoint.getTimestamp();
+            }
+            return sum / bucket.size();
+        }
+
+        private double getAverageValue(List<DataPoint<T>> bucket) {
+            double sum = 0;
+            for (DataPoint<T> dataPoint : bucket) {
+                sum += dataPoint.getValue().doubleValue();
+            }
+            return sum / bucket.size();
+        }
+    }
+
+    private class MinMax implements Sampler<T> {
+        private DataPoint<T> min;
+        private DataPoint<T> max;
+        // Whether the minimum arrived before the maximum
+        private boolean minFirst;
+        private long bucket;
+
+        @Override
+        public List<DataPoint<T>> add(DataPoint<T> dataPoint) {
+            long dataPointBucket = getBucket(dataPoint);
+            List<DataPoint<T>> dataPoints = emptyList();
+            if (min != null && dataPointBucket != bucket) {
+                dataPoints = complete();
+            }
+            if (min == null) {
+                min = dataPoint;
+                max = dataPoint;
+                minFirst = true;
+                bucket = dataPointBucket;
+            } else if (dataPoint.getValue().doubleValue() < min.getValue().doubleValue()) {
+                min = dataPoint;
+                minFirst = false;
+            } else if (dataPoint.getValue().doubleValue() > max.getValue().doubleValue()) {
+                max = dataPoint;
+                minFirst = true;
+            }
+            return dataPoints;
+        }
+
+        @Override
+        public List<DataPoint<T>> complete() {
+            if (min == null) {
+                return emptyList();
+            }
+            List<DataPoint<T>> dataPoints;
+            if (min == max) {
+                dataPoints = singletonList(min);
+            } else {
+                dataPoints = minFirst ? Arrays.asList(min, max) : Arrays.asList(max, min);
+            }
+            min = null;
+            max = null;
+            return dataPoints;
+        }
+    }
+}
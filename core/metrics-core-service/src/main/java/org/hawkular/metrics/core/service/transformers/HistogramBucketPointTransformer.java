@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.HistogramSketch;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.Percentile;
+
+import com.google.common.primitives.Ints;
+
+import rx.Observable;
+import rx.Observable.Transformer;
+
+/**
+ * Merges the sketches of the histogram data points of each bucket, whatever their series, and computes the statistics
+ * of the bucket from the merged sketch. The samples of a bucket point are the number of values counted by its sketches.
+ */
+public class HistogramBucketPointTransformer
+        implements Transformer<DataPoint<HistogramSketch>, List<NumericBucketPoint>> {
+
+    private final Buckets buckets;
+    private final List<Percentile> percentiles;
+
+    public HistogramBucketPointTransformer(Buckets buckets, List<Percentile> percentiles) {
+        this.buckets = buckets;
+        this.percentiles = percentiles;
+    }
+
+    @Override
+    public Observable<List<NumericBucketPoint>> call(Observable<DataPoint<HistogramSketch>> dataPoints) {
+        return dataPoints
+                .groupBy(dataPoint -> buckets.getIndex(dataPoint.getTimestamp()))
+                .flatMap(group -> group
+                        .collect(HistogramSketch::new, (sketch, dataPoint) -> sketch.merge(dataPoint.getValue()))
+                        .filter(sketch -> sketch.getCount() > 0)
+                        .map(sketch -> toBucketPoint(group.getKey(), sketch)))
+                .toMap(NumericBucketPoint::getStart)
+                .map(pointMap -> NumericBucketPoint.toList(pointMap, buckets));
+    }
+
+    private NumericBucketPoint toBucketPoint(int bucketIndex, HistogramSketch sketch) {
+        long from = buckets.getBucketStart(bucketIndex);
+        List<Percentile> percentileReturns = percentiles.stream()
+                .map(p -> new Percentile(p.getOriginalQuantile(), sketch.getQuantile(p.getQuantile() / 100)))
+                .collect(Collectors.toList());
+        return new NumericBucketPoint.Builder(from, from + buckets.getStep())
+                .setMin(sketch.getMin())
+                .setAvg(sketch.getSum() / sketch.getCount())
+                .setMedian(sketch.getQuantile(0.5))
+                .setMax(sketch.getMax())
+                .setSum(sketch.getSum())
+                .setSamples(Ints.saturatedCast(sketch.getCount()))
+                .setPercentiles(percentileReturns)
+                .build();
+    }
+}
@@ -81,13 +81,18 @@ public final class NumericDataPointCollector {
     }
 
     public void increment(DataPoint<? extends Number> dataPoint) {
-        Number value = dataPoint.getValue();
-        min.increment(value.doubleValue());
-        average.increment(value.doubleValue());
-        max.increment(value.doubleValue());
-        sum.increment(value.doubleValue());
+        increment(dataPoint.getValue().doubleValue());
+    }
+
+    public void increment(double value) {
+        min.increment(value);
+        average.increment(value);
+        max.increment(value);
+        sum.increment(value);
         samples++;
-        percentiles.stream().forEach(p -> p.addValue(value.doubleValue()));
+        for (int i = 0; i < percentiles.size(); i++) {
+            percentiles.get(i).addValue(value);
+        }
     }
 
     public NumericBucketPoint toBucketPoint() {
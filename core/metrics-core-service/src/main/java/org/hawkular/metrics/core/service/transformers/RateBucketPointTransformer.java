@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import static org.hawkular.metrics.core.service.Order.ASC;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricType;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.Percentile;
+
+import rx.Observable;
+import rx.Observable.Transformer;
+
+/**
+ * Computes the rate stats of one or more series of gauge or counter data points, sorted in ascending order. The result
+ * is the same as composing {@link RateTransformer} and {@link NumericBucketPointTransformer}, but rates are computed
+ * with a {@link RateCalculator} per series and fed directly to the bucket collectors: no data point is created per rate
+ * and data points are not grouped by bucket.
+ * <p>
+ * The series are subscribed to concurrently. Their data points are forwarded in small chunks, along with the
+ * calculator of the series, so that all rates are computed and aggregated on the serialized side of the merge.
+ */
+public class RateBucketPointTransformer
+        implements Transformer<Observable<? extends DataPoint<? extends Number>>, List<NumericBucketPoint>> {
+
+    static final int CHUNK_SIZE = 256;
+
+    private final MetricType<?> type;
+    private final Buckets buckets;
+    private final List<Percentile> percentiles;
+
+    /**
+     * @param type the type of the source metrics
+     */
+    public RateBucketPointTransformer(MetricType<?> type, Buckets buckets, List<Percentile> percentiles) {
+        this.type = type;
+        this.buckets = buckets;
+        this.percentiles = percentiles;
+    }
+
+    @Override
+    public Observable<List<NumericBucketPoint>> call(Observable<Observable<? extends DataPoint<? extends Number>>>
+            series) {
+        return series
+                .flatMap(dataPoints -> Observable.defer(() -> {
+                    RateCalculator calculator = new RateCalculator(type, ASC);
+                    return dataPoints.buffer(CHUNK_SIZE).map(chunk -> new Chunk(calculator, chunk));
+                }))
+                .collect(() -> new Collector(buckets, percentiles), Collector::add)
+                .map(Collector::toList);
+    }
+
+    private static class Chunk {
+        final RateCalculator calculator;
+        final List<? extends DataPoint<? extends Number>> dataPoints;
+
+        Chunk(RateCalculator calculator, List<? extends DataPoint<? extends Number>> dataPoints) {
+            this.calculator = calculator;
+            this.dataPoints = dataPoints;
+        }
+    }
+
+    private static class Collector {
+        final Buckets buckets;
+        final List<Percentile> percentiles;
+        final NumericDataPointCollector[] collectors;
+
+        Collector(Buckets buckets, List<Percentile> percentiles) {
+            this.buckets = buckets;
+            this.percentiles = percentiles;
+            this.collectors = new NumericDataPointCollector[buckets.getCount()];
+        }
+
+        void add(Chunk chunk) {
+            RateCalculator calculator = chunk.calculator;
+            for (DataPoint<? extends Number> dataPoint : chunk.dataPoints) {
+                if (calculator.add(dataPoint.getTimestamp(), dataPoint.getValue())) {
+                    int index = buckets.getIndex(calculator.getTimestamp());
+                    NumericDataPointCollector collector = collectors[index];
+                    if (collector == null) {
+                        collector = new NumericDataPointCollector(buckets, index, percentiles);
+                        collectors[index] = collector;
+                    }
+                    collector.increment(calculator.getRate());
+                }
+            }
+        }
+
+        List<NumericBucketPoint> toList() {
+            List<NumericBucketPoint> result = new ArrayList<>(collectors.length);
+            for (int index = 0; index < collectors.length; index++) {
+                if (collectors[index] != null) {
+                    result.add(collectors[index].toBucketPoint());
+                } else {
+                    long from = buckets.getBucketStart(index);
+                    result.add(new NumericBucketPoint.Builder(from, from + buckets.getStep()).build());
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import static org.hawkular.metrics.core.service.Order.ASC;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+
+import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.model.MetricType;
+
+/**
+ * Computes the rates, expressed per minute, of a single series of gauge or counter values. The previous value is held
+ * in primitive fields, so that no object is allocated per data point.
+ * <p>
+ * Each rate is computed from a pair of consecutive values and has the timestamp of the most recent one. For counters,
+ * pairs which straddle a counter reset are dropped. Instances are stateful and not thread safe.
+ */
+public final class RateCalculator {
+
+    private final boolean counter;
+    private final boolean ascending;
+
+    private boolean hasPrevious;
+    private long previousTimestamp;
+    private double previousValue;
+    private long previousCount;
+
+    private long timestamp;
+    private double rate;
+
+    /**
+     * @param type  the type of the source metric
+     * @param order the order in which the values are {@link #add(long, Number) added}
+     */
+    public RateCalculator(MetricType<?> type, Order order) {
+        this.counter = type == COUNTER;
+        this.ascending = order == ASC;
+    }
+
+    /**
+     * @return true if a new rate is available, in which case it can be read with {@link #getTimestamp()} and
+     * {@link #getRate()}
+     */
+    public boolean add(long timestamp, Number value) {
+        double doubleValue = value.doubleValue();
+        long count = counter ? value.longValue() : 0;
+        boolean hadPrevious = hasPrevious;
+        long otherTimestamp = previousTimestamp;
+        double otherValue = previousValue;
+        long otherCount = previousCount;
+
+        hasPrevious = true;
+        previousTimestamp = timestamp;
+        previousValue = doubleValue;
+        previousCount = count;
+
+        if (!hadPrevious) {
+            return false;
+        }
+        if (ascending) {
+            return compute(otherTimestamp, otherValue, otherCount, timestamp, doubleValue, count);
+        }
+        return compute(timestamp, doubleValue, count, otherTimestamp, otherValue, otherCount);
+    }
+
+    private boolean compute(long timestamp1, double value1, long count1, long timestamp2, double value2,
+            long count2) {
+        if (counter && count2 < count1) {
+            return false;
+        }
+        timestamp = timestamp2;
+        rate = 60_000D * (value2 - value1) / (timestamp2 - timestamp1);
+        return true;
+    }
+
+    /**
+     * @return the timestamp of the last computed rate
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the last computed rate
+     */
+    public double getRate() {
+        return rate;
+    }
+}
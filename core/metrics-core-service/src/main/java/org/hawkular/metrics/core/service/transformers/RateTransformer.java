@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricType;
+
+import rx.Observable;
+import rx.Observable.Transformer;
+import rx.Producer;
+import rx.Subscriber;
+
+/**
+ * Transforms a sequence of gauge or counter data points into a sequence of rates, expressed per minute. Each rate is
+ * computed from a pair of consecutive data points and has the timestamp of the most recent one. For counters, pairs
+ * which straddle a counter reset are dropped.
+ * <p>
+ * When the rates are only needed to compute bucket points, {@link RateBucketPointTransformer} should be preferred, it
+ * does not create a data point per rate.
+ */
+public class RateTransformer implements Transformer<DataPoint<? extends Number>, DataPoint<Double>> {
+
+    private final MetricType<?> type;
+    private final Order order;
+
+    /**
+     * @param type  the type of the source metric
+     * @param order the order in which the source data points are sorted, rates are emitted in the same order
+     */
+    public RateTransformer(MetricType<?> type, Order order) {
+        this.type = type;
+        this.order = order;
+    }
+
+    @Override
+    public Observable<DataPoint<Double>> call(Observable<DataPoint<? extends Number>> dataPoints) {
+        return dataPoints.lift(child -> {
+            Subscriber<DataPoint<? extends Number>> parent = new Subscriber<DataPoint<? extends Number>>() {
+                final RateCalculator calculator = new RateCalculator(type, order);
+
+                @Override
+                public void setProducer(Producer producer) {
+                    super.setProducer(producer);
+                    child.setProducer(producer);
+                }
+
+                @Override
+                public void onNext(DataPoint<? extends Number> dataPoint) {
+                    if (calculator.add(dataPoint.getTimestamp(), dataPoint.getValue())) {
+                        child.onNext(new DataPoint<>(calculator.getTimestamp(), calculator.getRate()));
+                    } else {
+                        // Nothing emitted for the first data point or a counter reset, keep the requested amount
+                        request(1);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    child.onError(e);
+                }
+
+                @Override
+                public void onCompleted() {
+                    child.onCompleted();
+                }
+            };
+            child.add(parent);
+            return parent;
+        });
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+
+import static org.hawkular.metrics.core.service.Order.ASC;
+import static org.hawkular.metrics.core.service.Order.DESC;
+import static org.hawkular.metrics.model.AvailabilityType.DOWN;
+import static org.hawkular.metrics.model.AvailabilityType.UP;
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Test;
+
+public class CompressedBlockCacheTest {
+
+    @Test
+    public void shouldReturnDataPointsWithinTimeRange() {
+        CompressedBlockCache cache = new CompressedBlockCache();
+        MetricId<Double> gauge = new MetricId<>("t1", GAUGE, "g1");
+        List<DataPoint<Double>> dataPoints = asList(
+                new DataPoint<>(10L, 1.0),
+                new DataPoint<>(20L, 2.0, singletonMap("x", "1")),
+                new DataPoint<>(30L, 3.0),
+                new DataPoint<>(40L, 4.0));
+
+        assertNull(cache.get(gauge, 0));
+        cache.put(gauge, 0, dataPoints);
+        CompressedBlockCache.Block block = cache.get(gauge, 0);
+        assertNotNull(block);
+        assertNull(cache.get(gauge, 7200000));
+        assertNull(cache.get(new MetricId<>("t2", GAUGE, "g1"), 0));
+
+        assertEquals(dataPoints, block.getDataPoints(GAUGE, 0, 100, ASC));
+        assertEquals(asList(dataPoints.get(1), dataPoints.get(2)), block.getDataPoints(GAUGE, 20, 40, ASC));
+        assertEquals(singletonMap("x", "1"), block.getDataPoints(GAUGE, 20, 21, ASC).get(0).getTags());
+        assertEquals(asList(dataPoints.get(3), dataPoints.get(2), dataPoints.get(1)),
+                block.getDataPoints(GAUGE, 15, 45, DESC));
+        assertTrue(block.getDataPoints(GAUGE, 41, 100, ASC).isEmpty());
+        assertTrue(block.getDataPoints(GAUGE, 0, 10, ASC).isEmpty());
+    }
+
+    @Test
+    public void shouldKeepValuesOfEachType() {
+        CompressedBlockCache cache = new CompressedBlockCache();
+        MetricId<Long> counter = new MetricId<>("t1", COUNTER, "c1");
+        MetricId<AvailabilityType> availability = new MetricId<>("t1", AVAILABILITY, "a1");
+        List<DataPoint<Long>> counterPoints = asList(new DataPoint<>(10L, 5L), new DataPoint<>(20L, 1L << 40));
+        List<DataPoint<AvailabilityType>> availabilityPoints = asList(new DataPoint<>(10L, UP),
+                new DataPoint<>(20L, DOWN));
+
+        cache.put(counter, 0, counterPoints);
+        cache.put(availability, 0, availabilityPoints);
+
+        assertEquals(counterPoints, cache.get(counter, 0).getDataPoints(COUNTER, 0, 100, ASC));
+        assertEquals(availabilityPoints, cache.get(availability, 0).getDataPoints(AVAILABILITY, 0, 100, ASC));
+    }
+
+    @Test
+    public void shouldInvalidateBlocks() {
+        CompressedBlockCache cache = new CompressedBlockCache();
+        MetricId<Double> gauge = new MetricId<>("t1", GAUGE, "g1");
+        cache.put(gauge, 0, asList(new DataPoint<>(10L, 1.0)));
+        cache.put(gauge, 7200000, asList(new DataPoint<>(7200010L, 1.0)));
+
+        cache.invalidate(gauge, 0);
+        assertNull(cache.get(gauge, 0));
+        assertNotNull(cache.get(gauge, 7200000));
+
+        cache.clear();
+        assertNull(cache.get(gauge, 7200000));
+    }
+
+    @Test
+    public void shouldCacheAbsentBlocks() {
+        CompressedBlockCache cache = new CompressedBlockCache();
+        MetricId<Double> gauge = new MetricId<>("t1", GAUGE, "g1");
+
+        cache.putAbsent(gauge, 0);
+        CompressedBlockCache.Block block = cache.get(gauge, 0);
+        assertNotNull(block);
+        assertEquals(0, block.size());
+        assertTrue(block.getDataPoints(GAUGE, 0, 7200000, ASC).isEmpty());
+        assertNull(cache.get(gauge, 7200000));
+
+        cache.invalidate(gauge, 0);
+        assertNull(cache.get(gauge, 0));
+    }
+
+    @Test
+    public void shouldBoundNumberOfDataPoints() {
+        CompressedBlockCache cache = new CompressedBlockCache(10);
+        MetricId<Double> gauge = new MetricId<>("t1", GAUGE, "g1");
+        List<DataPoint<Double>> dataPoints = asList(new DataPoint<>(10L, 1.0), new DataPoint<>(20L, 2.0),
+                new DataPoint<>(30L, 3.0), new DataPoint<>(40L, 4.0));
+
+        for (int i = 0; i < 10; i++) {
+            cache.put(gauge, i * 7200000L, dataPoints);
+        }
+        int cached = 0;
+        for (int i = 0; i < 10; i++) {
+            if (cache.get(gauge, i * 7200000L) != null) {
+                ++cached;
+            }
+        }
+        assertTrue(cached * dataPoints.size() <= 10);
+    }
+
+    @Test
+    public void shouldNotCacheWhenDisabled() {
+        CompressedBlockCache cache = new CompressedBlockCache(0);
+        MetricId<Double> gauge = new MetricId<>("t1", GAUGE, "g1");
+        List<DataPoint<Double>> dataPoints = asList(new DataPoint<>(10L, 1.0));
+
+        assertFalse(cache.isEnabled());
+        assertEquals(dataPoints, cache.put(gauge, 0, dataPoints).getDataPoints(GAUGE, 0, 100, ASC));
+        assertNull(cache.get(gauge, 0));
+    }
+}
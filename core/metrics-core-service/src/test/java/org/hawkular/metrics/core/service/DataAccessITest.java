@@ -22,14 +22,20 @@ import static java.util.Collections.singletonList;
 import static org.hawkular.metrics.model.AvailabilityType.UP;
 import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
 import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.hawkular.metrics.model.MetricType.STRING;
 import static org.joda.time.DateTime.now;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
 import org.hawkular.metrics.core.service.transformers.MetricIdentifierFromFullDataRowTransformer;
 import org.hawkular.metrics.model.AvailabilityType;
 import org.hawkular.metrics.model.DataPoint;
@@ -49,6 +55,7 @@ import com.datastax.driver.core.Row;
 import com.datastax.driver.core.TableMetadata;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 
 import rx.Observable;
 import rx.Observer;
@@ -185,6 +192,57 @@ public class DataAccessITest extends BaseITest {
         assertEquals(actual, expected, "The data does not match the expected values");
     }
 
+    @Test
+    public void insertAndFindTaggedGaugeData() throws Exception {
+        DateTime start = now();
+        MetricId<Double> id = new MetricId<>("tenant-1", GAUGE, "metric-1");
+        Metric<Double> metric = new Metric<>(id, asList(
+                new DataPoint<>(start.getMillis(), 1.23, ImmutableMap.of("x", "1", "y", "2")),
+                new DataPoint<>(start.plusMinutes(2).getMillis(), 1.234, ImmutableMap.of("x", "3"))));
+
+        doAction(() -> dataAccess.insertData(Observable.just(metric)).doOnError(Throwable::printStackTrace));
+
+        // Overwriting a frozen collection does not write a tombstone
+        String tableName = dataAccess.getTempTableName(start.getMillis());
+        assertTrue(session.getCluster().getMetadata().getKeyspace(session.getLoggedKeyspace()).getTable(tableName)
+                .getColumn("tags").getType().isFrozen());
+
+        List<DataPoint<Double>> actual = dataAccess.findTempData(id, start.getMillis(),
+                start.plusMinutes(4).getMillis(), 0, Order.ASC, DEFAULT_PAGE_SIZE)
+                .map(Functions::getTempGaugeDataPoint)
+                .toList().toBlocking().single();
+        assertEquals(actual, metric.getDataPoints());
+    }
+
+    @Test
+    public void rewriteDataPointWithFewerTags() throws Exception {
+        DateTime start = now();
+        MetricId<Double> gauge = new MetricId<>("tenant-1", GAUGE, "metric-1");
+        MetricId<String> string = new MetricId<>("tenant-1", STRING, "metric-1");
+
+        doAction(() -> dataAccess.insertData(Observable.just(new Metric<>(gauge, singletonList(
+                new DataPoint<>(start.getMillis(), 1.23, ImmutableMap.of("x", "1", "y", "2")))))));
+        doAction(() -> dataAccess.insertStringData(new Metric<>(string, singletonList(
+                new DataPoint<>(start.getMillis(), "a", ImmutableMap.of("x", "1", "y", "2")))), -1));
+
+        doAction(() -> dataAccess.insertData(Observable.just(new Metric<>(gauge, singletonList(
+                new DataPoint<>(start.getMillis(), 1.23, ImmutableMap.of("x", "3")))))));
+        doAction(() -> dataAccess.insertStringData(new Metric<>(string, singletonList(
+                new DataPoint<>(start.getMillis(), "a", ImmutableMap.of("x", "3")))), -1));
+
+        List<DataPoint<Double>> gaugeData = dataAccess.findTempData(gauge, start.getMillis(),
+                start.plusMinutes(1).getMillis(), 0, Order.ASC, DEFAULT_PAGE_SIZE)
+                .map(Functions::getTempGaugeDataPoint)
+                .toList().toBlocking().single();
+        assertEquals(gaugeData, singletonList(new DataPoint<>(start.getMillis(), 1.23, ImmutableMap.of("x", "3"))));
+
+        List<DataPoint<String>> stringData = dataAccess.findStringData(string, start.getMillis(),
+                start.plusMinutes(1).getMillis(), 0, Order.ASC, DEFAULT_PAGE_SIZE)
+                .map(Functions::getStringDataPoint)
+                .toList().toBlocking().single();
+        assertEquals(stringData, singletonList(new DataPoint<>(start.getMillis(), "a", ImmutableMap.of("x", "3"))));
+    }
+
     @Test
     public void insertAndFindAvailabilities() throws Exception {
         DateTime start = now();
@@ -270,4 +328,55 @@ public class DataAccessITest extends BaseITest {
         tsr.assertNoErrors();
         tsr.assertValueCount(amountOfMetrics);
     }
+
+    @Test
+    public void moveLegacyCompressedData() throws Exception {
+        MetricId<Double> id = new MetricId<>("t1", GAUGE, "legacy");
+        long blockSize = TimeUnit.HOURS.toMillis(2);
+        long start = DataAccessImpl.getCompressedPartition(now().getMillis()) - 2 * DataAccessImpl
+                .COMPRESSED_PARTITION_SIZE;
+        long end = now().getMillis();
+
+        PreparedStatement insertLegacy = session.prepare("INSERT INTO data_compressed (tenant_id, type, metric, " +
+                "dpart, time, c_value) VALUES (?, ?, ?, ?, ?, ?) USING TTL 86400");
+        long recentBlock = end - end % blockSize - blockSize;
+        List<Long> blocks = new ArrayList<>();
+        for (long block = start; block < recentBlock; block += 40 * blockSize) {
+            blocks.add(block);
+            session.execute(insertLegacy.bind(id.getTenantId(), GAUGE.getCode(), id.getName(), DataAccessImpl.DPART,
+                    new Date(block), ByteBuffer.wrap(new byte[]{1, 2, 3})));
+        }
+        // A block already written to its time window
+        blocks.add(recentBlock);
+        CompressedPointContainer cpc = new CompressedPointContainer();
+        cpc.setValueBuffer(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        dataAccess.insertCompressedData(id, recentBlock, cpc, 86400).toBlocking().lastOrDefault(null);
+
+        assertEquals(findCompressedBlocks(id, start, end, Order.ASC), blocks);
+
+        List<MetricId<?>> legacySeries = dataAccess.findSeriesInLegacyCompressedPartition()
+                .compose(new MetricIdentifierFromFullDataRowTransformer(0))
+                .toList().toBlocking().single();
+        assertEquals(legacySeries, singletonList(id));
+
+        int moved = dataAccess.moveLegacyCompressedData(id).toBlocking().single();
+        assertEquals(moved, blocks.size() - 1);
+        assertEquals(session.execute("SELECT time FROM data_compressed WHERE tenant_id = 't1' AND type = " +
+                GAUGE.getCode() + " AND metric = 'legacy' AND dpart = " + DataAccessImpl.DPART).all().size(), 0);
+        assertEquals(findCompressedBlocks(id, start, end, Order.ASC), blocks);
+
+        try {
+            dataAccess.setLegacyCompressedDataMoved(true);
+            assertEquals(findCompressedBlocks(id, start, end, Order.ASC), blocks);
+            assertEquals(findCompressedBlocks(id, start, end, Order.DESC), Lists.reverse(blocks));
+        } finally {
+            dataAccess.setLegacyCompressedDataMoved(false);
+        }
+    }
+
+    private List<Long> findCompressedBlocks(MetricId<?> id, long start, long end, Order order) {
+        return dataAccess.findCompressedData(id, start, end, 0, order)
+                .map(row -> row.getTimestamp(0).getTime())
+                .toList().toBlocking().single();
+    }
 }
@@ -21,6 +21,7 @@ import java.util.Set;
 import java.util.function.Function;
 
 import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.model.HistogramSketch;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
@@ -112,6 +113,26 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.findMetricsInMetricsIndex(tenantId, type);
     }
 
+    @Override
+    public Observable<Integer> insertIntoSeriesIndex(Observable<? extends MetricId<?>> ids) {
+        return delegate.insertIntoSeriesIndex(ids);
+    }
+
+    @Override
+    public <T> Observable<Row> findMetricsInSeriesIndex(String tenantId, MetricType<T> type) {
+        return delegate.findMetricsInSeriesIndex(tenantId, type);
+    }
+
+    @Override
+    public Observable<Row> findAllMetricsInSeriesIndex() {
+        return delegate.findAllMetricsInSeriesIndex();
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteFromSeriesIndex(MetricId<T> id) {
+        return delegate.deleteFromSeriesIndex(id);
+    }
+
     @Override public Observable<Observable<Row>> findAllDataFromBucket(long timestamp, int pageSize, int maxConcurrency) {
         return delegate.findAllDataFromBucket(timestamp, pageSize, maxConcurrency);
     }
@@ -140,17 +161,49 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.insertStringDatas(strings, ttlFetcher, maxSize);
     }
 
+    @Override
+    public Observable<Integer> insertHistogramData(Observable<Metric<HistogramSketch>> histograms,
+            Function<MetricId<HistogramSketch>, Integer> ttlFetcher) {
+        return delegate.insertHistogramData(histograms, ttlFetcher);
+    }
+
+    @Override
+    public Observable<Row> findHistogramData(MetricId<HistogramSketch> id, long startTime, long endTime, int limit,
+            Order order, int pageSize) {
+        return delegate.findHistogramData(id, startTime, endTime, limit, order, pageSize);
+    }
+
     @Override
     public Observable<Row> findCompressedData(MetricId<?> id, long startTime, long endTime, int limit, Order order) {
         return delegate.findCompressedData(id, startTime, endTime, limit, order);
     }
 
+    @Override
+    public Observable<Row> findSeriesInLegacyCompressedPartition() {
+        return delegate.findSeriesInLegacyCompressedPartition();
+    }
+
+    @Override
+    public <T> Observable<Integer> moveLegacyCompressedData(MetricId<T> id) {
+        return delegate.moveLegacyCompressedData(id);
+    }
+
+    @Override
+    public void setLegacyCompressedDataMoved(boolean moved) {
+        delegate.setLegacyCompressedDataMoved(moved);
+    }
+
     @Override
     public <T> Observable<Row> findTempData(MetricId<T> id, long startTime, long endTime, int limit, Order order,
                                             int pageSize) {
         return delegate.findTempData(id, startTime, endTime, limit, order, pageSize);
     }
 
+    @Override
+    public int countTempTables(long startTime, long endTime) {
+        return delegate.countTempTables(startTime, endTime);
+    }
+
 //    @Override
 //    public <T> Observable<Row> findOldData(MetricId<T> id, long startTime, long endTime, int limit, Order order,
 //                                           int pageSize) {
@@ -173,8 +226,8 @@ public class DelegatingDataAccess implements DataAccess {
     }
 
     @Override
-    public <T> Observable<ResultSet> deleteMetricData(MetricId<T> id) {
-        return delegate.deleteMetricData(id);
+    public <T> Observable<ResultSet> deleteMetricData(MetricId<T> id, int dataRetention) {
+        return delegate.deleteMetricData(id, dataRetention);
     }
 
     @Override
@@ -246,6 +299,11 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.updateMetricExpirationIndex(id, expirationTime);
     }
 
+    @Override
+    public Observable<Integer> updateMetricExpirationIndex(Map<? extends MetricId<?>, Long> expirations) {
+        return delegate.updateMetricExpirationIndex(expirations);
+    }
+
     @Override
     public <T> Observable<ResultSet> deleteFromMetricExpirationIndex(MetricId<T> id) {
         return delegate.deleteFromMetricExpirationIndex(id);
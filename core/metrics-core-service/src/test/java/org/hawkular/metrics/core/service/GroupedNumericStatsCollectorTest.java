@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Collections.emptyList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.junit.Test;
+
+public class GroupedNumericStatsCollectorTest {
+
+    private final Buckets buckets = new Buckets(100, 100, 2);
+
+    @Test
+    public void shouldAggregateDataPointsOfEachGroup() {
+        GroupedNumericStatsCollector collector = new GroupedNumericStatsCollector(buckets, emptyList());
+        collector.increment("ns1", new DataPoint<>(110L, 1.0));
+        collector.increment("ns1", new DataPoint<>(120L, 3.0));
+        collector.increment("ns2", new DataPoint<>(250L, 5.0));
+
+        Map<String, List<NumericBucketPoint>> stats = collector.toBucketPoints();
+
+        assertEquals(2, stats.size());
+        List<NumericBucketPoint> ns1 = stats.get("ns1");
+        assertEquals(2, ns1.size());
+        assertEquals(2, ns1.get(0).getSamples().intValue());
+        assertEquals(1.0, ns1.get(0).getMin(), 0);
+        assertEquals(3.0, ns1.get(0).getMax(), 0);
+        assertEquals(4.0, ns1.get(0).getSum(), 0);
+        assertTrue(ns1.get(1).isEmpty());
+        List<NumericBucketPoint> ns2 = stats.get("ns2");
+        assertTrue(ns2.get(0).isEmpty());
+        assertEquals(5.0, ns2.get(1).getAvg(), 0);
+    }
+
+    @Test
+    public void shouldSumBucketPointsOfEachGroup() {
+        GroupedNumericStatsCollector collector = new GroupedNumericStatsCollector(buckets, emptyList());
+        collector.increment("ns1", bucketPoint(100, 1.0, 2.0));
+        collector.increment("ns1", bucketPoint(100, 3.0, 4.0));
+        collector.increment("ns1", new NumericBucketPoint.Builder(200, 300).build());
+        collector.increment("ns2", bucketPoint(200, 5.0, 5.0));
+
+        Map<String, List<NumericBucketPoint>> stats = collector.toBucketPoints();
+
+        List<NumericBucketPoint> ns1 = stats.get("ns1");
+        assertEquals(2, ns1.size());
+        assertEquals(4.0, ns1.get(0).getMin(), 0);
+        assertEquals(6.0, ns1.get(0).getMax(), 0);
+        assertEquals(2, ns1.get(0).getSamples().intValue());
+        assertTrue(ns1.get(1).isEmpty());
+        List<NumericBucketPoint> ns2 = stats.get("ns2");
+        assertTrue(ns2.get(0).isEmpty());
+        assertEquals(5.0, ns2.get(1).getMax(), 0);
+    }
+
+    private static NumericBucketPoint bucketPoint(long start, double min, double max) {
+        return new NumericBucketPoint.Builder(start, start + 100)
+                .setMin(min)
+                .setAvg((min + max) / 2)
+                .setMedian((min + max) / 2)
+                .setMax(max)
+                .setSum(min + max)
+                .setSamples(2)
+                .build();
+    }
+}
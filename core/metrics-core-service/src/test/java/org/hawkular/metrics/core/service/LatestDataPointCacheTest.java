@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+import static org.hawkular.metrics.core.service.LatestDataPointCache.VALIDITY;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Test;
+
+public class LatestDataPointCacheTest {
+
+    private final MetricId<Double> id = new MetricId<>("t1", GAUGE, "m1");
+
+    @Test
+    public void shouldAnswerQueriesEndingBeforeValidity() {
+        LatestDataPointCache cache = new LatestDataPointCache();
+        DataPoint<Double> dataPoint = new DataPoint<>(1000L, 1.0);
+
+        assertNull(cache.get(id, 0, 2000));
+
+        cache.put(id, dataPoint, 5000, cache.getGeneration(id));
+        assertEquals(Optional.of(dataPoint), cache.get(id, 0, 2000));
+        assertEquals(Optional.of(dataPoint), cache.get(id, 1000, 5000));
+        assertEquals(Optional.empty(), cache.get(id, 1500, 2000));
+        // The cache does not know the data points before the cached one
+        assertNull(cache.get(id, 0, 1000));
+        assertNull(cache.get(id, 0, 5001));
+    }
+
+    @Test
+    public void shouldUpdateCachedSeries() {
+        LatestDataPointCache cache = new LatestDataPointCache();
+        MetricId<Double> other = new MetricId<>("t1", GAUGE, "m2");
+        cache.put(id, new DataPoint<>(1000L, 1.0), 5000, cache.getGeneration(id));
+
+        cache.update(new Metric<>(id, asList(new DataPoint<>(3000L, 3.0), new DataPoint<>(2000L, 2.0))));
+        assertEquals(Optional.of(new DataPoint<>(3000L, 3.0)), cache.get(id, 0, 5000));
+
+        // Late and future data points leave the entry unchanged
+        cache.update(new Metric<>(id, asList(new DataPoint<>(1500L, 1.5))));
+        cache.update(new Metric<>(id, asList(new DataPoint<>(6000L, 6.0))));
+        assertEquals(Optional.of(new DataPoint<>(3000L, 3.0)), cache.get(id, 0, 5000));
+
+        cache.update(new Metric<>(other, asList(new DataPoint<>(3000L, 3.0))));
+        assertNull(cache.get(other, 0, 5000));
+
+        cache.invalidateAll(asList(id, other));
+        assertNull(cache.get(id, 0, 5000));
+    }
+
+    @Test
+    public void shouldEvictEntriesWhenFull() {
+        LatestDataPointCache cache = new LatestDataPointCache(4096);
+        for (int i = 0; i < 1000; ++i) {
+            MetricId<Double> series = new MetricId<>("t1", GAUGE, "m" + i);
+            cache.put(series, new DataPoint<>(1000L, (double) i), VALIDITY, cache.getGeneration(series));
+        }
+        assertNull(cache.get(new MetricId<>("t1", GAUGE, "m0"), 0, 2000));
+        assertEquals(Optional.of(new DataPoint<>(1000L, 999.0)),
+                cache.get(new MetricId<>("t1", GAUGE, "m999"), 0, 2000));
+    }
+
+    @Test
+    public void shouldBeDisabledWithoutSize() {
+        LatestDataPointCache cache = new LatestDataPointCache(0);
+        assertFalse(cache.isEnabled());
+        cache.put(id, new DataPoint<>(1000L, 1.0), 5000, cache.getGeneration(id));
+        assertNull(cache.get(id, 0, 2000));
+        assertTrue(new LatestDataPointCache().isEnabled());
+    }
+
+    @Test
+    public void shouldNotCacheDataPointLoadedBeforeWrite() {
+        LatestDataPointCache cache = new LatestDataPointCache();
+        long generation = cache.getGeneration(id);
+
+        // Written after the load read Cassandra, but before the loaded data point is cached
+        cache.update(new Metric<>(id, asList(new DataPoint<>(2000L, 2.0))));
+        cache.put(id, new DataPoint<>(1000L, 1.0), 5000, generation);
+
+        assertNull(cache.get(id, 0, 5000));
+    }
+
+    @Test
+    public void shouldNeverHideConcurrentWrites() throws Exception {
+        LatestDataPointCache cache = new LatestDataPointCache();
+        // Stands for the data points stored in Cassandra
+        AtomicReference<DataPoint<Double>> stored = new AtomicReference<>(new DataPoint<>(0L, 0.0));
+        int writes = 20_000;
+        AtomicBoolean done = new AtomicBoolean();
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> loaders = new ArrayList<>();
+            for (int i = 0; i < 2; ++i) {
+                loaders.add(executor.submit(() -> {
+                    while (!done.get()) {
+                        long generation = cache.getGeneration(id);
+                        cache.put(id, stored.get(), VALIDITY * 1000, generation);
+                    }
+                }));
+            }
+            executor.submit(() -> {
+                for (long i = 1; i <= writes; ++i) {
+                    DataPoint<Double> dataPoint = new DataPoint<>(i, (double) i);
+                    stored.set(dataPoint);
+                    cache.update(new Metric<>(id, singletonList(dataPoint)));
+                }
+                done.set(true);
+            }).get(1, TimeUnit.MINUTES);
+            for (Future<?> loader : loaders) {
+                loader.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Optional<DataPoint<Double>> cached = cache.get(id, 0, VALIDITY * 1000);
+        if (cached != null) {
+            assertEquals(Optional.of(new DataPoint<>((long) writes, (double) writes)), cached);
+        }
+    }
+}
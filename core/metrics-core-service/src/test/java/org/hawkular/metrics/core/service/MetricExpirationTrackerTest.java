@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class MetricExpirationTrackerTest {
+
+    private final MetricId<Double> m1 = new MetricId<>("t1", GAUGE, "m1");
+    private final MetricId<Double> m2 = new MetricId<>("t1", GAUGE, "m2");
+
+    @Test
+    public void shouldOnlyUpdateWhenExpirationMovesPastIndexedValue() {
+        MetricExpirationTracker tracker = new MetricExpirationTracker(100, 10);
+
+        assertTrue(tracker.update(m1, 1000));
+        assertTrue(tracker.update(m1, 1010));
+        Map<MetricId<?>, Long> drained = tracker.drain();
+        assertEquals(ImmutableMap.of(m1, 1110L), drained);
+        assertEquals(0, tracker.getPendingCount());
+        tracker.indexed(drained);
+
+        assertFalse(tracker.update(m1, 1050));
+        assertFalse(tracker.update(m1, 1110));
+        assertTrue(tracker.drain().isEmpty());
+
+        assertTrue(tracker.update(m1, 1111));
+        assertEquals(ImmutableMap.of(m1, 1211L), tracker.drain());
+    }
+
+    @Test
+    public void shouldKeepFailedUpdatesPending() {
+        MetricExpirationTracker tracker = new MetricExpirationTracker(100, 10);
+
+        tracker.update(m1, 1000);
+        tracker.update(m2, 2000);
+        Map<MetricId<?>, Long> drained = tracker.drain();
+        tracker.update(m1, 1500);
+        tracker.failed(drained);
+
+        assertEquals(ImmutableMap.of(m1, 1600L, m2, 2100L), tracker.drain());
+    }
+
+    @Test
+    public void shouldReportLatestExpiration() {
+        MetricExpirationTracker tracker = new MetricExpirationTracker(100, 10);
+        assertNull(tracker.getExpiration(m1));
+
+        tracker.update(m1, 1000);
+        assertEquals(1100L, tracker.getExpiration(m1).longValue());
+        tracker.indexed(tracker.drain());
+        assertEquals(1100L, tracker.getExpiration(m1).longValue());
+        tracker.update(m1, 2000);
+        assertEquals(2100L, tracker.getExpiration(m1).longValue());
+
+        tracker.remove(m1);
+        assertNull(tracker.getExpiration(m1));
+        assertTrue(tracker.update(m1, 1000));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.hawkular.metrics.model.QueryBudgetUsage;
+import org.hawkular.metrics.model.exception.QueryRejectedException;
+import org.junit.Test;
+
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
+
+public class QueryAdmissionTest {
+
+    @Test
+    public void shouldQueueQueriesBeyondConcurrencyLimit() {
+        QueryAdmission admission = new QueryAdmission(1, 0, 10);
+        PublishSubject<Integer> q1 = PublishSubject.create();
+        PublishSubject<Integer> q2 = PublishSubject.create();
+
+        TestSubscriber<Integer> s1 = new TestSubscriber<>();
+        admission.admit("t1", 1, q1).subscribe(s1);
+        TestSubscriber<Integer> s2 = new TestSubscriber<>();
+        admission.admit("t1", 1, q2).subscribe(s2);
+
+        assertTrue(q1.hasObservers());
+        assertFalse(q2.hasObservers());
+        assertEquals(new QueryBudgetUsage(1, 1, 1, 1, 0), admission.getUsage().get("t1"));
+
+        q1.onNext(1);
+        q1.onCompleted();
+        s1.assertValue(1);
+        s1.assertCompleted();
+        assertTrue(q2.hasObservers());
+
+        q2.onNext(2);
+        q2.onCompleted();
+        s2.assertValue(2);
+        assertEquals(new QueryBudgetUsage(0, 0, 0, 2, 0), admission.getUsage().get("t1"));
+    }
+
+    @Test
+    public void shouldNotLimitOtherTenants() {
+        QueryAdmission admission = new QueryAdmission(1, 0, 0);
+        PublishSubject<Integer> q1 = PublishSubject.create();
+        PublishSubject<Integer> q2 = PublishSubject.create();
+
+        admission.admit("t1", 1, q1).subscribe(new TestSubscriber<>());
+        admission.admit("t2", 1, q2).subscribe(new TestSubscriber<>());
+
+        assertTrue(q1.hasObservers());
+        assertTrue(q2.hasObservers());
+    }
+
+    @Test
+    public void shouldRejectQueriesWhenQueueIsFull() {
+        QueryAdmission admission = new QueryAdmission(1, 0, 1);
+        PublishSubject<Integer> q1 = PublishSubject.create();
+
+        admission.admit("t1", 1, q1).subscribe(new TestSubscriber<>());
+        admission.admit("t1", 1, PublishSubject.<Integer>create()).subscribe(new TestSubscriber<>());
+        TestSubscriber<Integer> rejected = new TestSubscriber<>();
+        admission.admit("t1", 1, PublishSubject.<Integer>create()).subscribe(rejected);
+
+        rejected.assertError(QueryRejectedException.class);
+        QueryRejectedException e = (QueryRejectedException) rejected.getOnErrorEvents().get(0);
+        assertEquals("t1", e.getTenantId());
+        assertTrue(e.getRetryAfter() >= 1);
+        assertEquals(new QueryBudgetUsage(1, 1, 1, 1, 1), admission.getUsage().get("t1"));
+    }
+
+    @Test
+    public void shouldAdmitQueriesWithinCostBudget() {
+        QueryAdmission admission = new QueryAdmission(0, 100, 10);
+        PublishSubject<Integer> q1 = PublishSubject.create();
+        PublishSubject<Integer> q2 = PublishSubject.create();
+        PublishSubject<Integer> q3 = PublishSubject.create();
+
+        admission.admit("t1", 60, q1).subscribe(new TestSubscriber<>());
+        admission.admit("t1", 40, q2).subscribe(new TestSubscriber<>());
+        admission.admit("t1", 250, q3).subscribe(new TestSubscriber<>());
+
+        assertTrue(q1.hasObservers());
+        assertTrue(q2.hasObservers());
+        assertFalse(q3.hasObservers());
+
+        q1.onCompleted();
+        assertFalse(q3.hasObservers());
+
+        // Too expensive for the budget, but it runs alone
+        q2.onError(new RuntimeException());
+        assertTrue(q3.hasObservers());
+        assertEquals(new QueryBudgetUsage(1, 0, 250, 3, 0), admission.getUsage().get("t1"));
+    }
+
+    @Test
+    public void shouldReleaseBudgetOfUnsubscribedQueries() {
+        QueryAdmission admission = new QueryAdmission(1, 0, 10);
+        PublishSubject<Integer> q1 = PublishSubject.create();
+        PublishSubject<Integer> q2 = PublishSubject.create();
+        PublishSubject<Integer> q3 = PublishSubject.create();
+
+        TestSubscriber<Integer> s1 = new TestSubscriber<>();
+        admission.admit("t1", 1, q1).subscribe(s1);
+        TestSubscriber<Integer> s2 = new TestSubscriber<>();
+        admission.admit("t1", 1, q2).subscribe(s2);
+        admission.admit("t1", 1, q3).subscribe(new TestSubscriber<>());
+
+        s2.unsubscribe();
+        assertEquals(new QueryBudgetUsage(1, 1, 1, 1, 0), admission.getUsage().get("t1"));
+
+        s1.unsubscribe();
+        assertFalse(q1.hasObservers());
+        assertFalse(q2.hasObservers());
+        assertTrue(q3.hasObservers());
+    }
+
+    @Test
+    public void shouldNotLimitQueriesWhenDisabled() {
+        QueryAdmission admission = new QueryAdmission(0, 0, 0);
+        PublishSubject<Integer> q1 = PublishSubject.create();
+        PublishSubject<Integer> q2 = PublishSubject.create();
+
+        admission.admit("t1", 1, q1).subscribe(new TestSubscriber<>());
+        admission.admit("t1", 1, q2).subscribe(new TestSubscriber<>());
+
+        assertTrue(q1.hasObservers());
+        assertTrue(q2.hasObservers());
+        assertTrue(admission.getUsage().isEmpty());
+    }
+}
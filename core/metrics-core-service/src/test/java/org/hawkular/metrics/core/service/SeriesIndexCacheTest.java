@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Arrays.asList;
+
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+public class SeriesIndexCacheTest {
+
+    @Test
+    public void shouldAddSeriesOnlyOnce() {
+        SeriesIndexCache cache = new SeriesIndexCache();
+        MetricId<Double> gauge = new MetricId<>("t1", GAUGE, "m1");
+
+        assertTrue(cache.add(gauge));
+        assertFalse(cache.add(new MetricId<>("t1", GAUGE, "m1")));
+        assertTrue(cache.add(new MetricId<>("t2", GAUGE, "m1")));
+        assertTrue(cache.add(new MetricId<>("t1", COUNTER, "m1")));
+
+        cache.invalidate(gauge);
+        assertTrue(cache.add(gauge));
+
+        cache.invalidateAll(asList(gauge, new MetricId<>("t2", GAUGE, "m1")));
+        assertTrue(cache.add(gauge));
+        assertTrue(cache.add(new MetricId<>("t2", GAUGE, "m1")));
+        assertFalse(cache.add(new MetricId<>("t1", COUNTER, "m1")));
+    }
+
+    @Test
+    public void shouldExpireSeries() {
+        AtomicLong nanos = new AtomicLong();
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        };
+        SeriesIndexCache cache = new SeriesIndexCache(10, TimeUnit.HOURS.toMillis(1), ticker);
+        MetricId<Double> gauge = new MetricId<>("t1", GAUGE, "m1");
+
+        assertTrue(cache.add(gauge));
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(59));
+        assertFalse(cache.add(gauge));
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        assertTrue(cache.add(gauge));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.RankedSeries;
+import org.junit.Test;
+
+public class SeriesRankingTest {
+
+    private static RankedSeries series(String name, double value) {
+        return new RankedSeries(new MetricId<>("t1", GAUGE, name), 1000L, value);
+    }
+
+    @Test
+    public void shouldKeepHighestSeries() {
+        SeriesRanking ranking = new SeriesRanking(2, Order.DESC);
+        assertEquals(emptyList(), ranking.getRanked());
+
+        ranking.offer(series("m1", 1.0));
+        ranking.offer(series("m2", 3.0));
+        ranking.offer(series("m3", 2.0));
+        ranking.offer(series("m4", Double.NaN));
+        ranking.offer(series("m0", 2.0));
+
+        assertEquals(asList(series("m2", 3.0), series("m0", 2.0)), ranking.getRanked());
+    }
+
+    @Test
+    public void shouldKeepLowestSeries() {
+        SeriesRanking ranking = new SeriesRanking(2, Order.ASC);
+
+        ranking.offer(series("m1", 1.0));
+        ranking.offer(series("m2", 3.0));
+        ranking.offer(series("m3", -2.0));
+
+        assertEquals(asList(series("m3", -2.0), series("m1", 1.0)), ranking.getRanked());
+    }
+
+    @Test
+    public void shouldOutrankOnceBoundsCannotBeatThreshold() {
+        SeriesRanking highest = new SeriesRanking(1, Order.DESC);
+        RankFunction.Accumulator min = RankFunction.MIN.newAccumulator();
+        min.add(1000L, 5.0);
+        assertFalse("The ranking is not full yet", highest.isOutranked(min));
+
+        highest.offer(series("m1", 4.0));
+        assertFalse(highest.isOutranked(min));
+        min.add(2000L, 3.0);
+        assertTrue(highest.isOutranked(min));
+
+        RankFunction.Accumulator avg = RankFunction.AVG.newAccumulator();
+        avg.add(1000L, -100.0);
+        assertFalse("The average can still grow", highest.isOutranked(avg));
+
+        SeriesRanking lowest = new SeriesRanking(1, Order.ASC);
+        lowest.offer(series("m1", 4.0));
+        RankFunction.Accumulator max = RankFunction.MAX.newAccumulator();
+        max.add(1000L, 4.0);
+        assertFalse("A tie may still be ranked", lowest.isOutranked(max));
+        max.add(2000L, 4.5);
+        assertTrue(lowest.isOutranked(max));
+    }
+
+    @Test
+    public void shouldComputeRankFunctions() {
+        double[] values = {3.0, 1.0, Double.NaN, 2.0};
+        assertEquals(2.0, accumulate(RankFunction.AVG, values).getResult(), 0.0);
+        assertEquals(1.0, accumulate(RankFunction.MIN, values).getResult(), 0.0);
+        assertEquals(3.0, accumulate(RankFunction.MAX, values).getResult(), 0.0);
+        assertEquals(6.0, accumulate(RankFunction.SUM, values).getResult(), 0.0);
+        assertEquals(2.0, accumulate(RankFunction.LAST, values).getResult(), 0.0);
+        assertEquals(4000L, accumulate(RankFunction.LAST, values).getTimestamp());
+        assertTrue(accumulate(RankFunction.AVG, Double.NaN).isEmpty());
+    }
+
+    @Test
+    public void shouldParseRankFunctions() {
+        assertEquals(RankFunction.AVG, RankFunction.fromText("avg"));
+        assertEquals(RankFunction.MAX, RankFunction.fromText("MAX"));
+        assertEquals("p95", RankFunction.fromText("p95").toString());
+        assertEquals("p99.9", RankFunction.fromText("P99.9").toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownRankFunction() {
+        RankFunction.fromText("median");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidPercentile() {
+        RankFunction.fromText("p120");
+    }
+
+    private static RankFunction.Accumulator accumulate(RankFunction function, double... values) {
+        RankFunction.Accumulator accumulator = function.newAccumulator();
+        for (int i = 0; i < values.length; ++i) {
+            accumulator.add((i + 1) * 1000L, values[i]);
+        }
+        return accumulator;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.exceptions.SyntaxError;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class StatementPreparerTest {
+
+    @Test
+    public void shouldSendAllStatementsBeforeWaiting() {
+        Session session = mock(Session.class);
+        PreparedStatement first = mock(PreparedStatement.class);
+        PreparedStatement second = mock(PreparedStatement.class);
+        SettableFuture<PreparedStatement> firstFuture = SettableFuture.create();
+        SettableFuture<PreparedStatement> secondFuture = SettableFuture.create();
+        when(session.prepareAsync("first")).thenReturn(firstFuture);
+        when(session.prepareAsync("second")).thenReturn(secondFuture);
+
+        List<PreparedStatement> prepared = new ArrayList<>();
+        StatementPreparer preparer = new StatementPreparer(session);
+        preparer.prepare("first", prepared::add);
+        preparer.prepare("second", prepared::add);
+
+        // Both requests are in flight and nothing is handed over before await
+        assertTrue(prepared.isEmpty());
+        secondFuture.set(second);
+        firstFuture.set(first);
+        preparer.await();
+
+        assertEquals(2, prepared.size());
+        assertSame(first, prepared.get(0));
+        assertSame(second, prepared.get(1));
+    }
+
+    @Test
+    public void shouldPropagateFailure() {
+        Session session = mock(Session.class);
+        SyntaxError error = mock(SyntaxError.class);
+        when(session.prepareAsync("valid")).thenReturn(Futures.immediateFuture(mock(PreparedStatement.class)));
+        when(session.prepareAsync("invalid")).thenReturn(Futures.immediateFailedFuture(error));
+
+        List<PreparedStatement> prepared = new ArrayList<>();
+        StatementPreparer preparer = new StatementPreparer(session);
+        preparer.prepare("valid", prepared::add);
+        preparer.prepare("invalid", prepared::add);
+        try {
+            preparer.await();
+            fail("Expected the driver exception to be rethrown");
+        } catch (SyntaxError e) {
+            assertSame(error, e);
+        }
+        assertTrue(prepared.isEmpty());
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+
+import static org.hawkular.metrics.core.service.Order.ASC;
+import static org.hawkular.metrics.model.AvailabilityType.DOWN;
+import static org.hawkular.metrics.model.AvailabilityType.UP;
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.metrics.model.AvailabilityBucketPoint;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.BucketPoint;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.exception.QueryRejectedException;
+import org.hawkular.metrics.model.param.BucketConfig;
+import org.hawkular.metrics.model.param.TimeRange;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Timer;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
+
+public class StatsQueryPlannerTest {
+
+    private final MetricId<Double> gauge = new MetricId<>("t1", GAUGE, "g1");
+    private final MetricId<Long> counter = new MetricId<>("t1", COUNTER, "c1");
+    private final MetricId<AvailabilityType> availability = new MetricId<>("t1", AVAILABILITY, "a1");
+
+    private MetricsService metricsService;
+    private AtomicInteger subscriptions;
+    private StatsQueryPlanner<String> planner;
+    private QueryAdmission admission;
+
+    @Before
+    public void setUp() {
+        metricsService = mock(MetricsService.class);
+        subscriptions = new AtomicInteger();
+        List<DataPoint<Double>> gaugeData = asList(new DataPoint<>(100L, 1.0), new DataPoint<>(110L, 2.0),
+                new DataPoint<>(120L, 4.0), new DataPoint<>(130L, 8.0), new DataPoint<>(140L, 16.0));
+        List<DataPoint<Long>> counterData = asList(new DataPoint<>(100L, 10L), new DataPoint<>(110L, 20L),
+                new DataPoint<>(120L, 5L), new DataPoint<>(130L, 15L));
+        List<DataPoint<AvailabilityType>> availabilityData = asList(new DataPoint<>(100L, UP),
+                new DataPoint<>(120L, DOWN));
+        when(metricsService.findDataPoints(eq(gauge), anyLong(), anyLong(), anyInt(), eq(ASC)))
+                .then(invocation -> data(gaugeData, invocation.getArgumentAt(1, Long.class),
+                        invocation.getArgumentAt(2, Long.class)));
+        when(metricsService.findDataPoints(eq(counter), anyLong(), anyLong(), anyInt(), eq(ASC)))
+                .then(invocation -> data(counterData, invocation.getArgumentAt(1, Long.class),
+                        invocation.getArgumentAt(2, Long.class)));
+        when(metricsService.findDataPoints(eq(availability), anyLong(), anyLong(), anyInt(), eq(ASC)))
+                .then(invocation -> data(availabilityData, invocation.getArgumentAt(1, Long.class),
+                        invocation.getArgumentAt(2, Long.class)));
+        admission = new QueryAdmission(0, 0, 0);
+        when(metricsService.estimateReadCost(anyInt(), anyLong(), anyLong()))
+                .then(invocation -> invocation.getArgumentAt(0, Integer.class) *
+                        (invocation.getArgumentAt(2, Long.class) - invocation.getArgumentAt(1, Long.class)));
+        when(metricsService.admit(anyString(), anyLong(), any(Observable.class)))
+                .then(invocation -> admission.admit(invocation.getArgumentAt(0, String.class),
+                        invocation.getArgumentAt(1, Long.class), invocation.getArgumentAt(2, Observable.class)));
+        planner = new StatsQueryPlanner<>(metricsService);
+    }
+
+    private <T> Observable<DataPoint<T>> data(List<DataPoint<T>> dataPoints, long start, long end) {
+        return Observable.from(dataPoints)
+                .filter(dataPoint -> dataPoint.getTimestamp() >= start && dataPoint.getTimestamp() < end)
+                .doOnSubscribe(subscriptions::incrementAndGet);
+    }
+
+    private static BucketConfig bucketConfig(long start, long end) {
+        return new BucketConfig(1, null, new TimeRange(start, end));
+    }
+
+    private Map<String, List<? extends BucketPoint>> execute(List<StatsQueryPlanner.Request<String>> requests) {
+        return planner.execute(requests)
+                .toMap(StatsQueryPlanner.Result::getKey, StatsQueryPlanner.Result::getBucketPoints)
+                .toBlocking().single();
+    }
+
+    @Test
+    public void shouldReadSeriesOnceForStatsAndRates() {
+        Map<String, List<? extends BucketPoint>> results = execute(asList(
+                StatsQueryPlanner.Request.stats("gauge", gauge, bucketConfig(100, 150), emptyList()),
+                StatsQueryPlanner.Request.rateStats("gauge_rate", gauge, bucketConfig(100, 150), emptyList()),
+                StatsQueryPlanner.Request.stats("counter", counter, bucketConfig(100, 150), emptyList()),
+                StatsQueryPlanner.Request.rateStats("counter_rate", counter, bucketConfig(100, 150), emptyList()),
+                StatsQueryPlanner.Request.availabilityStats("availability", availability, bucketConfig(100, 150))));
+
+        assertEquals(3, subscriptions.get());
+        verify(metricsService, times(1)).findDataPoints(gauge, 100, 150, 0, ASC);
+        verify(metricsService, times(1)).findDataPoints(counter, 100, 150, 0, ASC);
+        verify(metricsService, times(1)).findDataPoints(availability, 100, 150, 0, ASC);
+
+        NumericBucketPoint gaugeStats = (NumericBucketPoint) results.get("gauge").get(0);
+        assertEquals(5, gaugeStats.getSamples().intValue());
+        assertEquals(31.0, gaugeStats.getSum(), 0.0);
+
+        // Rates per minute: 6000, 12000, 24000, 48000
+        NumericBucketPoint gaugeRateStats = (NumericBucketPoint) results.get("gauge_rate").get(0);
+        assertEquals(4, gaugeRateStats.getSamples().intValue());
+        assertEquals(6000.0, gaugeRateStats.getMin(), 0.0);
+        assertEquals(48000.0, gaugeRateStats.getMax(), 0.0);
+
+        NumericBucketPoint counterStats = (NumericBucketPoint) results.get("counter").get(0);
+        assertEquals(4, counterStats.getSamples().intValue());
+
+        // The pair straddling the counter reset is dropped
+        NumericBucketPoint counterRateStats = (NumericBucketPoint) results.get("counter_rate").get(0);
+        assertEquals(2, counterRateStats.getSamples().intValue());
+        assertEquals(60000.0, counterRateStats.getMin(), 0.0);
+
+        AvailabilityBucketPoint availabilityStats = (AvailabilityBucketPoint) results.get("availability").get(0);
+        assertEquals(2, availabilityStats.getSamples().longValue());
+        assertEquals(0.4, availabilityStats.getUptimeRatio(), 0.0);
+    }
+
+    @Test
+    public void shouldMergeOverlappingTimeRanges() {
+        Map<String, List<? extends BucketPoint>> results = execute(asList(
+                StatsQueryPlanner.Request.stats("first", gauge, bucketConfig(100, 120), emptyList()),
+                StatsQueryPlanner.Request.rateStats("second", gauge, bucketConfig(110, 140), emptyList()),
+                StatsQueryPlanner.Request.stats("third", gauge, bucketConfig(140, 150), emptyList())));
+
+        assertEquals(1, subscriptions.get());
+        verify(metricsService, times(1)).findDataPoints(gauge, 100, 150, 0, ASC);
+
+        NumericBucketPoint first = (NumericBucketPoint) results.get("first").get(0);
+        assertEquals(2, first.getSamples().intValue());
+        assertEquals(3.0, first.getSum(), 0.0);
+
+        // Only the pairs within [110, 140): (110, 120) and (120, 130)
+        NumericBucketPoint second = (NumericBucketPoint) results.get("second").get(0);
+        assertEquals(2, second.getSamples().intValue());
+        assertEquals(12000.0, second.getMin(), 0.0);
+
+        NumericBucketPoint third = (NumericBucketPoint) results.get("third").get(0);
+        assertEquals(1, third.getSamples().intValue());
+        assertEquals(16.0, third.getMax(), 0.0);
+    }
+
+    @Test
+    public void shouldNotMergeDisjointTimeRanges() {
+        Map<String, List<? extends BucketPoint>> results = execute(asList(
+                StatsQueryPlanner.Request.stats("first", gauge, bucketConfig(100, 115), emptyList()),
+                StatsQueryPlanner.Request.stats("second", gauge, bucketConfig(125, 150), emptyList())));
+
+        assertEquals(2, subscriptions.get());
+        verify(metricsService, times(1)).findDataPoints(gauge, 100, 115, 0, ASC);
+        verify(metricsService, times(1)).findDataPoints(gauge, 125, 150, 0, ASC);
+        assertEquals(2, ((NumericBucketPoint) results.get("first").get(0)).getSamples().intValue());
+        assertEquals(2, ((NumericBucketPoint) results.get("second").get(0)).getSamples().intValue());
+        verify(metricsService, times(2)).findDataPoints(any(MetricId.class), anyLong(), anyLong(), anyInt(), any(Order.class));
+    }
+
+    @Test
+    public void shouldRecordAggregationLatency() {
+        Timer timer = new Timer();
+        planner = new StatsQueryPlanner<>(metricsService, timer);
+        execute(asList(
+                StatsQueryPlanner.Request.stats("gauge", gauge, bucketConfig(100, 150), emptyList()),
+                StatsQueryPlanner.Request.rateStats("gauge_rate", gauge, bucketConfig(100, 150), emptyList())));
+
+        assertEquals(2, timer.getCount());
+    }
+
+    @Test
+    public void shouldRejectQueryOverTenantBudget() {
+        admission = new QueryAdmission(0, 100, 0);
+        admission.admit("t1", 60, PublishSubject.create()).subscribe(new TestSubscriber<>());
+
+        TestSubscriber<StatsQueryPlanner.Result<String>> subscriber = new TestSubscriber<>();
+        planner.execute(asList(
+                StatsQueryPlanner.Request.stats("gauge", gauge, bucketConfig(100, 150), emptyList()),
+                StatsQueryPlanner.Request.stats("counter", counter, bucketConfig(100, 150), emptyList())))
+                .subscribe(subscriber);
+
+        // Both reads are admitted at once, with a cost of 50 each
+        verify(metricsService).admit(eq("t1"), eq(100L), any(Observable.class));
+        subscriber.assertError(QueryRejectedException.class);
+        verify(metricsService, never()).findDataPoints(any(MetricId.class), anyLong(), anyLong(), anyInt(),
+                any(Order.class));
+    }
+
+    @Test
+    public void shouldQueueQueryUntilTenantBudgetIsAvailable() {
+        admission = new QueryAdmission(0, 100, 1);
+        PublishSubject<Object> running = PublishSubject.create();
+        admission.admit("t1", 60, running).subscribe(new TestSubscriber<>());
+
+        TestSubscriber<StatsQueryPlanner.Result<String>> subscriber = new TestSubscriber<>();
+        planner.execute(asList(StatsQueryPlanner.Request.stats("gauge", gauge, bucketConfig(100, 150), emptyList())))
+                .subscribe(subscriber);
+
+        subscriber.assertNotCompleted();
+        assertEquals(0, subscriptions.get());
+
+        running.onCompleted();
+        subscriber.assertCompleted();
+        subscriber.assertValueCount(1);
+        assertEquals(1, subscriptions.get());
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.model.MetricType.HISTOGRAM;
+import static org.hawkular.metrics.model.MetricType.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.hawkular.metrics.model.MetricType;
+import org.junit.Test;
+
+public class TempStatementsTest {
+
+    @Test
+    public void shouldBuildStatementsForAllUserTypes() {
+        Map<Integer, String> statements = DataAccessImpl.getTempStatements("data_0");
+
+        Set<Byte> codes = statements.keySet().stream()
+                .map(key -> (byte) (key >>> 24))
+                .collect(Collectors.toSet());
+        for (MetricType<?> type : MetricType.userTypes()) {
+            if (type == STRING || type == HISTOGRAM) {
+                assertFalse(type.getText() + " is not stored in the temporary tables", codes.contains(type.getCode()));
+            } else {
+                assertTrue("No statements for " + type.getText(), codes.contains(type.getCode()));
+            }
+        }
+        assertTrue(codes.contains(MetricType.UNDEFINED.getCode()));
+        assertEquals(0, statements.values().stream().filter(statement -> !statement.contains("data_0")).count());
+    }
+}
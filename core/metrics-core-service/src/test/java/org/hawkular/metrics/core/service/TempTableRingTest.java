@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.core.service.TempTableRing.SLICES_AHEAD;
+import static org.hawkular.metrics.core.service.TempTableRing.SLICE_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.google.common.base.Supplier;
+
+public class TempTableRingTest {
+
+    private static final int SIZE = 16;
+
+    // 2017-06-01T10:00Z, the start of a slice
+    private static final long SLICE = 1496311200000L;
+
+    private final List<String> prepared = new ArrayList<>();
+
+    private final TempTableRing ring = new TempTableRing(SIZE, tableName -> {
+        prepared.add(tableName);
+        return Collections.emptyMap();
+    });
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRequireRoomForWritableSlices() {
+        new TempTableRing(TempTableRing.MIN_SIZE - 1, tableName -> Collections.emptyMap());
+    }
+
+    @Test
+    public void shouldMapSlicesRoundRobin() {
+        assertEquals(SLICE, TempTableRing.getSlice(SLICE + SLICE_SIZE - 1));
+        assertEquals(SLICE, TempTableRing.getSlice(SLICE));
+
+        Set<String> tables = new HashSet<>();
+        for (int i = 0; i < SIZE; i++) {
+            tables.add(ring.getTableName(SLICE + i * SLICE_SIZE));
+        }
+        assertEquals(SIZE, tables.size());
+        assertEquals(ring.getTableName(SLICE), ring.getTableName(SLICE + SIZE * SLICE_SIZE));
+    }
+
+    @Test
+    public void shouldPrepareTablesOnFirstAccess() {
+        assertTrue(prepared.isEmpty());
+
+        ring.getStatements(SLICE);
+        ring.getStatements(SLICE + SIZE * SLICE_SIZE);
+        assertEquals(Collections.singletonList(ring.getTableName(SLICE)), prepared);
+    }
+
+    @Test
+    public void shouldAcceptWritesUntilCompression() {
+        long now = SLICE + TimeUnit.MINUTES.toMillis(30);
+
+        assertTrue(ring.isWritable(SLICE, now));
+        assertTrue(ring.isWritable(SLICE - SLICE_SIZE, now));
+        assertTrue(ring.isWritable(SLICE + SLICES_AHEAD * SLICE_SIZE, now));
+        assertFalse(ring.isWritable(SLICE + (SLICES_AHEAD + 1) * SLICE_SIZE, now));
+
+        // The compression job processes the previous slice an hour into the current one
+        assertFalse(ring.isWritable(SLICE - SLICE_SIZE, SLICE + TempTableRing.WRITE_GRACE));
+        assertFalse(ring.isWritable(SLICE - 2 * SLICE_SIZE, now));
+    }
+
+    @Test
+    public void shouldRetainSlicesUntilTheirTableIsReused() {
+        long now = SLICE + TimeUnit.MINUTES.toMillis(30);
+        long oldest = SLICE + (SLICES_AHEAD - SIZE + 1) * SLICE_SIZE;
+
+        assertTrue(ring.isRetained(oldest, now));
+        assertFalse(ring.isRetained(oldest - SLICE_SIZE, now));
+        assertTrue(ring.isRetained(SLICE + SLICES_AHEAD * SLICE_SIZE, now));
+        assertFalse(ring.isRetained(SLICE + (SLICES_AHEAD + 1) * SLICE_SIZE, now));
+
+        NavigableMap<Long, Supplier<Map<Integer, PreparedStatement>>> retained = ring.getRetainedSlices(now);
+        assertEquals(SIZE, retained.size());
+        assertEquals(oldest, retained.firstKey().longValue());
+        assertEquals(SLICE + SLICES_AHEAD * SLICE_SIZE, retained.lastKey().longValue());
+        assertEquals(SIZE, new HashSet<>(retained.values()).size());
+    }
+
+    @Test
+    public void shouldNotReportTableWritableOnceSliceIsCompressed() {
+        // The compression job processes the previous slice an hour into the current one
+        long compression = SLICE + TempTableRing.WRITE_GRACE;
+        long previous = SLICE - SLICE_SIZE;
+
+        assertTrue(ring.isTableWritable(previous, compression - 1));
+        assertFalse(ring.isTableWritable(previous, compression));
+    }
+
+    @Test
+    public void shouldReportTableWritableOnceHandedToLaterSlice() {
+        long now = SLICE + TimeUnit.MINUTES.toMillis(30);
+        // The next slice to be handed the table of the oldest retained slice
+        long oldest = SLICE + (SLICES_AHEAD - SIZE + 1) * SLICE_SIZE;
+
+        assertFalse(ring.isTableWritable(oldest, now));
+        assertTrue(ring.isRetained(oldest, now));
+
+        long later = now + SLICE_SIZE;
+        assertFalse(ring.isRetained(oldest, later));
+        assertTrue(ring.isTableWritable(oldest, later));
+        assertTrue(ring.isWritable(oldest + SIZE * SLICE_SIZE, later));
+    }
+}
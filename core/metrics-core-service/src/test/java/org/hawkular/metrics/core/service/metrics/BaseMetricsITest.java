@@ -98,7 +98,11 @@ public abstract class BaseMetricsITest extends BaseITest {
         session.execute("TRUNCATE metrics_idx");
         session.execute("TRUNCATE retentions_idx");
         session.execute("TRUNCATE metrics_tags_idx");
+        session.execute("TRUNCATE metrics_series_idx");
+        session.execute("TRUNCATE data_histogram");
         session.execute("TRUNCATE leases");
+        metricsService.clearSeriesIndexCache();
+        metricsService.clearLatestDataPointCache();
 
         // Need to truncate all the temp tables also..
         for (TableMetadata tableMetadata : session.getCluster().getMetadata().getKeyspace(session.getLoggedKeyspace())
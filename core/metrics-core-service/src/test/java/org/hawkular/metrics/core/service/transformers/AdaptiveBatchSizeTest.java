@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+
+import rx.Observable;
+
+public class AdaptiveBatchSizeTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    public void shouldGrowAdditivelyAndShrinkMultiplicatively() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(5, 60, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(BoundBatchStatementTransformer.DEFAULT_BATCH_SIZE, batchSize.getBatchSize());
+
+        // Batches which were not full do not show that larger ones could be written
+        batchSize.onSuccess(10, FAST);
+        assertEquals(50, batchSize.getBatchSize());
+
+        for (int i = 0; i < 20; i++) {
+            batchSize.onSuccess(batchSize.getBatchSize(), FAST);
+        }
+        assertEquals(60, batchSize.getBatchSize());
+
+        batchSize.onSuccess(60, SLOW);
+        assertEquals(30, batchSize.getBatchSize());
+
+        // The other batches in flight have been created before the decrease
+        batchSize.onSuccess(60, SLOW);
+        assertEquals(30, batchSize.getBatchSize());
+
+        batchSize.onFailure(mock(WriteTimeoutException.class));
+        batchSize.onFailure(mock(WriteTimeoutException.class));
+        batchSize.onFailure(mock(WriteTimeoutException.class));
+        assertEquals(5, batchSize.getBatchSize());
+
+        batchSize.onFailure(new IllegalStateException());
+        batchSize.onSuccess(5, FAST);
+        assertEquals(6, batchSize.getBatchSize());
+    }
+
+    @Test
+    public void shouldLimitBatchesByStatementCount() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(5, 5, Integer.MAX_VALUE, Integer.MAX_VALUE, SLOW);
+
+        assertEquals(asList(5, 5, 2), batchSizes(batchSize, Observable.range(0, 12).map(i -> statement(i, 8))));
+        assertEquals(3, batchSize.getBatchSizes().getCount());
+    }
+
+    @Test
+    public void shouldLimitBatchesByBytes() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(5, 100, 100, Integer.MAX_VALUE, SLOW);
+
+        assertEquals(asList(3, 3, 1), batchSizes(batchSize, Observable.range(0, 7).map(i -> statement(i, 30))));
+    }
+
+    @Test
+    public void shouldLimitBatchesByPartitions() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(5, 100, Integer.MAX_VALUE, 2, SLOW);
+
+        // Statements of a partition already in the batch still fit
+        assertEquals(asList(4, 2), batchSizes(batchSize, Observable.just(0, 1, 0, 1, 2, 0)
+                .map(i -> statement(i, 8))));
+    }
+
+    @Test
+    public void shouldNotCreateEmptyBatches() {
+        assertEquals(emptyList(), batchSizes(new AdaptiveBatchSize(), Observable.empty()));
+    }
+
+    private static List<Integer> batchSizes(AdaptiveBatchSize batchSize, Observable<BoundStatement> statements) {
+        return statements
+                .compose(new BoundBatchStatementTransformer(batchSize))
+                .map(BatchStatement::size)
+                .toList()
+                .toBlocking()
+                .single();
+    }
+
+    private static BoundStatement statement(int partition, int bytes) {
+        ColumnDefinitions variables = mock(ColumnDefinitions.class);
+        when(variables.size()).thenReturn(1);
+        PreparedStatement prepared = mock(PreparedStatement.class);
+        when(prepared.getVariables()).thenReturn(variables);
+
+        BoundStatement statement = mock(BoundStatement.class);
+        when(statement.preparedStatement()).thenReturn(prepared);
+        when(statement.getBytesUnsafe(0)).thenReturn(ByteBuffer.allocate(bytes));
+        when(statement.getRoutingKey(any(ProtocolVersion.class), any(CodecRegistry.class)))
+                .thenReturn(ByteBuffer.wrap(new byte[] {(byte) partition}));
+        return statement;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import static java.util.Arrays.asList;
+
+import static org.hawkular.metrics.core.service.Downsampling.LTTB;
+import static org.hawkular.metrics.core.service.Downsampling.MIN_MAX;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hawkular.metrics.model.DataPoint;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import rx.Observable;
+
+public class DownsampleTransformerTest {
+
+    @Test
+    public void shouldBoundNumberOfDataPoints() {
+        List<DataPoint<Double>> dataPoints = sine(10_000);
+
+        List<DataPoint<Double>> lttb = downsample(dataPoints, new DownsampleTransformer<>(LTTB, 100, 0, 10_000));
+        assertTrue(lttb.size() <= 100);
+        assertTrue(lttb.size() >= 90);
+        assertEquals(dataPoints.get(0), lttb.get(0));
+        assertEquals(dataPoints.get(dataPoints.size() - 1), lttb.get(lttb.size() - 1));
+        assertAscending(lttb);
+
+        List<DataPoint<Double>> minMax = downsample(dataPoints, new DownsampleTransformer<>(MIN_MAX, 100, 0, 10_000));
+        assertTrue(minMax.size() <= 100);
+        assertTrue(minMax.size() >= 90);
+        assertAscending(minMax);
+    }
+
+    @Test
+    public void shouldKeepPeaks() {
+        List<DataPoint<Double>> dataPoints = new ArrayList<>();
+        for (long i = 0; i < 1000; i++) {
+            dataPoints.add(new DataPoint<>(i, i == 503 ? 100.0 : i == 707 ? -100.0 : 1.0));
+        }
+
+        List<DataPoint<Double>> lttb = downsample(dataPoints, new DownsampleTransformer<>(LTTB, 12, 0, 1000));
+        assertTrue(lttb.contains(dataPoints.get(503)));
+        assertTrue(lttb.contains(dataPoints.get(707)));
+
+        List<DataPoint<Double>> minMax = downsample(dataPoints, new DownsampleTransformer<>(MIN_MAX, 10, 0, 1000));
+        // Buckets of 200 ms, those with constant values keep a single data point
+        assertEquals(asList(dataPoints.get(0), dataPoints.get(200), dataPoints.get(400), dataPoints.get(503),
+                dataPoints.get(600), dataPoints.get(707), dataPoints.get(800)), minMax);
+    }
+
+    @Test
+    public void shouldDownsampleDescendingDataPoints() {
+        List<DataPoint<Double>> dataPoints = sine(1000);
+        List<DataPoint<Double>> descending = Lists.reverse(dataPoints);
+
+        List<DataPoint<Double>> lttb = downsample(descending, new DownsampleTransformer<>(LTTB, 50, 0, 1000));
+        assertTrue(lttb.size() <= 50);
+        assertEquals(descending.get(0), lttb.get(0));
+        assertEquals(dataPoints.get(0), lttb.get(lttb.size() - 1));
+        assertAscending(Lists.reverse(lttb));
+
+        List<DataPoint<Double>> minMax = downsample(descending, new DownsampleTransformer<>(MIN_MAX, 50, 0, 1000));
+        assertTrue(minMax.size() <= 50);
+        assertAscending(Lists.reverse(minMax));
+    }
+
+    @Test
+    public void shouldKeepSparseDataPoints() {
+        List<DataPoint<Long>> dataPoints = asList(new DataPoint<>(0L, 1L), new DataPoint<>(400L, 5L),
+                new DataPoint<>(900L, 2L));
+
+        assertEquals(dataPoints, Observable.from(dataPoints)
+                .compose(new DownsampleTransformer<>(LTTB, 10, 0, 1000))
+                .toList().toBlocking().single());
+        assertEquals(dataPoints, Observable.from(dataPoints)
+                .compose(new DownsampleTransformer<>(MIN_MAX, 10, 0, 1000))
+                .toList().toBlocking().single());
+        assertEquals(asList(dataPoints.get(0)), Observable.from(dataPoints.subList(0, 1))
+                .compose(new DownsampleTransformer<>(LTTB, 10, 0, 1000))
+                .toList().toBlocking().single());
+        assertTrue(Observable.<DataPoint<Long>>empty()
+                .compose(new DownsampleTransformer<>(LTTB, 10, 0, 1000))
+                .toList().toBlocking().single().isEmpty());
+    }
+
+    private static List<DataPoint<Double>> sine(int count) {
+        List<DataPoint<Double>> dataPoints = new ArrayList<>(count);
+        for (long i = 0; i < count; i++) {
+            dataPoints.add(new DataPoint<>(i, Math.sin(i / 50.0)));
+        }
+        return dataPoints;
+    }
+
+    private static List<DataPoint<Double>> downsample(List<DataPoint<Double>> dataPoints,
+            DownsampleTransformer<Double> transformer) {
+        return Observable.from(dataPoints).compose(transformer).toList().toBlocking().single();
+    }
+
+    private static void assertAscending(List<DataPoint<Double>> dataPoints) {
+        for (int i = 1; i < dataPoints.size(); i++) {
+            assertTrue(dataPoints.get(i - 1).getTimestamp() < dataPoints.get(i).getTimestamp());
+        }
+    }
+}
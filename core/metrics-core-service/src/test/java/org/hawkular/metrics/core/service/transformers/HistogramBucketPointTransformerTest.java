@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import static java.util.Arrays.asList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.HistogramSketch;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.Percentile;
+import org.junit.Test;
+
+import rx.Observable;
+
+public class HistogramBucketPointTransformerTest {
+
+    @Test
+    public void shouldMergeSketchesOfEachBucket() {
+        HistogramSketch fast = new HistogramSketch();
+        HistogramSketch slow = new HistogramSketch();
+        for (int i = 1; i <= 99; ++i) {
+            fast.add(i);
+        }
+        slow.add(1000);
+        // Two series in the first bucket, a single one in the last
+        List<DataPoint<HistogramSketch>> dataPoints = asList(
+                new DataPoint<>(110L, fast),
+                new DataPoint<>(120L, slow),
+                new DataPoint<>(350L, slow));
+
+        List<NumericBucketPoint> points = Observable.from(dataPoints)
+                .compose(new HistogramBucketPointTransformer(new Buckets(100, 100, 3),
+                        asList(new Percentile("99.5"))))
+                .toBlocking().single();
+
+        assertEquals(3, points.size());
+        NumericBucketPoint first = points.get(0);
+        assertEquals(100, first.getSamples().intValue());
+        assertEquals(1, first.getMin(), 0);
+        assertEquals(1000, first.getMax(), 0);
+        assertEquals(5950, first.getSum(), 0);
+        assertEquals(59.5, first.getAvg(), 0);
+        assertEquals(50, first.getMedian(), 50 * HistogramSketch.RELATIVE_ACCURACY);
+        assertEquals(99, first.getPercentiles().get(0).getValue(), 99 * HistogramSketch.RELATIVE_ACCURACY);
+        assertTrue(points.get(1).isEmpty());
+        assertEquals(1, points.get(2).getSamples().intValue());
+        // The sketches of the data points are left untouched
+        assertEquals(99, fast.getCount());
+    }
+}
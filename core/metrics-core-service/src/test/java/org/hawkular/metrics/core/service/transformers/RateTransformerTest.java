@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+
+import static org.hawkular.metrics.core.service.Order.ASC;
+import static org.hawkular.metrics.core.service.Order.DESC;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.Percentile;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import rx.Observable;
+
+public class RateTransformerTest {
+
+    @Test
+    public void shouldComputeRatesAndSkipCounterResets() {
+        List<DataPoint<? extends Number>> dataPoints = asList(
+                new DataPoint<>(0L, 10L),
+                new DataPoint<>(30_000L, 40L),
+                new DataPoint<>(60_000L, 100L),
+                new DataPoint<>(90_000L, 5L),
+                new DataPoint<>(120_000L, 20L));
+
+        assertEquals(asList(new DataPoint<>(30_000L, 60.0), new DataPoint<>(60_000L, 120.0),
+                new DataPoint<>(120_000L, 30.0)), rates(dataPoints, new RateTransformer(COUNTER, ASC)));
+        assertEquals(asList(new DataPoint<>(120_000L, 30.0), new DataPoint<>(60_000L, 120.0),
+                new DataPoint<>(30_000L, 60.0)), rates(Lists.reverse(dataPoints), new RateTransformer(COUNTER, DESC)));
+
+        // Gauges do not reset
+        assertEquals(asList(new DataPoint<>(30_000L, 60.0), new DataPoint<>(60_000L, 120.0),
+                new DataPoint<>(90_000L, -190.0), new DataPoint<>(120_000L, 30.0)),
+                rates(dataPoints, new RateTransformer(GAUGE, ASC)));
+    }
+
+    @Test
+    public void shouldHonorBackpressureWhenDroppingCounterResets() {
+        List<DataPoint<? extends Number>> dataPoints = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            dataPoints.add(new DataPoint<>(i * 1000L, (long) (i % 10)));
+        }
+
+        List<DataPoint<Double>> rates = Observable.from(dataPoints)
+                .compose(new RateTransformer(COUNTER, ASC))
+                .rebatchRequests(3)
+                .toList()
+                .toBlocking()
+                .single();
+        assertEquals(900, rates.size());
+    }
+
+    @Test
+    public void shouldComputeSameRateStatsAsBucketingRates() {
+        List<Percentile> percentiles = asList(new Percentile("90"), new Percentile("99"));
+        Buckets buckets = new Buckets(1, 60_000, 60);
+        List<DataPoint<? extends Number>> series1 = counter(1, 3600, 7_000, 0);
+        List<DataPoint<? extends Number>> series2 = counter(1 + 3_000, 3600, 11_000, 1);
+
+        List<NumericBucketPoint> expected = Observable.from(asList(series1, series2))
+                .flatMap(series -> Observable.from(series).compose(new RateTransformer(COUNTER, ASC)))
+                .map(dataPoint -> (DataPoint<? extends Number>) dataPoint)
+                .compose(new NumericBucketPointTransformer(buckets, percentiles))
+                .toBlocking()
+                .single();
+
+        List<NumericBucketPoint> actual = Observable.just(Observable.from(series1), Observable.from(series2))
+                .compose(new RateBucketPointTransformer(COUNTER, buckets, percentiles))
+                .toBlocking()
+                .single();
+
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void shouldReturnEmptyBucketsWithoutData() {
+        Buckets buckets = new Buckets(1, 60_000, 5);
+        List<NumericBucketPoint> bucketPoints = Observable.<Observable<DataPoint<Long>>> empty()
+                .compose(new RateBucketPointTransformer(COUNTER, buckets, emptyList()))
+                .toBlocking()
+                .single();
+
+        assertEquals(NumericBucketPoint.toList(new HashMap<>(), buckets).toString(), bucketPoints.toString());
+    }
+
+    private static List<DataPoint<? extends Number>> counter(long start, int count, long interval, int seed) {
+        List<DataPoint<? extends Number>> dataPoints = new ArrayList<>(count);
+        long value = 0;
+        for (int i = 0; i < count && start + i * interval < 3_600_000; i++) {
+            // Reset every 500 data points
+            value = i % 500 == 0 ? 0 : value + (i * 31 + seed) % 17;
+            dataPoints.add(new DataPoint<>(start + i * interval, value));
+        }
+        return dataPoints;
+    }
+
+    private static List<DataPoint<Double>> rates(List<DataPoint<? extends Number>> dataPoints,
+            RateTransformer transformer) {
+        return Observable.from(dataPoints).compose(transformer).toList().toBlocking().single();
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.model;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+
+/**
+ * A mergeable summary of the values observed during an interval, for example the latencies of the requests served in a
+ * minute. It is the value of the {@link MetricType#HISTOGRAM histogram} data points.
+ * <p>
+ * Values are counted in buckets whose bounds grow exponentially, bucket {@code i} holding the values in
+ * (&gamma;<sup>i-1</sup>, &gamma;<sup>i</sup>]. Any quantile is then estimated within {@link #RELATIVE_ACCURACY} of an
+ * observed value, and the sketches of several series or intervals are merged by adding the counts of their buckets,
+ * with the same accuracy as if all the values had been added to a single sketch. Negative values are counted in
+ * buckets of their own, values too close to zero are only counted.
+ * <p>
+ * The sketches of data points are not modified once written or read, {@link #merge(HistogramSketch)} is meant for the
+ * sketches created to aggregate them.
+ */
+public class HistogramSketch {
+
+    public static final double RELATIVE_ACCURACY = 0.01;
+
+    /**
+     * Buckets kept for each sign, the lowest buckets are collapsed beyond
+     */
+    static final int MAX_BUCKETS = 2048;
+
+    /**
+     * Values closer to zero are counted as zero
+     */
+    static final double MIN_INDEXED_VALUE = 1e-9;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private final TreeMap<Integer, Long> positiveBuckets = new TreeMap<>();
+    private final TreeMap<Integer, Long> negativeBuckets = new TreeMap<>();
+    private long zeroCount;
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public HistogramSketch() {
+    }
+
+    /**
+     * Creates a sketch from its JSON representation. The values are added to the buckets, if any. The count is not
+     * needed but must match the buckets and values if set, as it does in the sketches returned by queries.
+     */
+    @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
+    public static HistogramSketch fromJson(
+            @JsonProperty("values") List<Double> values,
+            @JsonProperty("count") Long count,
+            @JsonProperty("sum") Double sum,
+            @JsonProperty("min") Double min,
+            @JsonProperty("max") Double max,
+            @JsonProperty("zeroCount") Long zeroCount,
+            @JsonProperty("buckets") Map<Integer, Long> buckets,
+            @JsonProperty("negativeBuckets") Map<Integer, Long> negativeBuckets
+    ) {
+        HistogramSketch sketch = new HistogramSketch();
+        if (buckets != null) {
+            addBuckets(sketch.positiveBuckets, buckets);
+        }
+        if (negativeBuckets != null) {
+            addBuckets(sketch.negativeBuckets, negativeBuckets);
+        }
+        if (zeroCount != null) {
+            checkArgument(zeroCount >= 0, "Histogram zero count is negative");
+            sketch.zeroCount = zeroCount;
+        }
+        sketch.count = sketch.zeroCount + total(sketch.positiveBuckets) + total(sketch.negativeBuckets);
+        if (sketch.count > 0) {
+            checkArgument(sum != null && min != null && max != null,
+                    "Histogram sum, min and max are required with buckets");
+            checkArgument(min <= max, "Histogram min is greater than max");
+            sketch.sum = sum;
+            sketch.min = min;
+            sketch.max = max;
+        }
+        if (values != null) {
+            values.forEach(value -> {
+                checkArgument(value != null, "Histogram value is null");
+                sketch.add(value);
+            });
+        }
+        checkArgument(count == null || count == sketch.count, "Histogram count does not match its buckets");
+        sketch.collapse();
+        return sketch;
+    }
+
+    private static void addBuckets(TreeMap<Integer, Long> target, Map<Integer, Long> buckets) {
+        buckets.forEach((index, bucketCount) -> {
+            checkArgument(index != null && bucketCount != null && bucketCount > 0,
+                    "Histogram bucket counts must be positive");
+            target.merge(index, bucketCount, Long::sum);
+        });
+    }
+
+    private static long total(Map<Integer, Long> buckets) {
+        long total = 0;
+        for (long bucketCount : buckets.values()) {
+            total += bucketCount;
+        }
+        return total;
+    }
+
+    public HistogramSketch add(double value) {
+        return add(value, 1);
+    }
+
+    public HistogramSketch add(double value, long times) {
+        checkArgument(!Double.isNaN(value) && !Double.isInfinite(value), "Histogram values must be finite");
+        checkArgument(times > 0, "Histogram values must be added at least once");
+        if (value > MIN_INDEXED_VALUE) {
+            positiveBuckets.merge(getIndex(value), times, Long::sum);
+            collapse(positiveBuckets);
+        } else if (value < -MIN_INDEXED_VALUE) {
+            negativeBuckets.merge(getIndex(-value), times, Long::sum);
+            collapse(negativeBuckets);
+        } else {
+            zeroCount += times;
+        }
+        count += times;
+        sum += value * times;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        return this;
+    }
+
+    /**
+     * Adds the values counted by another sketch to this one.
+     */
+    public HistogramSketch merge(HistogramSketch other) {
+        other.positiveBuckets.forEach((index, bucketCount) -> positiveBuckets.merge(index, bucketCount, Long::sum));
+        other.negativeBuckets.forEach((index, bucketCount) -> negativeBuckets.merge(index, bucketCount, Long::sum));
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        collapse();
+        return this;
+    }
+
+    private void collapse() {
+        collapse(positiveBuckets);
+        collapse(negativeBuckets);
+    }
+
+    /**
+     * Folds the buckets of the smallest magnitudes into the next one, which only loses accuracy for those values.
+     */
+    private static void collapse(TreeMap<Integer, Long> buckets) {
+        while (buckets.size() > MAX_BUCKETS) {
+            Map.Entry<Integer, Long> lowest = buckets.pollFirstEntry();
+            buckets.merge(buckets.firstKey(), lowest.getValue(), Long::sum);
+        }
+    }
+
+    private static int getIndex(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    private static double getValue(int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the estimated value at the quantile, NaN if the sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        checkArgument(quantile >= 0 && quantile <= 1, "Quantile must be between 0 and 1");
+        if (count == 0) {
+            return Double.NaN;
+        }
+        // The extremes are known exactly
+        if (quantile == 0) {
+            return min;
+        }
+        if (quantile == 1) {
+            return max;
+        }
+        double rank = quantile * (count - 1);
+        long seen = 0;
+        double value = 0;
+        boolean found = false;
+        for (Map.Entry<Integer, Long> bucket : negativeBuckets.descendingMap().entrySet()) {
+            seen += bucket.getValue();
+            if (seen > rank) {
+                value = -getValue(bucket.getKey());
+                found = true;
+                break;
+            }
+        }
+        if (!found) {
+            seen += zeroCount;
+            if (seen <= rank) {
+                for (Map.Entry<Integer, Long> bucket : positiveBuckets.entrySet()) {
+                    seen += bucket.getValue();
+                    if (seen > rank) {
+                        value = getValue(bucket.getKey());
+                        break;
+                    }
+                }
+            }
+        }
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the smallest value, null if the sketch is empty
+     */
+    public Double getMin() {
+        return count == 0 ? null : min;
+    }
+
+    /**
+     * @return the largest value, null if the sketch is empty
+     */
+    public Double getMax() {
+        return count == 0 ? null : max;
+    }
+
+    public long getZeroCount() {
+        return zeroCount;
+    }
+
+    /**
+     * @return the counts of the positive values by bucket index
+     */
+    public Map<Integer, Long> getBuckets() {
+        return Collections.unmodifiableMap(positiveBuckets);
+    }
+
+    /**
+     * @return the counts of the negative values by the bucket index of their magnitude
+     */
+    public Map<Integer, Long> getNegativeBuckets() {
+        return Collections.unmodifiableMap(negativeBuckets);
+    }
+
+    /**
+     * Serializes the sketch, the indexes of the buckets being stored as variable length deltas so that the typical
+     * sketch, whose buckets are contiguous, takes a couple of bytes per bucket.
+     */
+    public ByteBuffer toByteBuffer() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 + 3 * (positiveBuckets.size() +
+                negativeBuckets.size()));
+        out.write(FORMAT_VERSION);
+        writeDouble(out, sum);
+        writeDouble(out, min);
+        writeDouble(out, max);
+        writeVarLong(out, zeroCount);
+        writeBuckets(out, positiveBuckets);
+        writeBuckets(out, negativeBuckets);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    public static HistogramSketch fromByteBuffer(ByteBuffer buffer) {
+        ByteBuffer in = buffer.duplicate();
+        byte version = in.get();
+        checkArgument(version == FORMAT_VERSION, "Unsupported histogram format %s", version);
+        HistogramSketch sketch = new HistogramSketch();
+        sketch.sum = in.getDouble();
+        sketch.min = in.getDouble();
+        sketch.max = in.getDouble();
+        sketch.zeroCount = readVarLong(in);
+        readBuckets(in, sketch.positiveBuckets);
+        readBuckets(in, sketch.negativeBuckets);
+        sketch.count = sketch.zeroCount + total(sketch.positiveBuckets) + total(sketch.negativeBuckets);
+        return sketch;
+    }
+
+    private static void writeBuckets(ByteArrayOutputStream out, NavigableMap<Integer, Long> buckets) {
+        writeVarLong(out, buckets.size());
+        int previous = 0;
+        for (Map.Entry<Integer, Long> bucket : buckets.entrySet()) {
+            int delta = bucket.getKey() - previous;
+            // Zig-zag encoding, the first index can be negative
+            writeVarLong(out, ((delta << 1) ^ (delta >> 31)) & 0xFFFFFFFFL);
+            writeVarLong(out, bucket.getValue());
+            previous = bucket.getKey();
+        }
+    }
+
+    private static void readBuckets(ByteBuffer in, NavigableMap<Integer, Long> buckets) {
+        long size = readVarLong(in);
+        int index = 0;
+        for (long i = 0; i < size; ++i) {
+            int zigZag = (int) readVarLong(in);
+            index += (zigZag >>> 1) ^ -(zigZag & 1);
+            buckets.put(index, readVarLong(in));
+        }
+    }
+
+    private static void writeDouble(ByteArrayOutputStream out, double value) {
+        long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (bits >>> shift));
+        }
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        HistogramSketch that = (HistogramSketch) o;
+        return zeroCount == that.zeroCount &&
+                Double.compare(sum, that.sum) == 0 &&
+                Double.compare(min, that.min) == 0 &&
+                Double.compare(max, that.max) == 0 &&
+                positiveBuckets.equals(that.positiveBuckets) &&
+                negativeBuckets.equals(that.negativeBuckets);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(zeroCount, sum, min, max, positiveBuckets, negativeBuckets);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("count", count)
+                .add("sum", sum)
+                .add("min", getMin())
+                .add("max", getMax())
+                .add("buckets", positiveBuckets.size() + negativeBuckets.size())
+                .toString();
+    }
+}
@@ -36,6 +36,7 @@ public final class MetricType<T> {
     public static final MetricType<Double> COUNTER_RATE = new MetricType<>((byte) 3, "counter_rate", false);
     public static final MetricType<String> STRING = new MetricType<>((byte) 4, "string", true);
     public static final MetricType<Double> GAUGE_RATE = new MetricType<>((byte) 5, "gauge_rate", false);
+    public static final MetricType<HistogramSketch> HISTOGRAM = new MetricType<>((byte) 6, "histogram", true);
 
     @SuppressWarnings("rawtypes")
     public static final MetricType UNDEFINED = new MetricType((byte) 127, "undefined", false);
@@ -48,6 +49,7 @@ public final class MetricType<T> {
             .add(COUNTER_RATE)
             .add(STRING)
             .add(GAUGE_RATE)
+            .add(HISTOGRAM)
             .build();
 
     private static final Set<MetricType<?>> userTypes;
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.model;
+
+import java.util.Objects;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * How much of its query budget a tenant is using on a node, and how many of its queries had to wait or were turned
+ * away since the node started.
+ */
+public class QueryBudgetUsage {
+
+    private final int running;
+    private final int queued;
+    private final long cost;
+    private final long admitted;
+    private final long rejected;
+
+    /**
+     * @param cost the estimated cost of the running queries
+     */
+    public QueryBudgetUsage(int running, int queued, long cost, long admitted, long rejected) {
+        this.running = running;
+        this.queued = queued;
+        this.cost = cost;
+        this.admitted = admitted;
+        this.rejected = rejected;
+    }
+
+    public int getRunning() {
+        return running;
+    }
+
+    public int getQueued() {
+        return queued;
+    }
+
+    public long getCost() {
+        return cost;
+    }
+
+    public long getAdmitted() {
+        return admitted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        QueryBudgetUsage that = (QueryBudgetUsage) o;
+        return running == that.running &&
+                queued == that.queued &&
+                cost == that.cost &&
+                admitted == that.admitted &&
+                rejected == that.rejected;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(running, queued, cost, admitted, rejected);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("running", running)
+                .add("queued", queued)
+                .add("cost", cost)
+                .add("admitted", admitted)
+                .add("rejected", rejected)
+                .toString();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.model;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Objects;
+
+import org.hawkular.metrics.model.fasterxml.jackson.MetricTypeSerializer;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.base.MoreObjects;
+
+/**
+ * The aggregated value of a series over a time range, by which the series is ranked among others.
+ */
+public class RankedSeries {
+
+    private final MetricId<?> metricId;
+    private final long timestamp;
+    private final double value;
+
+    /**
+     * @param timestamp the timestamp of the latest data point of the series in the time range
+     */
+    public RankedSeries(MetricId<?> metricId, long timestamp, double value) {
+        checkArgument(metricId != null, "Metric id is null");
+        this.metricId = metricId;
+        this.timestamp = timestamp;
+        this.value = value;
+    }
+
+    @JsonIgnore
+    public MetricId<?> getMetricId() {
+        return metricId;
+    }
+
+    public String getId() {
+        return metricId.getName();
+    }
+
+    @JsonSerialize(using = MetricTypeSerializer.class)
+    public MetricType<?> getType() {
+        return metricId.getType();
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RankedSeries that = (RankedSeries) o;
+        return timestamp == that.timestamp &&
+                Double.compare(that.value, value) == 0 &&
+                Objects.equals(metricId, that.metricId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(metricId, timestamp, value);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("metricId", metricId)
+                .add("timestamp", timestamp)
+                .add("value", value)
+                .toString();
+    }
+}
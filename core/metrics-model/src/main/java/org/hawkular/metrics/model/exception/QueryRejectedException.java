@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.model.exception;
+
+/**
+ * Thrown when a tenant already uses its whole query budget, and cannot queue more queries.
+ */
+@SuppressWarnings("serial")
+public class QueryRejectedException extends RuntimeException {
+
+    private final String tenantId;
+    private final long retryAfter;
+
+    /**
+     * @param retryAfter the number of seconds after which the query is likely to be admitted
+     */
+    public QueryRejectedException(String tenantId, long retryAfter) {
+        super("Too many concurrent queries for tenant " + tenantId + ", retry in " + retryAfter + " seconds");
+        this.tenantId = tenantId;
+        this.retryAfter = retryAfter;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.model;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class HistogramSketchTest {
+
+    @Test
+    public void testQuantilesWithinRelativeAccuracy() {
+        HistogramSketch sketch = new HistogramSketch();
+        for (int i = 1; i <= 10000; ++i) {
+            sketch.add(i);
+        }
+        assertEquals(10000, sketch.getCount());
+        assertEquals(50005000, sketch.getSum(), 0);
+        assertEquals(1, sketch.getMin(), 0);
+        assertEquals(10000, sketch.getMax(), 0);
+        for (double quantile : new double[] {0.01, 0.25, 0.5, 0.75, 0.99, 0.999}) {
+            double expected = 1 + quantile * 9999;
+            assertEquals(expected, sketch.getQuantile(quantile), expected * HistogramSketch.RELATIVE_ACCURACY);
+        }
+        assertEquals(1, sketch.getQuantile(0), 0);
+        assertEquals(10000, sketch.getQuantile(1), 0);
+        assertTrue(Double.isNaN(new HistogramSketch().getQuantile(0.5)));
+    }
+
+    @Test
+    public void testMergeEqualsSingleSketch() {
+        Random random = new Random(42);
+        HistogramSketch all = new HistogramSketch();
+        HistogramSketch first = new HistogramSketch();
+        HistogramSketch second = new HistogramSketch();
+        for (int i = 0; i < 1000; ++i) {
+            double value = random.nextGaussian() * 100;
+            all.add(value);
+            (i % 2 == 0 ? first : second).add(value);
+        }
+        HistogramSketch merged = new HistogramSketch().merge(first).merge(second);
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getBuckets(), merged.getBuckets());
+        assertEquals(all.getNegativeBuckets(), merged.getNegativeBuckets());
+        assertEquals(all.getZeroCount(), merged.getZeroCount());
+        assertEquals(all.getQuantile(0.99), merged.getQuantile(0.99), 0);
+        assertEquals(all.getSum(), merged.getSum(), 1e-6);
+    }
+
+    @Test
+    public void testByteBufferRoundTrip() {
+        HistogramSketch sketch = new HistogramSketch().add(-3.5).add(0).add(0.25, 3).add(1e6);
+        HistogramSketch read = HistogramSketch.fromByteBuffer(sketch.toByteBuffer());
+        assertEquals(sketch, read);
+        assertEquals(6, read.getCount());
+        assertEquals(new HistogramSketch(), HistogramSketch.fromByteBuffer(new HistogramSketch().toByteBuffer()));
+    }
+
+    @Test
+    public void testJsonRoundTrip() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        HistogramSketch sketch = mapper.readValue("{\"values\": [1.5, 2, 30, -4]}", HistogramSketch.class);
+        assertEquals(new HistogramSketch().add(1.5).add(2).add(30).add(-4), sketch);
+
+        HistogramSketch read = mapper.readValue(mapper.writeValueAsString(sketch), HistogramSketch.class);
+        assertEquals(sketch, read);
+
+        HistogramSketch empty = mapper.readValue("{}", HistogramSketch.class);
+        assertEquals(0, empty.getCount());
+        assertNull(empty.getMin());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBucketsRequireSum() {
+        HistogramSketch.fromJson(null, null, null, 1.0, 2.0, null, singletonMap(10, 2L), null);
+    }
+
+    @Test
+    public void testCollapseLowestBuckets() {
+        HistogramSketch sketch = new HistogramSketch();
+        for (int i = 0; i < 3000; ++i) {
+            sketch.add(Math.pow(1.03, i));
+        }
+        assertEquals(HistogramSketch.MAX_BUCKETS, sketch.getBuckets().size());
+        assertEquals(3000, sketch.getCount());
+        double p99 = Math.pow(1.03, 0.99 * 2999);
+        assertEquals(p99, sketch.getQuantile(0.99), p99 * 0.05);
+        assertEquals(asList(1.0, 1.0), asList(sketch.getMin(), sketch.getQuantile(0)));
+    }
+}
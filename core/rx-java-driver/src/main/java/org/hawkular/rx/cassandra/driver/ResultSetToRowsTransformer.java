@@ -103,6 +103,9 @@ public class ResultSetToRowsTransformer implements Transformer<ResultSet, Row> {
         }
 
         void produce() {
+            if (subscriber.isUnsubscribed()) {
+                return;
+            }
             long r = requested.get();
             long a = resultSet.getAvailableWithoutFetching();
             for (; ; ) {
@@ -130,6 +133,11 @@ public class ResultSetToRowsTransformer implements Transformer<ResultSet, Row> {
                 return;
             }
 
+            // Do not fetch the next page if the rows are no longer needed, e.g. the client of a query went away
+            if (subscriber.isUnsubscribed()) {
+                return;
+            }
+
             Futures.addCallback(resultSet.fetchMoreResults(), new FutureCallback<ResultSet>() {
                 @Override
                 public void onSuccess(ResultSet result) {
@@ -19,6 +19,9 @@ package org.hawkular.rx.cassandra.driver;
 
 import static java.util.stream.Collectors.toList;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -148,4 +151,24 @@ public class ResultSetToRowsTransformerTest {
         subscriber.assertValueCount(rowCount);
         subscriber.assertReceivedOnNext(LongStream.range(0, rowCount).mapToObj(MockRow::new).collect(toList()));
     }
+
+    @Test
+    public void testNoRowsAfterUnsubscribe() throws Exception {
+        int rowCount = 76377;
+        int pageSize = 5000;
+        MockResultSet resultSet = MockResultSet.createMultiPage(rowCount, pageSize);
+
+        Observable<Row> rows = transformer.call(Observable.just(resultSet));
+
+        TestSubscriber<Row> subscriber = new TestSubscriber<>(0);
+        rows.subscribe(subscriber);
+        subscriber.unsubscribe();
+        subscriber.requestMore(pageSize * 2);
+
+        EXECUTOR.schedule(() -> {}, 50, TimeUnit.MILLISECONDS).get();
+        subscriber.assertNoValues();
+        subscriber.assertNoTerminalEvent();
+        assertFalse(resultSet.isFullyFetched());
+        assertEquals(pageSize, resultSet.getAvailableWithoutFetching());
+    }
 }
\ No newline at end of file
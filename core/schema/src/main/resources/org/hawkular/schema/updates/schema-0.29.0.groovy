@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+schemaChange {
+  version '9.0'
+  author 'agent'
+  tags '0.29.x'
+  cql """
+CREATE TABLE metrics_series_idx (
+    tenant_id text,
+    type tinyint,
+    metric text,
+    PRIMARY KEY ((tenant_id, type), metric)
+) WITH compaction = { 'class': 'LeveledCompactionStrategy' }
+"""
+  verify { tableExists(keyspace, 'metrics_series_idx') }
+}
+
+schemaChange {
+  version '9.1'
+  author 'agent'
+  tags '0.29.x'
+  cql """
+CREATE TABLE data_histogram (
+    tenant_id text,
+    type tinyint,
+    metric text,
+    dpart bigint,
+    time timestamp,
+    sketch blob,
+    tags frozen<map<text, text>>,
+    PRIMARY KEY ((tenant_id, type, metric, dpart), time)
+) WITH CLUSTERING ORDER BY (time DESC) AND compaction = {
+  'class': 'TimeWindowCompactionStrategy',
+  'compaction_window_unit': 'DAYS',
+  'compaction_window_size': '1'
+}
+"""
+  verify { tableExists(keyspace, 'data_histogram') }
+}
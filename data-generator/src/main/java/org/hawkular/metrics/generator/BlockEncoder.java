@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.generator;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.core.service.transformers.DataPointCompressTransformer;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricType;
+
+import rx.Observable;
+
+/**
+ * Encodes blocks with the same {@link DataPointCompressTransformer} the compression job uses, so that the backfilled
+ * rows cannot be told apart from the ones written by the server.
+ */
+final class BlockEncoder {
+
+    /**
+     * The size of the blocks of the compression job, they start on even UTC hours.
+     */
+    static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+
+    private BlockEncoder() {
+    }
+
+    static long getBlockStart(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, BLOCK_SIZE);
+    }
+
+    /**
+     * @param dataPoints the data points of one block, sorted by ascending timestamp and without duplicate timestamps
+     */
+    static <T> CompressedPointContainer encode(MetricType<T> type, long blockStart,
+            Collection<DataPoint<T>> dataPoints) {
+        return Observable.from(dataPoints)
+                .compose(new DataPointCompressTransformer<>(type, blockStart))
+                .toBlocking()
+                .single();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.generator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.db.marshal.ByteType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.LongType;
+import org.apache.cassandra.db.marshal.TimestampType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.io.sstable.CQLSSTableWriter;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.hawkular.metrics.core.service.DataAccessImpl;
+import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.model.MetricId;
+
+/**
+ * Writes blocks to {@code data_compressed} SSTables. The directory layout is {@code <keyspace>/data_compressed}, as
+ * expected by sstableloader.
+ * <p>
+ * CQLSSTableWriter is not thread safe and each instance needs its own directory, the generator creates one writer
+ * per worker thread.
+ */
+class CompressedDataWriter implements Closeable {
+
+    private static final String SCHEMA = "CREATE TABLE %s.data_compressed (" +
+            "tenant_id text, " +
+            "type tinyint, " +
+            "metric text, " +
+            "dpart bigint, " +
+            "time timestamp, " +
+            "c_value blob, " +
+            "ts_value blob, " +
+            "tags blob, " +
+            "PRIMARY KEY ((tenant_id, type, metric, dpart), time)" +
+            ") WITH CLUSTERING ORDER BY (time DESC)";
+
+    private static final String INSERT = "INSERT INTO %s.data_compressed (tenant_id, type, metric, dpart, time, " +
+            "c_value, tags) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private final CQLSSTableWriter writer;
+
+    private final ByteBuffer ttl;
+
+    /**
+     * @param ttl the TTL of the rows in days, or 0 to write them without TTL
+     */
+    CompressedDataWriter(File dataDir, String keyspace, int ttl, int bufferSize) {
+        File directory = new File(new File(dataDir, keyspace), "data_compressed");
+        directory.mkdirs();
+
+        String insert = String.format(INSERT, keyspace);
+        if (ttl > 0) {
+            insert += " USING TTL ?";
+            this.ttl = Int32Type.instance.decompose((int) TimeUnit.DAYS.toSeconds(ttl));
+        } else {
+            this.ttl = null;
+        }
+
+        writer = CQLSSTableWriter.builder()
+                .inDirectory(directory)
+                .forTable(String.format(SCHEMA, keyspace))
+                .using(insert)
+                .withBufferSizeInMB(bufferSize)
+                .build();
+    }
+
+    void write(MetricId<?> id, long blockStart, CompressedPointContainer cpc) throws IOException {
+        ByteBuffer tags = cpc.getTagsBuffer();
+        List<ByteBuffer> values = new ArrayList<>(8);
+        values.add(UTF8Type.instance.decompose(id.getTenantId()));
+        values.add(ByteType.instance.decompose(id.getType().getCode()));
+        values.add(UTF8Type.instance.decompose(id.getName()));
+        values.add(LongType.instance.decompose(DataAccessImpl.getCompressedPartition(blockStart)));
+        values.add(TimestampType.instance.decompose(new Date(blockStart)));
+        values.add(cpc.getValueBuffer());
+        // Like the compression job, leave the column out instead of writing a tombstone
+        values.add(tags == null ? ByteBufferUtil.UNSET_BYTE_BUFFER : tags);
+        if (ttl != null) {
+            values.add(ttl);
+        }
+        writer.rawAddRow(values);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -16,16 +16,32 @@
  */
 package org.hawkular.metrics.generator;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import static org.hawkular.metrics.generator.BlockEncoder.BLOCK_SIZE;
 import static org.hawkular.metrics.model.MetricType.GAUGE;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.UUID;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.cassandra.io.sstable.CQLSSTableWriter;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
@@ -34,19 +50,28 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
 import org.apache.commons.math3.random.ValueServer;
-import org.hawkular.metrics.core.service.TimeUUIDUtils;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricId;
 
 import com.google.common.base.Stopwatch;
 
 import ch.qos.logback.classic.Level;
 
 /**
+ * Writes {@code data_compressed} SSTables, along with the index tables, that can be loaded with sstableloader. The
+ * data points are either read from a file, to backfill history, or generated for load testing.
+ * <p>
+ * The series are partitioned across worker threads. Each worker encodes its blocks and writes them with its own
+ * SSTable writer, in its own directory.
+ *
  * @author jsanda
  */
 public class DataGenerator {
 
     public static final int STATUS_SHOW_USAGE = 1;
 
+    private static final InputPoint END_OF_INPUT = new InputPoint(null, null);
+
     private Options options;
 
     private String keyspace;
@@ -65,6 +90,10 @@ public class DataGenerator {
 
     private int bufferSize;
 
+    private int ttl;
+
+    private int threads;
+
     private Pattern startEndRegexp;
 
     private Pattern intervalRegexp;
@@ -77,6 +106,14 @@ public class DataGenerator {
                 "The keyspace in which data will be stored. Defaults to hawkular_metrics");
         Option dataDir = new Option(null, "data-dir", true,
                 "The directory in which to store data files. Defaults to ./data.");
+        Option input = new Option(null, "input", true,
+                "A file with the data points to backfill, or - to read from the standard input. When not set, " +
+                "synthetic data is generated based on the tenants, metrics-per-tenant, start, end, interval and " +
+                "distribution options.");
+        Option inputFormat = new Option(null, "input-format", true,
+                "The format of the input, csv or line. CSV lines have the form tenant,type,metric,timestamp,value. " +
+                "Line protocol lines have the form metric,tenant=<tenant>[,type=<type>] value=<value> <timestamp>. " +
+                "Timestamps are in milliseconds. Defaults to csv.");
         Option tenants = new Option(null, "tenants", true, "The number of tenants. Defaults to 100.");
         Option metricsPerTenant = new Option(null, "metrics-per-tenant", true,
                 "The number of metrics per tenant. Defaults to 100.");
@@ -91,19 +128,32 @@ public class DataGenerator {
         Option interval = new Option(null, "interval", true, "Specified using the regex pattern (d+)(s|m|h|d) where s" +
                 " is for seconds, m for minutes, h for hours, and d for days. Used to determine the number of data " +
                 "points written. Defaults to one minute.");
+        Option distribution = new Option(null, "distribution", true,
+                "The distribution of the generated values, uniform, gaussian or exponential. The mean is 100 and " +
+                "the standard deviation of the gaussian distribution is 10. Defaults to uniform.");
         Option bufferSize = new Option(null, "buffer-size", true,
                 "Defines how much data will be buffered before being written out as a new SSTable. This corresponds " +
                 "roughly to the data size of the SSTable. Interpreted as mega bytes and defaults to 128 MB.");
+        Option ttl = new Option(null, "ttl", true,
+                "The data retention in days. The rows are written with the corresponding TTL and the metrics are " +
+                "registered in the expiration index. Defaults to no TTL.");
+        Option threads = new Option(null, "threads", true,
+                "The number of worker threads encoding and writing blocks. Defaults to the number of processors.");
 
         options = new Options().addOption(new Option("h", "help", false, "Show this message."))
                 .addOption(keyspace)
                 .addOption(dataDir)
+                .addOption(input)
+                .addOption(inputFormat)
                 .addOption(tenants)
                 .addOption(metricsPerTenant)
                 .addOption(start)
                 .addOption(end)
                 .addOption(interval)
-                .addOption(bufferSize);
+                .addOption(distribution)
+                .addOption(bufferSize)
+                .addOption(ttl)
+                .addOption(threads);
     }
 
     public void run(CommandLine cmdLine) throws Exception {
@@ -117,25 +167,75 @@ public class DataGenerator {
         keyspace = cmdLine.getOptionValue("keyspace", "hawkular_metrics");
         dataDir = new File(cmdLine.getOptionValue("data-dir", "./data"));
         dataDir.mkdirs();
+        bufferSize = Integer.parseInt(cmdLine.getOptionValue("buffer-size", "128"));
+        ttl = Integer.parseInt(cmdLine.getOptionValue("ttl", "0"));
+        threads = Integer.parseInt(cmdLine.getOptionValue("threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+        List<SeriesWorker> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; ++i) {
+            File workerDir = new File(dataDir, "worker-" + i);
+            workers.add(new SeriesWorker(new CompressedDataWriter(workerDir, keyspace, ttl, bufferSize)));
+        }
+
+        String input = cmdLine.getOptionValue("input");
+        if (input == null) {
+            generate(cmdLine, workers);
+        } else {
+            backfill(input, cmdLine.getOptionValue("input-format", "csv"), workers);
+        }
+
+        Map<MetricId<?>, Long> series = new HashMap<>();
+        long totalDataPoints = 0;
+        long totalBlocks = 0;
+        long rejectedDataPoints = 0;
+        for (SeriesWorker worker : workers) {
+            series.putAll(worker.getSeries());
+            totalDataPoints += worker.getDataPoints();
+            totalBlocks += worker.getBlocks();
+            rejectedDataPoints += worker.getRejected();
+        }
+        new MetricsIndexWriter(new File(dataDir, "index"), keyspace, ttl).write(series);
+
+        stopwatch.stop();
+
+        System.out.println("\n\nSeries: " + series.size());
+        System.out.println("Total data points: " + totalDataPoints);
+        System.out.println("Total blocks: " + totalBlocks);
+        if (rejectedDataPoints > 0) {
+            System.out.println("Rejected data points: " + rejectedDataPoints + " (received after their block was " +
+                    "written, the input is not ordered by time)");
+        }
+        System.out.println("Worker threads: " + threads);
+        System.out.println("Output: " + dataDir.getAbsolutePath() + "/*/" + keyspace);
+        System.out.println("Execution time: " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+    }
+
+    private void generate(CommandLine cmdLine, List<SeriesWorker> workers) throws Exception {
         tenants = Integer.parseInt(cmdLine.getOptionValue("tenants", "100"));
         metricsPerTenant = Integer.parseInt(cmdLine.getOptionValue("metrics-per-tenant", "100"));
 
-        ValueServer valueServer = new ValueServer();
-        valueServer.setMu(100);
-        valueServer.setMode(ValueServer.UNIFORM_MODE);
+        int distribution;
+        switch (cmdLine.getOptionValue("distribution", "uniform")) {
+            case "uniform": distribution = ValueServer.UNIFORM_MODE; break;
+            case "gaussian": distribution = ValueServer.GAUSSIAN_MODE; break;
+            case "exponential": distribution = ValueServer.EXPONENTIAL_MODE; break;
+            default: throw new IllegalArgumentException(cmdLine.getOptionValue("distribution") +
+                    " is an invalid value for --distribution");
+        }
 
         String endValue = cmdLine.getOptionValue("end");
         if (endValue == null) {
             endTime = System.currentTimeMillis();
         } else {
-            endTime = getDuration("end", endValue, startEndRegexp);
+            endTime = System.currentTimeMillis() - getDuration("end", endValue, startEndRegexp);
         }
 
         String startValue = cmdLine.getOptionValue("start");
         if (startValue == null) {
             startTime = endTime - TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
         } else {
-            startTime = endTime - getDuration("start", startValue, startEndRegexp);
+            startTime = System.currentTimeMillis() - getDuration("start", startValue, startEndRegexp);
         }
 
         String intervalValue = cmdLine.getOptionValue("interval");
@@ -145,34 +245,118 @@ public class DataGenerator {
             interval = getDuration("interval", intervalValue, intervalRegexp);
         }
 
-        bufferSize = Integer.parseInt(cmdLine.getOptionValue("buffer-size", "128"));
-
-        CQLSSTableWriter writer = createWriter();
-        long totalDataPoints = 0;
-
-        long currentTime = startTime;
-        while (currentTime <= endTime) {
-            for (int i = 0; i < tenants; ++i) {
-                for (int j = 0; j < metricsPerTenant; ++j) {
-                    UUID timeUUID = TimeUUIDUtils.getTimeUUID(currentTime);
-                    writer.addRow("TENANT-" + i, GAUGE.getCode(), "GAUGE-" + j, 0L, timeUUID, valueServer.getNext());
-                    ++totalDataPoints;
-                }
-            }
-            currentTime += interval;
-        }
-
-        writer.close();
-        stopwatch.stop();
-
         System.out.println("\n\nStart time: " + startTime);
         System.out.println("End time: " + endTime);
         System.out.println("Total duration: " + (endTime - startTime) + " ms");
         System.out.println("Interval: " + interval);
         System.out.println("Tenants: " + tenants);
         System.out.println("Metrics per tenant: " + metricsPerTenant);
-        System.out.println("Total data points: " + totalDataPoints);
-        System.out.println("Execution time: " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+
+        runWorkers(workers, i -> () -> {
+            SeriesWorker worker = workers.get(i);
+            ValueServer valueServer = new ValueServer();
+            valueServer.setMu(100);
+            valueServer.setSigma(10);
+            valueServer.setMode(distribution);
+
+            // Block by block, so that all the series move forward together like live data would
+            for (long block = BlockEncoder.getBlockStart(startTime); block <= endTime; block += BLOCK_SIZE) {
+                long first = Math.max(startTime, block);
+                first = startTime + ((first - startTime + interval - 1) / interval) * interval;
+                for (int series = i; series < tenants * metricsPerTenant; series += threads) {
+                    MetricId<Double> id = new MetricId<>("TENANT-" + series / metricsPerTenant, GAUGE,
+                            "GAUGE-" + series % metricsPerTenant);
+                    List<DataPoint<Double>> dataPoints = new ArrayList<>();
+                    for (long timestamp = first; timestamp < block + BLOCK_SIZE && timestamp <= endTime;
+                         timestamp += interval) {
+                        dataPoints.add(new DataPoint<>(timestamp, valueServer.getNext()));
+                    }
+                    if (!dataPoints.isEmpty()) {
+                        worker.writeBlock(id, block, dataPoints);
+                    }
+                }
+            }
+            worker.close();
+            return null;
+        });
+    }
+
+    private void backfill(String input, String format, List<SeriesWorker> workers) throws Exception {
+        Function<String, InputPoint> parser;
+        switch (format) {
+            case "csv": parser = InputParser::parseCsv; break;
+            case "line": parser = InputParser::parseLineProtocol; break;
+            default: throw new IllegalArgumentException(format + " is an invalid value for --input-format");
+        }
+
+        List<BlockingQueue<InputPoint>> queues = new ArrayList<>(threads);
+        for (int i = 0; i < threads; ++i) {
+            queues.add(new ArrayBlockingQueue<>(10_000));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> results = new ArrayList<>(threads);
+        for (int i = 0; i < threads; ++i) {
+            SeriesWorker worker = workers.get(i);
+            BlockingQueue<InputPoint> queue = queues.get(i);
+            results.add(executor.submit(() -> {
+                try {
+                    for (InputPoint point = queue.take(); point != END_OF_INPUT; point = queue.take()) {
+                        worker.add(point);
+                    }
+                } catch (Exception e) {
+                    // Keep draining the queue so that the reader does not block
+                    while (queue.take() != END_OF_INPUT) {
+                    }
+                    throw e;
+                }
+                worker.close();
+                return null;
+            }));
+        }
+        executor.shutdown();
+
+        // Parsing is cheap compared to encoding and writing, a single reader keeps the order of each series
+        try (BufferedReader reader = "-".equals(input) ? new BufferedReader(new InputStreamReader(System.in, UTF_8)) :
+                Files.newBufferedReader(Paths.get(input), UTF_8)) {
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                ++lineNumber;
+                if (InputParser.isComment(line)) {
+                    continue;
+                }
+                InputPoint point;
+                try {
+                    point = parser.apply(line);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+                }
+                queues.get(Math.floorMod(point.getId().hashCode(), threads)).put(point);
+            }
+        } finally {
+            for (BlockingQueue<InputPoint> queue : queues) {
+                queue.put(END_OF_INPUT);
+            }
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+    }
+
+    private void runWorkers(List<SeriesWorker> workers, Function<Integer, Callable<Void>> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+        try {
+            List<Future<Void>> results = new ArrayList<>(workers.size());
+            for (int i = 0; i < workers.size(); ++i) {
+                results.add(executor.submit(task.apply(i)));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
     }
 
     private long getDuration(String option, String optionValue, Pattern regexp) {
@@ -195,36 +379,6 @@ public class DataGenerator {
         }
     }
 
-    private CQLSSTableWriter createWriter() {
-        String schema = "CREATE TABLE " + keyspace +  ".data ( " +
-                "tenant_id text, " +
-                "type tinyint, " +
-                "metric text, " +
-                "dpart bigint, " +
-                "time timeuuid, " +
-                "data_retention int static, " +
-                "n_value double, " +
-                "availability blob, " +
-                "l_value bigint, " +
-                // Commenting out the aggregates column because there appears to be a bug in the C*
-                // code that breaks CQLSSTableWriter when the schema includes a collection. Fortunately,
-                // we are not using the column so it can safely be ignored.
-//                "aggregates set<frozen <aggregate_data>>, " +
-                "PRIMARY KEY ((tenant_id, type, metric, dpart), time) " +
-                ") WITH CLUSTERING ORDER BY (time DESC)";
-
-        String insertGauge = "INSERT INTO " + keyspace + ".data (tenant_id, type, metric, dpart, time, n_value) " +
-                "VALUES (?, ?, ?, ?, ?, ?)";
-
-
-        return CQLSSTableWriter.builder()
-                .inDirectory(dataDir)
-                .forTable(schema)
-                .using(insertGauge)
-                .withBufferSizeInMB(bufferSize)
-                .build();
-    }
-
     private void printUsage() {
         HelpFormatter helpFormatter = new HelpFormatter();
         String syntax = "java -jar hawkular-metrics-data-generator.jar [options]";
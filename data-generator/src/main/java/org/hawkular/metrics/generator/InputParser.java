@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.generator;
+
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+/**
+ * Parses the input formats supported for backfills. Timestamps are always in milliseconds.
+ * <p>
+ * CSV lines have the form {@code tenant,type,metric,timestamp,value}. The metric name may contain commas, the other
+ * fields may not. Line protocol lines have the form {@code metric,tenant=<tenant>[,type=<type>] value=<value>
+ * <timestamp>}, where spaces, commas and equal signs in the metric name or the tags are escaped with a backslash. The
+ * type defaults to gauge. Lines which are empty or start with {@code #} are ignored by both formats.
+ */
+final class InputParser {
+
+    private InputParser() {
+    }
+
+    static boolean isComment(String line) {
+        String trimmed = line.trim();
+        return trimmed.isEmpty() || trimmed.startsWith("#");
+    }
+
+    static InputPoint parseCsv(String line) {
+        int tenantEnd = line.indexOf(',');
+        int typeEnd = line.indexOf(',', tenantEnd + 1);
+        int valueStart = line.lastIndexOf(',');
+        int timestampStart = line.lastIndexOf(',', valueStart - 1);
+        if (tenantEnd < 0 || typeEnd < 0 || timestampStart <= typeEnd) {
+            throw new IllegalArgumentException("Expected tenant,type,metric,timestamp,value but got [" + line + "]");
+        }
+        MetricType<?> type = parseType(line.substring(tenantEnd + 1, typeEnd).trim());
+        MetricId<?> id = new MetricId<>(line.substring(0, tenantEnd).trim(), type,
+                line.substring(typeEnd + 1, timestampStart));
+        long timestamp = parseTimestamp(line.substring(timestampStart + 1, valueStart));
+        return new InputPoint(id, createDataPoint(type, timestamp, line.substring(valueStart + 1).trim()));
+    }
+
+    static InputPoint parseLineProtocol(String line) {
+        List<String> parts = split(line.trim(), ' ');
+        if (parts.size() != 3) {
+            throw new IllegalArgumentException("Expected <series> value=<value> <timestamp> but got [" + line + "]");
+        }
+
+        List<String> series = split(parts.get(0), ',');
+        String tenantId = null;
+        MetricType<?> type = GAUGE;
+        for (String tag : series.subList(1, series.size())) {
+            List<String> keyValue = split(tag, '=');
+            if (keyValue.size() != 2) {
+                throw new IllegalArgumentException("Invalid tag [" + tag + "] in [" + line + "]");
+            }
+            if ("tenant".equals(keyValue.get(0))) {
+                tenantId = unescape(keyValue.get(1));
+            } else if ("type".equals(keyValue.get(0))) {
+                type = parseType(unescape(keyValue.get(1)));
+            }
+        }
+        if (tenantId == null) {
+            throw new IllegalArgumentException("The tenant tag is missing in [" + line + "]");
+        }
+
+        if (!parts.get(1).startsWith("value=")) {
+            throw new IllegalArgumentException("Expected a value field but got [" + parts.get(1) + "]");
+        }
+        String value = parts.get(1).substring("value=".length());
+        if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1);
+        } else if (type == COUNTER && value.endsWith("i")) {
+            value = value.substring(0, value.length() - 1);
+        }
+
+        MetricId<?> id = new MetricId<>(tenantId, type, unescape(series.get(0)));
+        return new InputPoint(id, createDataPoint(type, parseTimestamp(parts.get(2)), value));
+    }
+
+    private static MetricType<?> parseType(String text) {
+        MetricType<?> type = MetricType.fromTextCode(text.toLowerCase());
+        if (type != GAUGE && type != COUNTER && type != AVAILABILITY) {
+            throw new IllegalArgumentException("Metrics of type " + text + " are not stored compressed");
+        }
+        return type;
+    }
+
+    private static long parseTimestamp(String text) {
+        try {
+            return Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(text + " is not a valid timestamp in milliseconds");
+        }
+    }
+
+    private static DataPoint<?> createDataPoint(MetricType<?> type, long timestamp, String value) {
+        try {
+            if (type == GAUGE) {
+                return new DataPoint<>(timestamp, Double.parseDouble(value));
+            } else if (type == COUNTER) {
+                return new DataPoint<>(timestamp, Long.parseLong(value));
+            }
+            return new DataPoint<>(timestamp, AvailabilityType.fromString(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(value + " is not a valid " + type.getText() + " value");
+        }
+    }
+
+    /**
+     * Splits on the separators which are not escaped with a backslash. The escape characters are kept.
+     */
+    private static List<String> split(String text, char separator) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == separator) {
+                parts.add(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+
+    private static String unescape(String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                c = text.charAt(++i);
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
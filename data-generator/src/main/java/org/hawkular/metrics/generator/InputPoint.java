@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.generator;
+
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricId;
+
+/**
+ * A data point read from the input, along with the series it belongs to.
+ */
+class InputPoint {
+
+    private final MetricId<?> id;
+
+    private final DataPoint<?> dataPoint;
+
+    InputPoint(MetricId<?> id, DataPoint<?> dataPoint) {
+        this.id = id;
+        this.dataPoint = dataPoint;
+    }
+
+    MetricId<?> getId() {
+        return id;
+    }
+
+    DataPoint<?> getDataPoint() {
+        return dataPoint;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.db.marshal.ByteType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.TimestampType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.io.sstable.CQLSSTableWriter;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.hawkular.metrics.model.MetricId;
+
+/**
+ * Writes the index tables for the backfilled series, so that they can be listed and queried like the series which
+ * have been ingested through the REST API:
+ * <ul>
+ *     <li>{@code metrics_idx} with the data retention when a TTL is used</li>
+ *     <li>{@code metrics_series_idx}, which metric listings are based on</li>
+ *     <li>{@code metrics_expiration_idx} when a TTL is used, so that the expired metrics job eventually removes the
+ *     series</li>
+ * </ul>
+ */
+class MetricsIndexWriter {
+
+    private final File dataDir;
+
+    private final String keyspace;
+
+    private final int ttl;
+
+    /**
+     * @param ttl the TTL of the data in days, or 0 if the data is written without TTL
+     */
+    MetricsIndexWriter(File dataDir, String keyspace, int ttl) {
+        this.dataDir = dataDir;
+        this.keyspace = keyspace;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param series the timestamp of the last data point of each series
+     */
+    void write(Map<MetricId<?>, Long> series) throws IOException {
+        try (CQLSSTableWriter metricsIndex = createWriter("metrics_idx",
+                "tenant_id text, type tinyint, metric text, tags map<text, text>, data_retention int, " +
+                        "PRIMARY KEY ((tenant_id, type), metric)",
+                "tenant_id, type, metric, data_retention");
+             CQLSSTableWriter seriesIndex = createWriter("metrics_series_idx",
+                     "tenant_id text, type tinyint, metric text, PRIMARY KEY ((tenant_id, type), metric)",
+                     "tenant_id, type, metric")) {
+            for (MetricId<?> id : series.keySet()) {
+                metricsIndex.rawAddRow(UTF8Type.instance.decompose(id.getTenantId()),
+                        ByteType.instance.decompose(id.getType().getCode()),
+                        UTF8Type.instance.decompose(id.getName()),
+                        ttl > 0 ? Int32Type.instance.decompose(ttl) : ByteBufferUtil.UNSET_BYTE_BUFFER);
+                seriesIndex.rawAddRow(UTF8Type.instance.decompose(id.getTenantId()),
+                        ByteType.instance.decompose(id.getType().getCode()),
+                        UTF8Type.instance.decompose(id.getName()));
+            }
+        }
+
+        if (ttl > 0) {
+            try (CQLSSTableWriter expirationIndex = createWriter("metrics_expiration_idx",
+                    "tenant_id text, type tinyint, metric text, time timestamp, " +
+                            "PRIMARY KEY ((tenant_id, type), metric)",
+                    "tenant_id, type, metric, time")) {
+                for (Map.Entry<MetricId<?>, Long> entry : series.entrySet()) {
+                    MetricId<?> id = entry.getKey();
+                    long expiration = BlockEncoder.getBlockStart(entry.getValue()) + TimeUnit.DAYS.toMillis(ttl);
+                    expirationIndex.rawAddRow(UTF8Type.instance.decompose(id.getTenantId()),
+                            ByteType.instance.decompose(id.getType().getCode()),
+                            UTF8Type.instance.decompose(id.getName()),
+                            TimestampType.instance.decompose(new Date(expiration)));
+                }
+            }
+        }
+    }
+
+    private CQLSSTableWriter createWriter(String table, String columns, String insertColumns) {
+        File directory = new File(new File(dataDir, keyspace), table);
+        directory.mkdirs();
+
+        String markers = insertColumns.replaceAll("[a-z_]+", "?");
+        return CQLSSTableWriter.builder()
+                .inDirectory(directory)
+                .forTable("CREATE TABLE " + keyspace + "." + table + " (" + columns + ")")
+                .using("INSERT INTO " + keyspace + "." + table + " (" + insertColumns + ") VALUES (" + markers + ")")
+                .build();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.generator;
+
+import static org.hawkular.metrics.generator.BlockEncoder.BLOCK_SIZE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+/**
+ * Encodes and writes the blocks of the series assigned to one worker thread. Instances are not thread safe, each
+ * worker thread owns one, along with its own {@link CompressedDataWriter}.
+ * <p>
+ * Data points added with {@link #add(InputPoint)} are buffered per series and block. The input does not need to be
+ * sorted but it is expected to be roughly ordered by time: when a data point of a newer block arrives, the blocks
+ * older than the previous one are written out and later data points for them are rejected. Duplicate timestamps keep
+ * the last value, as an overwrite through the REST API would.
+ */
+class SeriesWorker implements Closeable {
+
+    private final CompressedDataWriter writer;
+
+    private final Map<MetricId<?>, NavigableMap<Long, NavigableMap<Long, DataPoint<?>>>> buffers = new HashMap<>();
+
+    private final Map<MetricId<?>, Long> lastTimestamps = new HashMap<>();
+
+    private long latestBlock = Long.MIN_VALUE;
+
+    private long writtenBefore = Long.MIN_VALUE;
+
+    private long dataPoints;
+
+    private long blocks;
+
+    private long rejected;
+
+    SeriesWorker(CompressedDataWriter writer) {
+        this.writer = writer;
+    }
+
+    void add(InputPoint point) throws IOException {
+        long timestamp = point.getDataPoint().getTimestamp();
+        long block = BlockEncoder.getBlockStart(timestamp);
+        if (block < writtenBefore) {
+            rejected++;
+            return;
+        }
+        buffers.computeIfAbsent(point.getId(), id -> new TreeMap<>())
+                .computeIfAbsent(block, b -> new TreeMap<>())
+                .put(timestamp, point.getDataPoint());
+
+        if (block > latestBlock) {
+            latestBlock = block;
+            // Keep the previous block open for late data points
+            writeBlocksBefore(block - BLOCK_SIZE);
+        }
+    }
+
+    /**
+     * Writes a complete block directly, bypassing the buffers.
+     *
+     * @param dataPoints sorted by ascending timestamp, without duplicate timestamps
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void writeBlock(MetricId<?> id, long blockStart, Collection<? extends DataPoint<?>> dataPoints)
+            throws IOException {
+        CompressedPointContainer cpc = BlockEncoder.encode((MetricType) id.getType(), blockStart,
+                (Collection) dataPoints);
+        writer.write(id, blockStart, cpc);
+        lastTimestamps.merge(id, blockStart + BLOCK_SIZE - 1, Math::max);
+        this.dataPoints += dataPoints.size();
+        blocks++;
+    }
+
+    private void writeBlocksBefore(long block) throws IOException {
+        Iterator<Map.Entry<MetricId<?>, NavigableMap<Long, NavigableMap<Long, DataPoint<?>>>>> iterator =
+                buffers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<MetricId<?>, NavigableMap<Long, NavigableMap<Long, DataPoint<?>>>> series = iterator.next();
+            NavigableMap<Long, NavigableMap<Long, DataPoint<?>>> completed = series.getValue().headMap(block, false);
+            for (Map.Entry<Long, NavigableMap<Long, DataPoint<?>>> entry : completed.entrySet()) {
+                writeBlock(series.getKey(), entry.getKey(), entry.getValue().values());
+            }
+            completed.clear();
+            if (series.getValue().isEmpty()) {
+                iterator.remove();
+            }
+        }
+        writtenBefore = Math.max(writtenBefore, block);
+    }
+
+    /**
+     * @return the series written by this worker, with the end of their last block
+     */
+    Map<MetricId<?>, Long> getSeries() {
+        return lastTimestamps;
+    }
+
+    long getDataPoints() {
+        return dataPoints;
+    }
+
+    long getBlocks() {
+        return blocks;
+    }
+
+    long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Writes the remaining buffered blocks and closes the SSTable writer.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writeBlocksBefore(Long.MAX_VALUE);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.generator;
+
+import static org.hawkular.metrics.generator.BlockEncoder.BLOCK_SIZE;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.model.DataPoint;
+import org.junit.Test;
+
+import fi.iki.yak.ts.compression.gorilla.ByteBufferBitInput;
+import fi.iki.yak.ts.compression.gorilla.Decompressor;
+import fi.iki.yak.ts.compression.gorilla.Pair;
+
+public class BlockEncoderTest {
+
+    @Test
+    public void alignBlocksOnEvenHours() {
+        long block = TimeUnit.HOURS.toMillis(420_000);
+        assertEquals(block, BlockEncoder.getBlockStart(block));
+        assertEquals(block, BlockEncoder.getBlockStart(block + TimeUnit.MINUTES.toMillis(119)));
+        assertEquals(block + BLOCK_SIZE, BlockEncoder.getBlockStart(block + BLOCK_SIZE));
+        assertEquals(-BLOCK_SIZE, BlockEncoder.getBlockStart(-1));
+    }
+
+    @Test
+    public void encodeBlock() {
+        long block = TimeUnit.HOURS.toMillis(420_000);
+        List<DataPoint<Double>> dataPoints = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            dataPoints.add(new DataPoint<>(block + TimeUnit.MINUTES.toMillis(i), i * 1.5));
+        }
+
+        CompressedPointContainer container = BlockEncoder.encode(GAUGE, block, dataPoints);
+        assertNull(container.getTagsBuffer());
+
+        ByteBuffer value = container.getValueBuffer();
+        // The header byte is followed by the gorilla stream
+        value.get();
+        Decompressor decompressor = new Decompressor(new ByteBufferBitInput(value));
+        List<DataPoint<Double>> decoded = new ArrayList<>();
+        Pair pair;
+        while ((pair = decompressor.readPair()) != null) {
+            decoded.add(new DataPoint<>(pair.getTimestamp(), pair.getDoubleValue()));
+        }
+        assertEquals(dataPoints, decoded);
+    }
+}
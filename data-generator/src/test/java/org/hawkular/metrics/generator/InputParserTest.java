@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.generator;
+
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Test;
+
+public class InputParserTest {
+
+    @Test
+    public void parseCsv() {
+        InputPoint point = InputParser.parseCsv("t1,gauge,cpu,usage,1500000000000,12.5");
+        assertEquals(new MetricId<>("t1", GAUGE, "cpu,usage"), point.getId());
+        assertEquals(new DataPoint<>(1500000000000L, 12.5), point.getDataPoint());
+
+        point = InputParser.parseCsv("t1,counter,requests,1500000000000,42");
+        assertEquals(new MetricId<>("t1", COUNTER, "requests"), point.getId());
+        assertEquals(new DataPoint<>(1500000000000L, 42L), point.getDataPoint());
+
+        point = InputParser.parseCsv("t1,availability,server,1500000000000,down");
+        assertEquals(new MetricId<>("t1", AVAILABILITY, "server"), point.getId());
+        assertEquals(new DataPoint<>(1500000000000L, AvailabilityType.DOWN), point.getDataPoint());
+    }
+
+    @Test
+    public void parseLineProtocol() {
+        InputPoint point = InputParser.parseLineProtocol("cpu\\ usage\\,total,tenant=t\\=1 value=12.5 1500000000000");
+        assertEquals(new MetricId<>("t=1", GAUGE, "cpu usage,total"), point.getId());
+        assertEquals(new DataPoint<>(1500000000000L, 12.5), point.getDataPoint());
+
+        point = InputParser.parseLineProtocol("requests,tenant=t1,type=counter value=42i 1500000000000");
+        assertEquals(new MetricId<>("t1", COUNTER, "requests"), point.getId());
+        assertEquals(new DataPoint<>(1500000000000L, 42L), point.getDataPoint());
+
+        point = InputParser.parseLineProtocol("server,type=availability,tenant=t1 value=\"up\" 1500000000000");
+        assertEquals(new MetricId<>("t1", AVAILABILITY, "server"), point.getId());
+        assertEquals(new DataPoint<>(1500000000000L, AvailabilityType.UP), point.getDataPoint());
+    }
+
+    @Test
+    public void ignoreCommentsAndBlankLines() {
+        assertTrue(InputParser.isComment("# tenant,type,metric,timestamp,value"));
+        assertTrue(InputParser.isComment("   "));
+        assertFalse(InputParser.isComment("t1,gauge,cpu,1500000000000,12.5"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectCsvWithMissingFields() {
+        InputParser.parseCsv("t1,gauge,1500000000000");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectInvalidValue() {
+        InputParser.parseCsv("t1,counter,requests,1500000000000,12.5");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUncompressedType() {
+        InputParser.parseCsv("t1,string,log,1500000000000,started");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectLineProtocolWithoutTenant() {
+        InputParser.parseLineProtocol("cpu,host=h1 value=12.5 1500000000000");
+    }
+}
@@ -16,8 +16,20 @@
 # limitations under the License.
 #
 
+# Runs the benchmarks and compares the results with the baseline, any arguments are passed to JMH. For example,
+# ./run.sh ReadBenchmark.stats -p series=100 runs only the stats benchmark with 100 series. When there is no baseline
+# yet, the results are saved as the baseline. To record a new baseline, remove or replace baseline/jmh-result.json.
+
+BASELINE=baseline/jmh-result.json
+RESULTS=target/jmh-result.json
+
 cd ../../core/metrics-core-service/ &&
 mvn clean install -DskipTests=true -Dlicense.skip &&
 cd - &&
 mvn clean install &&
-java -Xmx1024m -Xms1024m -jar target/benchmark.jar &&
+java -Xmx4096m -Xms4096m -jar target/benchmark.jar -rf json -rff $RESULTS "$@" &&
+if [ -f $BASELINE ]; then
+  java -cp target/benchmark.jar org.hawkular.metrics.benchmark.jmh.util.BaselineComparison $BASELINE $RESULTS
+else
+  mkdir -p baseline && cp $RESULTS $BASELINE && echo "Saved the results as the baseline in $BASELINE"
+fi
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.driver.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the same {@link Row} implementation the driver returns, backed by serialized column values. Reading a
+ * column then goes through the codec registry and the deserialization of the real driver. It lives in the driver
+ * package because the rows and column definitions can only be created from there.
+ */
+public final class StandInRows {
+
+    private static final ProtocolVersion PROTOCOL_VERSION = ProtocolVersion.NEWEST_SUPPORTED;
+
+    private static final Token.Factory TOKEN_FACTORY = Token.getFactory("Murmur3Partitioner");
+
+    private StandInRows() {
+    }
+
+    /**
+     * @param namesAndTypes pairs of column name and {@link DataType}
+     */
+    public static ColumnDefinitions columns(String keyspace, String table, Object... namesAndTypes) {
+        ColumnDefinitions.Definition[] definitions = new ColumnDefinitions.Definition[namesAndTypes.length / 2];
+        for (int i = 0; i < definitions.length; i++) {
+            definitions[i] = new ColumnDefinitions.Definition(keyspace, table, (String) namesAndTypes[2 * i],
+                    (DataType) namesAndTypes[2 * i + 1]);
+        }
+        return new ColumnDefinitions(definitions, CodecRegistry.DEFAULT_INSTANCE);
+    }
+
+    /**
+     * @param values the values in the order of the columns, null for columns which are not set
+     */
+    public static Row row(ColumnDefinitions columns, Object... values) {
+        List<ByteBuffer> data = new ArrayList<>(values.length);
+        for (int i = 0; i < values.length; i++) {
+            data.add(serialize(columns.getType(i), values[i]));
+        }
+        return ArrayBackedRow.fromData(columns, TOKEN_FACTORY, PROTOCOL_VERSION, data);
+    }
+
+    /**
+     * Computes the Murmur3 token of a partition key, which determines the order of the partitions in a table scan.
+     */
+    public static long token(ColumnDefinitions columns, Object... partitionKey) {
+        ByteBuffer key;
+        if (partitionKey.length == 1) {
+            key = serialize(columns.getType(0), partitionKey[0]);
+        } else {
+            // Composite keys are serialized as length, component and end-of-component byte
+            List<ByteBuffer> components = new ArrayList<>(partitionKey.length);
+            int size = 0;
+            for (int i = 0; i < partitionKey.length; i++) {
+                ByteBuffer component = serialize(columns.getType(i), partitionKey[i]);
+                components.add(component);
+                size += 2 + component.remaining() + 1;
+            }
+            key = ByteBuffer.allocate(size);
+            for (ByteBuffer component : components) {
+                key.putShort((short) component.remaining()).put(component).put((byte) 0);
+            }
+            key.flip();
+        }
+        return (Long) TOKEN_FACTORY.hash(key).getValue();
+    }
+
+    private static ByteBuffer serialize(DataType type, Object value) {
+        if (value == null) {
+            return null;
+        }
+        return CodecRegistry.DEFAULT_INSTANCE.codecFor(type).serialize(value, PROTOCOL_VERSION);
+    }
+}
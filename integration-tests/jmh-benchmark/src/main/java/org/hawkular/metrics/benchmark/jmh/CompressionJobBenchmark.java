@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.benchmark.jmh.util.DataSetGenerator;
+import org.hawkular.metrics.benchmark.jmh.util.MetricServiceManager;
+import org.hawkular.metrics.benchmark.jmh.util.StandInDataAccess;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the compression job for one block: the scan of the temporary table, the windowing by partition token and
+ * the compression of each series. The writes of the compressed blocks are only counted by the
+ * {@link StandInDataAccess}, and the temporary table is kept, so the same block is compressed by every invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class CompressionJobBenchmark {
+
+    @Param({"100", "1000"})
+    public int series;
+
+    @Param({"10", "60"})
+    public int intervalSeconds;
+
+    @Param({"1", "4"})
+    public int maxConcurrency;
+
+    private MetricServiceManager metricsManager;
+
+    private long blockStart;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        blockStart = DataSetGenerator.getBlockStart(System.currentTimeMillis()) - TimeUnit.HOURS.toMillis(2);
+        long blockEnd = blockStart + TimeUnit.HOURS.toMillis(2);
+
+        StandInDataAccess dataAccess = new StandInDataAccess();
+        DataSetGenerator generator = new DataSetGenerator(dataAccess, TimeUnit.SECONDS.toMillis(intervalSeconds),
+                blockStart);
+        generator.addGauges(series, blockStart, blockEnd);
+        dataAccess.loaded();
+
+        metricsManager = new MetricServiceManager(dataAccess, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        metricsManager.shutdown();
+    }
+
+    @Benchmark
+    public void compressBlock() {
+        metricsManager.getMetricsService().compressBlock(blockStart, 1000, maxConcurrency).await();
+    }
+}
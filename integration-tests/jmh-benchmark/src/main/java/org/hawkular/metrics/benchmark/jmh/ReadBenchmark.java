@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.benchmark.jmh;
+
+import static org.hawkular.metrics.core.service.Order.ASC;
+import static org.hawkular.metrics.core.service.Order.DESC;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.benchmark.jmh.util.DataSetGenerator;
+import org.hawkular.metrics.benchmark.jmh.util.MetricServiceManager;
+import org.hawkular.metrics.benchmark.jmh.util.StandInDataAccess;
+import org.hawkular.metrics.core.service.MetricsService;
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.Percentile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Measures the read path of MetricsServiceImpl on top of the {@link StandInDataAccess}: decompression of the blocks,
+ * merging with the temporary tables, bucketing, percentiles, rates and the JSON serialization of the results. Each
+ * operation reads all the series of the data set, over the last {@code rangeHours} hours. The last, uncompressed
+ * block comes from the temporary tables.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ReadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class DataSet {
+
+        @Param({"1", "10", "100"})
+        public int series;
+
+        @Param({"2", "24", "168"})
+        public int rangeHours;
+
+        @Param({"60"})
+        public int intervalSeconds;
+
+        /**
+         * Maximum number of data points of the cached compressed blocks, 0 reads every block from the data access
+         */
+        @Param({"0", "2000000"})
+        public long compressedCacheSize;
+
+        private MetricServiceManager metricsManager;
+
+        private List<MetricId<Double>> gauges;
+
+        private List<MetricId<Long>> counters;
+
+        private long start;
+
+        private long end;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            end = System.currentTimeMillis();
+            start = end - TimeUnit.HOURS.toMillis(rangeHours);
+
+            StandInDataAccess dataAccess = new StandInDataAccess();
+            DataSetGenerator generator = new DataSetGenerator(dataAccess, TimeUnit.SECONDS.toMillis(intervalSeconds),
+                    end);
+            gauges = generator.addGauges(series, start, end);
+            counters = generator.addCounters(series, start, end);
+            dataAccess.loaded();
+
+            metricsManager = new MetricServiceManager(dataAccess, compressedCacheSize);
+        }
+
+        @TearDown(Level.Trial)
+        public void shutdown() {
+            metricsManager.shutdown();
+        }
+
+        public MetricsService getMetricsService() {
+            return metricsManager.getMetricsService();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class StatsQuery {
+
+        @Param({"60"})
+        public int buckets;
+
+        /**
+         * Comma separated quantiles, none when empty
+         */
+        @Param({"", "90", "50,90,95,99"})
+        public String percentiles;
+
+        private List<Percentile> percentileList;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            percentileList = new ArrayList<>();
+            if (!percentiles.isEmpty()) {
+                for (String quantile : percentiles.split(",")) {
+                    percentileList.add(new Percentile(quantile));
+                }
+            }
+        }
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
+
+    @Benchmark
+    public void rawRead(DataSet data, Blackhole bh) {
+        data.getMetricsService().findDataPoints(data.gauges, data.start, data.end, 0, DESC)
+                .toBlocking()
+                .forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void rawReadJson(DataSet data, Blackhole bh) throws JsonProcessingException {
+        for (MetricId<Double> id : data.gauges) {
+            List<DataPoint<Double>> dataPoints = data.getMetricsService()
+                    .findDataPoints(id, data.start, data.end, 0, DESC)
+                    .toList()
+                    .toBlocking()
+                    .single();
+            bh.consume(mapper.writeValueAsBytes(dataPoints));
+        }
+    }
+
+    @Benchmark
+    public void stats(DataSet data, StatsQuery query, Blackhole bh) throws JsonProcessingException {
+        List<NumericBucketPoint> bucketPoints = data.getMetricsService()
+                .findNumericStats(data.gauges, data.start, data.end,
+                        Buckets.fromCount(data.start, data.end, query.buckets), query.percentileList, false, false)
+                .toBlocking()
+                .single();
+        bh.consume(mapper.writeValueAsBytes(bucketPoints));
+    }
+
+    @Benchmark
+    public void stackedStats(DataSet data, StatsQuery query, Blackhole bh) {
+        bh.consume(data.getMetricsService()
+                .findNumericStats(data.gauges, data.start, data.end,
+                        Buckets.fromCount(data.start, data.end, query.buckets), query.percentileList, true, false)
+                .toBlocking()
+                .single());
+    }
+
+    @Benchmark
+    public void rate(DataSet data, Blackhole bh) {
+        data.getMetricsService().findRateData(data.counters, data.start, data.end, 0, ASC)
+                .toBlocking()
+                .forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void rateStats(DataSet data, StatsQuery query, Blackhole bh) {
+        bh.consume(data.getMetricsService()
+                .findNumericStats(data.counters, data.start, data.end,
+                        Buckets.fromCount(data.start, data.end, query.buckets), query.percentileList, false, true)
+                .toBlocking()
+                .single());
+    }
+
+    @Benchmark
+    public void latestValue(DataSet data, Blackhole bh) {
+        for (MetricId<Double> id : data.gauges) {
+            bh.consume(data.getMetricsService()
+                    .findDataPoints(id, data.start, data.end, 1, DESC)
+                    .toBlocking()
+                    .singleOrDefault(null));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.benchmark.jmh;
+
+import static org.hawkular.metrics.benchmark.jmh.util.DataSetGenerator.TENANT_ID;
+import static org.hawkular.metrics.core.service.Order.DESC;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.benchmark.jmh.util.DataSetGenerator;
+import org.hawkular.metrics.benchmark.jmh.util.MetricServiceManager;
+import org.hawkular.metrics.benchmark.jmh.util.StandInDataAccess;
+import org.hawkular.metrics.core.service.MetricsService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the tag queries on the {@link StandInDataAccess}, with both the simple and the expression syntax, and a
+ * tag query followed by the read of the matching series. The {@code host} tag selects about ten series, {@code app}
+ * a fifth of them and {@code dc} half of them, see {@link DataSetGenerator}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TagQueryBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int series;
+
+    @Param({"2"})
+    public int rangeHours;
+
+    private MetricServiceManager metricsManager;
+
+    private long start;
+
+    private long end;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // Only compressed blocks, the temporary tables would take a lot of memory with many series
+        end = DataSetGenerator.getBlockStart(System.currentTimeMillis());
+        start = end - TimeUnit.HOURS.toMillis(rangeHours);
+
+        StandInDataAccess dataAccess = new StandInDataAccess();
+        new DataSetGenerator(dataAccess, TimeUnit.MINUTES.toMillis(1), end).addGauges(series, start, end);
+        dataAccess.loaded();
+
+        metricsManager = new MetricServiceManager(dataAccess, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        metricsManager.shutdown();
+    }
+
+    private MetricsService getMetricsService() {
+        return metricsManager.getMetricsService();
+    }
+
+    @Benchmark
+    public void simpleExactValue(Blackhole bh) {
+        getMetricsService().findMetricIdentifiersWithFilters(TENANT_ID, GAUGE, "host:host-1")
+                .toBlocking()
+                .forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void simpleRegexAndValues(Blackhole bh) {
+        getMetricsService().findMetricIdentifiersWithFilters(TENANT_ID, GAUGE, "app:app-1|app-2,dc:dc-.*")
+                .toBlocking()
+                .forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void expression(Blackhole bh) {
+        getMetricsService().findMetricIdentifiersWithFilters(TENANT_ID, GAUGE,
+                "dc = 'dc-0' AND (app in ['app-1', 'app-2'])")
+                .toBlocking()
+                .forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void expressionNotEqual(Blackhole bh) {
+        getMetricsService().findMetricIdentifiersWithFilters(TENANT_ID, GAUGE, "app != 'app-1'")
+                .toBlocking()
+                .forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void queryAndRead(Blackhole bh) {
+        getMetricsService().findDataPoints(TENANT_ID, GAUGE, "host:host-1", start, end, 0, DESC)
+                .toBlocking()
+                .forEach(bh::consume);
+    }
+}
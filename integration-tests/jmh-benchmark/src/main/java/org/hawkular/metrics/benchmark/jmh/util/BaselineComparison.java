@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.benchmark.jmh.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the JSON results of a benchmark run, as written by {@code -rf json}, with the results of a baseline run.
+ * A benchmark regresses when its score is worse than the baseline by more than the threshold, and by more than the
+ * sum of the score errors of both runs. The exit status is 1 when at least one benchmark regresses.
+ * <p>
+ * Usage: {@code BaselineComparison <baseline.json> <results.json> [threshold in percent, defaults to 10]}
+ */
+public class BaselineComparison {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparison <baseline.json> <results.json> [threshold in percent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.1;
+
+        Map<String, JsonNode> baseline = load(new File(args[0]));
+        Map<String, JsonNode> results = load(new File(args[1]));
+
+        int regressions = 0;
+        for (Map.Entry<String, JsonNode> result : results.entrySet()) {
+            JsonNode previous = baseline.get(result.getKey());
+            JsonNode current = result.getValue();
+            if (previous == null) {
+                System.out.printf("%-100s %12s%n", result.getKey(), "new");
+                continue;
+            }
+            double previousScore = previous.path("primaryMetric").path("score").asDouble();
+            double currentScore = current.path("primaryMetric").path("score").asDouble();
+            double error = Math.abs(previous.path("primaryMetric").path("scoreError").asDouble(0)) +
+                    Math.abs(current.path("primaryMetric").path("scoreError").asDouble(0));
+
+            // Throughput is better when higher, the other modes measure times
+            boolean higherIsBetter = "thrpt".equals(current.path("mode").asText());
+            double change = (currentScore - previousScore) / previousScore;
+            double worsening = higherIsBetter ? -change : change;
+            boolean regressed = worsening > threshold && Math.abs(currentScore - previousScore) > error;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-100s %+11.1f%% %s%n", result.getKey(), change * 100, regressed ? "REGRESSION" : "");
+        }
+        baseline.keySet().stream()
+                .filter(key -> !results.containsKey(key))
+                .forEach(key -> System.out.printf("%-100s %12s%n", key, "missing"));
+
+        System.out.println();
+        System.out.println(regressions + " regression(s) above " + threshold * 100 + "%");
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    /**
+     * @return the results by benchmark name and parameters
+     */
+    private static Map<String, JsonNode> load(File file) throws IOException {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(result.path("benchmark").asText());
+            Map<String, String> params = new TreeMap<>();
+            result.path("params").fields().forEachRemaining(e -> params.put(e.getKey(), e.getValue().asText()));
+            if (!params.isEmpty()) {
+                key.append(' ').append(params);
+            }
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.benchmark.jmh.util;
+
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.core.service.transformers.DataPointCompressTransformer;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+import rx.Observable;
+
+/**
+ * Loads series into a {@link StandInDataAccess}. The data points before a given time are stored in compressed
+ * blocks, like the compression job would have left them, and the remaining ones in the temporary tables.
+ * <p>
+ * Each series is tagged with {@code host}, {@code app} and {@code dc}, which respectively match about 10 series,
+ * a fifth and half of the series of the same type. The values are random walks for gauges and increasing values
+ * with a reset every other day for counters, so that they compress like real data does. A fixed seed keeps the data
+ * sets identical across runs.
+ */
+public class DataSetGenerator {
+
+    public static final String TENANT_ID = "benchmark";
+
+    private static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+
+    private static final int DATA_RETENTION = 7;
+
+    private final StandInDataAccess dataAccess;
+
+    private final long interval;
+
+    private final long compressedUntil;
+
+    private final Random random = new Random(42);
+
+    /**
+     * @param interval the time between two data points of a series
+     * @param compressedUntil the data points before this time are stored compressed, it is rounded down to the start
+     *                        of its block
+     */
+    public DataSetGenerator(StandInDataAccess dataAccess, long interval, long compressedUntil) {
+        this.dataAccess = dataAccess;
+        this.interval = interval;
+        this.compressedUntil = getBlockStart(compressedUntil);
+    }
+
+    public static long getBlockStart(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, BLOCK_SIZE);
+    }
+
+    public List<MetricId<Double>> addGauges(int count, long start, long end) {
+        List<MetricId<Double>> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            MetricId<Double> id = new MetricId<>(TENANT_ID, GAUGE, "gauge-" + i);
+            double[] value = {100};
+            addSeries(id, i, count, start, end, timestamp -> {
+                value[0] = Math.max(0, value[0] + random.nextGaussian());
+                return Math.round(value[0] * 100) / 100.0;
+            });
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    public List<MetricId<Long>> addCounters(int count, long start, long end) {
+        List<MetricId<Long>> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            MetricId<Long> id = new MetricId<>(TENANT_ID, COUNTER, "counter-" + i);
+            long[] value = {0};
+            addSeries(id, i, count, start, end, timestamp -> {
+                value[0] = Math.floorMod(timestamp, TimeUnit.DAYS.toMillis(2)) < interval ? 0 :
+                        value[0] + random.nextInt(100);
+                return value[0];
+            });
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private <T> void addSeries(MetricId<T> id, int index, int count, long start, long end,
+            LongFunction<T> values) {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("host", "host-" + index / 10);
+        tags.put("app", "app-" + index % 5);
+        tags.put("dc", "dc-" + index % 2);
+        dataAccess.addMetric(id, tags, DATA_RETENTION);
+
+        List<DataPoint<T>> block = new ArrayList<>();
+        long blockStart = getBlockStart(start);
+        for (long timestamp = start; timestamp < end; timestamp += interval) {
+            if (timestamp >= blockStart + BLOCK_SIZE) {
+                addBlock(id, blockStart, block);
+                block.clear();
+                blockStart = getBlockStart(timestamp);
+            }
+            block.add(new DataPoint<>(timestamp, values.apply(timestamp)));
+        }
+        addBlock(id, blockStart, block);
+    }
+
+    private <T> void addBlock(MetricId<T> id, long blockStart, List<DataPoint<T>> dataPoints) {
+        if (dataPoints.isEmpty()) {
+            return;
+        }
+        if (blockStart < compressedUntil) {
+            MetricType<T> type = id.getType();
+            CompressedPointContainer container = Observable.from(dataPoints)
+                    .compose(new DataPointCompressTransformer<>(type, blockStart))
+                    .toBlocking()
+                    .single();
+            dataAccess.addCompressedBlock(id, blockStart, container);
+        } else {
+            dataPoints.forEach(dataPoint -> dataAccess.addTempDataPoint(id, blockStart, dataPoint));
+        }
+    }
+}
@@ -16,16 +16,24 @@
  */
 package org.hawkular.metrics.benchmark.jmh.util;
 
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
 import org.hawkular.metrics.core.dropwizard.HawkularMetricRegistry;
 import org.hawkular.metrics.core.dropwizard.MetricNameService;
+import org.hawkular.metrics.core.service.DataAccess;
 import org.hawkular.metrics.core.service.DataAccessImpl;
 import org.hawkular.metrics.core.service.MetricsServiceImpl;
 import org.hawkular.metrics.schema.SchemaService;
+import org.hawkular.metrics.sysconfig.Configuration;
 import org.hawkular.metrics.sysconfig.ConfigurationService;
 import org.hawkular.rx.cassandra.driver.RxSessionImpl;
 
 import com.datastax.driver.core.Session;
 
+import rx.Observable;
+
 /**
  * MetricsService lifecycle management, influenced by the MetricsServiceLifecycle from JAX-RS module
  *
@@ -47,6 +55,25 @@ public class MetricServiceManager {
         metricsService = createMetricsService(session);
     }
 
+    /**
+     * Runs the service on top of the given data access, typically a {@link StandInDataAccess}. The session is only
+     * used during the startup and is mocked, the default configuration is used.
+     *
+     * @param compressedCacheSize maximum number of data points of the cached compressed blocks, 0 disables the cache
+     */
+    public MetricServiceManager(DataAccess dataAccess, long compressedCacheSize) {
+        this.manager = new MockCassandraManager();
+        manager.startCluster();
+        session = manager.createSession();
+        keyspace = System.getProperty("hawkular.metrics.cassandra.keyspace", "benchmark");
+
+        ConfigurationService configurationService = mock(ConfigurationService.class);
+        when(configurationService.load(anyString()))
+                .thenReturn(Observable.just(new Configuration("org.hawkular.metrics")));
+        metricsService = startMetricsService(session, dataAccess, configurationService);
+        metricsService.setCompressedBlockCacheSize(compressedCacheSize);
+    }
+
     private MetricsServiceImpl createMetricsService(Session session) {
         SchemaService schemaService = new SchemaService();
         schemaService.run(session, keyspace, true);
@@ -56,8 +83,13 @@ public class MetricServiceManager {
 
         selectKeyspace(session);
 
-        metricsService = new MetricsServiceImpl();
-        metricsService.setDataAccess(new DataAccessImpl(session));
+        return startMetricsService(session, new DataAccessImpl(session), configurationService);
+    }
+
+    private MetricsServiceImpl startMetricsService(Session session, DataAccess dataAccess,
+            ConfigurationService configurationService) {
+        MetricsServiceImpl metricsService = new MetricsServiceImpl();
+        metricsService.setDataAccess(dataAccess);
         metricsService.setConfigurationService(configurationService);
         metricsService.setDefaultTTL(DEFAULT_TTL);
 
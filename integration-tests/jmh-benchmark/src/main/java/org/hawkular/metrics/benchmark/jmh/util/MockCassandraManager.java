@@ -16,6 +16,8 @@
  */
 package org.hawkular.metrics.benchmark.jmh.util;
 
+import static java.util.Collections.singletonList;
+
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -70,6 +72,11 @@ public class MockCassandraManager implements ClusterManager {
             e.printStackTrace();
         }
         Mockito.doReturn(future).when(session).executeAsync(Mockito.anyString());
+
+        // Answers the lookup of the default TTL of the data table done at startup
+        ResultSet tableOptions = mock(ResultSet.class);
+        Mockito.doReturn(singletonList(mock(Row.class))).when(tableOptions).all();
+        Mockito.doReturn(tableOptions).when(session).execute(Mockito.anyString());
         return session;
     }
 
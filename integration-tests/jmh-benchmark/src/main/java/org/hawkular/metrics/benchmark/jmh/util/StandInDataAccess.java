@@ -0,0 +1,508 @@
+/*
+ * Copyright 2014-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.benchmark.jmh.util;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import static com.datastax.driver.core.DataType.bigint;
+import static com.datastax.driver.core.DataType.blob;
+import static com.datastax.driver.core.DataType.cdouble;
+import static com.datastax.driver.core.DataType.cint;
+import static com.datastax.driver.core.DataType.map;
+import static com.datastax.driver.core.DataType.text;
+import static com.datastax.driver.core.DataType.timestamp;
+import static com.datastax.driver.core.DataType.tinyint;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.HistogramSketch;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+import org.hawkular.metrics.model.Tenant;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.StandInRows;
+
+import rx.Observable;
+
+/**
+ * In-memory stand-in for the Cassandra backed {@link DataAccess}. It serves pre-generated compressed blocks, temporary
+ * table rows and tag index rows, so that everything above the data access layer - decompression, merging of the
+ * compressed and temporary data, bucketing, tag queries and the compression job - runs the production code. The rows
+ * are the ones of the driver, with serialized column values, hence the cost of reading columns is realistic as well.
+ * <p>
+ * Writes are only counted. The data is expected to be loaded before the benchmark starts, it is not safe to modify
+ * it while it is being read.
+ */
+public class StandInDataAccess implements DataAccess {
+
+    private static final String KEYSPACE = "benchmark";
+
+    private static final ColumnDefinitions COMPRESSED_COLUMNS = StandInRows.columns(KEYSPACE, "data_compressed",
+            "time", timestamp(), "c_value", blob(), "tags", blob());
+
+    private static final ColumnDefinitions TEMP_GAUGE_COLUMNS = StandInRows.columns(KEYSPACE, "data_temp",
+            "time", timestamp(), "n_value", cdouble(), "tags", map(text(), text()));
+
+    private static final ColumnDefinitions TEMP_COUNTER_COLUMNS = StandInRows.columns(KEYSPACE, "data_temp",
+            "time", timestamp(), "l_value", bigint(), "tags", map(text(), text()));
+
+    private static final ColumnDefinitions TEMP_AVAILABILITY_COLUMNS = StandInRows.columns(KEYSPACE, "data_temp",
+            "time", timestamp(), "availability", blob(), "tags", map(text(), text()));
+
+    private static final ColumnDefinitions TEMP_SCAN_COLUMNS = StandInRows.columns(KEYSPACE, "data_temp",
+            "tenant_id", text(), "type", tinyint(), "metric", text(), "time", timestamp(), "n_value", cdouble(),
+            "availability", blob(), "l_value", bigint(), "tags", map(text(), text()),
+            "token(tenant_id, type, metric)", bigint());
+
+    private static final ColumnDefinitions TAGS_INDEX_COLUMNS = StandInRows.columns(KEYSPACE, "metrics_tags_idx",
+            "tenant_id", text(), "type", tinyint(), "metric", text(), "tvalue", text());
+
+    private static final ColumnDefinitions METRICS_INDEX_COLUMNS = StandInRows.columns(KEYSPACE, "metrics_idx",
+            "metric", text(), "tags", map(text(), text()), "data_retention", cint());
+
+    private static final ColumnDefinitions METRIC_TAGS_COLUMNS = StandInRows.columns(KEYSPACE, "metrics_idx",
+            "tags", map(text(), text()));
+
+    /**
+     * Sorts the rows of a table scan like Cassandra returns them, by token and then by descending time.
+     */
+    private static final Comparator<ScanRow> SCAN_ORDER = Comparator.<ScanRow>comparingLong(r -> r.token)
+            .thenComparing(r -> r.metricId.toString())
+            .thenComparing(Comparator.<ScanRow>comparingLong(r -> r.timestamp).reversed());
+
+    private final Map<MetricId<?>, NavigableMap<Long, Row>> compressedData = new ConcurrentHashMap<>();
+
+    private final Map<MetricId<?>, NavigableMap<Long, Row>> tempData = new ConcurrentHashMap<>();
+
+    private final Map<Long, List<ScanRow>> tempTables = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<String, List<Row>>> tagsIndex = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<MetricType<?>, List<Row>>> metricsIndex = new ConcurrentHashMap<>();
+
+    private final Map<MetricId<?>, Row> metricTags = new ConcurrentHashMap<>();
+
+    private final AtomicLong dataPointsWritten = new AtomicLong();
+
+    private final AtomicLong compressedBlocksWritten = new AtomicLong();
+
+    private final ResultSet appliedResultSet;
+
+    public StandInDataAccess() {
+        appliedResultSet = mock(ResultSet.class);
+        when(appliedResultSet.wasApplied()).thenReturn(true);
+    }
+
+    // Loading of the data
+
+    public void addCompressedBlock(MetricId<?> id, long blockStart, CompressedPointContainer container) {
+        compressedData.computeIfAbsent(id, k -> new TreeMap<>()).put(blockStart,
+                StandInRows.row(COMPRESSED_COLUMNS, new Date(blockStart), container.getValueBuffer(),
+                        container.getTagsBuffer()));
+    }
+
+    /**
+     * Adds a data point to the temporary table of the given block, where it is found both by the queries of the
+     * series and by the scan of the compression job.
+     */
+    public <T> void addTempDataPoint(MetricId<T> id, long blockStart, DataPoint<T> dataPoint) {
+        Map<String, String> tags = dataPoint.getTags().isEmpty() ? null : dataPoint.getTags();
+        Date time = new Date(dataPoint.getTimestamp());
+        Row row;
+        Object[] scanValues;
+        if (id.getType() == MetricType.GAUGE) {
+            row = StandInRows.row(TEMP_GAUGE_COLUMNS, time, dataPoint.getValue(), tags);
+            scanValues = new Object[] {dataPoint.getValue(), null, null};
+        } else if (id.getType() == MetricType.COUNTER) {
+            row = StandInRows.row(TEMP_COUNTER_COLUMNS, time, dataPoint.getValue(), tags);
+            scanValues = new Object[] {null, null, dataPoint.getValue()};
+        } else if (id.getType() == MetricType.AVAILABILITY) {
+            ByteBuffer availability = ByteBuffer.wrap(new byte[] {((AvailabilityType) dataPoint.getValue())
+                    .getCode()});
+            row = StandInRows.row(TEMP_AVAILABILITY_COLUMNS, time, availability, tags);
+            scanValues = new Object[] {null, availability, null};
+        } else {
+            throw new IllegalArgumentException(id.getType() + " is not stored in the temporary tables");
+        }
+        tempData.computeIfAbsent(id, k -> new TreeMap<>()).put(dataPoint.getTimestamp(), row);
+
+        long token = StandInRows.token(TEMP_SCAN_COLUMNS, id.getTenantId(), id.getType().getCode(), id.getName());
+        Row scanRow = StandInRows.row(TEMP_SCAN_COLUMNS, id.getTenantId(), id.getType().getCode(), id.getName(),
+                time, scanValues[0], scanValues[1], scanValues[2], tags, token);
+        tempTables.computeIfAbsent(blockStart, k -> new ArrayList<>())
+                .add(new ScanRow(id, dataPoint.getTimestamp(), token, scanRow));
+    }
+
+    /**
+     * Registers the metric in the metrics index and its tags in the tags index.
+     */
+    public void addMetric(MetricId<?> id, Map<String, String> tags, int dataRetention) {
+        metricsIndex.computeIfAbsent(id.getTenantId(), k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(id.getType(), k -> new ArrayList<>())
+                .add(StandInRows.row(METRICS_INDEX_COLUMNS, id.getName(), tags, dataRetention));
+        metricTags.put(id, StandInRows.row(METRIC_TAGS_COLUMNS, tags));
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            tagsIndex.computeIfAbsent(id.getTenantId(), k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(tag.getKey(), k -> new ArrayList<>())
+                    .add(StandInRows.row(TAGS_INDEX_COLUMNS, id.getTenantId(), id.getType().getCode(), id.getName(),
+                            tag.getValue()));
+        }
+    }
+
+    /**
+     * Sorts the loaded rows the way Cassandra returns them, must be called once all the data has been added.
+     */
+    public void loaded() {
+        tempTables.values().forEach(rows -> rows.sort(SCAN_ORDER));
+        metricsIndex.values().forEach(types -> types.values()
+                .forEach(rows -> rows.sort(Comparator.comparing(row -> row.getString(0)))));
+    }
+
+    public long getDataPointsWritten() {
+        return dataPointsWritten.get();
+    }
+
+    public long getCompressedBlocksWritten() {
+        return compressedBlocksWritten.get();
+    }
+
+    // Reads
+
+    @Override
+    public Observable<Row> findCompressedData(MetricId<?> id, long startTime, long endTime, int limit,
+            Order order) {
+        return findInRange(compressedData.get(id), startTime, endTime, limit, order);
+    }
+
+    @Override
+    public Observable<Row> findSeriesInLegacyCompressedPartition() {
+        return Observable.empty();
+    }
+
+    @Override
+    public <T> Observable<Integer> moveLegacyCompressedData(MetricId<T> id) {
+        return Observable.just(0);
+    }
+
+    @Override
+    public void setLegacyCompressedDataMoved(boolean moved) {
+    }
+
+    @Override
+    public <T> Observable<Row> findTempData(MetricId<T> id, long startTime, long endTime, int limit, Order order,
+            int pageSize) {
+        return findInRange(tempData.get(id), startTime, endTime, limit, order);
+    }
+
+    private static Observable<Row> findInRange(NavigableMap<Long, Row> rows, long startTime, long endTime, int limit,
+            Order order) {
+        if (rows == null) {
+            return Observable.empty();
+        }
+        NavigableMap<Long, Row> range = rows.subMap(startTime, true, endTime, false);
+        Observable<Row> result = Observable.from(order == Order.ASC ? range.values() :
+                range.descendingMap().values());
+        return limit > 0 ? result.take(limit) : result;
+    }
+
+    @Override
+    public Observable<Observable<Row>> findAllDataFromBucket(long timestamp, int pageSize, int maxConcurrency) {
+        List<ScanRow> rows = tempTables.get(timestamp);
+        if (rows == null) {
+            return Observable.empty();
+        }
+        return Observable.just(Observable.from(rows).map(scanRow -> scanRow.row));
+    }
+
+    @Override
+    public Observable<Row> findMetricsByTagName(String tenantId, String tag) {
+        List<Row> rows = tagsIndex.getOrDefault(tenantId, Collections.emptyMap()).get(tag);
+        return rows == null ? Observable.empty() : Observable.from(rows);
+    }
+
+    @Override
+    public Observable<Row> findMetricsByTagNameValue(String tenantId, String tag, String tvalue) {
+        return findMetricsByTagName(tenantId, tag).filter(row -> tvalue.equals(row.getString(3)));
+    }
+
+    @Override
+    public <T> Observable<Row> findMetricsInMetricsIndex(String tenantId, MetricType<T> type) {
+        List<Row> rows = metricsIndex.getOrDefault(tenantId, Collections.emptyMap()).get(type);
+        return rows == null ? Observable.empty() : Observable.from(rows);
+    }
+
+    @Override
+    public <T> Observable<Row> getMetricTags(MetricId<T> id) {
+        Row row = metricTags.get(id);
+        return row == null ? Observable.empty() : Observable.just(row);
+    }
+
+    @Override
+    public Observable<Row> findAllTenantIds() {
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Row> findTenant(String id) {
+        return Observable.empty();
+    }
+
+    @Override
+    public <T> Observable<Row> findMetricInData(MetricId<T> id) {
+        return Observable.empty();
+    }
+
+    @Override
+    public <T> Observable<Row> findMetricInMetricsIndex(MetricId<T> id) {
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Row> getTagNames() {
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Row> getTagNamesWithType() {
+        return Observable.empty();
+    }
+
+    @Override
+    public <T> Observable<Row> findMetricsInSeriesIndex(String tenantId, MetricType<T> type) {
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Row> findAllMetricsInSeriesIndex() {
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Row> findAllMetricIdentifiersInData() {
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Row> findStringData(MetricId<String> id, long startTime, long endTime, int limit, Order order,
+            int pageSize) {
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Integer> insertHistogramData(Observable<Metric<HistogramSketch>> histograms,
+            Function<MetricId<HistogramSketch>, Integer> ttlFetcher) {
+        return insertData(histograms);
+    }
+
+    @Override
+    public Observable<Row> findHistogramData(MetricId<HistogramSketch> id, long startTime, long endTime, int limit,
+            Order order, int pageSize) {
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Row> findAllMetricsFromTagsIndex() {
+        return Observable.empty();
+    }
+
+    @Override
+    public <T> Observable<Row> findMetricExpiration(MetricId<T> id) {
+        return Observable.empty();
+    }
+
+    @Override
+    public <T> ResultSetFuture findDataRetentions(String tenantId, MetricType<T> type) {
+        // Only called for the tenants returned by findAllTenantIds
+        throw new UnsupportedOperationException();
+    }
+
+    // Writes
+
+    @Override
+    public <T> Observable<Integer> insertData(Observable<Metric<T>> metrics) {
+        return metrics.map(metric -> {
+            dataPointsWritten.addAndGet(metric.getDataPoints().size());
+            return metric.getDataPoints().size();
+        });
+    }
+
+    @Override
+    public Observable<Integer> insertStringDatas(Observable<Metric<String>> strings,
+            Function<MetricId<String>, Integer> ttlFetcher, int maxSize) {
+        return insertData(strings);
+    }
+
+    @Override
+    public Observable<Integer> insertStringData(Metric<String> metric, int maxSize) {
+        return insertData(Observable.just(metric));
+    }
+
+    @Override
+    public Observable<Integer> insertStringData(Metric<String> metric, int ttl, int maxSize) {
+        return insertData(Observable.just(metric));
+    }
+
+    @Override
+    public <T> Observable<ResultSet> insertCompressedData(MetricId<T> id, long timeslice,
+            CompressedPointContainer cpc, int ttl) {
+        compressedBlocksWritten.incrementAndGet();
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteAndInsertCompressedGauge(MetricId<T> id, long timeslice,
+            CompressedPointContainer cpc, long sliceStart, long sliceEnd, int ttl) {
+        return insertCompressedData(id, timeslice, cpc, ttl);
+    }
+
+    @Override
+    public <T> Observable<Integer> updateMetricsIndex(Observable<Metric<T>> metrics) {
+        return metrics.map(metric -> 1);
+    }
+
+    @Override
+    public Observable<Integer> insertIntoSeriesIndex(Observable<? extends MetricId<?>> ids) {
+        return ids.map(id -> 1);
+    }
+
+    @Override
+    public Observable<Integer> updateMetricExpirationIndex(Map<? extends MetricId<?>, Long> expirations) {
+        return Observable.just(expirations.size());
+    }
+
+    @Override
+    public Observable<ResultSet> createTempTablesIfNotExists(Set<Long> timestamps) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public Observable<ResultSet> dropTempTable(long timestamp) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public Observable<ResultSet> insertTenant(Tenant tenant, boolean overwrite) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public <T> ResultSetFuture insertMetricInMetricsIndex(Metric<T> metric, boolean overwrite) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> Observable<ResultSet> addTags(Metric<T> metric, Map<String, String> tags) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteTags(Metric<T> metric, Set<String> tags) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteFromSeriesIndex(MetricId<T> id) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteMetricData(MetricId<T> id, int dataRetention) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteMetricFromRetentionIndex(MetricId<T> id) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteMetricFromMetricsIndex(MetricId<T> id) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> updateRetentionsIndex(String tenantId, MetricType<T> type,
+            Map<String, Integer> retentions) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public <T> ResultSetFuture updateRetentionsIndex(Metric<T> metric) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> Observable<ResultSet> insertIntoMetricsTagsIndex(Metric<T> metric, Map<String, String> tags) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteFromMetricsTagsIndex(MetricId<T> id, Map<String, String> tags) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> updateMetricExpirationIndex(MetricId<T> id, long expirationTime) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteFromMetricExpirationIndex(MetricId<T> id) {
+        return Observable.just(appliedResultSet);
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    private static class ScanRow {
+        final MetricId<?> metricId;
+        final long timestamp;
+        final long token;
+        final Row row;
+
+        ScanRow(MetricId<?> metricId, long timestamp, long token, Row row) {
+            this.metricId = metricId;
+            this.timestamp = timestamp;
+            this.token = token;
+            this.row = row;
+        }
+    }
+}
@@ -1141,4 +1141,40 @@ Actual:   ${response.data}
     ]))
   }
 
+  @Test
+  void fetchDownsampledRawData() {
+    String tenantId = nextTenantId()
+    DateTime start = DateTime.now().minusHours(2)
+
+    def data = (0..<600).collect { i ->
+      [timestamp: start.plusSeconds(i * 10).millis, value: i == 300 ? 100.0 : (i % 2) as double]
+    }
+    def response = hawkularMetrics.post(path: "gauges/G1/raw", body: data, headers: [(tenantHeaderName): tenantId])
+    assertEquals(200, response.status)
+
+    response = hawkularMetrics.get(path: "gauges/G1/raw", headers: [(tenantHeaderName): tenantId],
+        query: [start: start.millis, end: start.plusSeconds(6000).millis, order: 'asc', points: 50])
+    assertEquals(200, response.status)
+    assertTrue(response.data.size() <= 50)
+    assertEquals(data[0], response.data[0])
+    assertEquals(data[599], response.data[-1])
+    assertTrue(response.data.contains(data[300]))
+
+    response = hawkularMetrics.post(path: "gauges/raw/query", headers: [(tenantHeaderName): tenantId],
+        body: [ids: ['G1'], start: start.millis, end: start.plusSeconds(6000).millis, points: 20,
+               downsample: 'minmax'])
+    assertEquals(200, response.status)
+    assertEquals(1, response.data.size)
+    def downsampled = response.data[0].data
+    assertTrue(downsampled.size() <= 20)
+    assertTrue(downsampled.contains(data[300]))
+    assertEquals(0.0, downsampled.collect { it.value }.min(), 0.0)
+
+    badGet(path: "gauges/G1/raw", headers: [(tenantHeaderName): tenantId], query: [downsample: 'lttb']) {
+      exception -> assertEquals(400, exception.response.status)
+    }
+    badGet(path: "gauges/G1/raw", headers: [(tenantHeaderName): tenantId], query: [points: 1]) {
+      exception -> assertEquals(400, exception.response.status)
+    }
+  }
 }
@@ -435,6 +435,31 @@ class MetricsITest extends RESTTest {
     }
   }
 
+  @Test
+  void fetchStatsWithInvalidTimeRange() {
+    String tenantId = nextTenantId()
+
+    badPost(path: 'metrics/stats/query',
+        headers: [(tenantHeaderName): tenantId],
+        body: [
+            metrics: [gauge: ['G1']],
+            buckets: 1,
+            start: 500,
+            end: 200
+        ]) { exception ->
+      assertEquals(400, exception.response.status)
+    }
+
+    badPost(path: 'metrics/stats/batch/query',
+        headers: [(tenantHeaderName): tenantId],
+        body: [
+            q1: [metrics: [gauge: ['G1']], buckets: 1, start: 200, end: 500],
+            q2: [metrics: [counter: ['C1']], buckets: 1, start: 500, end: 200]
+        ]) { exception ->
+      assertEquals(400, exception.response.status)
+    }
+  }
+
   static def createGauges(String tenantId, List gauges) {
     gauges.each { gauge ->
       def response  = hawkularMetrics.post(